@@ -36,6 +36,9 @@ public class ExpressionParser {
     /** set when parsing a sub-expression (i.e. method arguments) */
     private final boolean parsingSubExpression;
 
+    /** table of shared nodes, null if nodes aren't shared */
+    private final ExpressionTable table;
+
     /** keeps track of the state of this parser */
     private ParserState state;
 
@@ -46,15 +49,24 @@ public class ExpressionParser {
      * Creates an expression parser for the given lexer.
      */
     public ExpressionParser(Lexer lexer) {
-        this(lexer, false);
+        this(lexer, null);
+    }
+
+    /**
+     * Creates an expression parser that shares the nodes of identical
+     * expressions through the given table (see {@link ExpressionTable}).
+     */
+    public ExpressionParser(Lexer lexer, ExpressionTable table) {
+        this(lexer, false, table);
     }
 
     /**
      * Private constructor.
      */
-    private ExpressionParser(Lexer lexer, boolean parsingSubExpression) {
+    private ExpressionParser(Lexer lexer, boolean parsingSubExpression, ExpressionTable table) {
         this.lexer = lexer;
         this.parsingSubExpression = parsingSubExpression;
+        this.table = table;
         if(lexer.currentToken() == null) {
             lexer.nextToken();
         }
@@ -71,7 +83,7 @@ public class ExpressionParser {
             boolean advance = true;
             if(TokenType.LITERAL.isCompatibleWith(lexer.currentToken().getType())) {
                 // push to operand stack
-                handleOperand(new SimpleExpressionAST(lexer.currentToken()));
+                handleOperand(share(new SimpleExpressionAST(lexer.currentToken())));
             } else if(lexer.currentToken().getType() == TokenType.IDENTIFIER) {
                 // push operand in either case (might be a single identifier
                 // but also the start of a function call)
@@ -186,7 +198,7 @@ public class ExpressionParser {
      * Handles an operand: operands are always pushed to
      * the operand stack immediately.
      */
-    private void handleOperand(SimpleExpressionAST expr) {
+    private void handleOperand(ExpressionAST expr) {
         // ensure operands are allowed in the current context
         state.handleOperand();
         operandStack.push(expr);
@@ -213,7 +225,7 @@ public class ExpressionParser {
         } else {
             LinkedList<ExpressionAST> arguments = new LinkedList<ExpressionAST>();
             // parse each of the arguments as its own subexpression
-            ExpressionParser argumentParser = new ExpressionParser(lexer, true);
+            ExpressionParser argumentParser = new ExpressionParser(lexer, true, table);
             while(true) {
                 ExpressionAST argument = argumentParser.handleExpression();
                 arguments.add(argument);
@@ -293,7 +305,7 @@ public class ExpressionParser {
         }
         ExpressionAST rhs = operandStack.pop();
         ExpressionAST lhs = operandStack.pop();
-        operandStack.push(new BinaryExpressionAST(lhs, op.token, rhs));
+        operandStack.push(share(new BinaryExpressionAST(lhs, op.token, rhs)));
     }
 
     /**
@@ -306,7 +318,15 @@ public class ExpressionParser {
             // operator precedence, set value back to MINUS
             op.token.setValue(Value.MINUS);
         }
-        operandStack.push(new UnaryExpressionAST(op.token, expr));
+        operandStack.push(share(new UnaryExpressionAST(op.token, expr)));
+    }
+
+    /**
+     * Returns the shared node for a new expression node
+     * if nodes are shared, otherwise the node itself.
+     */
+    private ExpressionAST share(ExpressionAST expr) {
+        return (table != null ? table.intern(expr) : expr);
     }
 
     /**
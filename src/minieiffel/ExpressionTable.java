@@ -0,0 +1,163 @@
+package minieiffel;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import minieiffel.Source.Position;
+import minieiffel.Token.TokenType;
+import minieiffel.Token.Value;
+import minieiffel.ast.BinaryExpressionAST;
+import minieiffel.ast.ExpressionAST;
+import minieiffel.ast.SimpleExpressionAST;
+import minieiffel.ast.UnaryExpressionAST;
+
+/**
+ * A hash-consing table for expression nodes: structurally identical
+ * expressions parsed with the same table share one node, so they take
+ * the memory of a single tree and can be compared by identity (which
+ * also lets the type inference skip the copies it has already seen).
+ *
+ * <p>Only the expressions whose meaning doesn't depend on where they
+ * are are shared, since the analysis annotates each node with a type
+ * and a nullness: literals, and unary and binary operations (other
+ * than member accesses) whose operands are shared. Identifiers and
+ * method calls are never shared, so neither is any expression that
+ * contains them.</p>
+ *
+ * <p>A shared node has the position of its first occurrence. The
+ * positions of all of its occurrences are kept in the table (see
+ * {@link #getPositions(ExpressionAST)}), and errors found in a shared
+ * expression are reported at its first occurrence.</p>
+ */
+public class ExpressionTable {
+
+    /** the shared nodes by their structure */
+    private Map<Key, ExpressionAST> nodes = new HashMap<Key, ExpressionAST>();
+
+    /** positions of the occurrences of each shared node */
+    private Map<ExpressionAST, List<Position>> positions =
+        new IdentityHashMap<ExpressionAST, List<Position>>();
+
+    /** number of occurrences replaced by shared nodes */
+    private int sharedCount;
+
+    /**
+     * Returns the shared node that is structurally identical to the
+     * given one (whose operands have already been looked up), or the
+     * node itself if it's the first of its kind or can't be shared.
+     */
+    public ExpressionAST intern(ExpressionAST expr) {
+        Key key = keyOf(expr);
+        if(key == null) {
+            return expr;
+        }
+        ExpressionAST shared = nodes.get(key);
+        if(shared == null) {
+            nodes.put(key, expr);
+            List<Position> list = new LinkedList<Position>();
+            list.add(expr.getLocationToken().getPosition());
+            positions.put(expr, list);
+            return expr;
+        }
+        positions.get(shared).add(expr.getLocationToken().getPosition());
+        sharedCount++;
+        return shared;
+    }
+
+    /**
+     * Returns true if the given node is shared by this table.
+     */
+    public boolean isShared(ExpressionAST expr) {
+        return positions.containsKey(expr);
+    }
+
+    /**
+     * Returns the positions of the occurrences of a shared node
+     * in the order they were parsed (empty if it isn't shared).
+     */
+    public List<Position> getPositions(ExpressionAST expr) {
+        List<Position> list = positions.get(expr);
+        if(list == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Returns the number of distinct shared nodes.
+     */
+    public int size() {
+        return nodes.size();
+    }
+
+    /**
+     * Returns the number of occurrences that were replaced
+     * by shared nodes.
+     */
+    public int getSharedCount() {
+        return sharedCount;
+    }
+
+    /* private implementation follows */
+
+    /**
+     * Returns the structure of a node that can be shared, otherwise null.
+     */
+    private Key keyOf(ExpressionAST expr) {
+        Token token = expr.getLocationToken();
+        if(expr instanceof SimpleExpressionAST) {
+            if(!TokenType.LITERAL.isCompatibleWith(token.getType())) {
+                return null;
+            }
+            return new Key(token.getType() + " " + token.getText(), null, null);
+        } else if(expr instanceof UnaryExpressionAST) {
+            ExpressionAST operand = ((UnaryExpressionAST)expr).getExpression();
+            return (isShared(operand) ? new Key(token.getValue(), operand, null) : null);
+        } else if(expr instanceof BinaryExpressionAST) {
+            BinaryExpressionAST binary = (BinaryExpressionAST)expr;
+            if(token.getValue() == Value.DOT ||
+                    !isShared(binary.getLhs()) || !isShared(binary.getRhs())) {
+                return null;
+            }
+            return new Key(token.getValue(), binary.getLhs(), binary.getRhs());
+        }
+        return null;
+    }
+
+    /**
+     * The structure of a node: a literal, or an operator
+     * and the (shared) nodes of its operands.
+     */
+    private static class Key {
+
+        private Object label;
+        private ExpressionAST lhs;
+        private ExpressionAST rhs;
+
+        private Key(Object label, ExpressionAST lhs, ExpressionAST rhs) {
+            this.label = label;
+            this.lhs = lhs;
+            this.rhs = rhs;
+        }
+
+        public boolean equals(Object o) {
+            if(!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key)o;
+            return label.equals(other.label) && lhs == other.lhs && rhs == other.rhs;
+        }
+
+        public int hashCode() {
+            return label.hashCode() * 31 * 31 +
+                   System.identityHashCode(lhs) * 31 +
+                   System.identityHashCode(rhs);
+        }
+
+    }
+
+}
@@ -33,6 +33,9 @@ public class Parser {
     /** source of all our tokens */
     private Lexer lexer;
 
+    /** table of shared expression nodes, null if they aren't shared */
+    private ExpressionTable expressionTable;
+
     /**
      * Creates a parser that retrieves token from the given lexer and
      * reports events to the given semantics module.
@@ -45,6 +48,24 @@ public class Parser {
         lexer.nextToken();
     }
 
+    /**
+     * Sets whether structurally identical expressions share their
+     * nodes (see {@link ExpressionTable}), off by default. Shared
+     * nodes must not be changed in ways that depend on where they
+     * occur.
+     */
+    public void setHashConsing(boolean hashConsing) {
+        expressionTable = (hashConsing ? new ExpressionTable() : null);
+    }
+
+    /**
+     * Returns the table of shared expression nodes,
+     * or null if nodes aren't shared.
+     */
+    public ExpressionTable getExpressionTable() {
+        return expressionTable;
+    }
+
     /**
      * Called when a token has been successfully consumed.
      * Returns the consumed token and advances to the next token.
@@ -274,7 +295,7 @@ public class Parser {
      */
     public ExpressionAST handleExpression() {
         // TODO re-use? (but re-create if errors occur)
-        return new ExpressionParser(lexer).handleExpression();
+        return new ExpressionParser(lexer, expressionTable).handleExpression();
     }
     
     /**
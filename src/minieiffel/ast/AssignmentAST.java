@@ -34,6 +34,10 @@ public class AssignmentAST extends AbstractASTNode implements InstructionAST {
         return expression;
     }
     
+    public void setExpression(ExpressionAST expression) {
+        this.expression = expression;
+    }
+    
     public void accept(ProgramVisitor v) {
         v.visit(this);
     }
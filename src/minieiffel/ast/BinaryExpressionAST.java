@@ -29,6 +29,10 @@ public class BinaryExpressionAST extends ExpressionAST {
     public ExpressionAST getLhs() {
         return lhs;
     }
+    
+    public void setLhs(ExpressionAST lhs) {
+        this.lhs = lhs;
+    }
 
     /**
      * The operator to be applied on the expressions.
@@ -44,12 +48,19 @@ public class BinaryExpressionAST extends ExpressionAST {
         return rhs;
     }
     
+    public void setRhs(ExpressionAST rhs) {
+        this.rhs = rhs;
+    }
+    
     public void accept(ExpressionVisitor v) {
         v.visit(this);
     }
     
     public boolean equals(Object o) {
-        if(o instanceof BinaryExpressionAST) {
+        if(o == this) {
+            // (shared nodes, see minieiffel.ExpressionTable)
+            return true;
+        } else if(o instanceof BinaryExpressionAST) {
             BinaryExpressionAST b = (BinaryExpressionAST)o;
             return this.lhs.equals(b.lhs) &&
                    this.operator.equals(b.operator) &&
@@ -1,5 +1,6 @@
 package minieiffel.ast;
 
+import minieiffel.semantics.Nullness;
 import minieiffel.semantics.Type;
 
 /**
@@ -11,6 +12,13 @@ public abstract class ExpressionAST
     /** the resolved type of this expression */
     protected Type type;
     
+    /** identifies the type inference round that resolved the type,
+     *  see {@link minieiffel.semantics.TypeInference#inferType(ExpressionAST)} */
+    private int inferenceStamp;
+    
+    /** whether the value of this expression can be void */
+    protected Nullness nullness;
+    
     /**
      * Returns the type of this expression.
      */
@@ -22,6 +30,26 @@ public abstract class ExpressionAST
         this.type = type;
     }
 
+    /**
+     * Returns whether the value of this expression can be void
+     * (see {@link minieiffel.semantics.NullnessAnalysis}).
+     */
+    public Nullness getNullness() {
+        return nullness;
+    }
+    
+    public void setNullness(Nullness nullness) {
+        this.nullness = nullness;
+    }
+
+    public int getInferenceStamp() {
+        return inferenceStamp;
+    }
+
+    public void setInferenceStamp(int inferenceStamp) {
+        this.inferenceStamp = inferenceStamp;
+    }
+
     /**
      * Accepts an {@link ExpressionVisitor}, i.e. instructs
      * the visitor to visit this expression.
@@ -1,5 +1,6 @@
 package minieiffel.ast;
 
+import java.util.BitSet;
 import java.util.List;
 
 import minieiffel.semantics.Type;
@@ -21,4 +22,10 @@ public interface FeatureAST extends ASTNode {
      */
     List<Type> getVisibility();
     
+    /**
+     * Returns the visibility of this feature as a set of canonical
+     * type ids (computed after the signatures have been resolved).
+     */
+    BitSet getVisibilitySet();
+    
 }
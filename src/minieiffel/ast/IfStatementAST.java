@@ -24,6 +24,10 @@ public class IfStatementAST extends AbstractASTNode {
         return guard;
     }
     
+    public void setGuard(ExpressionAST guard) {
+        this.guard = guard;
+    }
+    
     public InstructionsAST getThen() {
         return then;
     }
@@ -32,10 +32,18 @@ public class InstructionsAST extends AbstractASTNode {
         return localDecls;
     }
     
+    public void setLocalDecls(List<VariableDeclAST> localDecls) {
+        this.localDecls = localDecls;
+    }
+    
     public List<InstructionAST> getInstructions() {
         return instructions;
     }
     
+    public void setInstructions(List<InstructionAST> instructions) {
+        this.instructions = instructions;
+    }
+    
     public void accept(ProgramVisitor v) {
         v.enteringBlock();
         for (VariableDeclAST var : localDecls) {
@@ -25,6 +25,10 @@ public class IterationAST extends AbstractASTNode implements InstructionAST {
         return from;
     }
 
+    public void setFrom(InstructionsAST from) {
+        this.from = from;
+    }
+
     public InstructionsAST getLoop() {
         return loop;
     }
@@ -33,6 +37,10 @@ public class IterationAST extends AbstractASTNode implements InstructionAST {
         return until;
     }
     
+    public void setUntil(ExpressionAST until) {
+        this.until = until;
+    }
+    
     public void accept(ProgramVisitor v) {
         v.visit(this);
         if(from != null) {
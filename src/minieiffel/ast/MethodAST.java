@@ -1,5 +1,6 @@
 package minieiffel.ast;
 
+import java.util.BitSet;
 import java.util.List;
 
 import minieiffel.Token;
@@ -31,6 +32,9 @@ public class MethodAST extends AbstractASTNode implements FeatureAST {
     /** list of types this method is visible to */
     private List<Type> visibility;
     
+    /** ids of the types this method is visible to */
+    private BitSet visibilitySet;
+    
     public MethodAST(Token name, List<ParamDeclAST> paramDecls, Token returnType, List<VariableDeclAST> localVariableDecls, InstructionsAST instructions) {
         this.name = name;
         this.paramDecls = paramDecls;
@@ -79,6 +83,14 @@ public class MethodAST extends AbstractASTNode implements FeatureAST {
         this.visibility = visibility;
     }
     
+    public BitSet getVisibilitySet() {
+        return visibilitySet;
+    }
+    
+    public void setVisibilitySet(BitSet visibilitySet) {
+        this.visibilitySet = visibilitySet;
+    }
+    
     public void accept(FeatureVisitor v) {
         v.visit(this);
     }
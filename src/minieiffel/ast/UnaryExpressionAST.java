@@ -27,12 +27,19 @@ public class UnaryExpressionAST extends ExpressionAST {
         return expression;
     }
     
+    public void setExpression(ExpressionAST expression) {
+        this.expression = expression;
+    }
+    
     public void accept(ExpressionVisitor v) {
         v.visit(this);
     }
 
     public boolean equals(Object obj) {
-        if(obj instanceof UnaryExpressionAST) {
+        if(obj == this) {
+            // (shared nodes, see minieiffel.ExpressionTable)
+            return true;
+        } else if(obj instanceof UnaryExpressionAST) {
             UnaryExpressionAST u = (UnaryExpressionAST)obj;
             return this.operator.equals(u.operator) &&
                    this.expression.equals(u.expression);
@@ -1,8 +1,10 @@
 package minieiffel.ast;
 
+import java.util.BitSet;
 import java.util.List;
 
 import minieiffel.Token;
+import minieiffel.semantics.Nullness;
 import minieiffel.semantics.Type;
 
 /**
@@ -19,6 +21,13 @@ public class VariableDeclAST extends AbstractASTNode implements FeatureAST {
     /** types for whom this variable is visible
      *  (only applicable for top-level variables) */
     private List<Type> visibility;
+    
+    /** ids of the types this variable is visible to */
+    private BitSet visibilitySet;
+    
+    /** whether the variable can be void at any point
+     *  (only applicable for local variables) */
+    private Nullness nullness;
 
     public VariableDeclAST(Token identifier, Token type, Token value) {
         this.name = identifier;
@@ -58,6 +67,22 @@ public class VariableDeclAST extends AbstractASTNode implements FeatureAST {
         this.visibility = visibility;
     }
     
+    public BitSet getVisibilitySet() {
+        return visibilitySet;
+    }
+    
+    public void setVisibilitySet(BitSet visibilitySet) {
+        this.visibilitySet = visibilitySet;
+    }
+    
+    public Nullness getNullness() {
+        return nullness;
+    }
+    
+    public void setNullness(Nullness nullness) {
+        this.nullness = nullness;
+    }
+    
     public void accept(FeatureVisitor v) {
         v.visit(this);
     }
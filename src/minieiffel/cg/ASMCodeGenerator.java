@@ -1,10 +1,12 @@
 package minieiffel.cg;
 
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 import minieiffel.Token;
 import minieiffel.Token.TokenType;
@@ -16,6 +18,8 @@ import minieiffel.ast.ConditionalAST;
 import minieiffel.ast.ConstructionAST;
 import minieiffel.ast.ExpressionAST;
 import minieiffel.ast.ExpressionVisitor;
+import minieiffel.ast.IfStatementAST;
+import minieiffel.ast.InstructionsAST;
 import minieiffel.ast.InvocationAST;
 import minieiffel.ast.IterationAST;
 import minieiffel.ast.MethodAST;
@@ -25,12 +29,16 @@ import minieiffel.ast.ProgramVisitor;
 import minieiffel.ast.SimpleExpressionAST;
 import minieiffel.ast.UnaryExpressionAST;
 import minieiffel.ast.VariableDeclAST;
+import minieiffel.semantics.Nullness;
+import minieiffel.util.Stack;
 
+import org.objectweb.asm.ClassAdapter;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.MethodNode;
 
 /**
  * Default code generator implementation based on ASM.
@@ -49,10 +57,56 @@ import org.objectweb.asm.Type;
  * in the generated code. This is actually the same way that
  * auto-boxing is handled in Java 5.0.
  * </p>
+ * 
+ * <p>
+ * As allocating an object for each intermediate value is expensive,
+ * the generator can be created in the <em>unboxed</em> mode, in which
+ * the parameters, local variables and return values of the builtin
+ * types are kept as JVM primitives (<code>int</code>,
+ * <code>float</code>, <code>char</code> and <code>boolean</code>)
+ * whenever they can never hold void (see {@link NullableSlots}).
+ * Values are only boxed when they're stored in slots of type
+ * <code>ANY</code> or in slots that may be void, and when they're
+ * compared with objects. Fields, and variables that may be read
+ * before they're assigned, start out void as in the boxed mode, so
+ * the programs work the same in both modes.
+ * </p>
+ * 
+ * <p>In both modes, the values of the builtin types are pushed onto
+ * the operand stack as primitives while evaluating expressions.</p>
+ * 
+ * <p>
+ * By default the generated classes are easy to debug: each statement
+ * starts at a label of its own, local variables are listed in the
+ * local variable table and ASM computes the maximum stack depths. In
+ * the {@link #setReleaseMode(boolean) release mode} the labels and
+ * the local variable table are left out, the stack depths are counted
+ * while the code is generated (see {@link MaxsCounter}) and the classes
+ * are marked as JDK 1.5 classes.
+ * </p>
+ * 
+ * <p>
+ * With the {@link #setPeepholeOptimization(boolean) peephole
+ * optimization} each method is collected into an ASM tree and cleaned
+ * up (see {@link PeepholeOptimizer}) before it is written: the code is
+ * generated a construct at a time, which leaves boxed values that are
+ * unboxed right away, stores followed by loads of the same variable
+ * and jumps to jumps. The number of instructions removed from each
+ * method is available from {@link #getRemovedInstructions()}.
+ * </p>
  */
 public class ASMCodeGenerator implements
     CodeGenerator, ProgramVisitor, Opcodes {
 
+    /** minimum number of branches of a conditional generated as a switch */
+    public static final int MIN_SWITCH_CASES = 3;
+    
+    /** largest constant exponent of a power computed with multiplications */
+    public static final int MAX_MULTIPLIED_POWER = 4;
+    
+    /** name of the helper methods that compute powers */
+    public static final String POWER_HELPER = "$power";
+
     /** map of all generated classes so far */
     private Map<minieiffel.semantics.Type, byte[]> generatedClasses =
         new HashMap<minieiffel.semantics.Type, byte[]>();
@@ -79,6 +133,95 @@ public class ASMCodeGenerator implements
     private Map<String, LocalVariable> localVariables =
         new LinkedHashMap<String, LocalVariable>();
     
+    /** all the local variables of the current method in the order they were added */
+    private List<LocalVariable> methodVariables = new LinkedList<LocalVariable>();
+    
+    /** the local variables of each block being generated, innermost last */
+    private Stack<List<LocalVariable>> blockVariables = new Stack<List<LocalVariable>>();
+    
+    /** whether the values of builtin types are kept unboxed */
+    private boolean unboxedPrimitives;
+    
+    /** the variables that may hold void (only needed in unboxed mode) */
+    private NullableSlots nullableSlots;
+    
+    /** the methods that don't depend on the current object */
+    private StaticMethods staticMethods;
+    
+    /** whether the current class needs the helper for integer (real) powers */
+    private boolean integerPowerUsed;
+    private boolean realPowerUsed;
+    
+    /** all the classes of the program mapped by name */
+    private Map<String, ClassAST> classesByName =
+        new HashMap<String, ClassAST>();
+    
+    /** if true, debugging information is left out */
+    private boolean releaseMode;
+    
+    /** number of blocks that have already been generated but
+     *  that the traversal hasn't entered yet (see {@link #generateBlock}) */
+    private int generatedBlocks;
+    
+    /** if true, the code of each method is cleaned up before it's written */
+    private boolean peepholeOptimization;
+    
+    /** the number of instructions the peephole optimization
+     *  removed from each method, by "Class.method" */
+    private Map<String, Integer> removedInstructions =
+        new LinkedHashMap<String, Integer>();
+    
+    /** nesting depth inside a block that has already been generated */
+    private int skippedDepth;
+    
+    /** the tail calls of the current method to itself, and the
+     *  label they jump to (after the parameters are declared) */
+    private TailCalls tailCalls;
+    private Label methodStart;
+    
+    /**
+     * Creates a code generator that boxes all values of the builtin types.
+     */
+    public ASMCodeGenerator() {
+        this(false);
+    }
+    
+    /**
+     * Creates a code generator.
+     * 
+     * @param unboxedPrimitives if true, values of the builtin types
+     *        are kept as JVM primitives where possible
+     */
+    public ASMCodeGenerator(boolean unboxedPrimitives) {
+        this.unboxedPrimitives = unboxedPrimitives;
+    }
+    
+    /**
+     * Enables or disables the release mode, in which no debugging
+     * information is generated and ASM doesn't need to analyze the
+     * generated code for the maximum stack depths.
+     */
+    public void setReleaseMode(boolean releaseMode) {
+        this.releaseMode = releaseMode;
+    }
+    
+    /**
+     * Enables or disables the peephole optimization of the generated
+     * methods (see {@link PeepholeOptimizer}).
+     */
+    public void setPeepholeOptimization(boolean peepholeOptimization) {
+        this.peepholeOptimization = peepholeOptimization;
+    }
+    
+    /**
+     * Returns the number of instructions the peephole optimization
+     * removed from each of the methods generated so far, by the names
+     * of the class and the method (as in <code>Main.run</code>).
+     */
+    public Map<String, Integer> getRemovedInstructions() {
+        return removedInstructions;
+    }
+    
     /**
      * Generates the bytecode for each of the classes in the
      * given program by visiting them each at a time thru the
@@ -87,6 +230,13 @@ public class ASMCodeGenerator implements
     public Map<minieiffel.semantics.Type, byte[]>
                         generateClasses(ProgramAST program) {
                             
+        for (ClassAST klass : program.getClasses()) {
+            classesByName.put(klass.getName().getText(), klass);
+        }
+        if(unboxedPrimitives) {
+            nullableSlots = new NullableSlots(program);
+        }
+        staticMethods = new StaticMethods(program);
         program.accept(this);
         return generatedClasses;
     }
@@ -98,12 +248,16 @@ public class ASMCodeGenerator implements
         
         currentClass = klass;
         currentType = currentClass.getType();
-        classWriter = new ClassWriter(true);
+        classWriter = new ClassWriter(!releaseMode);
+        integerPowerUsed = false;
+        realPowerUsed = false;
         
-        // generated classes adhere to JDK 1.3 format and are public
+        // generated classes adhere to JDK 1.3 format (1.5 in release
+        // mode, the newest format that needs no stack map frames)
+        // and are public, and final since there's no inheritance
         classWriter.visit(
-                V1_3,
-                ACC_PUBLIC + ACC_SUPER,
+                releaseMode ? V1_5 : V1_3,
+                ACC_PUBLIC + ACC_FINAL + ACC_SUPER,
                 currentType.getName(),
                 null, // signature
                 "java/lang/Object",
@@ -115,26 +269,33 @@ public class ASMCodeGenerator implements
         for (VariableDeclAST field : klass.getSignature().getVariables()) {
             
             int accessFlags = ACC_PUBLIC;
+            Type fieldType = getFieldType(klass, field);
+            Object constantValue = null;
             
             // if field is a constant, declare as 'static final'
             if(field.getConstantValue() != null) {
                 accessFlags += ACC_STATIC + ACC_FINAL;
                 
-                // constant value needs to be set later in
-                // the static initializer block
-                if(constants == null) {
-                    constants = new LinkedList<VariableDeclAST>();
+                if(isPrimitive(fieldType)) {
+                    // primitive constants get their value directly
+                    constantValue = convertLiteralValue(field.getConstantValue());
+                } else {
+                    // constant value needs to be set later in
+                    // the static initializer block
+                    if(constants == null) {
+                        constants = new LinkedList<VariableDeclAST>();
+                    }
+                    constants.add(field);
                 }
-                constants.add(field);
             }
             
             // declare field
             classWriter.visitField(
                     accessFlags,
                     field.getName().getText(),
-                    convertType(field.getType()).toString(),
+                    fieldType.getDescriptor(),
                     null,
-                    null
+                    constantValue
             ).visitEnd();
             
         }
@@ -142,8 +303,7 @@ public class ASMCodeGenerator implements
         // create a static initializer block for any constant values
         if(constants != null) {
             
-            MethodVisitor staticInit =
-                classWriter.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null);
+            MethodVisitor staticInit = visitMethod(ACC_STATIC, "<clinit>", "()V");
             staticInit.visitCode();
 
             for (VariableDeclAST constant : constants) {
@@ -160,9 +320,7 @@ public class ASMCodeGenerator implements
         }
         
         // all generated classes have an empty constructor, create one
-        MethodVisitor mv =
-            classWriter.visitMethod(
-                    ACC_PUBLIC, "<init>", "()V", null, null);
+        MethodVisitor mv = visitMethod(ACC_PUBLIC, "<init>", "()V");
         mv.visitCode();
         // push first local var, i.e. 'this' to stack
         mv.visitVarInsn(ALOAD, 0);
@@ -177,6 +335,12 @@ public class ASMCodeGenerator implements
      * Called when a class has been processed.
      */
     public void leavingClass() {
+        if(integerPowerUsed) {
+            generatePowerHelper(false);
+        }
+        if(realPowerUsed) {
+            generatePowerHelper(true);
+        }
         // close the class
         classWriter.visitEnd();
         // generate and store the bytecode
@@ -184,6 +348,88 @@ public class ASMCodeGenerator implements
         currentType = null;
     }
 
+    /**
+     * Generates the helper method that raises an integer (or real)
+     * base to an integral power, squaring the base for each bit of the
+     * exponent. A negative power of a real is a power of its inverse,
+     * and a negative power of an integer is computed like 1 divided
+     * by the positive power: 0 for bases other than 1 and -1, and a
+     * division by zero for 0.
+     */
+    protected void generatePowerHelper(boolean real) {
+        Type type = (real ? Type.FLOAT_TYPE : Type.INT_TYPE);
+        int base = 0, exponent = 1, result = 2;
+        MethodVisitor mv = visitMethod(
+                ACC_PRIVATE + ACC_STATIC + ACC_SYNTHETIC,
+                POWER_HELPER,
+                real ? "(FI)F" : "(II)I"
+        );
+        mv.visitCode();
+        Label positive = new Label();
+        mv.visitVarInsn(ILOAD, exponent);
+        mv.visitJumpInsn(IFGE, positive);
+        if(real) {
+            // (the exponent is shifted as unsigned below, so the
+            // negation of the smallest integer works as well)
+            mv.visitInsn(FCONST_1);
+            mv.visitVarInsn(FLOAD, base);
+            mv.visitInsn(FDIV);
+            mv.visitVarInsn(FSTORE, base);
+            mv.visitVarInsn(ILOAD, exponent);
+            mv.visitInsn(INEG);
+            mv.visitVarInsn(ISTORE, exponent);
+        } else {
+            // (-1) ^ n is 1 for even n, otherwise the result is 1 / base
+            Label divide = new Label();
+            mv.visitVarInsn(ILOAD, base);
+            mv.visitInsn(ICONST_M1);
+            mv.visitJumpInsn(IF_ICMPNE, divide);
+            mv.visitVarInsn(ILOAD, exponent);
+            mv.visitInsn(ICONST_1);
+            mv.visitInsn(IAND);
+            mv.visitJumpInsn(IFNE, divide);
+            mv.visitInsn(ICONST_1);
+            mv.visitInsn(IRETURN);
+            mv.visitLabel(divide);
+            mv.visitInsn(ICONST_1);
+            mv.visitVarInsn(ILOAD, base);
+            mv.visitInsn(IDIV);
+            mv.visitInsn(IRETURN);
+        }
+        mv.visitLabel(positive);
+        mv.visitInsn(real ? FCONST_1 : ICONST_1);
+        mv.visitVarInsn(type.getOpcode(ISTORE), result);
+        Label loop = new Label();
+        Label end = new Label();
+        Label even = new Label();
+        mv.visitLabel(loop);
+        mv.visitVarInsn(ILOAD, exponent);
+        mv.visitJumpInsn(IFEQ, end);
+        mv.visitVarInsn(ILOAD, exponent);
+        mv.visitInsn(ICONST_1);
+        mv.visitInsn(IAND);
+        mv.visitJumpInsn(IFEQ, even);
+        mv.visitVarInsn(type.getOpcode(ILOAD), result);
+        mv.visitVarInsn(type.getOpcode(ILOAD), base);
+        mv.visitInsn(type.getOpcode(IMUL));
+        mv.visitVarInsn(type.getOpcode(ISTORE), result);
+        mv.visitLabel(even);
+        mv.visitVarInsn(type.getOpcode(ILOAD), base);
+        mv.visitInsn(DUP);
+        mv.visitInsn(type.getOpcode(IMUL));
+        mv.visitVarInsn(type.getOpcode(ISTORE), base);
+        mv.visitVarInsn(ILOAD, exponent);
+        mv.visitInsn(ICONST_1);
+        mv.visitInsn(IUSHR);
+        mv.visitVarInsn(ISTORE, exponent);
+        mv.visitJumpInsn(GOTO, loop);
+        mv.visitLabel(end);
+        mv.visitVarInsn(type.getOpcode(ILOAD), result);
+        mv.visitInsn(type.getOpcode(IRETURN));
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
     /**
      * Generates the method signature bytecode.
      */
@@ -195,44 +441,53 @@ public class ASMCodeGenerator implements
         // get the textual descriptor for this method
         String desc = getMethodDescriptor(method);
         
-        // visit the method's signature
-        methodVisitor = classWriter.visitMethod(
-                ACC_PUBLIC,
+        // visit the method's signature (the method is final,
+        // so each call has exactly one possible target, and
+        // static if it doesn't need the current object)
+        methodVisitor = visitMethod(
+                ACC_PUBLIC + ACC_FINAL + (isStatic(method) ? ACC_STATIC : 0),
                 method.getName().getText(),
-                desc,  // description
-                null,  // signature
-                null   // exceptions
+                desc
         );
         
         // start generating the method's code
         methodVisitor.visitCode();
         
         // declare "this" as the first local variable
-        addLocalVariable(
-                methodVisitor,
-                "this",
-                currentType,
-                null,
-                false
-        );
+        if(!isStatic(method)) {
+            addLocalVariable(
+                    methodVisitor,
+                    "this",
+                    convertType(currentType),
+                    null,
+                    false
+            );
+        }
         
         // declare each parameter as a local variable
-        for (ParamDeclAST param : method.getParamDecls()) {
+        // (their values are passed in by the caller)
+        for (int i = 0; i < method.getParamDecls().size(); i++) {
             addLocalVariable(
                     methodVisitor,
-                    param.getName().getText(),
-                    param.getType(),
+                    method.getParamDecls().get(i).getName().getText(),
+                    getParamType(currentClass, method, i),
                     null,
-                    true
+                    false
             );
         }
+        
+        // tail calls jump here, so that the result and the
+        // local variables are initialized again
+        tailCalls = new TailCalls(currentClass, method);
+        methodStart = new Label();
+        methodVisitor.visitLabel(methodStart);
 
         // add special variable "result" if we have a return type
         if(method.getReturnType() != minieiffel.semantics.Type.VOID) {
             addLocalVariable(
                     methodVisitor,
                     "result",
-                    method.getReturnType(),
+                    getResultType(currentClass, method),
                     null,
                     true
             );
@@ -245,134 +500,448 @@ public class ASMCodeGenerator implements
      */
     public void leavingMethod() {
         
-        Label returnLabel = new Label();
-        methodVisitor.visitLabel(returnLabel);
+        markStatement();
         
         // if return type is not void, return variable "result"
         if(currentMethod.getReturnType() != minieiffel.semantics.Type.VOID) {
+            LocalVariable result = localVariables.get("result");
             methodVisitor.visitVarInsn(
-                    ALOAD,
-                    localVariables.get("result").index
+                    result.type.getOpcode(ILOAD),
+                    result.index
             );
-            methodVisitor.visitInsn(ARETURN);
+            methodVisitor.visitInsn(result.type.getOpcode(IRETURN));
         } else {
             methodVisitor.visitInsn(RETURN);
         }
 
-        // mark end
-        Label endLabel = new Label();
-        methodVisitor.visitLabel(endLabel);
-       
-        // visit each local variable
-        for (Map.Entry<String, LocalVariable> entry : localVariables.entrySet()) {
-            String name = entry.getKey();
-            LocalVariable var = entry.getValue();
-            methodVisitor.visitLocalVariable(
-                    name,
-                    var.type.getDescriptor(),
-                    null,
-                    var.startLabel,
-                    endLabel,
-                    var.index
-            );
+        if(!releaseMode) {
+            // mark end
+            Label endLabel = new Label();
+            methodVisitor.visitLabel(endLabel);
+           
+            // visit each local variable (the ones declared in blocks
+            // end with their blocks, the others with the method)
+            for (LocalVariable var : methodVariables) {
+                methodVisitor.visitLocalVariable(
+                        var.name,
+                        var.type.getDescriptor(),
+                        null,
+                        var.startLabel,
+                        var.endLabel != null ? var.endLabel : endLabel,
+                        var.index
+                );
+            }
         }
         
-        // let ASM calculate max stack depth etc
+        // let ASM (or the MaxsCounter) calculate max stack depth etc
         methodVisitor.visitMaxs(0, 0);
         methodVisitor.visitEnd();
         
         // cleanup
         methodVisitor = null;
         currentMethod = null;
+        tailCalls = null;
+        methodStart = null;
         localVariables.clear();
+        methodVariables.clear();
         
     }
 
+    /**
+     * Starts a block: the local variables declared in the block are
+     * only visible until it ends, so their slots are reused after that
+     * (see {@link #leavingBlock()}).
+     */
     public void enteringBlock() {
-        // TODO Auto-generated method stub
-        
+        if(skippedDepth > 0) {
+            skippedDepth++;
+        } else if(generatedBlocks > 0) {
+            // skip a block that has been generated already
+            generatedBlocks--;
+            skippedDepth = 1;
+        } else {
+            blockVariables.push(new LinkedList<LocalVariable>());
+        }
     }
 
+    /**
+     * Ends a block: its local variables go out of scope, and their
+     * slots are given to the variables declared after the block.
+     * Since a block is always left before its next sibling is entered,
+     * the slots in use at any point are those of the enclosing blocks,
+     * so sibling blocks share the same slots (and may declare variables
+     * with the same names).
+     */
     public void leavingBlock() {
-        // TODO Auto-generated method stub
-        
+        if(skippedDepth > 0) {
+            skippedDepth--;
+            return;
+        }
+        List<LocalVariable> vars = blockVariables.pop();
+        if(vars.isEmpty()) {
+            return;
+        }
+        Label endLabel = null;
+        if(!releaseMode) {
+            endLabel = new Label();
+            methodVisitor.visitLabel(endLabel);
+        }
+        for (LocalVariable var : vars) {
+            var.endLabel = endLabel;
+            localVariables.remove(var.name);
+        }
+        localVarIndex = vars.get(0).index;
     }
 
     /**
      * Called for each local variable inside a method's body.
      */
     public void visit(VariableDeclAST var) {
-        addLocalVariable(
+        if(skippedDepth > 0) {
+            return;
+        }
+        LocalVariable local = addLocalVariable(
                 methodVisitor,
                 var.getName().getText(),
-                var.getType(),
+                getLocalType(var.getName().getText(), var.getType()),
                 var.getConstantValue(),
                 true
         );
+        if(!blockVariables.isEmpty()) {
+            blockVariables.peek().add(local);
+        }
     }
 
     public void visit(AssignmentAST assignment) {
+        if(skippedDepth > 0) {
+            return;
+        }
+        if(tailCalls.getTailCall(assignment) != null) {
+            generateTailCall(tailCalls.getTailCall(assignment));
+            return;
+        }
         String variableName = assignment.getIdentifier().getText();
-        methodVisitor.visitLabel(new Label());
+        ExpressionCodeGenerator generator = new ExpressionCodeGenerator();
+        markStatement();
         if(localVariables.containsKey(variableName)) {
             // store to a local variable
-            methodVisitor.visitInsn(ACONST_NULL);
+            LocalVariable var = localVariables.get(variableName);
+            generator.pushValue(assignment.getExpression(), var.type);
             methodVisitor.visitVarInsn(
-                    ASTORE,
-                    localVariables.get(variableName).index
+                    var.type.getOpcode(ISTORE),
+                    var.index
             );
         } else {
             // store to a member field
             VariableDeclAST field = findField(variableName);
+            Type fieldType = getFieldType(currentClass, field);
             methodVisitor.visitVarInsn(ALOAD, 0);
-            methodVisitor.visitInsn(ACONST_NULL);
+            generator.pushValue(assignment.getExpression(), fieldType);
             methodVisitor.visitFieldInsn(
                     PUTFIELD,
                     currentType.getName(),
                     variableName,
-                    convertType(field.getType()).getDescriptor()
+                    fieldType.getDescriptor()
             );
         }
     }
 
+    /**
+     * Generates a conditional, evaluating the guards in order and
+     * jumping past each branch whose guard doesn't hold. Branches
+     * with a literal guard are resolved here: a <code>false</code>
+     * branch is left out, and a <code>true</code> one is generated
+     * without a test and ends the conditional.
+     */
     public void visit(ConditionalAST conditional) {
-        // TODO Auto-generated method stub
+        if(skippedDepth > 0) {
+            return;
+        }
+        
+        List<IfStatementAST> branches = new LinkedList<IfStatementAST>();
+        branches.add(conditional.getIfStatement());
+        branches.addAll(conditional.getElseIfStatements());
+        InstructionsAST elseStatement = conditional.getElseStatement();
         
+        if(generateSwitch(branches, elseStatement)) {
+            countBlocks(branches, elseStatement);
+            return;
+        }
+        
+        Label endLabel = new Label();
+        boolean elseReached = true;
+        for (Iterator<IfStatementAST> i = branches.iterator(); i.hasNext(); ) {
+            IfStatementAST branch = i.next();
+            ExpressionAST guard = branch.getGuard();
+            if(isBooleanLiteral(guard)) {
+                if(Boolean.valueOf(guard.getLocationToken().getText())) {
+                    generateBlock(branch.getThen());
+                    elseReached = false;
+                    break;
+                }
+                continue;
+            }
+            // the last branch falls thru to the end
+            boolean last = !i.hasNext() && elseStatement == null;
+            Label nextLabel = (last ? endLabel : new Label());
+            markStatement();
+            new ExpressionCodeGenerator().jump(guard, false, nextLabel);
+            generateBlock(branch.getThen());
+            if(!last) {
+                methodVisitor.visitJumpInsn(GOTO, endLabel);
+                methodVisitor.visitLabel(nextLabel);
+            }
+        }
+        if(elseReached) {
+            generateBlock(elseStatement);
+        }
+        methodVisitor.visitLabel(endLabel);
+        countBlocks(branches, elseStatement);
+    }
+    
+    /**
+     * Skips the blocks of a conditional (which have been generated
+     * already) when the traversal goes thru them next.
+     */
+    private void countBlocks(List<IfStatementAST> branches, InstructionsAST elseStatement) {
+        for (IfStatementAST branch : branches) {
+            if(branch.getThen() != null) {
+                generatedBlocks++;
+            }
+        }
+        if(elseStatement != null) {
+            generatedBlocks++;
+        }
+    }
+    
+    /**
+     * Generates a conditional whose guards all compare the same
+     * INTEGER or CHARACTER variable with distinct constants (e.g.
+     * <code>if x = 1 then ... elseif x = 2 then ...</code>) as a
+     * single switch: a TABLESWITCH if the constants cover at least
+     * half of their range, a LOOKUPSWITCH otherwise. Returns false
+     * (and generates nothing) if the conditional isn't such a chain
+     * or has less than {@link #MIN_SWITCH_CASES} branches.
+     */
+    private boolean generateSwitch(List<IfStatementAST> branches, InstructionsAST elseStatement) {
+        if(branches.size() < MIN_SWITCH_CASES) {
+            return false;
+        }
+        ExpressionAST selector = null;
+        TreeMap<Integer, Label> cases = new TreeMap<Integer, Label>();
+        List<Label> branchLabels = new LinkedList<Label>();
+        for (IfStatementAST branch : branches) {
+            if(!(branch.getGuard() instanceof BinaryExpressionAST)) {
+                return false;
+            }
+            BinaryExpressionAST guard = (BinaryExpressionAST)branch.getGuard();
+            if(guard.getOperator().getValue() != Value.EQUALITY) {
+                return false;
+            }
+            ExpressionAST variable = guard.getLhs();
+            Integer key = getSwitchKey(guard.getRhs(), variable);
+            if(key == null) {
+                variable = guard.getRhs();
+                key = getSwitchKey(guard.getLhs(), variable);
+            }
+            if(key == null || cases.containsKey(key) || (selector != null &&
+                    !selector.getLocationToken().getText().equals(
+                            variable.getLocationToken().getText()))) {
+                return false;
+            }
+            selector = variable;
+            Label label = new Label();
+            cases.put(key, label);
+            branchLabels.add(label);
+        }
+        
+        Label endLabel = new Label();
+        Label defaultLabel = (elseStatement == null ? endLabel : new Label());
+        markStatement();
+        selector.accept(new ExpressionCodeGenerator());
+        int min = cases.firstKey();
+        int max = cases.lastKey();
+        if((long)max - min + 1 <= 2L * cases.size()) {
+            Label[] labels = new Label[max - min + 1];
+            for (int i = 0; i < labels.length; i++) {
+                Label label = cases.get(min + i);
+                labels[i] = (label == null ? defaultLabel : label);
+            }
+            methodVisitor.visitTableSwitchInsn(min, max, defaultLabel, labels);
+        } else {
+            int[] keys = new int[cases.size()];
+            int i = 0;
+            for (Integer key : cases.keySet()) {
+                keys[i++] = key;
+            }
+            methodVisitor.visitLookupSwitchInsn(
+                    defaultLabel, keys, cases.values().toArray(new Label[cases.size()])
+            );
+        }
+        
+        // the branches in their original order, the last one
+        // falls thru to the end if there's no else part
+        Iterator<Label> labels = branchLabels.iterator();
+        for (Iterator<IfStatementAST> i = branches.iterator(); i.hasNext(); ) {
+            IfStatementAST branch = i.next();
+            methodVisitor.visitLabel(labels.next());
+            generateBlock(branch.getThen());
+            if(i.hasNext() || elseStatement != null) {
+                methodVisitor.visitJumpInsn(GOTO, endLabel);
+            }
+        }
+        if(elseStatement != null) {
+            methodVisitor.visitLabel(defaultLabel);
+            generateBlock(elseStatement);
+        }
+        methodVisitor.visitLabel(endLabel);
+        return true;
+    }
+    
+    /**
+     * Returns the value of a constant compared with the given variable
+     * in the guard of a switch, or null if the comparison can't be
+     * part of a switch. The variable must be an INTEGER or CHARACTER
+     * variable, and the constant a literal or a constant field of the
+     * same type.
+     */
+    private Integer getSwitchKey(ExpressionAST constant, ExpressionAST variable) {
+        if(!(variable instanceof SimpleExpressionAST) ||
+                variable.getLocationToken().getType() != TokenType.IDENTIFIER ||
+                (variable.getType() != minieiffel.semantics.Type.INTEGER &&
+                 variable.getType() != minieiffel.semantics.Type.CHARACTER) ||
+                getConstantValue(variable) != null) {
+            return null;
+        }
+        Token value = getConstantValue(constant);
+        if(value == null || variable.getType().getLiteralType() != value.getType()) {
+            return null;
+        }
+        Object key = convertLiteralValue(value);
+        return (key instanceof Character ? (int)((Character)key).charValue() : (Integer)key);
     }
 
+    /**
+     * Generates the construction of an object: a new instance of the
+     * variable's class is created with the empty constructor and
+     * stored to the variable.
+     */
     public void visit(ConstructionAST construction) {
-        // TODO Auto-generated method stub
-        
+        if(skippedDepth > 0) {
+            return;
+        }
+        if(construction.getType().isPrimitive()) {
+            throw new RuntimeException("Can't construct " + construction.getType());
+        }
+        String variableName = construction.getIdentifier().getText();
+        String className = convertType(construction.getType()).getInternalName();
+        markStatement();
+        LocalVariable var = localVariables.get(variableName);
+        if(var == null) {
+            // stored to a member field
+            methodVisitor.visitVarInsn(ALOAD, 0);
+        }
+        methodVisitor.visitTypeInsn(NEW, className);
+        methodVisitor.visitInsn(DUP);
+        methodVisitor.visitMethodInsn(INVOKESPECIAL, className, "<init>", "()V");
+        if(var != null) {
+            methodVisitor.visitVarInsn(ASTORE, var.index);
+        } else {
+            methodVisitor.visitFieldInsn(
+                    PUTFIELD,
+                    currentType.getName(),
+                    variableName,
+                    getFieldType(currentClass, findField(variableName)).getDescriptor()
+            );
+        }
     }
 
+    /**
+     * Generates a loop in the inverted form, with the test of the
+     * <code>until</code> condition after the body: the code jumps
+     * from the <code>from</code> part to the test once, and the test
+     * jumps back to the start of the body as long as the condition
+     * doesn't hold. Thus each round runs a single (backward) jump.
+     * A literal condition isn't tested at all.
+     */
     public void visit(IterationAST iteration) {
-        // TODO Auto-generated method stub
+        if(skippedDepth > 0) {
+            return;
+        }
+        
+        generateBlock(iteration.getFrom());
         
+        ExpressionAST until = iteration.getUntil();
+        Label bodyLabel = new Label();
+        if(!isBooleanLiteral(until)) {
+            Label testLabel = new Label();
+            methodVisitor.visitJumpInsn(GOTO, testLabel);
+            methodVisitor.visitLabel(bodyLabel);
+            generateBlock(iteration.getLoop());
+            methodVisitor.visitLabel(testLabel);
+            markStatement();
+            new ExpressionCodeGenerator().jump(until, false, bodyLabel);
+        } else if(!Boolean.valueOf(until.getLocationToken().getText())) {
+            // a loop that never ends
+            methodVisitor.visitLabel(bodyLabel);
+            generateBlock(iteration.getLoop());
+            methodVisitor.visitJumpInsn(GOTO, bodyLabel);
+        }
+        
+        // the traversal goes thru the blocks of the loop next
+        if(iteration.getFrom() != null) {
+            generatedBlocks++;
+        }
+        if(iteration.getLoop() != null) {
+            generatedBlocks++;
+        }
     }
     
     public void visit(ExpressionAST expr) {
-        if(expr.getType() == minieiffel.semantics.Type.VOID) {
-            //throw new RuntimeException("Void not impl");
-        } else if (expr.getType().isPrimitive()) {
-            // primitive result, push new object for result
-            Type type = convertType(expr.getType());
-            Type primitiveType = getPrimitiveType(type.getClassName());
-            methodVisitor.visitLabel(new Label());
-            methodVisitor.visitTypeInsn(NEW, type.getInternalName());
-            expr.accept(new ExpressionCodeGenerator());
-            methodVisitor.visitMethodInsn(
-                    INVOKESPECIAL,
-                    type.getInternalName(),
-                    "<init>",
-                    "(" + primitiveType.getDescriptor() + ")V"
+        if(skippedDepth > 0) {
+            return;
+        }
+        if(tailCalls.getTailCall(expr) != null) {
+            generateTailCall(tailCalls.getTailCall(expr));
+            return;
+        }
+        // evaluate the expression (a call) and discard its result
+        markStatement();
+        expr.accept(new ExpressionCodeGenerator());
+        if(expr.getType() != minieiffel.semantics.Type.VOID) {
+            methodVisitor.visitInsn(POP);
+        }
+    }
+    
+    /**
+     * Generates a tail call of the current method to itself: the
+     * arguments are evaluated and stored to the parameters, and
+     * the code jumps back to the start of the method.
+     */
+    protected void generateTailCall(InvocationAST call) {
+        markStatement();
+        ExpressionCodeGenerator generator = new ExpressionCodeGenerator();
+        List<ExpressionAST> args = call.getArguments();
+        for (int i = 0; i < args.size(); i++) {
+            generator.pushValue(args.get(i), getParamType(currentClass, currentMethod, i));
+        }
+        // (in reverse order, the last argument is on the top of the stack)
+        for (int i = args.size() - 1; i >= 0; i--) {
+            LocalVariable param = localVariables.get(
+                    currentMethod.getParamDecls().get(i).getName().getText()
             );
-        } else {
-            //expr.accept(new ExpressionCodeGenerator());
+            methodVisitor.visitVarInsn(param.type.getOpcode(ISTORE), param.index);
         }
+        methodVisitor.visitJumpInsn(GOTO, methodStart);
     }
     
     /* ExpressionVisitor implementation */
     
+    /**
+     * Generates the code that evaluates an expression and leaves
+     * its value on the operand stack (values of the builtin types
+     * as primitives, others as object references).
+     */
     private final class ExpressionCodeGenerator implements ExpressionVisitor {
         
         public void visit(SimpleExpressionAST expr) {
@@ -380,26 +949,9 @@ public class ASMCodeGenerator implements
                 Object value = convertLiteralValue(expr.getLocationToken());
                 methodVisitor.visitLdcInsn(value);
             } else if(expr.getLocationToken().getType() == TokenType.IDENTIFIER) {
-                if(expr.getType().isPrimitive()) {
-                    LocalVariable var =
-                        localVariables.get(expr.getLocationToken().getText());
-                    Type type = convertType(expr.getType());
-                    if(var != null) {
-                        // push local var to stack
-                        methodVisitor.visitVarInsn(ALOAD, var.index);
-                    } else {
-                        // read member field
-                        methodVisitor.visitVarInsn(ALOAD, 0);
-                        methodVisitor.visitFieldInsn(
-                                GETFIELD,
-                                currentType.getName(),
-                                expr.getLocationToken().getText(),
-                                type.getDescriptor()
-                        );
-                    }
-                    getPrimitiveValue(type);
-                } else {
-                    throw new RuntimeException("Not impl: non-primitvei: " + expr);
+                Type slotType = loadVariable(expr.getLocationToken().getText());
+                if(expr.getType().isPrimitive() && !isPrimitive(slotType)) {
+                    getPrimitiveValue(slotType);
                 }
             } else {
                 throw new RuntimeException("Unknown token type");
@@ -407,19 +959,76 @@ public class ASMCodeGenerator implements
         }
         
         public void visit(UnaryExpressionAST expr) {
-            throw new RuntimeException("Notimpl");
+            expr.getExpression().accept(this);
+            if(expr.getOperator().getValue() == Value.NOT) {
+                methodVisitor.visitInsn(ICONST_1);
+                methodVisitor.visitInsn(IXOR);
+            } else if(expr.getType() == minieiffel.semantics.Type.REAL) {
+                methodVisitor.visitInsn(FNEG);
+            } else {
+                methodVisitor.visitInsn(INEG);
+            }
         }
 
         public void visit(BinaryExpressionAST expr) {
 
-            if(expr.getOperator().getValue() == Value.EQUALITY
-                    || expr.getOperator().getValue() == Value.INEQUALITY) {
+            Value op = expr.getOperator().getValue();
+            
+            if(op == Value.DOT) {
+                
+                visitDot(expr, true);
+                
+            } else if(op == Value.EQUALITY || op == Value.INEQUALITY) {
+                
+                if(isNumeric(expr.getLhs()) && isNumeric(expr.getRhs()) ||
+                        isBoolean(expr.getLhs()) && isBoolean(expr.getRhs())) {
+                    // compare the primitive values directly
+                    compare(expr);
+                    return;
+                }
                 
                 // (in)equality is defined for all objects (primitives included)
-                // simply using Object.equals(obj)
+                // simply using Object.equals(obj), comparisons with void
+                // are done with null checks
+                
+                Nullness lhs = getNullness(expr.getLhs());
+                Nullness rhs = getNullness(expr.getRhs());
+                
+                if(lhs != Nullness.MAYBE_VOID && rhs != Nullness.MAYBE_VOID &&
+                        (lhs == Nullness.ALWAYS_VOID || rhs == Nullness.ALWAYS_VOID) &&
+                        expr.getLhs() instanceof SimpleExpressionAST &&
+                        expr.getRhs() instanceof SimpleExpressionAST) {
+                    // the result is known, and the operands have no side effects
+                    boolean equal = (lhs == rhs);
+                    methodVisitor.visitInsn(
+                            equal == (op == Value.EQUALITY) ? ICONST_1 : ICONST_0
+                    );
+                    return;
+                }
+                
+                if(lhs == Nullness.ALWAYS_VOID) {
+                    pushObject(expr.getRhs());
+                    testNull(op == Value.EQUALITY ? IFNULL : IFNONNULL);
+                    return;
+                } else if(rhs == Nullness.ALWAYS_VOID) {
+                    pushObject(expr.getLhs());
+                    testNull(op == Value.EQUALITY ? IFNULL : IFNONNULL);
+                    return;
+                }
 
-                wrapPrimitive(expr.getLhs());
-                wrapPrimitive(expr.getRhs());
+                pushObject(expr.getLhs());
+                pushObject(expr.getRhs());
+                
+                Label endLabel = new Label();
+                Label voidLabel = new Label();
+                if(lhs != Nullness.NEVER_VOID) {
+                    // the lhs may be void: then the result
+                    // depends on whether the rhs is void too
+                    methodVisitor.visitInsn(SWAP);
+                    methodVisitor.visitInsn(DUP);
+                    methodVisitor.visitJumpInsn(IFNULL, voidLabel);
+                    methodVisitor.visitInsn(SWAP);
+                }
                 
                 methodVisitor.visitMethodInsn(
                         INVOKEVIRTUAL,
@@ -428,17 +1037,60 @@ public class ASMCodeGenerator implements
                         "(Ljava/lang/Object;)Z"
                 );
                 
+                if(op == Value.INEQUALITY) {
+                    methodVisitor.visitInsn(ICONST_1);
+                    methodVisitor.visitInsn(IXOR);
+                }
+                
+                if(lhs != Nullness.NEVER_VOID) {
+                    methodVisitor.visitJumpInsn(GOTO, endLabel);
+                    methodVisitor.visitLabel(voidLabel);
+                    methodVisitor.visitInsn(POP);
+                    testNull(op == Value.EQUALITY ? IFNULL : IFNONNULL);
+                    methodVisitor.visitLabel(endLabel);
+                }
+                
+            } else if(expr.getType() == minieiffel.semantics.Type.BOOLEAN) {
+                
+                switch(op) {
+                case LESS:
+                case LESS_OR_EQUAL:
+                case GREATER:
+                case GREATER_OR_EQUAL:
+                    compare(expr); break;
+                case AND:
+                    visitOperands(expr, false);
+                    methodVisitor.visitInsn(IAND); break;
+                case OR:
+                    visitOperands(expr, false);
+                    methodVisitor.visitInsn(IOR); break;
+                case XOR:
+                    visitOperands(expr, false);
+                    methodVisitor.visitInsn(IXOR); break;
+                case AND_THEN:
+                    shortCircuit(expr, IFEQ); break;
+                case OR_ELSE:
+                    shortCircuit(expr, IFNE); break;
+                default:
+                    throw new RuntimeException("Not impl: " + expr.getOperator());
+                }
+                
+            } else if(op == Value.POWER) {
+                
+                power(expr);
+                
+            } else if(expr.getType() == minieiffel.semantics.Type.INTEGER && shift(expr)) {
+                
+                // (multiplied or divided by a power of two)
+                
             } else if(expr.getType().isPrimitive()) {
                 
                 boolean isReal = (expr.getType() == minieiffel.semantics.Type.REAL);
                 
-                expr.getLhs().accept(this);
-                if(isReal) convertToRealIfNecessary(expr.getLhs());
-                expr.getRhs().accept(this);
-                if(isReal) convertToRealIfNecessary(expr.getRhs());
+                visitOperands(expr, isReal);
 
                 if(expr.getType() == minieiffel.semantics.Type.INTEGER) {
-                    switch(expr.getOperator().getValue()) {
+                    switch(op) {
                     case PLUS:
                         methodVisitor.visitInsn(IADD); break;
                     case MULTIPLY:
@@ -453,7 +1105,7 @@ public class ASMCodeGenerator implements
                         throw new RuntimeException("Not impl: " + expr.getOperator());
                     }
                 } else if(isReal) {
-                    switch(expr.getOperator().getValue()) {
+                    switch(op) {
                     case PLUS:
                         methodVisitor.visitInsn(FADD); break;
                     case MULTIPLY:
@@ -465,15 +1117,6 @@ public class ASMCodeGenerator implements
                     default:
                         throw new RuntimeException("Not impl: " + expr.getOperator());
                     }
-                } else if(expr.getType() == minieiffel.semantics.Type.BOOLEAN) {
-                    switch(expr.getOperator().getValue()) {
-                    case LESS:
-                    case LESS_OR_EQUAL:
-                    case GREATER:
-                    case GREATER_OR_EQUAL:
-                    case AND:
-                    case OR:
-                    }
                 } else {
                     throw new RuntimeException("Not impl: " + expr.getType());
                 }
@@ -482,18 +1125,89 @@ public class ASMCodeGenerator implements
             }
         }
         
+        /**
+         * Generates a call of a method of the current object.
+         */
         public void visit(InvocationAST expr) {
-            throw new RuntimeException("Notimpl");
+            visitCall(expr, true);
         }
         
-        private void convertToRealIfNecessary(ExpressionAST expr) {
-            if(expr.getType() != minieiffel.semantics.Type.REAL) {
-                methodVisitor.visitInsn(I2F);
+        /**
+         * Generates the call, leaving a boxed result boxed
+         * unless it's to be unboxed.
+         * 
+         * @param unbox whether a boxed result of a built-in type is unboxed
+         */
+        private void visitCall(InvocationAST expr, boolean unbox) {
+            MethodAST method = findMethod(currentClass, expr);
+            if(!isStatic(method)) {
+                methodVisitor.visitVarInsn(ALOAD, 0);
             }
+            invoke(currentClass, method, expr, unbox && expr.getType().isPrimitive());
         }
         
-        private void wrapPrimitive(ExpressionAST expr) {
-            if(expr.getType().isPrimitive()) {
+        /**
+         * Generates a call with the target object on the stack (unless
+         * the method is static). Since all the classes and methods are
+         * final, the call is bound to the one method that matches it.
+         * 
+         * @param unbox whether a boxed result is unboxed (for a call
+         *        whose value is of a built-in type)
+         */
+        private void invoke(ClassAST owner, MethodAST method,
+                InvocationAST expr, boolean unbox) {
+            List<ExpressionAST> args = expr.getArguments();
+            for (int i = 0; i < args.size(); i++) {
+                pushValue(args.get(i), getParamType(owner, method, i));
+            }
+            methodVisitor.visitMethodInsn(
+                    isStatic(method) ? INVOKESTATIC : INVOKEVIRTUAL,
+                    owner.getName().getText(),
+                    method.getName().getText(),
+                    getMethodDescriptor(owner, method)
+            );
+            Type resultType = getResultType(owner, method);
+            if(unbox && !isPrimitive(resultType)) {
+                getPrimitiveValue(resultType);
+            }
+        }
+        
+        /**
+         * Evaluates an expression so that its value can be stored
+         * to a slot of the given type, boxing it if necessary.
+         */
+        private void pushValue(ExpressionAST expr, Type slotType) {
+            if(isPrimitive(slotType)) {
+                expr.accept(this);
+            } else {
+                pushObject(expr);
+            }
+        }
+        
+        /**
+         * Evaluates an expression and leaves its value as an object
+         * on the stack. Values of variables, fields and calls that are
+         * already boxed are pushed as such (so they may be void), other
+         * primitive values are boxed.
+         */
+        private void pushObject(ExpressionAST expr) {
+            Type fieldType = getAccessedFieldType(expr);
+            Type resultType = getCalledResultType(expr);
+            if(!expr.getType().isPrimitive()) {
+                expr.accept(this);
+            } else if(expr instanceof SimpleExpressionAST &&
+                    expr.getLocationToken().getType() == TokenType.IDENTIFIER &&
+                    !isPrimitive(findVariableType(expr.getLocationToken().getText()))) {
+                loadVariable(expr.getLocationToken().getText());
+            } else if(fieldType != null && !isPrimitive(fieldType)) {
+                loadField((BinaryExpressionAST)expr);
+            } else if(resultType != null && !isPrimitive(resultType)) {
+                if(expr instanceof InvocationAST) {
+                    visitCall((InvocationAST)expr, false);
+                } else {
+                    visitDot((BinaryExpressionAST)expr, false);
+                }
+            } else {
                 Type type = convertType(expr.getType());
                 Type primitiveType = getPrimitiveType(type.getClassName());
                 methodVisitor.visitTypeInsn(NEW, type.getInternalName());
@@ -505,29 +1219,547 @@ public class ASMCodeGenerator implements
                         "<init>",
                         "(" + primitiveType.getDescriptor() + ")V"
                 );
+            }
+        }
+        
+        /**
+         * Pushes the values of both operands, converting
+         * them to reals if necessary.
+         */
+        private void visitOperands(BinaryExpressionAST expr, boolean toReal) {
+            expr.getLhs().accept(this);
+            if(toReal) convertToRealIfNecessary(expr.getLhs());
+            expr.getRhs().accept(this);
+            if(toReal) convertToRealIfNecessary(expr.getRhs());
+        }
+        
+        /**
+         * Generates a numerical (or boolean) comparison,
+         * leaving 1 (true) or 0 (false) on the stack.
+         */
+        private void compare(BinaryExpressionAST expr) {
+            Label falseLabel = new Label();
+            Label endLabel = new Label();
+            compare(expr, false, falseLabel);
+            methodVisitor.visitInsn(ICONST_1);
+            methodVisitor.visitJumpInsn(GOTO, endLabel);
+            methodVisitor.visitLabel(falseLabel);
+            methodVisitor.visitInsn(ICONST_0);
+            methodVisitor.visitLabel(endLabel);
+        }
+        
+        /**
+         * Generates a numerical (or boolean) comparison that jumps to
+         * the target if its result is the given one.
+         */
+        private void compare(BinaryExpressionAST expr, boolean when, Label target) {
+            Value op = expr.getOperator().getValue();
+            boolean isReal =
+                expr.getLhs().getType() == minieiffel.semantics.Type.REAL ||
+                expr.getRhs().getType() == minieiffel.semantics.Type.REAL;
+            visitOperands(expr, isReal);
+            // the jump taken when the comparison holds
+            int jump;
+            switch(op) {
+            case EQUALITY:
+                jump = IFEQ; break;
+            case INEQUALITY:
+                jump = IFNE; break;
+            case LESS:
+                jump = IFLT; break;
+            case LESS_OR_EQUAL:
+                jump = IFLE; break;
+            case GREATER:
+                jump = IFGT; break;
+            case GREATER_OR_EQUAL:
+                jump = IFGE; break;
+            default:
+                throw new RuntimeException("Not a comparison: " + expr.getOperator());
+            }
+            if(!when) {
+                jump = negate(jump);
+            }
+            if(isReal) {
+                // NaN makes all the comparisons (but inequality) fail
+                methodVisitor.visitInsn(
+                        op == Value.LESS || op == Value.LESS_OR_EQUAL ? FCMPG : FCMPL
+                );
             } else {
-                expr.accept(this);
+                jump += IF_ICMPEQ - IFEQ;
+            }
+            methodVisitor.visitJumpInsn(jump, target);
+        }
+        
+        /**
+         * Generates a condition that jumps to the target if its value
+         * is the given one and falls thru otherwise, so that no boolean
+         * value is pushed. Comparisons jump directly, and the operands
+         * of "not", "and then" and "or else" become jumps themselves.
+         */
+        void jump(ExpressionAST condition, boolean when, Label target) {
+            if(isBooleanLiteral(condition)) {
+                if(Boolean.valueOf(condition.getLocationToken().getText()) == when) {
+                    methodVisitor.visitJumpInsn(GOTO, target);
+                }
+                return;
+            } else if(condition instanceof UnaryExpressionAST &&
+                    ((UnaryExpressionAST)condition).getOperator().getValue() == Value.NOT) {
+                jump(((UnaryExpressionAST)condition).getExpression(), !when, target);
+                return;
+            } else if(condition instanceof BinaryExpressionAST) {
+                BinaryExpressionAST expr = (BinaryExpressionAST)condition;
+                Value op = expr.getOperator().getValue();
+                if(op == Value.AND_THEN || op == Value.OR_ELSE) {
+                    // the lhs decides the result if it's false ("and then")
+                    // or true ("or else")
+                    boolean decides = (op == Value.OR_ELSE);
+                    if(when == decides) {
+                        jump(expr.getLhs(), decides, target);
+                        jump(expr.getRhs(), decides, target);
+                    } else {
+                        Label endLabel = new Label();
+                        jump(expr.getLhs(), decides, endLabel);
+                        jump(expr.getRhs(), when, target);
+                        methodVisitor.visitLabel(endLabel);
+                    }
+                    return;
+                } else if(op == Value.LESS || op == Value.LESS_OR_EQUAL ||
+                        op == Value.GREATER || op == Value.GREATER_OR_EQUAL) {
+                    compare(expr, when, target);
+                    return;
+                } else if(op == Value.EQUALITY || op == Value.INEQUALITY) {
+                    if(isNumeric(expr.getLhs()) && isNumeric(expr.getRhs()) ||
+                            isBoolean(expr.getLhs()) && isBoolean(expr.getRhs())) {
+                        compare(expr, when, target);
+                        return;
+                    }
+                    Nullness lhs = getNullness(expr.getLhs());
+                    Nullness rhs = getNullness(expr.getRhs());
+                    if(lhs == Nullness.ALWAYS_VOID ^ rhs == Nullness.ALWAYS_VOID) {
+                        // a null check, the result may be known already
+                        // (in which case the code below pushes it)
+                        ExpressionAST other =
+                            (lhs == Nullness.ALWAYS_VOID ? expr.getRhs() : expr.getLhs());
+                        if(getNullness(other) == Nullness.MAYBE_VOID ||
+                                !(other instanceof SimpleExpressionAST)) {
+                            pushObject(other);
+                            methodVisitor.visitJumpInsn(
+                                    (op == Value.EQUALITY) == when ? IFNULL : IFNONNULL,
+                                    target
+                            );
+                            return;
+                        }
+                    }
+                }
+            }
+            condition.accept(this);
+            methodVisitor.visitJumpInsn(when ? IFNE : IFEQ, target);
+        }
+        
+        /**
+         * Pops an object and pushes 1 (true) if the given
+         * jump (IFNULL or IFNONNULL) is taken, 0 otherwise.
+         */
+        private void testNull(int jump) {
+            Label trueLabel = new Label();
+            Label endLabel = new Label();
+            methodVisitor.visitJumpInsn(jump, trueLabel);
+            methodVisitor.visitInsn(ICONST_0);
+            methodVisitor.visitJumpInsn(GOTO, endLabel);
+            methodVisitor.visitLabel(trueLabel);
+            methodVisitor.visitInsn(ICONST_1);
+            methodVisitor.visitLabel(endLabel);
+        }
+        
+        /**
+         * Generates an integer multiplication, division or remainder
+         * by a constant power of two 2^n (1 &lt;= n &lt;= 30) with shifts,
+         * returns false if the expression isn't one. Since the sign of
+         * the other operand isn't known, negative dividends are biased
+         * by 2^n - 1 first so that the results are rounded towards zero
+         * like the ones of IDIV and IREM: the bias is the sign bits of
+         * the dividend shifted right by 32 - n.
+         */
+        private boolean shift(BinaryExpressionAST expr) {
+            Value op = expr.getOperator().getValue();
+            ExpressionAST operand = expr.getLhs();
+            int n = getShiftDistance(expr.getRhs());
+            if(n == 0 && op == Value.MULTIPLY) {
+                operand = expr.getRhs();
+                n = getShiftDistance(expr.getLhs());
+            }
+            if(n == 0 || (op != Value.MULTIPLY && op != Value.DIVIDE && op != Value.REMAINDER)) {
+                return false;
+            }
+            operand.accept(this);
+            if(op == Value.MULTIPLY) {
+                methodVisitor.visitLdcInsn(n);
+                methodVisitor.visitInsn(ISHL);
+                return true;
+            }
+            // bias = (x >> 31) >>> (32 - n)
+            methodVisitor.visitInsn(DUP);
+            methodVisitor.visitLdcInsn(31);
+            methodVisitor.visitInsn(ISHR);
+            methodVisitor.visitLdcInsn(32 - n);
+            methodVisitor.visitInsn(IUSHR);
+            if(op == Value.DIVIDE) {
+                // (x + bias) >> n
+                methodVisitor.visitInsn(IADD);
+                methodVisitor.visitLdcInsn(n);
+                methodVisitor.visitInsn(ISHR);
+            } else {
+                // ((x + bias) & (2^n - 1)) - bias
+                methodVisitor.visitInsn(DUP_X1);
+                methodVisitor.visitInsn(IADD);
+                methodVisitor.visitLdcInsn((1 << n) - 1);
+                methodVisitor.visitInsn(IAND);
+                methodVisitor.visitInsn(SWAP);
+                methodVisitor.visitInsn(ISUB);
+            }
+            return true;
+        }
+        
+        /**
+         * Returns n if the expression is the constant 2^n (1 &lt;= n &lt;= 30),
+         * otherwise 0.
+         */
+        private int getShiftDistance(ExpressionAST expr) {
+            Token value = getConstantValue(expr);
+            if(value == null || value.getType() != TokenType.INT_LITERAL) {
+                return 0;
+            }
+            int constant;
+            try {
+                constant = Integer.parseInt(value.getText());
+            } catch(NumberFormatException e) {
+                return 0;
+            }
+            if(constant < 2 || Integer.bitCount(constant) != 1) {
+                return 0;
+            }
+            return Integer.numberOfTrailingZeros(constant);
+        }
+        
+        /**
+         * Generates a power "a ^ b". A constant exponent from 0 to
+         * {@link #MAX_MULTIPLIED_POWER} is computed with multiplications
+         * of the duplicated base, other integral exponents (including
+         * negative constants) with a helper
+         * method of the class that squares the base (see
+         * {@link ASMCodeGenerator#generatePowerHelper(boolean)}), and real
+         * exponents with Math.pow.
+         */
+        private void power(BinaryExpressionAST expr) {
+            boolean isReal = (expr.getType() == minieiffel.semantics.Type.REAL);
+            Token exponent = getConstantValue(expr.getRhs());
+            expr.getLhs().accept(this);
+            if(isReal) convertToRealIfNecessary(expr.getLhs());
+            int constant = getMultipliedPower(exponent);
+            if(constant >= 0) {
+                int mul = (isReal ? FMUL : IMUL);
+                switch(constant) {
+                case 0:
+                    methodVisitor.visitInsn(POP);
+                    methodVisitor.visitInsn(isReal ? FCONST_1 : ICONST_1);
+                    break;
+                case 1:
+                    // the base itself
+                    break;
+                case 2:
+                    methodVisitor.visitInsn(DUP);
+                    methodVisitor.visitInsn(mul);
+                    break;
+                case 3:
+                    methodVisitor.visitInsn(DUP);
+                    methodVisitor.visitInsn(DUP);
+                    methodVisitor.visitInsn(mul);
+                    methodVisitor.visitInsn(mul);
+                    break;
+                case 4:
+                    methodVisitor.visitInsn(DUP);
+                    methodVisitor.visitInsn(mul);
+                    methodVisitor.visitInsn(DUP);
+                    methodVisitor.visitInsn(mul);
+                    break;
+                }
+            } else if(expr.getRhs().getType() != minieiffel.semantics.Type.REAL) {
+                expr.getRhs().accept(this);
+                methodVisitor.visitMethodInsn(
+                        INVOKESTATIC,
+                        currentType.getName(),
+                        POWER_HELPER,
+                        isReal ? "(FI)F" : "(II)I"
+                );
+                if(isReal) {
+                    realPowerUsed = true;
+                } else {
+                    integerPowerUsed = true;
+                }
+            } else {
+                methodVisitor.visitInsn(F2D);
+                expr.getRhs().accept(this);
+                methodVisitor.visitInsn(F2D);
+                methodVisitor.visitMethodInsn(INVOKESTATIC, "java/lang/Math", "pow", "(DD)D");
+                methodVisitor.visitInsn(D2F);
             }
         }
+        
+        /**
+         * Returns the value of a constant exponent from 0 to
+         * {@link #MAX_MULTIPLIED_POWER}, or -1 if the exponent is
+         * something else (including a literal too big for an int).
+         */
+        private int getMultipliedPower(Token exponent) {
+            if(exponent == null || exponent.getType() != TokenType.INT_LITERAL) {
+                return -1;
+            }
+            try {
+                int constant = Integer.parseInt(exponent.getText());
+                return (constant >= 0 && constant <= MAX_MULTIPLIED_POWER ? constant : -1);
+            } catch(NumberFormatException e) {
+                return -1;
+            }
+        }
+        
+        /**
+         * Generates "and then" (jump = IFEQ) or "or else" (jump = IFNE),
+         * the right-hand side is only evaluated if necessary.
+         */
+        private void shortCircuit(BinaryExpressionAST expr, int jump) {
+            Label endLabel = new Label();
+            expr.getLhs().accept(this);
+            methodVisitor.visitInsn(DUP);
+            methodVisitor.visitJumpInsn(jump, endLabel);
+            methodVisitor.visitInsn(POP);
+            expr.getRhs().accept(this);
+            methodVisitor.visitLabel(endLabel);
+        }
+        
+        /**
+         * Generates a field access or a call on another object, e.g.
+         * "a.b" or "a.b(c)". Fields are read directly.
+         * 
+         * @param unbox whether a boxed result of a call is unboxed
+         */
+        private void visitDot(BinaryExpressionAST expr, boolean unbox) {
+            ClassAST owner = classesByName.get(expr.getLhs().getType().getName());
+            if(expr.getRhs() instanceof InvocationAST) {
+                InvocationAST call = (InvocationAST)expr.getRhs();
+                MethodAST method = findMethod(owner, call);
+                if(!isStatic(method)) {
+                    expr.getLhs().accept(this);
+                } else if(getNullness(expr.getLhs()) != Nullness.NEVER_VOID ||
+                        !(expr.getLhs() instanceof SimpleExpressionAST)) {
+                    // the target isn't needed, but the call
+                    // must still fail if it's void
+                    expr.getLhs().accept(this);
+                    methodVisitor.visitMethodInsn(
+                            INVOKEVIRTUAL, "java/lang/Object", "getClass", "()Ljava/lang/Class;"
+                    );
+                    methodVisitor.visitInsn(POP);
+                }
+                invoke(owner, method, call, unbox && expr.getType().isPrimitive());
+                return;
+            }
+            Type fieldType = loadField(expr);
+            if(expr.getType().isPrimitive() && !isPrimitive(fieldType)) {
+                getPrimitiveValue(fieldType);
+            }
+        }
+        
+        /**
+         * Returns the type a method called with "m(...)" or "a.m(...)"
+         * returns its value as, or null if the expression isn't a call.
+         */
+        private Type getCalledResultType(ExpressionAST expr) {
+            if(expr instanceof InvocationAST) {
+                return getResultType(currentClass, findMethod(currentClass, (InvocationAST)expr));
+            } else if(expr instanceof BinaryExpressionAST &&
+                    ((BinaryExpressionAST)expr).getOperator().getValue() == Value.DOT &&
+                    ((BinaryExpressionAST)expr).getRhs() instanceof InvocationAST) {
+                BinaryExpressionAST dot = (BinaryExpressionAST)expr;
+                ClassAST owner = classesByName.get(dot.getLhs().getType().getName());
+                return getResultType(owner, findMethod(owner, (InvocationAST)dot.getRhs()));
+            }
+            return null;
+        }
+        
+        /**
+         * Returns the type a field read with "a.b" is stored as,
+         * or null if the expression isn't such a field access.
+         */
+        private Type getAccessedFieldType(ExpressionAST expr) {
+            if(!(expr instanceof BinaryExpressionAST) ||
+                    ((BinaryExpressionAST)expr).getOperator().getValue() != Value.DOT ||
+                    !(((BinaryExpressionAST)expr).getRhs() instanceof SimpleExpressionAST)) {
+                return null;
+            }
+            BinaryExpressionAST dot = (BinaryExpressionAST)expr;
+            ClassAST owner = classesByName.get(dot.getLhs().getType().getName());
+            return getFieldType(owner, findField(owner, dot.getRhs().getLocationToken().getText()));
+        }
+        
+        /**
+         * Pushes the value of the field read with "a.b" as it's
+         * stored (without unboxing it) and returns its type.
+         */
+        private Type loadField(BinaryExpressionAST expr) {
+            ClassAST owner = classesByName.get(expr.getLhs().getType().getName());
+            VariableDeclAST field = findField(owner, expr.getRhs().getLocationToken().getText());
+            Type fieldType = getFieldType(owner, field);
+            expr.getLhs().accept(this);
+            if(field.getConstantValue() != null) {
+                methodVisitor.visitInsn(POP);
+                methodVisitor.visitFieldInsn(
+                        GETSTATIC,
+                        owner.getName().getText(),
+                        field.getName().getText(),
+                        fieldType.getDescriptor()
+                );
+            } else {
+                methodVisitor.visitFieldInsn(
+                        GETFIELD,
+                        owner.getName().getText(),
+                        field.getName().getText(),
+                        fieldType.getDescriptor()
+                );
+            }
+            return fieldType;
+        }
+        
+        private void convertToRealIfNecessary(ExpressionAST expr) {
+            if(expr.getType() != minieiffel.semantics.Type.REAL) {
+                methodVisitor.visitInsn(I2F);
+            }
+        }
+        
+        private boolean isNumeric(ExpressionAST expr) {
+            return expr.getType() == minieiffel.semantics.Type.INTEGER ||
+                   expr.getType() == minieiffel.semantics.Type.REAL ||
+                   expr.getType() == minieiffel.semantics.Type.CHARACTER;
+        }
+        
+        private boolean isBoolean(ExpressionAST expr) {
+            return expr.getType() == minieiffel.semantics.Type.BOOLEAN;
+        }
 
     }
 
     /* protected implementation */
     
+    /**
+     * Starts generating a method of the current class.
+     */
+    protected MethodVisitor visitMethod(int access, final String name, String desc) {
+        if(!peepholeOptimization) {
+            return writeMethod(access, name, desc);
+        }
+        // collect the code, and write it once it has been cleaned up
+        final String className = currentType.getName();
+        return new MethodNode(access, name, desc, null, null) {
+            public void visitEnd() {
+                removedInstructions.put(
+                        className + "." + name,
+                        new PeepholeOptimizer(this).optimize()
+                );
+                accept(new ClassAdapter(classWriter) {
+                    public MethodVisitor visitMethod(int access, String name,
+                            String desc, String signature, String[] exceptions) {
+                        return writeMethod(access, name, desc);
+                    }
+                });
+            }
+        };
+    }
+    
+    /**
+     * Starts writing a method of the current class to the class writer.
+     */
+    protected MethodVisitor writeMethod(int access, String name, String desc) {
+        MethodVisitor visitor = classWriter.visitMethod(access, name, desc, null, null);
+        return releaseMode ? new MaxsCounter(visitor, access, desc) : visitor;
+    }
+    
+    /**
+     * Generates the code of a nested block (can be null) out of the
+     * order of the traversal. Once generated, the block must be skipped
+     * when the traversal reaches it, which is up to the caller.
+     */
+    protected void generateBlock(InstructionsAST block) {
+        if(block != null) {
+            block.accept(this);
+        }
+    }
+    
+    /**
+     * Returns true if the expression is a boolean literal.
+     */
+    protected static boolean isBooleanLiteral(ExpressionAST expr) {
+        return expr instanceof SimpleExpressionAST &&
+               expr.getLocationToken().getType() == TokenType.BOOLEAN_LITERAL;
+    }
+    
+    /**
+     * Returns the literal value of an expression that is a literal
+     * or a constant field of the current class, otherwise null.
+     */
+    protected Token getConstantValue(ExpressionAST expr) {
+        if(!(expr instanceof SimpleExpressionAST)) {
+            return null;
+        }
+        Token token = expr.getLocationToken();
+        if(TokenType.LITERAL.isCompatibleWith(token.getType())) {
+            return token;
+        } else if(token.getType() != TokenType.IDENTIFIER ||
+                localVariables.containsKey(token.getText())) {
+            return null;
+        }
+        for (VariableDeclAST field : currentClass.getSignature().getVariables()) {
+            if(field.getName().getText().equals(token.getText())) {
+                return field.getConstantValue();
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Returns the conditional jump that is taken exactly when the
+     * given one isn't (e.g. IFGE for IFLT).
+     */
+    protected static int negate(int jump) {
+        if(jump == IFNULL || jump == IFNONNULL) {
+            return (jump == IFNULL ? IFNONNULL : IFNULL);
+        }
+        // the opcodes from IFEQ to IF_ACMPNE come in opposite pairs
+        return ((jump - IFEQ) ^ 1) + IFEQ;
+    }
+    
+    /**
+     * Marks the start of a statement with a label
+     * (for debugging, so not in release mode).
+     */
+    protected void markStatement() {
+        if(!releaseMode) {
+            methodVisitor.visitLabel(new Label());
+        }
+    }
+    
     /**
      * Adds a local variable to the current method.
      * 
      * @param name of the variable
-     * @param astType (Mini-Eiffel) type of the variable
+     * @param type JVM type of the variable
      * @param literalValue of the variable (can be null)
-     * @param initializeAsNull if true, set value to null
+     * @param initialize if true, set value to null (or zero
+     *        for unboxed values)
      * @return LocalVariable object containing the variable's information
      */
     protected LocalVariable addLocalVariable(
             MethodVisitor visitor, String name,
-            minieiffel.semantics.Type astType,
+            Type type,
             Token literalValue,
-            boolean initializeAsNull)
+            boolean initialize)
     {
         
         if(localVariables.containsKey(name)) {
@@ -537,21 +1769,31 @@ public class ASMCodeGenerator implements
             );
         }
         
-        Label label = new Label();
-        visitor.visitLabel(label);
+        Label label = null;
+        if(!releaseMode) {
+            label = new Label();
+            visitor.visitLabel(label);
+        }
         LocalVariable var = new LocalVariable(
                 name,
-                convertType(astType),
+                type,
                 label,
                 localVarIndex
         );
         localVariables.put(name, var);
+        methodVariables.add(var);
         
         if(literalValue != null) {
-            setValueOfLocalVariable(visitor, localVarIndex, literalValue);
-        } else if(initializeAsNull) {
-            methodVisitor.visitInsn(ACONST_NULL);
-            methodVisitor.visitVarInsn(ASTORE, localVarIndex);
+            setValueOfLocalVariable(visitor, var, literalValue);
+        } else if(initialize) {
+            if(!isPrimitive(type)) {
+                visitor.visitInsn(ACONST_NULL);
+            } else if(type.equals(Type.FLOAT_TYPE)) {
+                visitor.visitInsn(FCONST_0);
+            } else {
+                visitor.visitInsn(ICONST_0);
+            }
+            visitor.visitVarInsn(type.getOpcode(ISTORE), localVarIndex);
         }
         
         localVarIndex++;
@@ -578,10 +1820,14 @@ public class ASMCodeGenerator implements
      * Sets the given literal as the value of the specified local variable.
      */
     protected void setValueOfLocalVariable(
-            MethodVisitor visitor, int varIndex, Token literal) {
+            MethodVisitor visitor, LocalVariable var, Token literal) {
         
-        createLiteralValue(visitor, literal);
-        visitor.visitVarInsn(ASTORE, varIndex);
+        if(isPrimitive(var.type)) {
+            visitor.visitLdcInsn(convertLiteralValue(literal));
+        } else {
+            createLiteralValue(visitor, literal);
+        }
+        visitor.visitVarInsn(var.type.getOpcode(ISTORE), var.index);
     }
     
     /**
@@ -618,17 +1864,153 @@ public class ASMCodeGenerator implements
      * Returns the method descriptor for the given Mini-Eiffel method.
      */
     protected String getMethodDescriptor(MethodAST method) {
+        return getMethodDescriptor(currentClass, method);
+    }
+    
+    /**
+     * Returns the method descriptor for the given
+     * Mini-Eiffel method in the given class.
+     */
+    protected String getMethodDescriptor(ClassAST owner, MethodAST method) {
         Type[] argumentTypes = new Type[method.getParamDecls().size()];
-        int i = 0;
-        for (ParamDeclAST arg : method.getParamDecls()) {
-            argumentTypes[i++] = convertType(arg.getType());
+        for (int i = 0; i < argumentTypes.length; i++) {
+            argumentTypes[i] = getParamType(owner, method, i);
         }
         return Type.getMethodDescriptor(
-                convertType(method.getReturnType()),
+                getResultType(owner, method),
                 argumentTypes
         );
     }
     
+    /**
+     * Returns the JVM type of a slot (a field, parameter, local
+     * variable or return value) of the given Mini-Eiffel type:
+     * a primitive type in the unboxed mode if the slot can never
+     * hold void, the result of {@link #convertType} otherwise.
+     */
+    protected Type getSlotType(minieiffel.semantics.Type type, boolean nullable) {
+        if(unboxedPrimitives && !nullable && type.isPrimitive() &&
+                type != minieiffel.semantics.Type.VOID) {
+            return getPrimitiveType(convertType(type).getClassName());
+        }
+        return convertType(type);
+    }
+    
+    /**
+     * Returns the JVM type of a field (constants are never void).
+     */
+    protected Type getFieldType(ClassAST owner, VariableDeclAST field) {
+        return getSlotType(
+                field.getType(),
+                field.getConstantValue() == null && (nullableSlots == null ||
+                nullableSlots.isNullableField(owner, field.getName().getText()))
+        );
+    }
+    
+    /**
+     * Returns the JVM type of the parameter with the given index.
+     */
+    protected Type getParamType(ClassAST owner, MethodAST method, int index) {
+        return getSlotType(
+                method.getParamDecls().get(index).getType(),
+                nullableSlots == null ||
+                nullableSlots.isNullableParam(owner, method, index)
+        );
+    }
+    
+    /**
+     * Returns the JVM return type of a method.
+     */
+    protected Type getResultType(ClassAST owner, MethodAST method) {
+        return getSlotType(
+                method.getReturnType(),
+                nullableSlots == null ||
+                nullableSlots.isNullableResult(owner, method)
+        );
+    }
+    
+    /**
+     * Returns the JVM type of a local variable of the current method.
+     */
+    protected Type getLocalType(String name, minieiffel.semantics.Type type) {
+        return getSlotType(
+                type,
+                nullableSlots == null ||
+                nullableSlots.isNullableLocal(currentClass, currentMethod, name)
+        );
+    }
+    
+    /**
+     * Returns true if the given JVM type is a primitive one.
+     */
+    protected static boolean isPrimitive(Type type) {
+        return type.getSort() != Type.OBJECT && type.getSort() != Type.ARRAY;
+    }
+    
+    /**
+     * Pushes the value of the variable with the given name onto the
+     * stack as it's stored (without unboxing it) and returns its JVM type.
+     * The special variables "current" and "void" are handled as well.
+     */
+    protected Type loadVariable(String name) {
+        if("current".equals(name)) {
+            methodVisitor.visitVarInsn(ALOAD, 0);
+            return convertType(currentType);
+        } else if("void".equals(name)) {
+            methodVisitor.visitInsn(ACONST_NULL);
+            return convertType(minieiffel.semantics.Type.ANY);
+        }
+        LocalVariable var = localVariables.get(name);
+        if(var != null) {
+            // push local var to stack
+            methodVisitor.visitVarInsn(var.type.getOpcode(ILOAD), var.index);
+            return var.type;
+        }
+        // read member field
+        VariableDeclAST field = findField(name);
+        Type type = getFieldType(currentClass, field);
+        if(field.getConstantValue() != null) {
+            methodVisitor.visitFieldInsn(
+                    GETSTATIC,
+                    currentType.getName(),
+                    name,
+                    type.getDescriptor()
+            );
+        } else {
+            methodVisitor.visitVarInsn(ALOAD, 0);
+            methodVisitor.visitFieldInsn(
+                    GETFIELD,
+                    currentType.getName(),
+                    name,
+                    type.getDescriptor()
+            );
+        }
+        return type;
+    }
+    
+    /**
+     * Returns the JVM type of the variable with the given name
+     * (as it would be pushed by {@link #loadVariable(String)}).
+     */
+    protected Type findVariableType(String name) {
+        if("current".equals(name)) {
+            return convertType(currentType);
+        } else if("void".equals(name)) {
+            return convertType(minieiffel.semantics.Type.ANY);
+        } else if(localVariables.containsKey(name)) {
+            return localVariables.get(name).type;
+        }
+        return getFieldType(currentClass, findField(name));
+    }
+    
+    /**
+     * Returns the nullness of an expression (MAYBE_VOID if
+     * the nullness analysis hasn't been run).
+     */
+    protected static Nullness getNullness(ExpressionAST expr) {
+        return expr.getNullness() == null ? Nullness.MAYBE_VOID : expr.getNullness();
+    }
+    
     /**
      * Converts a Mini-Eiffel type to an ASM type.
      */
@@ -715,13 +2097,60 @@ public class ASMCodeGenerator implements
         
     }
     
+    /**
+     * Returns true if the given method is generated as a static method.
+     */
+    protected boolean isStatic(MethodAST method) {
+        return staticMethods != null && staticMethods.isStatic(method);
+    }
+    
+    /**
+     * Finds the method of the given class that a call (without
+     * its target object) calls.
+     */
+    protected MethodAST findMethod(ClassAST owner, InvocationAST call) {
+        for (MethodAST method : owner.getSignature().getMethods()) {
+            if(isCallOf(call, method)) {
+                return method;
+            }
+        }
+        // this shouldn't happen since semantic analysis
+        // has already been done
+        throw new RuntimeException("No such method: " + call);
+    }
+    
+    /**
+     * Returns true if the name and the argument types of
+     * a call match the given method.
+     */
+    protected static boolean isCallOf(InvocationAST call, MethodAST method) {
+        if(!method.getName().getText().equals(call.getIdentifier().getText()) ||
+                method.getParamDecls().size() != call.getArguments().size()) {
+            return false;
+        }
+        Iterator<ExpressionAST> args = call.getArguments().iterator();
+        for (ParamDeclAST param : method.getParamDecls()) {
+            if(!args.next().getType().isCompatibleWith(param.getType())) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
     /**
      * Finds the field (i.e. the member variable) of the current
      * class with the given name.
      */
     protected VariableDeclAST findField(String name) {
+        return findField(currentClass, name);
+    }
+    
+    /**
+     * Finds the field of the given class with the given name.
+     */
+    protected VariableDeclAST findField(ClassAST owner, String name) {
         for (VariableDeclAST var :
-                currentClass.getSignature().getVariables()) {
+                owner.getSignature().getVariables()) {
             if(var.getName().getText().equals(name)) {
                 return var;
             }
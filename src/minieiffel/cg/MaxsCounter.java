@@ -0,0 +1,241 @@
+package minieiffel.cg;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodAdapter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * Counts the maximum operand stack depth and the number of local
+ * variables of a method while its code is being generated, and passes
+ * them on in {@link #visitMaxs(int, int)} (the values given by the
+ * caller are ignored).
+ *
+ * <p>The stack depth is followed instruction by instruction in the
+ * order the code is generated. The depth at the target of each jump
+ * is remembered, so that it can be restored when the code after an
+ * unconditional jump continues at a label. This works for code in which
+ * every label is reached with the same stack depth (as the JVM requires)
+ * and which is generated so that jump targets are either reached by
+ * falling thru or by a jump generated before them (backward jumps
+ * to the start of a loop are fine). Unlike ASM's own computation, no
+ * control flow graph is built, so this is a single linear pass.</p>
+ */
+class MaxsCounter extends MethodAdapter implements Opcodes {
+
+    /** current stack depth (-1 when the current code is unreachable) */
+    private int depth;
+
+    private int maxStack;
+
+    private int maxLocals;
+
+    /** stack depths at the labels jumped to so far */
+    private Map<Label, Integer> labelDepths = new HashMap<Label, Integer>();
+
+    /**
+     * @param mv the visitor to pass the code on to
+     * @param access access flags of the method
+     * @param desc descriptor of the method (for counting the parameters)
+     */
+    MaxsCounter(MethodVisitor mv, int access, String desc) {
+        super(mv);
+        maxLocals = ((access & ACC_STATIC) == 0 ? 1 : 0);
+        for (Type arg : Type.getArgumentTypes(desc)) {
+            maxLocals += arg.getSize();
+        }
+    }
+
+    public void visitInsn(int opcode) {
+        super.visitInsn(opcode);
+        switch(opcode) {
+        case ACONST_NULL: case ICONST_M1: case ICONST_0: case ICONST_1:
+        case ICONST_2: case ICONST_3: case ICONST_4: case ICONST_5:
+        case FCONST_0: case FCONST_1: case FCONST_2:
+        case DUP: case DUP_X1: case DUP_X2:
+            push(1); break;
+        case LCONST_0: case LCONST_1: case DCONST_0: case DCONST_1:
+        case DUP2: case DUP2_X1: case DUP2_X2:
+            push(2); break;
+        case NOP: case SWAP: case INEG: case FNEG: case LNEG: case DNEG:
+        case I2F: case F2I: case L2D: case D2L: case I2B: case I2C: case I2S:
+        case ARRAYLENGTH:
+            break;
+        case I2L: case I2D: case F2L: case F2D:
+            push(1); break;
+        case L2I: case L2F: case D2I: case D2F:
+        case POP: case IADD: case ISUB: case IMUL: case IDIV: case IREM:
+        case IAND: case IOR: case IXOR: case ISHL: case ISHR: case IUSHR:
+        case FADD: case FSUB: case FMUL: case FDIV: case FREM:
+        case FCMPL: case FCMPG:
+        case IALOAD: case FALOAD: case AALOAD: case BALOAD: case CALOAD: case SALOAD:
+        case LSHL: case LSHR: case LUSHR:
+        case MONITORENTER: case MONITOREXIT:
+            push(-1); break;
+        case POP2: case LADD: case LSUB: case LMUL: case LDIV: case LREM:
+        case LAND: case LOR: case LXOR:
+        case DADD: case DSUB: case DMUL: case DDIV: case DREM:
+            push(-2); break;
+        case LALOAD: case DALOAD:
+            break;
+        case LCMP: case DCMPL: case DCMPG:
+            push(-3); break;
+        case IASTORE: case FASTORE: case AASTORE:
+        case BASTORE: case CASTORE: case SASTORE:
+            push(-3); break;
+        case LASTORE: case DASTORE:
+            push(-4); break;
+        case IRETURN: case FRETURN: case ARETURN: case LRETURN: case DRETURN:
+        case RETURN: case ATHROW:
+            depth = -1; break;
+        default:
+            throw new IllegalArgumentException("Unknown opcode " + opcode);
+        }
+    }
+
+    public void visitIntInsn(int opcode, int operand) {
+        super.visitIntInsn(opcode, operand);
+        if(opcode != NEWARRAY) {
+            push(1);
+        }
+    }
+
+    public void visitVarInsn(int opcode, int var) {
+        super.visitVarInsn(opcode, var);
+        int size = (opcode == LLOAD || opcode == DLOAD ||
+                opcode == LSTORE || opcode == DSTORE ? 2 : 1);
+        maxLocals = Math.max(maxLocals, var + size);
+        if(opcode >= ILOAD && opcode <= ALOAD) {
+            push(size);
+        } else if(opcode != RET) {
+            push(-size);
+        }
+    }
+
+    public void visitTypeInsn(int opcode, String desc) {
+        super.visitTypeInsn(opcode, desc);
+        if(opcode == NEW) {
+            push(1);
+        }
+    }
+
+    public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+        super.visitFieldInsn(opcode, owner, name, desc);
+        int size = Type.getType(desc).getSize();
+        switch(opcode) {
+        case GETSTATIC:
+            push(size); break;
+        case PUTSTATIC:
+            push(-size); break;
+        case GETFIELD:
+            push(size - 1); break;
+        default:
+            push(-size - 1);
+        }
+    }
+
+    public void visitMethodInsn(int opcode, String owner, String name, String desc) {
+        super.visitMethodInsn(opcode, owner, name, desc);
+        Type returnType = Type.getReturnType(desc);
+        // (ASM gives void the size 1)
+        int size = (returnType == Type.VOID_TYPE ? 0 : returnType.getSize());
+        for (Type arg : Type.getArgumentTypes(desc)) {
+            size -= arg.getSize();
+        }
+        push(opcode == INVOKESTATIC ? size : size - 1);
+    }
+
+    public void visitJumpInsn(int opcode, Label label) {
+        super.visitJumpInsn(opcode, label);
+        if(opcode == GOTO) {
+            jumpTo(label);
+            depth = -1;
+        } else if(opcode == JSR) {
+            push(1);
+            jumpTo(label);
+            push(-1);
+        } else {
+            if(opcode >= IF_ICMPEQ && opcode <= IF_ACMPNE) {
+                push(-2);
+            } else {
+                push(-1);
+            }
+            jumpTo(label);
+        }
+    }
+
+    public void visitLabel(Label label) {
+        super.visitLabel(label);
+        Integer known = labelDepths.get(label);
+        if(depth < 0) {
+            depth = (known == null ? 0 : known);
+        } else if(known == null) {
+            labelDepths.put(label, depth);
+        }
+    }
+
+    public void visitLdcInsn(Object cst) {
+        super.visitLdcInsn(cst);
+        push(cst instanceof Long || cst instanceof Double ? 2 : 1);
+    }
+
+    public void visitIincInsn(int var, int increment) {
+        super.visitIincInsn(var, increment);
+        maxLocals = Math.max(maxLocals, var + 1);
+    }
+
+    public void visitTableSwitchInsn(int min, int max, Label dflt, Label[] labels) {
+        super.visitTableSwitchInsn(min, max, dflt, labels);
+        switchTo(dflt, labels);
+    }
+
+    public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+        super.visitLookupSwitchInsn(dflt, keys, labels);
+        switchTo(dflt, labels);
+    }
+
+    public void visitMultiANewArrayInsn(String desc, int dims) {
+        super.visitMultiANewArrayInsn(desc, dims);
+        push(1 - dims);
+    }
+
+    public void visitTryCatchBlock(Label start, Label end, Label handler, String type) {
+        super.visitTryCatchBlock(start, end, handler, type);
+        // the handler starts with the exception on the stack
+        labelDepths.put(handler, 1);
+        maxStack = Math.max(maxStack, 1);
+    }
+
+    public void visitMaxs(int maxStack, int maxLocals) {
+        super.visitMaxs(this.maxStack, this.maxLocals);
+    }
+
+    private void push(int count) {
+        if(depth < 0) {
+            // unreachable code (not at a label), starts with an empty stack
+            depth = 0;
+        }
+        depth += count;
+        maxStack = Math.max(maxStack, depth);
+    }
+
+    private void jumpTo(Label label) {
+        if(!labelDepths.containsKey(label)) {
+            labelDepths.put(label, depth);
+        }
+    }
+
+    private void switchTo(Label dflt, Label[] labels) {
+        push(-1);
+        jumpTo(dflt);
+        for (Label label : labels) {
+            jumpTo(label);
+        }
+        depth = -1;
+    }
+
+}
@@ -0,0 +1,384 @@
+package minieiffel.cg;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import minieiffel.Token.TokenType;
+import minieiffel.Token.Value;
+import minieiffel.ast.AssignmentAST;
+import minieiffel.ast.BinaryExpressionAST;
+import minieiffel.ast.ClassAST;
+import minieiffel.ast.ConditionalAST;
+import minieiffel.ast.ConstructionAST;
+import minieiffel.ast.ExpressionAST;
+import minieiffel.ast.FeatureAST;
+import minieiffel.ast.FeatureBlockAST;
+import minieiffel.ast.IfStatementAST;
+import minieiffel.ast.InstructionAST;
+import minieiffel.ast.InstructionsAST;
+import minieiffel.ast.InvocationAST;
+import minieiffel.ast.IterationAST;
+import minieiffel.ast.MethodAST;
+import minieiffel.ast.ParamDeclAST;
+import minieiffel.ast.ProgramAST;
+import minieiffel.ast.SimpleExpressionAST;
+import minieiffel.ast.UnaryExpressionAST;
+import minieiffel.ast.VariableDeclAST;
+
+/**
+ * Finds out which variables (fields, parameters, local variables and
+ * method results) may ever hold the value <code>void</code>. Values of
+ * the built-in types that can never be void can be kept as JVM
+ * primitives by the code generator, the others have to be boxed.
+ *
+ * <p>Fields (other than constants) start out void in every new
+ * object, so they may always be void. Local variables and
+ * <code>result</code> start out void as well: they may be void if
+ * they may be read before they're assigned (<code>result</code> is
+ * read when the method returns), which is found out by following the
+ * definite assignments thru the body like the compiler of Java does.
+ * Otherwise the analysis is flow-insensitive and conservative: a
+ * variable may be void if <code>void</code> or a value that may be
+ * void is assigned to it, if it's compared with <code>void</code> or
+ * if it's a parameter that receives a value that may be void. Since
+ * the receivers of method calls aren't tracked, methods are matched
+ * by their names only (e.g. if any method called <code>m</code> may
+ * return void, all calls to a method called <code>m</code> may return
+ * void). The rules are applied until nothing changes.</p>
+ */
+class NullableSlots {
+
+    /** variables that may be void, see the key methods below */
+    private Set<String> nullable = new HashSet<String>();
+
+    /** constant fields, which are never void (see {@link #fieldKey}) */
+    private Set<String> constants = new HashSet<String>();
+
+    /** names of methods that may return void */
+    private Set<String> nullableResults = new HashSet<String>();
+
+    /** method parameters (as name#index) that may receive void */
+    private Set<String> voidArguments = new HashSet<String>();
+
+    /** set when a new fact has been found during a round */
+    private boolean changed;
+
+    /** the class and method being scanned */
+    private ClassAST currentClass;
+    private MethodAST currentMethod;
+
+    /** the names of the parameters and local variables of the current method */
+    private Set<String> localNames = new HashSet<String>();
+
+    /** the variables of the current method definitely assigned at this point */
+    private Set<String> assigned;
+
+    NullableSlots(ProgramAST program) {
+        for (ClassAST klass : program.getClasses()) {
+            for (FeatureBlockAST block : klass.getFeatureBlocks()) {
+                for (FeatureAST feature : block.getFeatures()) {
+                    if(feature instanceof VariableDeclAST &&
+                            ((VariableDeclAST)feature).getConstantValue() != null) {
+                        constants.add(fieldKey(
+                                klass, ((VariableDeclAST)feature).getName().getText()
+                        ));
+                    }
+                }
+            }
+        }
+        do {
+            changed = false;
+            for (ClassAST klass : program.getClasses()) {
+                currentClass = klass;
+                for (FeatureBlockAST block : klass.getFeatureBlocks()) {
+                    for (FeatureAST feature : block.getFeatures()) {
+                        if(feature instanceof MethodAST) {
+                            scanMethod((MethodAST)feature);
+                        }
+                    }
+                }
+            }
+        } while(changed);
+    }
+
+    /**
+     * Returns true if the given field may be void.
+     */
+    boolean isNullableField(ClassAST klass, String name) {
+        return !constants.contains(fieldKey(klass, name));
+    }
+
+    /**
+     * Returns true if the given local variable (or the special
+     * variable <code>result</code>) of a method may be void.
+     */
+    boolean isNullableLocal(ClassAST klass, MethodAST method, String name) {
+        return nullable.contains(localKey(klass, method, name));
+    }
+
+    /**
+     * Returns true if the method may return void, or if a call of a
+     * method with the same name is compared with void.
+     */
+    boolean isNullableResult(ClassAST klass, MethodAST method) {
+        return nullable.contains(localKey(klass, method, "result")) ||
+               nullableResults.contains(method.getName().getText());
+    }
+
+    /**
+     * Returns true if the parameter with the given index may be void.
+     */
+    boolean isNullableParam(ClassAST klass, MethodAST method, int index) {
+        String name = method.getParamDecls().get(index).getName().getText();
+        return nullable.contains(localKey(klass, method, name)) ||
+               voidArguments.contains(argumentKey(method.getName().getText(), index));
+    }
+
+    /* private implementation follows */
+
+    private void scanMethod(MethodAST method) {
+        currentMethod = method;
+        localNames.clear();
+        localNames.add("result");
+        assigned = new HashSet<String>();
+        for (ParamDeclAST param : method.getParamDecls()) {
+            localNames.add(param.getName().getText());
+            assigned.add(param.getName().getText());
+        }
+        addLocalNames(method.getLocalVariableDecls());
+        if(method.getInstructions() != null) {
+            scanBlock(method.getInstructions());
+        }
+        if(!assigned.contains("result")) {
+            // the initial void may be returned
+            markVariable("result");
+        }
+        if(nullable.contains(localKey(currentClass, method, "result"))) {
+            mark(nullableResults, method.getName().getText());
+        } else if(nullableResults.contains(method.getName().getText())) {
+            // the result is returned boxed
+            markVariable("result");
+        }
+        for (int i = 0; i < method.getParamDecls().size(); i++) {
+            if(voidArguments.contains(argumentKey(method.getName().getText(), i))) {
+                markVariable(method.getParamDecls().get(i).getName().getText());
+            }
+        }
+        currentMethod = null;
+        assigned = null;
+    }
+
+    /**
+     * Adds the names of the variables declared at the start of a
+     * block, only the constants are assigned when the block starts.
+     */
+    private void addLocalNames(List<VariableDeclAST> vars) {
+        for (VariableDeclAST var : vars) {
+            localNames.add(var.getName().getText());
+            if(var.getConstantValue() != null) {
+                assigned.add(var.getName().getText());
+            } else {
+                assigned.remove(var.getName().getText());
+            }
+        }
+    }
+
+    private void scanBlock(InstructionsAST block) {
+        addLocalNames(block.getLocalDecls());
+        for (InstructionAST instruction : block.getInstructions()) {
+            scanInstruction(instruction);
+        }
+    }
+
+    private void scanInstruction(InstructionAST instruction) {
+        if(instruction instanceof AssignmentAST) {
+            AssignmentAST assignment = (AssignmentAST)instruction;
+            scanExpression(assignment.getExpression());
+            if(mayBeVoid(assignment.getExpression())) {
+                markVariable(assignment.getIdentifier().getText());
+            }
+            assigned.add(assignment.getIdentifier().getText());
+        } else if(instruction instanceof ConstructionAST) {
+            // (creates an object of a user-defined type)
+            assigned.add(((ConstructionAST)instruction).getIdentifier().getText());
+        } else if(instruction instanceof ExpressionAST) {
+            scanExpression((ExpressionAST)instruction);
+        } else if(instruction instanceof ConditionalAST) {
+            // the variables assigned in all the branches are assigned after
+            ConditionalAST conditional = (ConditionalAST)instruction;
+            Set<String> before = assigned;
+            Set<String> after = scanIfStatement(conditional.getIfStatement(), before);
+            for (IfStatementAST elseIf : conditional.getElseIfStatements()) {
+                after.retainAll(scanIfStatement(elseIf, before));
+            }
+            assigned = new HashSet<String>(before);
+            if(conditional.getElseStatement() != null) {
+                scanBlock(conditional.getElseStatement());
+            }
+            after.retainAll(assigned);
+            assigned = after;
+        } else if(instruction instanceof IterationAST) {
+            // the loop may be exited before its body is run
+            IterationAST iteration = (IterationAST)instruction;
+            if(iteration.getFrom() != null) {
+                scanBlock(iteration.getFrom());
+            }
+            scanExpression(iteration.getUntil());
+            Set<String> exit = assigned;
+            assigned = new HashSet<String>(exit);
+            if(iteration.getLoop() != null) {
+                scanBlock(iteration.getLoop());
+            }
+            assigned = exit;
+        }
+    }
+
+    /**
+     * Scans a branch of a conditional starting from the given
+     * assignments and returns the ones at the end of the branch.
+     */
+    private Set<String> scanIfStatement(IfStatementAST ifStmt, Set<String> before) {
+        assigned = new HashSet<String>(before);
+        scanExpression(ifStmt.getGuard());
+        if(ifStmt.getThen() != null) {
+            scanBlock(ifStmt.getThen());
+        }
+        return assigned;
+    }
+
+    /**
+     * Looks for variables read before they're assigned, comparisons
+     * with void and method calls with arguments that may be void.
+     */
+    private void scanExpression(ExpressionAST expr) {
+        if(expr instanceof SimpleExpressionAST &&
+                expr.getLocationToken().getType() == TokenType.IDENTIFIER) {
+            String name = expr.getLocationToken().getText();
+            if(localNames.contains(name) && !assigned.contains(name)) {
+                markVariable(name);
+            }
+        } else if(expr instanceof UnaryExpressionAST) {
+            scanExpression(((UnaryExpressionAST)expr).getExpression());
+        } else if(expr instanceof BinaryExpressionAST) {
+            BinaryExpressionAST binary = (BinaryExpressionAST)expr;
+            Value op = binary.getOperator().getValue();
+            if(op == Value.EQUALITY || op == Value.INEQUALITY) {
+                if(isVoid(binary.getLhs())) {
+                    markReferenced(binary.getRhs());
+                }
+                if(isVoid(binary.getRhs())) {
+                    markReferenced(binary.getLhs());
+                }
+            }
+            scanExpression(binary.getLhs());
+            if(op != Value.DOT || !(binary.getRhs() instanceof SimpleExpressionAST)) {
+                scanExpression(binary.getRhs());
+            }
+        } else if(expr instanceof InvocationAST) {
+            InvocationAST invocation = (InvocationAST)expr;
+            List<ExpressionAST> args = invocation.getArguments();
+            for (int i = 0; i < args.size(); i++) {
+                scanExpression(args.get(i));
+                if(mayBeVoid(args.get(i))) {
+                    mark(voidArguments, argumentKey(
+                            invocation.getIdentifier().getText(), i
+                    ));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns true if the value of the expression may be void.
+     * Operations on built-in values never yield void (the operands
+     * can't be void either or the operation would fail).
+     */
+    private boolean mayBeVoid(ExpressionAST expr) {
+        if(expr instanceof SimpleExpressionAST) {
+            SimpleExpressionAST simple = (SimpleExpressionAST)expr;
+            if(simple.getLocationToken().getType() != TokenType.IDENTIFIER) {
+                return false;
+            }
+            String name = simple.getLocationToken().getText();
+            if("void".equals(name)) {
+                return true;
+            } else if("current".equals(name)) {
+                return false;
+            } else if(localNames.contains(name)) {
+                return nullable.contains(localKey(currentClass, currentMethod, name));
+            } else {
+                return isNullableField(currentClass, name);
+            }
+        } else if(expr instanceof InvocationAST) {
+            return nullableResults.contains(
+                    ((InvocationAST)expr).getIdentifier().getText()
+            );
+        } else if(expr instanceof BinaryExpressionAST) {
+            BinaryExpressionAST binary = (BinaryExpressionAST)expr;
+            if(binary.getOperator().getValue() == Value.DOT) {
+                if(binary.getRhs() instanceof SimpleExpressionAST) {
+                    return !constants.contains(fieldKey(
+                            binary.getLhs().getType().getName(),
+                            binary.getRhs().getLocationToken().getText()
+                    ));
+                }
+                return mayBeVoid(binary.getRhs());
+            }
+        }
+        return false;
+    }
+
+    private static boolean isVoid(ExpressionAST expr) {
+        return expr instanceof SimpleExpressionAST &&
+               "void".equals(expr.getLocationToken().getText());
+    }
+
+    /**
+     * Marks the variable (or method result) referenced by
+     * an expression compared with void as nullable.
+     */
+    private void markReferenced(ExpressionAST expr) {
+        if(expr instanceof SimpleExpressionAST &&
+                expr.getLocationToken().getType() == TokenType.IDENTIFIER) {
+            markVariable(expr.getLocationToken().getText());
+        } else if(expr instanceof InvocationAST) {
+            mark(nullableResults, ((InvocationAST)expr).getIdentifier().getText());
+        }
+    }
+
+    /**
+     * Marks a variable of the current method as nullable
+     * (fields may be void anyway).
+     */
+    private void markVariable(String name) {
+        if(localNames.contains(name)) {
+            mark(nullable, localKey(currentClass, currentMethod, name));
+        }
+    }
+
+    private void mark(Set<String> set, String key) {
+        if(set.add(key)) {
+            changed = true;
+        }
+    }
+
+    private static String fieldKey(ClassAST klass, String name) {
+        return fieldKey(klass.getName().getText(), name);
+    }
+
+    private static String fieldKey(String className, String name) {
+        return className + "." + name;
+    }
+
+    private static String localKey(ClassAST klass, MethodAST method, String name) {
+        // overloaded methods share their keys
+        return klass.getName().getText() + "." +
+               method.getName().getText() + "." + name;
+    }
+
+    private static String argumentKey(String methodName, int index) {
+        return methodName + "#" + index;
+    }
+
+}
@@ -0,0 +1,654 @@
+package minieiffel.cg;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.objectweb.asm.Label;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.LocalVariableNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+/**
+ * Cleans up the code of a generated method, which is generated one
+ * construct at a time and so contains sequences that only make sense
+ * in isolation. The following are rewritten until none is left:
+ *
+ * <ul>
+ * <li>a jump to a <code>GOTO</code> jumps to its target instead, a
+ * <code>GOTO</code> to a <code>RETURN</code> returns right away, and a
+ * <code>GOTO</code> to the next instruction is removed</li>
+ * <li>code that can't be reached is removed</li>
+ * <li>a store to a local variable followed by a load of it is removed
+ * if the variable isn't read again before it's stored to, so that the
+ * value stays on the stack (as is a load followed by a store to the
+ * same variable)</li>
+ * <li>stores whose values are never loaded are removed along with
+ * the constant or load that pushed the value</li>
+ * <li>a value that is boxed (<code>NEW</code>, <code>DUP</code> and the
+ * constructor) and then unboxed right away (<code>intValue()</code>
+ * etc) is left unboxed</li>
+ * <li>a store to a variable (<code>result</code>) that is then loaded
+ * and returned, possibly after jumps, is replaced by the return</li>
+ * </ul>
+ *
+ * <p>Labels are never removed, since the local variable table refers
+ * to them. Labels that aren't jump targets don't break a sequence. The
+ * variables whose slots are no longer used are left out of the local
+ * variable table.</p>
+ */
+class PeepholeOptimizer implements Opcodes {
+
+    /** the wrapper classes of the builtin types whose boxing can be undone */
+    private static final Map<String, String> UNBOXING_METHODS = new HashMap<String, String>();
+    static {
+        UNBOXING_METHODS.put("java/lang/Integer", "intValue");
+        UNBOXING_METHODS.put("java/lang/Float", "floatValue");
+        UNBOXING_METHODS.put("java/lang/Boolean", "booleanValue");
+        UNBOXING_METHODS.put("java/lang/Character", "charValue");
+    }
+
+    private MethodNode method;
+
+    /** the code being optimized (removed instructions are null
+     *  until the list is compacted) */
+    private List<AbstractInsnNode> code;
+
+    /** index of the node of each label */
+    private Map<Label, Integer> labelIndices = new HashMap<Label, Integer>();
+
+    /** the labels that are jumped to */
+    private Set<Label> targets = new HashSet<Label>();
+
+    /** the local variable slots whose values may be loaded
+     *  after each instruction */
+    private BitSet[] liveOut;
+
+    PeepholeOptimizer(MethodNode method) {
+        this.method = method;
+    }
+
+    /**
+     * Optimizes the code of the method.
+     *
+     * @return the number of instructions removed
+     */
+    @SuppressWarnings("unchecked")
+    int optimize() {
+        code = new ArrayList<AbstractInsnNode>(method.instructions);
+        int before = countInstructions();
+        boolean changed;
+        do {
+            changed = shortenJumps();
+            changed |= removeUnreachableCode();
+            changed |= removeStoreLoadPairs();
+            changed |= removeDeadStores();
+            changed |= removeBoxing();
+            changed |= returnStoredValues();
+        } while(changed);
+        method.instructions.clear();
+        method.instructions.addAll(code);
+        removeUnusedVariables();
+        return before - countInstructions();
+    }
+
+    /* private implementation follows */
+
+    /**
+     * Retargets jumps to <code>GOTO</code>s, replaces <code>GOTO</code>s
+     * to a <code>RETURN</code> with it and removes the ones to the next
+     * instruction.
+     */
+    private boolean shortenJumps() {
+        analyze();
+        boolean changed = false;
+        for (int i = 0; i < code.size(); i++) {
+            AbstractInsnNode node = code.get(i);
+            if(node instanceof JumpInsnNode && node.getOpcode() != JSR) {
+                JumpInsnNode jump = (JumpInsnNode)node;
+                Label target = finalTarget(jump.label);
+                if(target != jump.label) {
+                    jump.label = target;
+                    changed = true;
+                }
+                if(jump.getOpcode() == GOTO) {
+                    AbstractInsnNode next = instructionAt(target);
+                    if(next != null && next.getOpcode() == RETURN) {
+                        code.set(i, InsnNode.getByOpcode(RETURN));
+                        changed = true;
+                    } else if(labelsOnly(i, labelIndices.get(target))) {
+                        code.set(i, null);
+                        changed = true;
+                    }
+                }
+            } else if(node instanceof TableSwitchInsnNode) {
+                TableSwitchInsnNode tableSwitch = (TableSwitchInsnNode)node;
+                changed |= shortenSwitch(tableSwitch.labels);
+                Label dflt = finalTarget(tableSwitch.dflt);
+                changed |= (dflt != tableSwitch.dflt);
+                tableSwitch.dflt = dflt;
+            } else if(node instanceof LookupSwitchInsnNode) {
+                LookupSwitchInsnNode lookupSwitch = (LookupSwitchInsnNode)node;
+                changed |= shortenSwitch(lookupSwitch.labels);
+                Label dflt = finalTarget(lookupSwitch.dflt);
+                changed |= (dflt != lookupSwitch.dflt);
+                lookupSwitch.dflt = dflt;
+            }
+        }
+        compact();
+        return changed;
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean shortenSwitch(List<?> labels) {
+        // (asm-tree keeps the labels of a switch in a raw list)
+        List<Object> targets = (List<Object>)labels;
+        boolean changed = false;
+        for (int i = 0; i < targets.size(); i++) {
+            Label label = (Label)targets.get(i);
+            Label target = finalTarget(label);
+            if(target != label) {
+                targets.set(i, target);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Follows the <code>GOTO</code>s at the given label (stopping at a loop).
+     */
+    private Label finalTarget(Label label) {
+        Set<Label> seen = new HashSet<Label>();
+        while(seen.add(label)) {
+            AbstractInsnNode next = instructionAt(label);
+            if(next == null || next.getOpcode() != GOTO) {
+                break;
+            }
+            label = ((JumpInsnNode)next).label;
+        }
+        return label;
+    }
+
+    /**
+     * Returns the first instruction at the given label (or null).
+     */
+    private AbstractInsnNode instructionAt(Label label) {
+        int i = nextInstruction(labelIndices.get(label));
+        return (i < 0 ? null : code.get(i));
+    }
+
+    /**
+     * Removes the instructions that can't be reached from the
+     * start of the method.
+     */
+    private boolean removeUnreachableCode() {
+        analyze();
+        boolean[] reachable = new boolean[code.size()];
+        LinkedList<Integer> work = new LinkedList<Integer>();
+        work.add(0);
+        for (Object block : method.tryCatchBlocks) {
+            work.add(labelIndices.get(((TryCatchBlockNode)block).handler));
+        }
+        while(!work.isEmpty()) {
+            int i = work.removeFirst();
+            if(!reachable[i]) {
+                reachable[i] = true;
+                work.addAll(successors(i));
+            }
+        }
+        boolean changed = false;
+        for (int i = 0; i < code.size(); i++) {
+            if(!reachable[i] && !(code.get(i) instanceof LabelNode)) {
+                code.set(i, null);
+                changed = true;
+            }
+        }
+        compact();
+        return changed;
+    }
+
+    /**
+     * Removes stores followed by a load of the same variable that
+     * isn't read again, and loads followed by a store to the same
+     * variable.
+     */
+    private boolean removeStoreLoadPairs() {
+        analyze();
+        boolean changed = false;
+        for (int i = 0; i < code.size(); i++) {
+            AbstractInsnNode node = code.get(i);
+            if(!(node instanceof VarInsnNode)) {
+                continue;
+            }
+            int var = ((VarInsnNode)node).var;
+            int next = nextInSequence(i);
+            if(next < 0 || !(code.get(next) instanceof VarInsnNode) ||
+                    ((VarInsnNode)code.get(next)).var != var) {
+                continue;
+            }
+            int opcode = node.getOpcode(), nextOpcode = code.get(next).getOpcode();
+            if((isStore(opcode) && nextOpcode == opcode - ISTORE + ILOAD && !liveOut[next].get(var)) ||
+                    (isLoad(opcode) && nextOpcode == opcode - ILOAD + ISTORE)) {
+                code.set(i, null);
+                code.set(next, null);
+                i = next;
+                changed = true;
+            }
+        }
+        compact();
+        return changed;
+    }
+
+    /**
+     * Removes the stores whose values are never loaded: they become
+     * <code>POP</code>s, which are removed with the instruction that
+     * pushed the value if it has no side effects.
+     */
+    private boolean removeDeadStores() {
+        analyze();
+        boolean changed = false;
+        for (int i = 0; i < code.size(); i++) {
+            AbstractInsnNode node = code.get(i);
+            if(node instanceof VarInsnNode && isStore(node.getOpcode()) &&
+                    !liveOut[i].get(((VarInsnNode)node).var)) {
+                boolean wide = (node.getOpcode() == LSTORE || node.getOpcode() == DSTORE);
+                node = InsnNode.getByOpcode(wide ? POP2 : POP);
+                code.set(i, node);
+                changed = true;
+            }
+            if(node.getOpcode() == POP) {
+                int previous = previousInSequence(i);
+                if(previous >= 0 && isPush(code.get(previous))) {
+                    code.set(previous, null);
+                    code.set(i, null);
+                    changed = true;
+                }
+            }
+        }
+        compact();
+        return changed;
+    }
+
+    /**
+     * Removes the boxing of values that are unboxed right away.
+     */
+    private boolean removeBoxing() {
+        analyze();
+        boolean changed = false;
+        for (int i = 0; i < code.size(); i++) {
+            AbstractInsnNode node = code.get(i);
+            if(node == null || node.getOpcode() != INVOKEVIRTUAL) {
+                continue;
+            }
+            MethodInsnNode unbox = (MethodInsnNode)node;
+            if(!unbox.name.equals(UNBOXING_METHODS.get(unbox.owner))) {
+                continue;
+            }
+            int constructor = previousInSequence(i);
+            if(constructor < 0 || code.get(constructor).getOpcode() != INVOKESPECIAL) {
+                continue;
+            }
+            MethodInsnNode init = (MethodInsnNode)code.get(constructor);
+            if(!init.owner.equals(unbox.owner) ||
+                    !init.desc.equals("(" + unbox.desc.substring(2) + ")V")) {
+                continue;
+            }
+            int creation = findCreation(constructor);
+            if(creation < 0 || !((TypeInsnNode)code.get(creation)).desc.equals(init.owner)) {
+                continue;
+            }
+            int dup = nextInSequence(creation);
+            if(dup < 0 || code.get(dup).getOpcode() != DUP || !isClosed(dup, constructor)) {
+                continue;
+            }
+            code.set(creation, null);
+            code.set(dup, null);
+            code.set(constructor, null);
+            code.set(i, null);
+            changed = true;
+        }
+        compact();
+        return changed;
+    }
+
+    /**
+     * Returns the index of the <code>NEW</code> whose object the
+     * given constructor call initializes (or -1): the objects
+     * created in between are initialized in between as well.
+     */
+    private int findCreation(int constructor) {
+        int depth = 0;
+        for (int i = constructor - 1; i >= 0; i--) {
+            AbstractInsnNode node = code.get(i);
+            if(node == null) {
+                return -1;
+            } else if(node.getOpcode() == INVOKESPECIAL && ((MethodInsnNode)node).name.equals("<init>")) {
+                depth++;
+            } else if(node.getOpcode() == NEW) {
+                if(depth == 0) {
+                    return i;
+                }
+                depth--;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns true if no jump leads into or out of the code
+     * between the given indices.
+     */
+    private boolean isClosed(int start, int end) {
+        for (int i = 0; i < code.size(); i++) {
+            boolean inside = (i > start && i < end);
+            for (Label label : jumpTargets(code.get(i))) {
+                int target = labelIndices.get(label);
+                if(inside != (target > start && target < end)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replaces a store whose value is then loaded and
+     * returned (after any jumps) with the return.
+     */
+    private boolean returnStoredValues() {
+        analyze();
+        boolean changed = false;
+        for (int i = 0; i < code.size(); i++) {
+            AbstractInsnNode node = code.get(i);
+            if(!(node instanceof VarInsnNode) || !isStore(node.getOpcode())) {
+                continue;
+            }
+            int load = followJumps(nextInstruction(i));
+            if(load < 0 || !(code.get(load) instanceof VarInsnNode) ||
+                    ((VarInsnNode)code.get(load)).var != ((VarInsnNode)node).var ||
+                    code.get(load).getOpcode() != node.getOpcode() - ISTORE + ILOAD) {
+                continue;
+            }
+            int ret = nextInstruction(load);
+            if(ret >= 0 && code.get(ret).getOpcode() == node.getOpcode() - ISTORE + IRETURN) {
+                code.set(i, InsnNode.getByOpcode(code.get(ret).getOpcode()));
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Returns the index of the first instruction that isn't a
+     * <code>GOTO</code> when continuing from the given index.
+     */
+    private int followJumps(int i) {
+        Set<Integer> seen = new HashSet<Integer>();
+        while(i >= 0 && code.get(i).getOpcode() == GOTO && seen.add(i)) {
+            i = nextInstruction(labelIndices.get(((JumpInsnNode)code.get(i)).label));
+        }
+        return i;
+    }
+
+    /**
+     * Drops the local variable table entries of the variables whose
+     * slots are no longer used (other than parameters), since the slots
+     * may now be beyond the number of local variables of the method.
+     */
+    private void removeUnusedVariables() {
+        if(method.localVariables == null) {
+            return;
+        }
+        Set<Integer> used = new HashSet<Integer>();
+        for (AbstractInsnNode node : code) {
+            if(node instanceof VarInsnNode) {
+                used.add(((VarInsnNode)node).var);
+            } else if(node instanceof IincInsnNode) {
+                used.add(((IincInsnNode)node).var);
+            }
+        }
+        int params = ((method.access & ACC_STATIC) == 0 ? 1 : 0);
+        for (Type arg : Type.getArgumentTypes(method.desc)) {
+            params += arg.getSize();
+        }
+        List<LocalVariableNode> unused = new ArrayList<LocalVariableNode>();
+        for (Object variable : method.localVariables) {
+            LocalVariableNode node = (LocalVariableNode)variable;
+            if(node.index >= params && !used.contains(node.index)) {
+                unused.add(node);
+            }
+        }
+        for (LocalVariableNode node : unused) {
+            method.localVariables.remove(node);
+        }
+    }
+
+    /**
+     * Finds the labels, the jump targets and the variables that
+     * are live after each instruction.
+     */
+    private void analyze() {
+        labelIndices.clear();
+        targets.clear();
+        for (int i = 0; i < code.size(); i++) {
+            AbstractInsnNode node = code.get(i);
+            if(node instanceof LabelNode) {
+                labelIndices.put(((LabelNode)node).label, i);
+            }
+            targets.addAll(jumpTargets(node));
+        }
+        for (Object block : method.tryCatchBlocks) {
+            TryCatchBlockNode tryCatch = (TryCatchBlockNode)block;
+            targets.add(tryCatch.start);
+            targets.add(tryCatch.end);
+            targets.add(tryCatch.handler);
+        }
+        analyzeLiveness();
+    }
+
+    /**
+     * Finds the variables that may be loaded after each instruction
+     * before they are stored again (all of them if there are exception
+     * handlers, which aren't followed).
+     */
+    private void analyzeLiveness() {
+        BitSet[] liveIn = new BitSet[code.size()];
+        liveOut = new BitSet[code.size()];
+        for (int i = 0; i < code.size(); i++) {
+            liveIn[i] = new BitSet();
+        }
+        boolean changed;
+        do {
+            changed = false;
+            for (int i = code.size() - 1; i >= 0; i--) {
+                BitSet out = new BitSet();
+                if(!method.tryCatchBlocks.isEmpty()) {
+                    out.set(0, Integer.MAX_VALUE);
+                }
+                for (int successor : successors(i)) {
+                    out.or(liveIn[successor]);
+                }
+                BitSet in = (BitSet)out.clone();
+                AbstractInsnNode node = code.get(i);
+                if(node instanceof VarInsnNode) {
+                    in.set(((VarInsnNode)node).var, !isStore(node.getOpcode()));
+                } else if(node instanceof IincInsnNode) {
+                    in.set(((IincInsnNode)node).var);
+                }
+                liveOut[i] = out;
+                if(!in.equals(liveIn[i])) {
+                    liveIn[i] = in;
+                    changed = true;
+                }
+            }
+        } while(changed);
+    }
+
+    /**
+     * Returns the indices of the instructions that may
+     * be executed after the one at the given index.
+     */
+    private List<Integer> successors(int i) {
+        List<Integer> successors = new LinkedList<Integer>();
+        AbstractInsnNode node = code.get(i);
+        int opcode = node.getOpcode();
+        for (Label label : jumpTargets(node)) {
+            successors.add(labelIndices.get(label));
+        }
+        if(i + 1 < code.size() && opcode != GOTO && opcode != RET && opcode != ATHROW &&
+                !(opcode >= IRETURN && opcode <= RETURN) &&
+                !(node instanceof TableSwitchInsnNode) && !(node instanceof LookupSwitchInsnNode)) {
+            successors.add(i + 1);
+        }
+        return successors;
+    }
+
+    /**
+     * Returns the labels the given instruction may jump to.
+     */
+    @SuppressWarnings("unchecked")
+    private List<Label> jumpTargets(AbstractInsnNode node) {
+        List<Label> labels = new LinkedList<Label>();
+        if(node instanceof JumpInsnNode) {
+            labels.add(((JumpInsnNode)node).label);
+        } else if(node instanceof TableSwitchInsnNode) {
+            labels.add(((TableSwitchInsnNode)node).dflt);
+            labels.addAll(((TableSwitchInsnNode)node).labels);
+        } else if(node instanceof LookupSwitchInsnNode) {
+            labels.add(((LookupSwitchInsnNode)node).dflt);
+            labels.addAll(((LookupSwitchInsnNode)node).labels);
+        }
+        return labels;
+    }
+
+    /**
+     * Returns the index of the next instruction after the
+     * given index, skipping labels (or -1 if there isn't one).
+     */
+    private int nextInstruction(int i) {
+        for (i++; i < code.size(); i++) {
+            if(!(code.get(i) instanceof LabelNode)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index of the next instruction if it always
+     * follows the one at the given index, that is, if there
+     * are no jump targets in between (otherwise -1).
+     */
+    private int nextInSequence(int i) {
+        for (i++; i < code.size(); i++) {
+            AbstractInsnNode node = code.get(i);
+            if(!(node instanceof LabelNode)) {
+                return (node == null ? -1 : i);
+            } else if(targets.contains(((LabelNode)node).label)) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index of the previous instruction if the one
+     * at the given index always follows it (otherwise -1).
+     */
+    private int previousInSequence(int i) {
+        for (i--; i >= 0; i--) {
+            AbstractInsnNode node = code.get(i);
+            if(!(node instanceof LabelNode)) {
+                return (node == null ? -1 : i);
+            } else if(targets.contains(((LabelNode)node).label)) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns true if there are only labels between the given indices.
+     */
+    private boolean labelsOnly(int start, int end) {
+        if(end <= start) {
+            return false;
+        }
+        for (int i = start + 1; i < end; i++) {
+            if(!(code.get(i) instanceof LabelNode)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the given instruction only pushes one
+     * word onto the stack.
+     */
+    private boolean isPush(AbstractInsnNode node) {
+        switch(node.getOpcode()) {
+        case ACONST_NULL: case ICONST_M1: case ICONST_0: case ICONST_1:
+        case ICONST_2: case ICONST_3: case ICONST_4: case ICONST_5:
+        case FCONST_0: case FCONST_1: case FCONST_2:
+        case BIPUSH: case SIPUSH: case ILOAD: case FLOAD: case ALOAD: case DUP:
+            return true;
+        case LDC:
+            Object cst = ((LdcInsnNode)node).cst;
+            return !(cst instanceof Long || cst instanceof Double);
+        default:
+            return false;
+        }
+    }
+
+    private boolean isLoad(int opcode) {
+        return opcode >= ILOAD && opcode <= ALOAD;
+    }
+
+    private boolean isStore(int opcode) {
+        return opcode >= ISTORE && opcode <= ASTORE;
+    }
+
+    private int countInstructions() {
+        int count = 0;
+        for (AbstractInsnNode node : code) {
+            if(!(node instanceof LabelNode)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Drops the removed instructions.
+     */
+    private void compact() {
+        List<AbstractInsnNode> compacted = new ArrayList<AbstractInsnNode>(code.size());
+        for (AbstractInsnNode node : code) {
+            if(node != null) {
+                compacted.add(node);
+            }
+        }
+        code = compacted;
+    }
+
+}
@@ -0,0 +1,211 @@
+package minieiffel.cg;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import minieiffel.Token.TokenType;
+import minieiffel.Token.Value;
+import minieiffel.ast.AssignmentAST;
+import minieiffel.ast.BinaryExpressionAST;
+import minieiffel.ast.ClassAST;
+import minieiffel.ast.ConditionalAST;
+import minieiffel.ast.ConstructionAST;
+import minieiffel.ast.ExpressionAST;
+import minieiffel.ast.FeatureAST;
+import minieiffel.ast.FeatureBlockAST;
+import minieiffel.ast.IfStatementAST;
+import minieiffel.ast.InstructionAST;
+import minieiffel.ast.InstructionsAST;
+import minieiffel.ast.InvocationAST;
+import minieiffel.ast.IterationAST;
+import minieiffel.ast.MethodAST;
+import minieiffel.ast.ParamDeclAST;
+import minieiffel.ast.ProgramAST;
+import minieiffel.ast.SimpleExpressionAST;
+import minieiffel.ast.UnaryExpressionAST;
+import minieiffel.ast.VariableDeclAST;
+
+/**
+ * Finds the methods that don't depend on the current object, so that
+ * they can be generated as static methods. A method depends on the
+ * current object if it refers to <code>current</code>, reads, assigns
+ * or constructs a field (other than a constant), or calls a method of
+ * its own class (without a target object) that depends on it.
+ *
+ * <p>All methods are assumed to be independent at first, and the ones
+ * that turn out to depend on the current object are removed until
+ * nothing changes, so methods that call themselves (or each other)
+ * can be static as well.</p>
+ */
+class StaticMethods {
+
+    /** the methods that don't depend on the current object */
+    private Set<MethodAST> staticMethods = new HashSet<MethodAST>();
+
+    /** set when a method has been removed during a round */
+    private boolean changed;
+
+    /** the class being scanned */
+    private ClassAST currentClass;
+
+    StaticMethods(ProgramAST program) {
+        for (ClassAST klass : program.getClasses()) {
+            for (FeatureBlockAST block : klass.getFeatureBlocks()) {
+                for (FeatureAST feature : block.getFeatures()) {
+                    if(feature instanceof MethodAST) {
+                        staticMethods.add((MethodAST)feature);
+                    }
+                }
+            }
+        }
+        do {
+            changed = false;
+            for (ClassAST klass : program.getClasses()) {
+                currentClass = klass;
+                for (FeatureBlockAST block : klass.getFeatureBlocks()) {
+                    for (FeatureAST feature : block.getFeatures()) {
+                        if(feature instanceof MethodAST &&
+                                staticMethods.contains(feature) &&
+                                usesCurrent((MethodAST)feature)) {
+                            staticMethods.remove(feature);
+                            changed = true;
+                        }
+                    }
+                }
+            }
+        } while(changed);
+        currentClass = null;
+    }
+
+    /**
+     * Returns true if the given method doesn't depend on the current object.
+     */
+    boolean isStatic(MethodAST method) {
+        return staticMethods.contains(method);
+    }
+
+    /* private implementation follows */
+
+    private boolean usesCurrent(MethodAST method) {
+        Set<String> locals = new HashSet<String>();
+        locals.add("result");
+        for (ParamDeclAST param : method.getParamDecls()) {
+            locals.add(param.getName().getText());
+        }
+        for (VariableDeclAST var : method.getLocalVariableDecls()) {
+            locals.add(var.getName().getText());
+        }
+        return usesCurrent(method.getInstructions(), locals);
+    }
+
+    /**
+     * Returns true if a block uses the current object.
+     *
+     * @param locals the local variables visible in the enclosing block
+     */
+    private boolean usesCurrent(InstructionsAST block, Set<String> locals) {
+        if(block == null) {
+            return false;
+        }
+        if(!block.getLocalDecls().isEmpty()) {
+            locals = new HashSet<String>(locals);
+            for (VariableDeclAST var : block.getLocalDecls()) {
+                locals.add(var.getName().getText());
+            }
+        }
+        for (InstructionAST instruction : block.getInstructions()) {
+            if(instruction instanceof ExpressionAST) {
+                if(usesCurrent((ExpressionAST)instruction, locals)) {
+                    return true;
+                }
+            } else if(instruction instanceof AssignmentAST) {
+                AssignmentAST assignment = (AssignmentAST)instruction;
+                if(!locals.contains(assignment.getIdentifier().getText()) ||
+                        usesCurrent(assignment.getExpression(), locals)) {
+                    return true;
+                }
+            } else if(instruction instanceof ConstructionAST) {
+                if(!locals.contains(((ConstructionAST)instruction).getIdentifier().getText())) {
+                    return true;
+                }
+            } else if(instruction instanceof ConditionalAST) {
+                ConditionalAST conditional = (ConditionalAST)instruction;
+                if(usesCurrent(conditional.getIfStatement(), locals) ||
+                        usesCurrent(conditional.getElseStatement(), locals)) {
+                    return true;
+                }
+                for (IfStatementAST elseIf : conditional.getElseIfStatements()) {
+                    if(usesCurrent(elseIf, locals)) {
+                        return true;
+                    }
+                }
+            } else if(instruction instanceof IterationAST) {
+                IterationAST iteration = (IterationAST)instruction;
+                if(usesCurrent(iteration.getFrom(), locals) ||
+                        usesCurrent(iteration.getUntil(), locals) ||
+                        usesCurrent(iteration.getLoop(), locals)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean usesCurrent(IfStatementAST ifStmt, Set<String> locals) {
+        return usesCurrent(ifStmt.getGuard(), locals) || usesCurrent(ifStmt.getThen(), locals);
+    }
+
+    private boolean usesCurrent(ExpressionAST expr, Set<String> locals) {
+        if(expr instanceof SimpleExpressionAST) {
+            if(expr.getLocationToken().getType() != TokenType.IDENTIFIER) {
+                return false;
+            }
+            String name = expr.getLocationToken().getText();
+            if(name.equals("current")) {
+                return true;
+            } else if(name.equals("void") || locals.contains(name)) {
+                return false;
+            }
+            // constants are static
+            for (VariableDeclAST field : currentClass.getSignature().getVariables()) {
+                if(field.getName().getText().equals(name)) {
+                    return field.getConstantValue() == null;
+                }
+            }
+            return false;
+        } else if(expr instanceof UnaryExpressionAST) {
+            return usesCurrent(((UnaryExpressionAST)expr).getExpression(), locals);
+        } else if(expr instanceof BinaryExpressionAST) {
+            BinaryExpressionAST binary = (BinaryExpressionAST)expr;
+            if(usesCurrent(binary.getLhs(), locals)) {
+                return true;
+            }
+            if(binary.getOperator().getValue() != Value.DOT) {
+                return usesCurrent(binary.getRhs(), locals);
+            } else if(binary.getRhs() instanceof InvocationAST) {
+                // a call on another object
+                return usesArguments((InvocationAST)binary.getRhs(), locals);
+            }
+            return false;
+        } else if(expr instanceof InvocationAST) {
+            InvocationAST call = (InvocationAST)expr;
+            for (MethodAST method : currentClass.getSignature().getMethods()) {
+                if(ASMCodeGenerator.isCallOf(call, method) && !staticMethods.contains(method)) {
+                    return true;
+                }
+            }
+            return usesArguments(call, locals);
+        }
+        return false;
+    }
+
+    private boolean usesArguments(InvocationAST call, Set<String> locals) {
+        for (ExpressionAST arg : call.getArguments()) {
+            if(usesCurrent(arg, locals)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
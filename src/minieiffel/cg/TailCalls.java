@@ -0,0 +1,118 @@
+package minieiffel.cg;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import minieiffel.ast.AssignmentAST;
+import minieiffel.ast.ClassAST;
+import minieiffel.ast.ConditionalAST;
+import minieiffel.ast.ExpressionAST;
+import minieiffel.ast.FeatureAST;
+import minieiffel.ast.FeatureBlockAST;
+import minieiffel.ast.IfStatementAST;
+import minieiffel.ast.InstructionAST;
+import minieiffel.ast.InstructionsAST;
+import minieiffel.ast.InvocationAST;
+import minieiffel.ast.MethodAST;
+
+/**
+ * Finds the tail calls of a method to itself, i.e. the instructions
+ * <code>result := m(...)</code> (or just <code>m(...)</code> for a
+ * method without a result) that are the last thing the method does:
+ * the last instruction of the method, or the last instruction of a
+ * branch of a conditional that is itself in such a position. Since
+ * the result of the call becomes the result of the method as is,
+ * the code generator can replace the call with a jump back to the
+ * start of the method.
+ *
+ * <p>A call is a call of the method itself if it has no target object
+ * and the method is the only one in the class with a matching
+ * signature (there's no inheritance, so it can't be overridden).</p>
+ */
+class TailCalls {
+
+    private ClassAST klass;
+    private MethodAST method;
+
+    /** the instructions that make tail calls */
+    private Set<InstructionAST> tailCalls = new HashSet<InstructionAST>();
+
+    TailCalls(ClassAST klass, MethodAST method) {
+        this.klass = klass;
+        this.method = method;
+        if(method.getInstructions() != null) {
+            scanBlock(method.getInstructions());
+        }
+    }
+
+    /**
+     * Returns the call made by the given instruction if it's a tail
+     * call, otherwise null.
+     */
+    InvocationAST getTailCall(InstructionAST instruction) {
+        if(!tailCalls.contains(instruction)) {
+            return null;
+        } else if(instruction instanceof AssignmentAST) {
+            return (InvocationAST)((AssignmentAST)instruction).getExpression();
+        } else {
+            return (InvocationAST)instruction;
+        }
+    }
+
+    /* private implementation follows */
+
+    private void scanBlock(InstructionsAST block) {
+        List<InstructionAST> instructions = block.getInstructions();
+        if(instructions.isEmpty()) {
+            return;
+        }
+        InstructionAST last = instructions.get(instructions.size() - 1);
+        if(last instanceof ConditionalAST) {
+            ConditionalAST conditional = (ConditionalAST)last;
+            scanBranch(conditional.getIfStatement().getThen());
+            for (IfStatementAST elseIf : conditional.getElseIfStatements()) {
+                scanBranch(elseIf.getThen());
+            }
+            scanBranch(conditional.getElseStatement());
+        } else if(last instanceof AssignmentAST) {
+            AssignmentAST assignment = (AssignmentAST)last;
+            if(assignment.getIdentifier().getText().equals("result") &&
+                    isSelfCall(assignment.getExpression())) {
+                tailCalls.add(assignment);
+            }
+        } else if(last instanceof InvocationAST && isSelfCall((InvocationAST)last)) {
+            tailCalls.add(last);
+        }
+    }
+
+    private void scanBranch(InstructionsAST block) {
+        if(block != null) {
+            scanBlock(block);
+        }
+    }
+
+    /**
+     * Returns true if the expression is a call of the current method.
+     */
+    private boolean isSelfCall(ExpressionAST expr) {
+        if(!(expr instanceof InvocationAST)) {
+            return false;
+        }
+        InvocationAST call = (InvocationAST)expr;
+        MethodAST target = null;
+        for (FeatureBlockAST block : klass.getFeatureBlocks()) {
+            for (FeatureAST feature : block.getFeatures()) {
+                if(feature instanceof MethodAST &&
+                        ASMCodeGenerator.isCallOf(call, (MethodAST)feature)) {
+                    if(target != null) {
+                        return false;
+                    }
+                    target = (MethodAST)feature;
+                }
+            }
+        }
+        return target == method;
+    }
+
+}
@@ -0,0 +1,190 @@
+package minieiffel.opt;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import minieiffel.Token;
+import minieiffel.Token.TokenType;
+import minieiffel.Token.Value;
+import minieiffel.ast.AssignmentAST;
+import minieiffel.ast.BinaryExpressionAST;
+import minieiffel.ast.ConditionalAST;
+import minieiffel.ast.ConstructionAST;
+import minieiffel.ast.ExpressionAST;
+import minieiffel.ast.IfStatementAST;
+import minieiffel.ast.InstructionAST;
+import minieiffel.ast.InstructionsAST;
+import minieiffel.ast.InvocationAST;
+import minieiffel.ast.IterationAST;
+import minieiffel.ast.SimpleExpressionAST;
+import minieiffel.ast.UnaryExpressionAST;
+import minieiffel.ast.VariableDeclAST;
+
+/**
+ * Makes deep copies of analyzed method bodies (the types and nullness
+ * annotations are copied along). While copying, variables can be
+ * renamed, and the reads of a variable can be substituted with a copy
+ * of an expression. Tokens are shared with the original since they
+ * aren't modified, except for those of renamed variables.
+ */
+class ASTCopier {
+
+    /** expressions that replace reads of variables */
+    private Map<String, ExpressionAST> substitutions = new HashMap<String, ExpressionAST>();
+
+    /** new names of variables */
+    private Map<String, String> renames = new HashMap<String, String>();
+
+    /**
+     * Replaces each read of the given variable with a copy of the given expression.
+     */
+    void substitute(String name, ExpressionAST value) {
+        substitutions.put(name, value);
+    }
+
+    /**
+     * Renames a variable, both where it's read and where it's
+     * assigned (and declared).
+     */
+    void rename(String name, String newName) {
+        renames.put(name, newName);
+    }
+
+    InstructionsAST copy(InstructionsAST block) {
+        if(block == null) {
+            return null;
+        }
+        List<VariableDeclAST> decls = new LinkedList<VariableDeclAST>();
+        for (VariableDeclAST var : block.getLocalDecls()) {
+            decls.add(copy(var));
+        }
+        return new InstructionsAST(decls, copy(block.getInstructions()));
+    }
+
+    List<InstructionAST> copy(List<InstructionAST> instructions) {
+        List<InstructionAST> copies = new LinkedList<InstructionAST>();
+        for (InstructionAST instruction : instructions) {
+            copies.add(copy(instruction));
+        }
+        return copies;
+    }
+
+    InstructionAST copy(InstructionAST instruction) {
+        if(instruction instanceof ExpressionAST) {
+            return copy((ExpressionAST)instruction);
+        } else if(instruction instanceof AssignmentAST) {
+            AssignmentAST assignment = (AssignmentAST)instruction;
+            return new AssignmentAST(
+                    copyName(assignment.getIdentifier()),
+                    copy(assignment.getExpression())
+            );
+        } else if(instruction instanceof ConstructionAST) {
+            ConstructionAST construction = (ConstructionAST)instruction;
+            ConstructionAST copy = new ConstructionAST(copyName(construction.getIdentifier()));
+            copy.setType(construction.getType());
+            return copy;
+        } else if(instruction instanceof ConditionalAST) {
+            ConditionalAST conditional = (ConditionalAST)instruction;
+            List<IfStatementAST> elseIfs = new LinkedList<IfStatementAST>();
+            for (IfStatementAST elseIf : conditional.getElseIfStatements()) {
+                elseIfs.add(copy(elseIf));
+            }
+            return new ConditionalAST(
+                    copy(conditional.getIfStatement()),
+                    elseIfs,
+                    copy(conditional.getElseStatement())
+            );
+        } else if(instruction instanceof IterationAST) {
+            IterationAST iteration = (IterationAST)instruction;
+            return new IterationAST(
+                    copy(iteration.getFrom()),
+                    copy(iteration.getUntil()),
+                    copy(iteration.getLoop())
+            );
+        }
+        throw new IllegalArgumentException("Unknown instruction " + instruction);
+    }
+
+    ExpressionAST copy(ExpressionAST expr) {
+        ExpressionAST copy;
+        if(expr instanceof SimpleExpressionAST) {
+            Token token = expr.getLocationToken();
+            if(token.getType() == TokenType.IDENTIFIER &&
+                    substitutions.containsKey(token.getText())) {
+                // (the substituted expression is copied as is)
+                ASTCopier plain = new ASTCopier();
+                return plain.copy(substitutions.get(token.getText()));
+            }
+            copy = new SimpleExpressionAST(
+                    token.getType() == TokenType.IDENTIFIER ? copyName(token) : token
+            );
+        } else if(expr instanceof UnaryExpressionAST) {
+            UnaryExpressionAST unary = (UnaryExpressionAST)expr;
+            copy = new UnaryExpressionAST(unary.getOperator(), copy(unary.getExpression()));
+        } else if(expr instanceof BinaryExpressionAST) {
+            BinaryExpressionAST binary = (BinaryExpressionAST)expr;
+            ExpressionAST rhs;
+            if(binary.getOperator().getValue() != Value.DOT) {
+                rhs = copy(binary.getRhs());
+            } else if(binary.getRhs() instanceof InvocationAST) {
+                rhs = copyInvocation((InvocationAST)binary.getRhs());
+            } else {
+                // the member of "a.b" is not a variable
+                rhs = new SimpleExpressionAST(binary.getRhs().getLocationToken());
+                annotate(rhs, binary.getRhs());
+            }
+            copy = new BinaryExpressionAST(copy(binary.getLhs()), binary.getOperator(), rhs);
+        } else if(expr instanceof InvocationAST) {
+            return copyInvocation((InvocationAST)expr);
+        } else {
+            throw new IllegalArgumentException("Unknown expression " + expr);
+        }
+        annotate(copy, expr);
+        return copy;
+    }
+
+    /* private implementation follows */
+
+    private IfStatementAST copy(IfStatementAST ifStmt) {
+        return new IfStatementAST(copy(ifStmt.getGuard()), copy(ifStmt.getThen()));
+    }
+
+    private VariableDeclAST copy(VariableDeclAST var) {
+        VariableDeclAST copy = new VariableDeclAST(
+                copyName(var.getName()),
+                var.getTypeName(),
+                var.getConstantValue()
+        );
+        copy.setType(var.getType());
+        copy.setNullness(var.getNullness());
+        return copy;
+    }
+
+    private InvocationAST copyInvocation(InvocationAST invocation) {
+        List<ExpressionAST> args = new LinkedList<ExpressionAST>();
+        for (ExpressionAST arg : invocation.getArguments()) {
+            args.add(copy(arg));
+        }
+        InvocationAST copy = new InvocationAST(invocation.getIdentifier(), args);
+        annotate(copy, invocation);
+        return copy;
+    }
+
+    private Token copyName(Token name) {
+        String newName = renames.get(name.getText());
+        if(newName == null) {
+            return name;
+        }
+        Token token = new Token(TokenType.IDENTIFIER, newName);
+        token.setPosition(name.getPosition());
+        return token;
+    }
+
+    private static void annotate(ExpressionAST copy, ExpressionAST original) {
+        copy.setType(original.getType());
+        copy.setNullness(original.getNullness());
+    }
+
+}
@@ -0,0 +1,522 @@
+package minieiffel.opt;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+
+import minieiffel.Token;
+import minieiffel.Token.TokenType;
+import minieiffel.Token.Value;
+import minieiffel.ast.AssignmentAST;
+import minieiffel.ast.BinaryExpressionAST;
+import minieiffel.ast.ClassAST;
+import minieiffel.ast.ConditionalAST;
+import minieiffel.ast.ConstructionAST;
+import minieiffel.ast.ExpressionAST;
+import minieiffel.ast.FeatureAST;
+import minieiffel.ast.FeatureBlockAST;
+import minieiffel.ast.IfStatementAST;
+import minieiffel.ast.InstructionAST;
+import minieiffel.ast.InstructionsAST;
+import minieiffel.ast.InvocationAST;
+import minieiffel.ast.IterationAST;
+import minieiffel.ast.MethodAST;
+import minieiffel.ast.ParamDeclAST;
+import minieiffel.ast.ProgramAST;
+import minieiffel.ast.SimpleExpressionAST;
+import minieiffel.ast.UnaryExpressionAST;
+import minieiffel.ast.VariableDeclAST;
+
+/**
+ * Computes the operations that are repeated in a block only once.
+ * The instructions of each block are scanned in order, keeping track
+ * of the operations (arithmetic, comparisons and member accesses
+ * <code>a.b</code>, but no method calls) whose values are available:
+ * the ones evaluated earlier in the block (or in the enclosing blocks)
+ * whose variables haven't been assigned or constructed since. Since
+ * a method call may change any field, operations that read fields
+ * stop being available when a method is called. Operations in loops
+ * can only use values that the loop doesn't change.
+ *
+ * <p>When an available operation is found again, the value of its
+ * first occurrence is stored in a new local variable (named
+ * <code>cse$1</code>, <code>cse$2</code> etc) right before the
+ * instruction that evaluates it, and both occurrences are replaced
+ * by the variable, which is declared in the same block as the first
+ * one. Only operations that are always evaluated by their instruction
+ * (i.e. not on the right-hand side of "and then" or "or else", in an
+ * <code>elseif</code> guard or in the <code>until</code> condition of
+ * a loop) are moved this way, and operations that may fail only if
+ * nothing before them in the instruction can fail or call a method.
+ * Any occurrence can use the variable, though.</p>
+ */
+public class CommonSubexpressionEliminator implements OptimizationPass {
+
+    /** number of operations replaced so far */
+    private int eliminatedExpressions;
+
+    /** the class being optimized */
+    private ClassAST currentClass;
+
+    /** number of local variables added to the current method */
+    private int variableCount;
+
+    /** number of operations made available in the current method */
+    private int operationCount;
+
+    /** the available operations by their type and text */
+    private Map<String, Operation> available;
+
+    /** the local variables visible in the current block */
+    private Set<String> locals;
+
+    /** the block being optimized */
+    private Block currentBlock;
+
+    /** state of the instruction being optimized */
+    private InstructionAST currentInstruction;
+    private boolean callsMethods;
+    private boolean mayHaveFailed;
+
+    public void optimize(ProgramAST program) {
+        for (ClassAST klass : program.getClasses()) {
+            currentClass = klass;
+            for (FeatureBlockAST block : klass.getFeatureBlocks()) {
+                for (FeatureAST feature : block.getFeatures()) {
+                    if(feature instanceof MethodAST &&
+                            ((MethodAST)feature).getInstructions() != null) {
+                        optimizeMethod((MethodAST)feature);
+                    }
+                }
+            }
+        }
+        currentClass = null;
+    }
+
+    /**
+     * Returns the number of operations replaced by variables so far.
+     */
+    public int getEliminatedExpressions() {
+        return eliminatedExpressions;
+    }
+
+    /* private implementation follows */
+
+    /**
+     * An operation whose value is available.
+     */
+    private static class Operation {
+        /** the first occurrence */
+        ExpressionAST expr;
+        /** the variables it reads */
+        Set<String> names;
+        /** true if it reads fields */
+        boolean readsFields;
+        /** the instruction and block of the first occurrence */
+        InstructionAST instruction;
+        Block block;
+        /** order of the operations (subexpressions come first) */
+        int order;
+        /** the variable holding the value, null until it's needed */
+        VariableDeclAST var;
+    }
+
+    /**
+     * A block and the variables to set before its instructions.
+     */
+    private static class Block {
+        InstructionsAST instructions;
+        Map<InstructionAST, List<Operation>> computed =
+            new HashMap<InstructionAST, List<Operation>>();
+    }
+
+    private void optimizeMethod(MethodAST method) {
+        variableCount = 0;
+        operationCount = 0;
+        locals = new HashSet<String>();
+        locals.add("result");
+        for (ParamDeclAST param : method.getParamDecls()) {
+            locals.add(param.getName().getText());
+        }
+        for (VariableDeclAST var : method.getLocalVariableDecls()) {
+            locals.add(var.getName().getText());
+        }
+        optimizeBlock(method.getInstructions(), new LinkedHashMap<String, Operation>());
+        available = null;
+        locals = null;
+    }
+
+    /**
+     * Replaces the repeated operations of a block.
+     *
+     * @param operations the operations available at the start of the block
+     */
+    private void optimizeBlock(InstructionsAST block, Map<String, Operation> operations) {
+        if(block == null) {
+            return;
+        }
+        Map<String, Operation> outerAvailable = available;
+        Set<String> outerLocals = locals;
+        Block outerBlock = currentBlock;
+        InstructionAST outerInstruction = currentInstruction;
+        available = operations;
+        currentBlock = new Block();
+        currentBlock.instructions = block;
+        if(!block.getLocalDecls().isEmpty()) {
+            locals = new HashSet<String>(locals);
+            for (VariableDeclAST var : block.getLocalDecls()) {
+                locals.add(var.getName().getText());
+                killVariable(var.getName().getText());
+            }
+        }
+
+        for (InstructionAST instruction : block.getInstructions()) {
+            if(instruction instanceof ExpressionAST) {
+                startInstruction(instruction, true);
+                optimize((ExpressionAST)instruction, true);
+            } else if(instruction instanceof AssignmentAST) {
+                AssignmentAST assignment = (AssignmentAST)instruction;
+                startInstruction(instruction, LoopEffects.callsMethods(assignment.getExpression()));
+                assignment.setExpression(optimize(assignment.getExpression(), true));
+                killVariable(assignment.getIdentifier().getText());
+            } else if(instruction instanceof ConstructionAST) {
+                killVariable(((ConstructionAST)instruction).getIdentifier().getText());
+            } else if(instruction instanceof ConditionalAST) {
+                optimizeConditional((ConditionalAST)instruction);
+            } else if(instruction instanceof IterationAST) {
+                optimizeIteration((IterationAST)instruction);
+            }
+        }
+
+        // set the variables before the instructions that computed them first
+        if(!currentBlock.computed.isEmpty()) {
+            List<InstructionAST> instructions = new LinkedList<InstructionAST>();
+            for (InstructionAST instruction : block.getInstructions()) {
+                List<Operation> computed = currentBlock.computed.get(instruction);
+                if(computed != null) {
+                    for (Operation operation : computed) {
+                        instructions.add(new AssignmentAST(operation.var.getName(), operation.expr));
+                    }
+                }
+                instructions.add(instruction);
+            }
+            block.setInstructions(instructions);
+        }
+
+        available = outerAvailable;
+        locals = outerLocals;
+        currentBlock = outerBlock;
+        currentInstruction = outerInstruction;
+    }
+
+    private void optimizeConditional(ConditionalAST conditional) {
+        boolean calls = LoopEffects.callsMethods(conditional.getIfStatement().getGuard());
+        for (IfStatementAST elseIf : conditional.getElseIfStatements()) {
+            calls |= LoopEffects.callsMethods(elseIf.getGuard());
+        }
+        startInstruction(conditional, calls);
+        IfStatementAST ifStmt = conditional.getIfStatement();
+        ifStmt.setGuard(optimize(ifStmt.getGuard(), true));
+        optimizeBlock(ifStmt.getThen(), new LinkedHashMap<String, Operation>(available));
+        for (IfStatementAST elseIf : conditional.getElseIfStatements()) {
+            // (the elseif guards might not be evaluated)
+            elseIf.setGuard(optimize(elseIf.getGuard(), false));
+            optimizeBlock(elseIf.getThen(), new LinkedHashMap<String, Operation>(available));
+        }
+        optimizeBlock(conditional.getElseStatement(), new LinkedHashMap<String, Operation>(available));
+        killEffects(new LoopEffects(conditional.getIfStatement().getThen()));
+        for (IfStatementAST elseIf : conditional.getElseIfStatements()) {
+            killEffects(new LoopEffects(elseIf.getThen()));
+        }
+        if(conditional.getElseStatement() != null) {
+            killEffects(new LoopEffects(conditional.getElseStatement()));
+        }
+    }
+
+    private void optimizeIteration(IterationAST iteration) {
+        if(iteration.getFrom() != null) {
+            optimizeBlock(iteration.getFrom(), new LinkedHashMap<String, Operation>(available));
+            killEffects(new LoopEffects(iteration.getFrom()));
+        }
+        // the condition and the body are run again and again, so they
+        // can only use the values that don't change in the loop
+        LoopEffects effects = new LoopEffects(iteration);
+        killEffects(effects);
+        startInstruction(iteration, false);
+        iteration.setUntil(optimize(iteration.getUntil(), false));
+        optimizeBlock(iteration.getLoop(), new LinkedHashMap<String, Operation>(available));
+    }
+
+    private void startInstruction(InstructionAST instruction, boolean calls) {
+        currentInstruction = instruction;
+        callsMethods = calls;
+        mayHaveFailed = false;
+        if(calls) {
+            killFields();
+        }
+    }
+
+    /**
+     * Replaces the available operations in an expression tree with
+     * variables, returns the new root of the tree.
+     *
+     * @param evaluated if true, the expression is always evaluated by
+     *        the current instruction, so its operations can be made
+     *        available
+     */
+    private ExpressionAST optimize(ExpressionAST expr, boolean evaluated) {
+        boolean candidate = isCandidate(expr);
+        if(candidate) {
+            Operation operation = available.get(key(expr));
+            if(operation != null) {
+                return use(operation, expr);
+            }
+        }
+        boolean failedBefore = mayHaveFailed;
+        if(expr instanceof UnaryExpressionAST) {
+            UnaryExpressionAST unary = (UnaryExpressionAST)expr;
+            unary.setExpression(optimize(unary.getExpression(), evaluated));
+        } else if(expr instanceof BinaryExpressionAST) {
+            BinaryExpressionAST binary = (BinaryExpressionAST)expr;
+            Value op = binary.getOperator().getValue();
+            binary.setLhs(optimize(binary.getLhs(), evaluated));
+            if(op != Value.DOT) {
+                // the rhs of "and then" and "or else" might not be evaluated
+                binary.setRhs(optimize(binary.getRhs(),
+                        evaluated && op != Value.AND_THEN && op != Value.OR_ELSE));
+            } else if(binary.getRhs() instanceof InvocationAST) {
+                optimizeArguments((InvocationAST)binary.getRhs(), evaluated);
+            }
+        } else if(expr instanceof InvocationAST) {
+            optimizeArguments((InvocationAST)expr, evaluated);
+        }
+        if(candidate) {
+            // (with the operations of the subexpressions replaced)
+            String key = key(expr);
+            Operation operation = available.get(key);
+            if(operation != null) {
+                return use(operation, expr);
+            }
+            boolean mayFail = ExpressionRewriter.hasSideEffects(expr);
+            if(evaluated && (!mayFail || (!failedBefore && !callsMethods))) {
+                operation = new Operation();
+                operation.expr = expr;
+                operation.names = new HashSet<String>();
+                operation.readsFields = reads(expr, operation.names);
+                if(!operation.names.isEmpty() && (!callsMethods || !operation.readsFields)) {
+                    operation.instruction = currentInstruction;
+                    operation.block = currentBlock;
+                    operation.order = ++operationCount;
+                    available.put(key, operation);
+                }
+            }
+            mayHaveFailed |= mayFail;
+        } else if(ExpressionRewriter.hasSideEffects(expr)) {
+            mayHaveFailed = true;
+        }
+        return expr;
+    }
+
+    private void optimizeArguments(InvocationAST invocation, boolean evaluated) {
+        for (ListIterator<ExpressionAST> i = invocation.getArguments().listIterator(); i.hasNext(); ) {
+            i.set(optimize(i.next(), evaluated));
+        }
+    }
+
+    /**
+     * Returns true if the value of the expression can be reused: it's
+     * an operation (or a member access) that doesn't call methods.
+     */
+    private static boolean isCandidate(ExpressionAST expr) {
+        if(expr instanceof UnaryExpressionAST) {
+            return !LoopEffects.callsMethods(expr);
+        } else if(expr instanceof BinaryExpressionAST) {
+            BinaryExpressionAST binary = (BinaryExpressionAST)expr;
+            return !LoopEffects.callsMethods(binary.getLhs()) &&
+                   (binary.getOperator().getValue() == Value.DOT ?
+                       binary.getRhs() instanceof SimpleExpressionAST :
+                       !LoopEffects.callsMethods(binary.getRhs()));
+        }
+        return false;
+    }
+
+    private static String key(ExpressionAST expr) {
+        return expr.getType() + " " + expr;
+    }
+
+    /**
+     * Returns the variable that holds the value of an available
+     * operation, storing the value of its first occurrence to it
+     * if necessary.
+     */
+    private SimpleExpressionAST use(Operation operation, ExpressionAST expr) {
+        if(operation.var == null) {
+            operation.var = new VariableDeclAST(
+                    new Token(TokenType.IDENTIFIER, "cse$" + (++variableCount)),
+                    new Token(TokenType.IDENTIFIER, operation.expr.getType().getName()),
+                    null
+            );
+            operation.var.setType(operation.expr.getType());
+            operation.var.setNullness(operation.expr.getNullness());
+            // declare the variable in the block of the first occurrence...
+            InstructionsAST block = operation.block.instructions;
+            List<VariableDeclAST> decls = new LinkedList<VariableDeclAST>(block.getLocalDecls());
+            decls.add(operation.var);
+            block.setLocalDecls(decls);
+            // ...replace the occurrence and set the variable before its instruction
+            SimpleExpressionAST first = reference(operation.var, operation.expr);
+            List<Operation> computed = operation.block.computed.get(operation.instruction);
+            if(computed == null) {
+                computed = new LinkedList<Operation>();
+                operation.block.computed.put(operation.instruction, computed);
+            }
+            for (Operation other : computed) {
+                other.expr = replace(other.expr, operation.expr, first);
+            }
+            replace(operation.instruction, operation.expr, first);
+            // (the values of the subexpressions are needed first)
+            int index = 0;
+            while(index < computed.size() && computed.get(index).order < operation.order) {
+                index++;
+            }
+            computed.add(index, operation);
+        }
+        eliminatedExpressions++;
+        return reference(operation.var, expr);
+    }
+
+    /**
+     * Replaces an expression in the part of an instruction that is
+     * always evaluated.
+     */
+    private static void replace(InstructionAST instruction, ExpressionAST expr, ExpressionAST replacement) {
+        if(instruction instanceof ExpressionAST) {
+            replace((ExpressionAST)instruction, expr, replacement);
+        } else if(instruction instanceof AssignmentAST) {
+            AssignmentAST assignment = (AssignmentAST)instruction;
+            assignment.setExpression(replace(assignment.getExpression(), expr, replacement));
+        } else if(instruction instanceof ConditionalAST) {
+            IfStatementAST ifStmt = ((ConditionalAST)instruction).getIfStatement();
+            ifStmt.setGuard(replace(ifStmt.getGuard(), expr, replacement));
+        }
+    }
+
+    /**
+     * Replaces an expression (the same object) in an expression tree,
+     * returns the new root of the tree.
+     */
+    private static ExpressionAST replace(ExpressionAST tree, ExpressionAST expr, ExpressionAST replacement) {
+        if(tree == expr) {
+            return replacement;
+        } else if(tree instanceof UnaryExpressionAST) {
+            UnaryExpressionAST unary = (UnaryExpressionAST)tree;
+            unary.setExpression(replace(unary.getExpression(), expr, replacement));
+        } else if(tree instanceof BinaryExpressionAST) {
+            BinaryExpressionAST binary = (BinaryExpressionAST)tree;
+            binary.setLhs(replace(binary.getLhs(), expr, replacement));
+            binary.setRhs(replace(binary.getRhs(), expr, replacement));
+        } else if(tree instanceof InvocationAST) {
+            for (ListIterator<ExpressionAST> i = ((InvocationAST)tree).getArguments().listIterator(); i.hasNext(); ) {
+                i.set(replace(i.next(), expr, replacement));
+            }
+        }
+        return tree;
+    }
+
+    /**
+     * Refers to a variable at the position of the given expression.
+     */
+    private static SimpleExpressionAST reference(VariableDeclAST var, ExpressionAST position) {
+        Token token = new Token(TokenType.IDENTIFIER, var.getName().getText());
+        token.setPosition(position.getLocationToken().getPosition());
+        SimpleExpressionAST reference = new SimpleExpressionAST(token);
+        reference.setType(var.getType());
+        reference.setNullness(var.getNullness());
+        return reference;
+    }
+
+    /**
+     * Collects the names of the variables that an expression reads,
+     * returns true if it reads fields (other than constants).
+     */
+    private boolean reads(ExpressionAST expr, Set<String> names) {
+        if(expr instanceof SimpleExpressionAST) {
+            if(expr.getLocationToken().getType() != TokenType.IDENTIFIER) {
+                return false;
+            }
+            String name = expr.getLocationToken().getText();
+            if(name.equals("current") || name.equals("void")) {
+                return false;
+            }
+            names.add(name);
+            if(locals.contains(name)) {
+                return false;
+            }
+            for (VariableDeclAST field : currentClass.getSignature().getVariables()) {
+                if(field.getName().getText().equals(name)) {
+                    return field.getConstantValue() == null;
+                }
+            }
+            return false;
+        } else if(expr instanceof UnaryExpressionAST) {
+            return reads(((UnaryExpressionAST)expr).getExpression(), names);
+        } else if(expr instanceof BinaryExpressionAST) {
+            BinaryExpressionAST binary = (BinaryExpressionAST)expr;
+            boolean fields = reads(binary.getLhs(), names);
+            if(binary.getOperator().getValue() == Value.DOT) {
+                // (the name of the member is collected too, since
+                // assigning a field of the current object may change it)
+                names.add(binary.getRhs().getLocationToken().getText());
+                return true;
+            }
+            return reads(binary.getRhs(), names) || fields;
+        }
+        return false;
+    }
+
+    /**
+     * Removes the operations that read the given variable.
+     */
+    private void killVariable(String name) {
+        for (Iterator<Operation> i = available.values().iterator(); i.hasNext(); ) {
+            if(i.next().names.contains(name)) {
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes the operations that read fields.
+     */
+    private void killFields() {
+        for (Iterator<Operation> i = available.values().iterator(); i.hasNext(); ) {
+            if(i.next().readsFields) {
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes the operations whose values running a block (or a loop)
+     * may change.
+     */
+    private void killEffects(LoopEffects effects) {
+        for (Iterator<Operation> i = available.values().iterator(); i.hasNext(); ) {
+            Operation operation = i.next();
+            boolean changed = operation.readsFields && effects.callsMethods();
+            for (String name : operation.names) {
+                changed |= effects.changes(name);
+            }
+            if(changed) {
+                i.remove();
+            }
+        }
+    }
+
+}
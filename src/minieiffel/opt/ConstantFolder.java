@@ -0,0 +1,347 @@
+package minieiffel.opt;
+
+import minieiffel.Token;
+import minieiffel.Token.TokenType;
+import minieiffel.Token.Value;
+import minieiffel.ast.BinaryExpressionAST;
+import minieiffel.ast.ExpressionAST;
+import minieiffel.ast.SimpleExpressionAST;
+import minieiffel.ast.UnaryExpressionAST;
+import minieiffel.semantics.Nullness;
+import minieiffel.semantics.Type;
+
+/**
+ * Folds operations on literal values (of the types
+ * <code>INTEGER</code>, <code>REAL</code>, <code>BOOLEAN</code> and
+ * <code>CHARACTER</code>) into literals, e.g. <code>(3 * 4) + x</code>
+ * becomes <code>12 + x</code> and <code>not true</code> becomes
+ * <code>false</code>. The results are computed the same way as in the
+ * generated code: integers wrap around on overflow, reals are single
+ * precision and characters are treated as integers. Integer divisions
+ * by zero are left alone so that they still fail at run time.
+ *
+ * <p>Identities such as <code>x + 0</code>, <code>x * 1</code>,
+ * <code>b and then true</code> or <code>not not b</code> are simplified
+ * as well, as long as the type of the expression doesn't change and
+ * no operand that has side effects is dropped.</p>
+ *
+ * <p>The new literals get the position of the expression they
+ * replace, so errors can still be reported at the right place.</p>
+ */
+public class ConstantFolder extends ExpressionRewriter {
+
+    protected ExpressionAST rewrite(ExpressionAST expr) {
+        if(expr instanceof UnaryExpressionAST) {
+            return foldUnary((UnaryExpressionAST)expr);
+        } else if(expr instanceof BinaryExpressionAST) {
+            return foldBinary((BinaryExpressionAST)expr);
+        }
+        return expr;
+    }
+
+    /* private implementation follows */
+
+    private ExpressionAST foldUnary(UnaryExpressionAST expr) {
+        ExpressionAST operand = expr.getExpression();
+        Object value = literalValue(operand);
+        Value op = expr.getOperator().getValue();
+        if(value != null) {
+            if(op == Value.NOT) {
+                return literal(!(Boolean)value, expr);
+            } else if(value instanceof Float) {
+                return literal(-(Float)value, expr);
+            } else {
+                return literal(-intValue(value), expr);
+            }
+        }
+        // not not b, - - x
+        if(operand instanceof UnaryExpressionAST &&
+                ((UnaryExpressionAST)operand).getOperator().getValue() == op) {
+            ExpressionAST inner = ((UnaryExpressionAST)operand).getExpression();
+            if(canReplace(expr, inner)) {
+                return inner;
+            }
+        }
+        return expr;
+    }
+
+    private ExpressionAST foldBinary(BinaryExpressionAST expr) {
+        Object a = literalValue(expr.getLhs());
+        Object b = literalValue(expr.getRhs());
+        if(a != null && b != null) {
+            Object result = evaluate(expr.getOperator().getValue(), a, b, expr.getType());
+            if(result != null) {
+                return literal(result, expr);
+            }
+            return expr;
+        }
+        return simplify(expr, a, b);
+    }
+
+    /**
+     * Computes the value of a binary operation on literal values,
+     * returns null if it can't (or shouldn't) be computed.
+     */
+    private static Object evaluate(Value op, Object a, Object b, Type type) {
+        switch(op) {
+        case PLUS:
+        case MINUS:
+        case MULTIPLY:
+        case DIVIDE:
+        case REMAINDER:
+            if(type == Type.INTEGER) {
+                return evaluateInteger(op, intValue(a), intValue(b));
+            } else if(type == Type.REAL) {
+                return evaluateReal(op, floatValue(a), floatValue(b));
+            }
+            return null;
+        case EQUALITY:
+        case INEQUALITY:
+            if(a instanceof Boolean && b instanceof Boolean) {
+                return a.equals(b) == (op == Value.EQUALITY);
+            } else if(a instanceof Boolean || b instanceof Boolean) {
+                return null;
+            }
+            return compare(op, a, b);
+        case LESS:
+        case LESS_OR_EQUAL:
+        case GREATER:
+        case GREATER_OR_EQUAL:
+            return compare(op, a, b);
+        case AND:
+        case AND_THEN:
+            return (Boolean)a && (Boolean)b;
+        case OR:
+        case OR_ELSE:
+            return (Boolean)a || (Boolean)b;
+        case XOR:
+            return (Boolean)a ^ (Boolean)b;
+        default:
+            return null;
+        }
+    }
+
+    private static Integer evaluateInteger(Value op, int a, int b) {
+        switch(op) {
+        case PLUS:
+            return a + b;
+        case MINUS:
+            return a - b;
+        case MULTIPLY:
+            return a * b;
+        case DIVIDE:
+            return (b == 0 ? null : a / b);
+        default:
+            return (b == 0 ? null : a % b);
+        }
+    }
+
+    private static Float evaluateReal(Value op, float a, float b) {
+        switch(op) {
+        case PLUS:
+            return a + b;
+        case MINUS:
+            return a - b;
+        case MULTIPLY:
+            return a * b;
+        case DIVIDE:
+            return a / b;
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Compares two numeric values (as reals if either one is real).
+     */
+    private static Boolean compare(Value op, Object a, Object b) {
+        if(a instanceof Float || b instanceof Float) {
+            float x = floatValue(a);
+            float y = floatValue(b);
+            switch(op) {
+            case EQUALITY:
+                return x == y;
+            case INEQUALITY:
+                return x != y;
+            case LESS:
+                return x < y;
+            case LESS_OR_EQUAL:
+                return x <= y;
+            case GREATER:
+                return x > y;
+            default:
+                return x >= y;
+            }
+        }
+        int x = intValue(a);
+        int y = intValue(b);
+        switch(op) {
+        case EQUALITY:
+            return x == y;
+        case INEQUALITY:
+            return x != y;
+        case LESS:
+            return x < y;
+        case LESS_OR_EQUAL:
+            return x <= y;
+        case GREATER:
+            return x > y;
+        default:
+            return x >= y;
+        }
+    }
+
+    /**
+     * Simplifies identities in which one operand is a literal.
+     */
+    private ExpressionAST simplify(BinaryExpressionAST expr, Object a, Object b) {
+        ExpressionAST lhs = expr.getLhs();
+        ExpressionAST rhs = expr.getRhs();
+        switch(expr.getOperator().getValue()) {
+        case PLUS:
+            // (only for integers, x + 0 isn't x for the real -0.0)
+            if(expr.getType() != Type.INTEGER) {
+                break;
+            } else if(isZero(b) && canReplace(expr, lhs)) {
+                return lhs;
+            } else if(isZero(a) && canReplace(expr, rhs)) {
+                return rhs;
+            }
+            break;
+        case MINUS:
+            if(expr.getType() == Type.INTEGER && isZero(b) && canReplace(expr, lhs)) {
+                return lhs;
+            }
+            break;
+        case MULTIPLY:
+            if(isOne(b) && canReplace(expr, lhs)) {
+                return lhs;
+            } else if(isOne(a) && canReplace(expr, rhs)) {
+                return rhs;
+            } else if(expr.getType() == Type.INTEGER &&
+                    (isZero(b) && !hasSideEffects(lhs) ||
+                     isZero(a) && !hasSideEffects(rhs))) {
+                return literal(0, expr);
+            }
+            break;
+        case DIVIDE:
+            if(isOne(b) && canReplace(expr, lhs)) {
+                return lhs;
+            }
+            break;
+        case AND:
+        case AND_THEN:
+            if(Boolean.TRUE.equals(b) && canReplace(expr, lhs)) {
+                return lhs;
+            } else if(Boolean.TRUE.equals(a) && canReplace(expr, rhs)) {
+                return rhs;
+            } else if(Boolean.FALSE.equals(a) &&
+                    (expr.getOperator().getValue() == Value.AND_THEN || !hasSideEffects(rhs)) ||
+                    Boolean.FALSE.equals(b) && !hasSideEffects(lhs)) {
+                return literal(false, expr);
+            }
+            break;
+        case OR:
+        case OR_ELSE:
+            if(Boolean.FALSE.equals(b) && canReplace(expr, lhs)) {
+                return lhs;
+            } else if(Boolean.FALSE.equals(a) && canReplace(expr, rhs)) {
+                return rhs;
+            } else if(Boolean.TRUE.equals(a) &&
+                    (expr.getOperator().getValue() == Value.OR_ELSE || !hasSideEffects(rhs)) ||
+                    Boolean.TRUE.equals(b) && !hasSideEffects(lhs)) {
+                return literal(true, expr);
+            }
+            break;
+        case XOR:
+            if(Boolean.FALSE.equals(b) && canReplace(expr, lhs)) {
+                return lhs;
+            } else if(Boolean.FALSE.equals(a) && canReplace(expr, rhs)) {
+                return rhs;
+            }
+            break;
+        default:
+            break;
+        }
+        return expr;
+    }
+
+    /**
+     * Returns true if the given operand of an expression can
+     * replace the expression: it must be of the same type and
+     * never void (otherwise the operation would fail).
+     */
+    private static boolean canReplace(ExpressionAST expr, ExpressionAST operand) {
+        return operand.getType() == expr.getType() &&
+               operand.getNullness() == Nullness.NEVER_VOID;
+    }
+
+    /**
+     * Returns the value of a literal expression (as an Integer, Float,
+     * Boolean or Character) or null if the expression isn't a literal.
+     */
+    private static Object literalValue(ExpressionAST expr) {
+        if(!isLiteral(expr)) {
+            return null;
+        }
+        Token token = expr.getLocationToken();
+        switch(token.getType()) {
+        case INT_LITERAL:
+            return Integer.valueOf(token.getText());
+        case REAL_LITERAL:
+            return Float.valueOf(token.getText());
+        case BOOLEAN_LITERAL:
+            return Boolean.valueOf(token.getText());
+        default:
+            return token.getText().charAt(0);
+        }
+    }
+
+    private static int intValue(Object value) {
+        if(value instanceof Character) {
+            return (Character)value;
+        }
+        return (Integer)value;
+    }
+
+    private static float floatValue(Object value) {
+        if(value instanceof Float) {
+            return (Float)value;
+        }
+        return intValue(value);
+    }
+
+    private static boolean isZero(Object value) {
+        return value instanceof Integer && (Integer)value == 0;
+    }
+
+    private static boolean isOne(Object value) {
+        return value instanceof Integer && (Integer)value == 1 ||
+               value instanceof Float && (Float)value == 1.0f;
+    }
+
+    /**
+     * Creates a literal for the given value that
+     * replaces the given expression.
+     */
+    static SimpleExpressionAST literal(Object value, ExpressionAST replaced) {
+        Token token;
+        Type type;
+        if(value instanceof Boolean) {
+            token = new Token((Boolean)value ? Value.TRUE : Value.FALSE);
+            type = Type.BOOLEAN;
+        } else if(value instanceof Float) {
+            token = new Token(TokenType.REAL_LITERAL, value.toString());
+            type = Type.REAL;
+        } else {
+            token = new Token(TokenType.INT_LITERAL, value.toString());
+            type = Type.INTEGER;
+        }
+        token.setPosition(replaced.getLocationToken().getPosition());
+        SimpleExpressionAST literal = new SimpleExpressionAST(token);
+        literal.setType(type);
+        literal.setNullness(Nullness.NEVER_VOID);
+        return literal;
+    }
+
+}
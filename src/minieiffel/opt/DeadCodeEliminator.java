@@ -0,0 +1,463 @@
+package minieiffel.opt;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import minieiffel.Token;
+import minieiffel.Token.TokenType;
+import minieiffel.Token.Value;
+import minieiffel.ast.AssignmentAST;
+import minieiffel.ast.BinaryExpressionAST;
+import minieiffel.ast.ClassAST;
+import minieiffel.ast.ConditionalAST;
+import minieiffel.ast.ConstructionAST;
+import minieiffel.ast.ExpressionAST;
+import minieiffel.ast.FeatureAST;
+import minieiffel.ast.FeatureBlockAST;
+import minieiffel.ast.IfStatementAST;
+import minieiffel.ast.InstructionAST;
+import minieiffel.ast.InstructionsAST;
+import minieiffel.ast.InvocationAST;
+import minieiffel.ast.IterationAST;
+import minieiffel.ast.MethodAST;
+import minieiffel.ast.ParamDeclAST;
+import minieiffel.ast.ProgramAST;
+import minieiffel.ast.SimpleExpressionAST;
+import minieiffel.ast.UnaryExpressionAST;
+import minieiffel.ast.VariableDeclAST;
+import minieiffel.semantics.Nullness;
+import minieiffel.semantics.Type;
+
+/**
+ * Removes code that is never run or whose results are never used:
+ *
+ * <ul>
+ * <li>the branches of conditionals whose guard is the literal
+ *     <code>false</code>, and the branches that follow a guard
+ *     that is the literal <code>true</code></li>
+ * <li>the bodies of loops whose <code>until</code> condition is the
+ *     literal <code>true</code>, and the instructions that follow a
+ *     loop that never ends (the condition is <code>false</code>)</li>
+ * <li>empty <code>else</code> parts and conditionals with no
+ *     branches left (a branch that is always taken replaces
+ *     the whole conditional)</li>
+ * <li>assignments (and constructions) to local variables and
+ *     parameters that are never read in the method</li>
+ * </ul>
+ *
+ * <p>Guards only become literals when the {@link ConstantFolder} has
+ * been run first. The number of removed instructions (nested ones
+ * included) is added up over all the programs optimized.</p>
+ */
+public class DeadCodeEliminator implements OptimizationPass {
+
+    /** number of instructions removed so far */
+    private int removedInstructions;
+
+    /** the class and method being optimized */
+    private ClassAST currentClass;
+    private MethodAST currentMethod;
+
+    /** number of declarations of each variable name in the current method */
+    private Map<String, Integer> declarationCounts = new HashMap<String, Integer>();
+
+    public void optimize(ProgramAST program) {
+        for (ClassAST klass : program.getClasses()) {
+            currentClass = klass;
+            for (FeatureBlockAST block : klass.getFeatureBlocks()) {
+                for (FeatureAST feature : block.getFeatures()) {
+                    if(feature instanceof MethodAST &&
+                            ((MethodAST)feature).getInstructions() != null) {
+                        currentMethod = (MethodAST)feature;
+                        countDeclarations();
+                        eliminateBlock(currentMethod.getInstructions());
+                        removeDeadAssignments();
+                    }
+                }
+            }
+        }
+        currentClass = null;
+        currentMethod = null;
+        declarationCounts.clear();
+    }
+
+    /**
+     * Returns the number of instructions removed so far.
+     */
+    public int getRemovedInstructions() {
+        return removedInstructions;
+    }
+
+    /* private implementation follows */
+
+    /**
+     * Removes the unreachable code of a block. Returns false if the
+     * end of the block is never reached (because of a loop that never
+     * ends), the instructions after such a loop are removed.
+     */
+    private boolean eliminateBlock(InstructionsAST block) {
+        List<InstructionAST> instructions = new LinkedList<InstructionAST>();
+        List<VariableDeclAST> decls = new LinkedList<VariableDeclAST>(block.getLocalDecls());
+        boolean completes = true;
+        for (Iterator<InstructionAST> i = block.getInstructions().iterator(); i.hasNext(); ) {
+            InstructionAST instruction = i.next();
+            if(instruction instanceof ConditionalAST) {
+                completes = eliminateConditional((ConditionalAST)instruction, instructions, decls);
+            } else if(instruction instanceof IterationAST) {
+                completes = eliminateIteration((IterationAST)instruction, instructions, decls);
+            } else {
+                instructions.add(instruction);
+            }
+            if(!completes) {
+                while(i.hasNext()) {
+                    removedInstructions += count(i.next());
+                }
+            }
+        }
+        block.setInstructions(instructions);
+        block.setLocalDecls(decls);
+        return completes;
+    }
+
+    /**
+     * Removes the dead branches of a conditional and adds what's left
+     * of it to the given instructions (the variables of a block that
+     * replaces the conditional are added to the given declarations).
+     */
+    private boolean eliminateConditional(
+            ConditionalAST conditional,
+            List<InstructionAST> instructions,
+            List<VariableDeclAST> decls) {
+
+        List<IfStatementAST> branches = new LinkedList<IfStatementAST>();
+        branches.add(conditional.getIfStatement());
+        branches.addAll(conditional.getElseIfStatements());
+
+        List<IfStatementAST> live = new LinkedList<IfStatementAST>();
+        InstructionsAST otherwise = conditional.getElseStatement();
+        boolean changed = false;
+
+        for (Iterator<IfStatementAST> i = branches.iterator(); i.hasNext(); ) {
+            IfStatementAST branch = i.next();
+            if(isBooleanLiteral(branch.getGuard(), false)) {
+                removedInstructions += count(branch.getThen());
+                changed = true;
+            } else if(isBooleanLiteral(branch.getGuard(), true)) {
+                // the rest of the branches are never reached,
+                // this one becomes the else part
+                while(i.hasNext()) {
+                    removedInstructions += count(i.next().getThen());
+                }
+                removedInstructions += count(otherwise);
+                otherwise = branch.getThen();
+                changed = true;
+                break;
+            } else {
+                live.add(branch);
+            }
+        }
+
+        // without an else part, the end is reached when no guard holds
+        boolean completes = (otherwise == null);
+        for (IfStatementAST branch : live) {
+            completes |= (branch.getThen() == null || eliminateBlock(branch.getThen()));
+        }
+        if(otherwise != null) {
+            completes |= eliminateBlock(otherwise);
+            if(otherwise.getInstructions().isEmpty()) {
+                otherwise = null;
+                completes = true;
+                changed = true;
+            }
+        }
+
+        if(live.isEmpty()) {
+            if(otherwise == null) {
+                removedInstructions++;
+            } else {
+                splice(otherwise, instructions, decls, new ConditionalAST(
+                        new IfStatementAST(trueLiteral(conditional.getLocationToken()), otherwise),
+                        Collections.<IfStatementAST>emptyList(),
+                        null
+                ));
+            }
+        } else if(changed) {
+            instructions.add(new ConditionalAST(live.remove(0), live, otherwise));
+        } else {
+            instructions.add(conditional);
+        }
+        return completes;
+    }
+
+    /**
+     * Removes the body of a loop that's never run (only the from part is
+     * left) and adds what's left of the loop to the given instructions.
+     */
+    private boolean eliminateIteration(
+            IterationAST iteration,
+            List<InstructionAST> instructions,
+            List<VariableDeclAST> decls) {
+
+        InstructionsAST from = iteration.getFrom();
+        boolean completes = (from == null || eliminateBlock(from));
+        if(isBooleanLiteral(iteration.getUntil(), true)) {
+            removedInstructions += count(iteration.getLoop());
+            if(from == null) {
+                removedInstructions++;
+            } else {
+                splice(from, instructions, decls,
+                        new IterationAST(from, iteration.getUntil(), null));
+            }
+            return completes;
+        }
+        if(iteration.getLoop() != null) {
+            eliminateBlock(iteration.getLoop());
+        }
+        instructions.add(iteration);
+        return completes && !isBooleanLiteral(iteration.getUntil(), false);
+    }
+
+    /**
+     * Adds the contents of a block to the enclosing block in place of the
+     * instruction it belongs to. If one of its variables is declared
+     * elsewhere in the method too (or is a field of the class), the
+     * variables can't be moved and the given replacement is added instead.
+     */
+    private void splice(
+            InstructionsAST block,
+            List<InstructionAST> instructions,
+            List<VariableDeclAST> decls,
+            InstructionAST replacement) {
+
+        for (VariableDeclAST var : block.getLocalDecls()) {
+            String name = var.getName().getText();
+            if(declarationCounts.get(name) > 1 || isField(name)) {
+                instructions.add(replacement);
+                return;
+            }
+        }
+        instructions.addAll(block.getInstructions());
+        decls.addAll(block.getLocalDecls());
+        removedInstructions++;
+    }
+
+    /**
+     * Removes assignments to variables that are never read, until
+     * no more can be removed (a removed assignment may have been the
+     * only read of another variable).
+     */
+    private void removeDeadAssignments() {
+        Set<String> read = new HashSet<String>();
+        do {
+            read.clear();
+            collectReads(currentMethod.getInstructions(), read);
+        } while(removeAssignments(currentMethod.getInstructions(), read));
+    }
+
+    private boolean removeAssignments(InstructionsAST block, Set<String> read) {
+        boolean removed = false;
+        if(block == null) {
+            return removed;
+        }
+        for (Iterator<InstructionAST> i = block.getInstructions().iterator(); i.hasNext(); ) {
+            InstructionAST instruction = i.next();
+            if(instruction instanceof AssignmentAST) {
+                AssignmentAST assignment = (AssignmentAST)instruction;
+                if(isDeadStore(assignment.getIdentifier(), read) &&
+                        !ExpressionRewriter.hasSideEffects(assignment.getExpression())) {
+                    i.remove();
+                    removedInstructions++;
+                    removed = true;
+                }
+            } else if(instruction instanceof ConstructionAST) {
+                if(isDeadStore(((ConstructionAST)instruction).getIdentifier(), read)) {
+                    i.remove();
+                    removedInstructions++;
+                    removed = true;
+                }
+            } else if(instruction instanceof ConditionalAST) {
+                ConditionalAST conditional = (ConditionalAST)instruction;
+                removed |= removeAssignments(conditional.getIfStatement().getThen(), read);
+                for (IfStatementAST elseIf : conditional.getElseIfStatements()) {
+                    removed |= removeAssignments(elseIf.getThen(), read);
+                }
+                removed |= removeAssignments(conditional.getElseStatement(), read);
+            } else if(instruction instanceof IterationAST) {
+                IterationAST iteration = (IterationAST)instruction;
+                removed |= removeAssignments(iteration.getFrom(), read);
+                removed |= removeAssignments(iteration.getLoop(), read);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Returns true if a value stored to the given variable is never
+     * read, i.e. the variable is a local one (or a parameter) that
+     * isn't read anywhere in the method.
+     */
+    private boolean isDeadStore(Token identifier, Set<String> read) {
+        String name = identifier.getText();
+        return !read.contains(name) && !"result".equals(name) && !isField(name);
+    }
+
+    /**
+     * Adds the names of all variables read in a block to the given set.
+     */
+    private void collectReads(InstructionsAST block, Set<String> read) {
+        if(block == null) {
+            return;
+        }
+        for (InstructionAST instruction : block.getInstructions()) {
+            if(instruction instanceof ExpressionAST) {
+                collectReads((ExpressionAST)instruction, read);
+            } else if(instruction instanceof AssignmentAST) {
+                collectReads(((AssignmentAST)instruction).getExpression(), read);
+            } else if(instruction instanceof ConditionalAST) {
+                ConditionalAST conditional = (ConditionalAST)instruction;
+                collectReads(conditional.getIfStatement().getGuard(), read);
+                collectReads(conditional.getIfStatement().getThen(), read);
+                for (IfStatementAST elseIf : conditional.getElseIfStatements()) {
+                    collectReads(elseIf.getGuard(), read);
+                    collectReads(elseIf.getThen(), read);
+                }
+                collectReads(conditional.getElseStatement(), read);
+            } else if(instruction instanceof IterationAST) {
+                IterationAST iteration = (IterationAST)instruction;
+                collectReads(iteration.getFrom(), read);
+                collectReads(iteration.getUntil(), read);
+                collectReads(iteration.getLoop(), read);
+            }
+        }
+    }
+
+    private void collectReads(ExpressionAST expr, Set<String> read) {
+        if(expr instanceof SimpleExpressionAST) {
+            if(expr.getLocationToken().getType() == TokenType.IDENTIFIER) {
+                read.add(expr.getLocationToken().getText());
+            }
+        } else if(expr instanceof UnaryExpressionAST) {
+            collectReads(((UnaryExpressionAST)expr).getExpression(), read);
+        } else if(expr instanceof BinaryExpressionAST) {
+            BinaryExpressionAST binary = (BinaryExpressionAST)expr;
+            collectReads(binary.getLhs(), read);
+            // the member of "a.b" is not a variable of this method
+            if(binary.getOperator().getValue() != Value.DOT ||
+                    binary.getRhs() instanceof InvocationAST) {
+                collectReads(binary.getRhs(), read);
+            }
+        } else if(expr instanceof InvocationAST) {
+            for (ExpressionAST arg : ((InvocationAST)expr).getArguments()) {
+                collectReads(arg, read);
+            }
+        }
+    }
+
+    /**
+     * Counts how many times each variable name is declared in the
+     * current method (as a parameter or a local variable).
+     */
+    private void countDeclarations() {
+        declarationCounts.clear();
+        for (ParamDeclAST param : currentMethod.getParamDecls()) {
+            countDeclaration(param.getName().getText());
+        }
+        for (VariableDeclAST var : currentMethod.getLocalVariableDecls()) {
+            countDeclaration(var.getName().getText());
+        }
+        countDeclarations(currentMethod.getInstructions());
+    }
+
+    private void countDeclarations(InstructionsAST block) {
+        if(block == null) {
+            return;
+        }
+        for (VariableDeclAST var : block.getLocalDecls()) {
+            countDeclaration(var.getName().getText());
+        }
+        for (InstructionAST instruction : block.getInstructions()) {
+            if(instruction instanceof ConditionalAST) {
+                ConditionalAST conditional = (ConditionalAST)instruction;
+                countDeclarations(conditional.getIfStatement().getThen());
+                for (IfStatementAST elseIf : conditional.getElseIfStatements()) {
+                    countDeclarations(elseIf.getThen());
+                }
+                countDeclarations(conditional.getElseStatement());
+            } else if(instruction instanceof IterationAST) {
+                countDeclarations(((IterationAST)instruction).getFrom());
+                countDeclarations(((IterationAST)instruction).getLoop());
+            }
+        }
+    }
+
+    private void countDeclaration(String name) {
+        Integer count = declarationCounts.get(name);
+        declarationCounts.put(name, count == null ? 1 : count + 1);
+    }
+
+    private boolean isField(String name) {
+        for (VariableDeclAST field : currentClass.getSignature().getVariables()) {
+            if(field.getName().getText().equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of instructions in a block (nested ones included).
+     */
+    private static int count(InstructionsAST block) {
+        if(block == null) {
+            return 0;
+        }
+        int count = 0;
+        for (InstructionAST instruction : block.getInstructions()) {
+            count += count(instruction);
+        }
+        return count;
+    }
+
+    private static int count(InstructionAST instruction) {
+        if(instruction instanceof ConditionalAST) {
+            ConditionalAST conditional = (ConditionalAST)instruction;
+            int count = 1 + count(conditional.getIfStatement().getThen());
+            for (IfStatementAST elseIf : conditional.getElseIfStatements()) {
+                count += count(elseIf.getThen());
+            }
+            return count + count(conditional.getElseStatement());
+        } else if(instruction instanceof IterationAST) {
+            IterationAST iteration = (IterationAST)instruction;
+            return 1 + count(iteration.getFrom()) + count(iteration.getLoop());
+        }
+        return 1;
+    }
+
+    /**
+     * Returns true if the expression is the given boolean literal.
+     */
+    private static boolean isBooleanLiteral(ExpressionAST expr, boolean value) {
+        return ExpressionRewriter.isLiteral(expr) &&
+               expr.getLocationToken().getType() == TokenType.BOOLEAN_LITERAL &&
+               Boolean.valueOf(expr.getLocationToken().getText()) == value;
+    }
+
+    /**
+     * Creates the literal <code>true</code> at the given position.
+     */
+    private static SimpleExpressionAST trueLiteral(Token position) {
+        Token token = new Token(Value.TRUE);
+        token.setPosition(position.getPosition());
+        SimpleExpressionAST literal = new SimpleExpressionAST(token);
+        literal.setType(Type.BOOLEAN);
+        literal.setNullness(Nullness.NEVER_VOID);
+        return literal;
+    }
+
+}
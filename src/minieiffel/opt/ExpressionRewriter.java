@@ -0,0 +1,180 @@
+package minieiffel.opt;
+
+import java.util.List;
+import java.util.ListIterator;
+
+import minieiffel.Token.TokenType;
+import minieiffel.Token.Value;
+import minieiffel.ast.AssignmentAST;
+import minieiffel.ast.BinaryExpressionAST;
+import minieiffel.ast.ClassAST;
+import minieiffel.ast.ConditionalAST;
+import minieiffel.ast.ExpressionAST;
+import minieiffel.ast.FeatureAST;
+import minieiffel.ast.FeatureBlockAST;
+import minieiffel.ast.IfStatementAST;
+import minieiffel.ast.InstructionAST;
+import minieiffel.ast.InstructionsAST;
+import minieiffel.ast.InvocationAST;
+import minieiffel.ast.IterationAST;
+import minieiffel.ast.MethodAST;
+import minieiffel.ast.ProgramAST;
+import minieiffel.ast.SimpleExpressionAST;
+import minieiffel.ast.UnaryExpressionAST;
+import minieiffel.semantics.Nullness;
+import minieiffel.semantics.Type;
+
+/**
+ * Base class for passes that rewrite the expressions of method
+ * bodies one node at a time. Each expression tree is walked bottom
+ * up: the subexpressions of a node are rewritten before the node
+ * itself is passed to {@link #rewrite(ExpressionAST)}, and the node
+ * returned replaces the original one in its parent (an instruction
+ * or another expression).
+ */
+public abstract class ExpressionRewriter implements OptimizationPass {
+
+    /** the class and method being rewritten */
+    private ClassAST currentClass;
+    private MethodAST currentMethod;
+
+    public void optimize(ProgramAST program) {
+        for (ClassAST klass : program.getClasses()) {
+            currentClass = klass;
+            for (FeatureBlockAST block : klass.getFeatureBlocks()) {
+                for (FeatureAST feature : block.getFeatures()) {
+                    if(feature instanceof MethodAST &&
+                            ((MethodAST)feature).getInstructions() != null) {
+                        currentMethod = (MethodAST)feature;
+                        rewriteBlock(currentMethod.getInstructions());
+                    }
+                }
+            }
+        }
+        currentClass = null;
+        currentMethod = null;
+    }
+
+    /**
+     * Returns the node that replaces the given expression (or the
+     * expression itself). The subexpressions have been rewritten already.
+     */
+    protected abstract ExpressionAST rewrite(ExpressionAST expr);
+
+    protected ClassAST getCurrentClass() {
+        return currentClass;
+    }
+
+    protected MethodAST getCurrentMethod() {
+        return currentMethod;
+    }
+
+    /**
+     * Rewrites the expressions of the instructions in a block.
+     */
+    protected void rewriteBlock(InstructionsAST block) {
+        for (ListIterator<InstructionAST> i = block.getInstructions().listIterator(); i.hasNext(); ) {
+            InstructionAST instruction = i.next();
+            if(instruction instanceof ExpressionAST) {
+                i.set(rewriteTree((ExpressionAST)instruction));
+            } else if(instruction instanceof AssignmentAST) {
+                AssignmentAST assignment = (AssignmentAST)instruction;
+                assignment.setExpression(rewriteTree(assignment.getExpression()));
+            } else if(instruction instanceof ConditionalAST) {
+                ConditionalAST conditional = (ConditionalAST)instruction;
+                rewriteIfStatement(conditional.getIfStatement());
+                for (IfStatementAST elseIf : conditional.getElseIfStatements()) {
+                    rewriteIfStatement(elseIf);
+                }
+                if(conditional.getElseStatement() != null) {
+                    rewriteBlock(conditional.getElseStatement());
+                }
+            } else if(instruction instanceof IterationAST) {
+                IterationAST iteration = (IterationAST)instruction;
+                if(iteration.getFrom() != null) {
+                    rewriteBlock(iteration.getFrom());
+                }
+                iteration.setUntil(rewriteTree(iteration.getUntil()));
+                if(iteration.getLoop() != null) {
+                    rewriteBlock(iteration.getLoop());
+                }
+            }
+        }
+    }
+
+    private void rewriteIfStatement(IfStatementAST ifStmt) {
+        ifStmt.setGuard(rewriteTree(ifStmt.getGuard()));
+        if(ifStmt.getThen() != null) {
+            rewriteBlock(ifStmt.getThen());
+        }
+    }
+
+    /**
+     * Rewrites an expression tree bottom up and returns its new root.
+     */
+    protected ExpressionAST rewriteTree(ExpressionAST expr) {
+        if(expr instanceof UnaryExpressionAST) {
+            UnaryExpressionAST unary = (UnaryExpressionAST)expr;
+            unary.setExpression(rewriteTree(unary.getExpression()));
+        } else if(expr instanceof BinaryExpressionAST) {
+            BinaryExpressionAST binary = (BinaryExpressionAST)expr;
+            binary.setLhs(rewriteTree(binary.getLhs()));
+            if(binary.getOperator().getValue() != Value.DOT) {
+                binary.setRhs(rewriteTree(binary.getRhs()));
+            } else if(binary.getRhs() instanceof InvocationAST) {
+                // the member itself can't be replaced, only its arguments
+                rewriteArguments((InvocationAST)binary.getRhs());
+            }
+        } else if(expr instanceof InvocationAST) {
+            rewriteArguments((InvocationAST)expr);
+        }
+        return rewrite(expr);
+    }
+
+    private void rewriteArguments(InvocationAST invocation) {
+        List<ExpressionAST> args = invocation.getArguments();
+        for (ListIterator<ExpressionAST> i = args.listIterator(); i.hasNext(); ) {
+            i.set(rewriteTree(i.next()));
+        }
+    }
+
+    /**
+     * Returns true if the expression is a literal value.
+     */
+    protected static boolean isLiteral(ExpressionAST expr) {
+        return expr instanceof SimpleExpressionAST &&
+               TokenType.LITERAL.isCompatibleWith(
+                       expr.getLocationToken().getType()
+               );
+    }
+
+    /**
+     * Returns true if evaluating the expression can have side effects
+     * or fail (i.e. it contains a method call, a member access that may
+     * be done on void, an integer division or power (0 to a negative
+     * power divides by zero) or a variable of a built-in type that may
+     * be void), so it can't be dropped.
+     */
+    protected static boolean hasSideEffects(ExpressionAST expr) {
+        if(expr instanceof InvocationAST) {
+            return true;
+        } else if(expr instanceof SimpleExpressionAST) {
+            return !isLiteral(expr) && expr.getType().isPrimitive() &&
+                   expr.getNullness() != Nullness.NEVER_VOID;
+        } else if(expr instanceof UnaryExpressionAST) {
+            return hasSideEffects(((UnaryExpressionAST)expr).getExpression());
+        } else if(expr instanceof BinaryExpressionAST) {
+            BinaryExpressionAST binary = (BinaryExpressionAST)expr;
+            Value op = binary.getOperator().getValue();
+            if(op == Value.DOT) {
+                return true;
+            } else if((op == Value.DIVIDE || op == Value.REMAINDER || op == Value.POWER) &&
+                    binary.getType() == Type.INTEGER) {
+                return true;
+            }
+            return hasSideEffects(binary.getLhs()) || hasSideEffects(binary.getRhs());
+        }
+        return false;
+    }
+
+}
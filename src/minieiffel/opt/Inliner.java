@@ -0,0 +1,654 @@
+package minieiffel.opt;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Set;
+
+import minieiffel.Token;
+import minieiffel.Token.TokenType;
+import minieiffel.Token.Value;
+import minieiffel.ast.AssignmentAST;
+import minieiffel.ast.BinaryExpressionAST;
+import minieiffel.ast.ClassAST;
+import minieiffel.ast.ConditionalAST;
+import minieiffel.ast.ConstructionAST;
+import minieiffel.ast.ExpressionAST;
+import minieiffel.ast.FeatureAST;
+import minieiffel.ast.FeatureBlockAST;
+import minieiffel.ast.IfStatementAST;
+import minieiffel.ast.InstructionAST;
+import minieiffel.ast.InstructionsAST;
+import minieiffel.ast.InvocationAST;
+import minieiffel.ast.IterationAST;
+import minieiffel.ast.MethodAST;
+import minieiffel.ast.ParamDeclAST;
+import minieiffel.ast.ProgramAST;
+import minieiffel.ast.SimpleExpressionAST;
+import minieiffel.ast.UnaryExpressionAST;
+import minieiffel.ast.VariableDeclAST;
+import minieiffel.semantics.Nullness;
+import minieiffel.semantics.Type;
+
+/**
+ * Replaces calls of small methods with their bodies. Since there's no
+ * inheritance, the method called by an unqualified call (one without
+ * a target object, e.g. <code>equal(a, b)</code>) is always the one
+ * in the same class with a matching signature.
+ *
+ * <p>A method body is inlined if it contains no calls itself (so
+ * recursive methods never are), it's no larger than the
+ * {@link #setMaxInlineSize(int) maximum inline size}, and the growth
+ * of the program stays within the {@link #setGrowthBudget(int) growth
+ * budget}; both are measured in AST nodes. The inlining is repeated
+ * until no more calls can be inlined, so a method becomes a candidate
+ * once all the calls in it have been inlined.</p>
+ *
+ * <p>A method whose body is just <code>result := expression</code> is
+ * inlined as an expression wherever it's called, the arguments replace
+ * the parameters in the expression. Other bodies are inserted before
+ * the instruction that contains the call (an instruction by itself,
+ * the right-hand side of an assignment or the guard of an
+ * <code>if</code>, as long as the call is always evaluated first):
+ * the arguments are assigned to new local variables that replace the
+ * parameters, the locals and the result of the method are renamed as
+ * well, and the call is replaced by the renamed result. The new
+ * variables (named <code>inline$1</code>, <code>inline$2</code> etc)
+ * are declared in the enclosing block, so they're initialized each
+ * time the call would have been made.</p>
+ *
+ * <p>Calls with a target object (e.g. <code>n.set_item(x)</code>)
+ * aren't inlined, since the fields of the target can't be assigned
+ * to in the calling method.</p>
+ */
+public class Inliner implements OptimizationPass {
+
+    /** maximum size of an inlined method body (in AST nodes) */
+    private int maxInlineSize = 12;
+
+    /** maximum growth of the program (in AST nodes) */
+    private int growthBudget = 400;
+
+    /** number of calls inlined and the growth of the program so far */
+    private int inlinedCalls;
+    private int growth;
+
+    /** the class and method being optimized */
+    private ClassAST currentClass;
+    private MethodAST currentMethod;
+
+    /** names of the parameters and local variables of the current method */
+    private Set<String> callerVariables = new HashSet<String>();
+
+    /** methods of the current class that contain no calls */
+    private Set<MethodAST> leaves = new HashSet<MethodAST>();
+
+    /** number of variables added to the current class */
+    private int variableCount;
+
+    /** variables added to the block being optimized */
+    private List<VariableDeclAST> addedVariables;
+
+    /** true if calls were inlined on the current round */
+    private boolean changed;
+
+    public void optimize(ProgramAST program) {
+        for (ClassAST klass : program.getClasses()) {
+            currentClass = klass;
+            variableCount = 0;
+            do {
+                changed = false;
+                findLeaves();
+                for (MethodAST method : methods()) {
+                    if(method.getInstructions() != null) {
+                        currentMethod = method;
+                        collectVariables();
+                        optimizeBlock(method.getInstructions());
+                    }
+                }
+            } while(changed);
+        }
+        currentClass = null;
+        currentMethod = null;
+    }
+
+    /**
+     * Sets the maximum size of an inlined method body
+     * in AST nodes (12 by default).
+     */
+    public void setMaxInlineSize(int maxInlineSize) {
+        this.maxInlineSize = maxInlineSize;
+    }
+
+    public int getMaxInlineSize() {
+        return maxInlineSize;
+    }
+
+    /**
+     * Sets how much the whole program may grow by inlining,
+     * in AST nodes (400 by default).
+     */
+    public void setGrowthBudget(int growthBudget) {
+        this.growthBudget = growthBudget;
+    }
+
+    public int getGrowthBudget() {
+        return growthBudget;
+    }
+
+    /**
+     * Returns the number of calls inlined so far.
+     */
+    public int getInlinedCalls() {
+        return inlinedCalls;
+    }
+
+    /* private implementation follows */
+
+    private List<MethodAST> methods() {
+        List<MethodAST> methods = new LinkedList<MethodAST>();
+        for (FeatureBlockAST block : currentClass.getFeatureBlocks()) {
+            for (FeatureAST feature : block.getFeatures()) {
+                if(feature instanceof MethodAST) {
+                    methods.add((MethodAST)feature);
+                }
+            }
+        }
+        return methods;
+    }
+
+    private void findLeaves() {
+        leaves.clear();
+        for (MethodAST method : methods()) {
+            if(method.getInstructions() != null &&
+                    !new LoopEffects(method.getInstructions()).callsMethods() &&
+                    LoopUnroller.size(method.getInstructions()) <= maxInlineSize) {
+                leaves.add(method);
+            }
+        }
+    }
+
+    private void collectVariables() {
+        callerVariables.clear();
+        for (ParamDeclAST param : currentMethod.getParamDecls()) {
+            callerVariables.add(param.getName().getText());
+        }
+        collectVariables(currentMethod, callerVariables);
+    }
+
+    /**
+     * Adds the names of the local variables of a method
+     * (including those declared in blocks) to the given set.
+     */
+    private static void collectVariables(MethodAST method, Set<String> names) {
+        for (VariableDeclAST var : method.getLocalVariableDecls()) {
+            names.add(var.getName().getText());
+        }
+        collectVariables(method.getInstructions(), names);
+    }
+
+    private static void collectVariables(InstructionsAST block, Set<String> names) {
+        if(block == null) {
+            return;
+        }
+        for (VariableDeclAST var : block.getLocalDecls()) {
+            names.add(var.getName().getText());
+        }
+        for (InstructionAST instruction : block.getInstructions()) {
+            if(instruction instanceof ConditionalAST) {
+                ConditionalAST conditional = (ConditionalAST)instruction;
+                collectVariables(conditional.getIfStatement().getThen(), names);
+                for (IfStatementAST elseIf : conditional.getElseIfStatements()) {
+                    collectVariables(elseIf.getThen(), names);
+                }
+                collectVariables(conditional.getElseStatement(), names);
+            } else if(instruction instanceof IterationAST) {
+                collectVariables(((IterationAST)instruction).getFrom(), names);
+                collectVariables(((IterationAST)instruction).getLoop(), names);
+            }
+        }
+    }
+
+    private void optimizeBlock(InstructionsAST block) {
+        if(block == null) {
+            return;
+        }
+        List<VariableDeclAST> outerVariables = addedVariables;
+        addedVariables = new LinkedList<VariableDeclAST>();
+        List<InstructionAST> instructions = new LinkedList<InstructionAST>();
+        for (InstructionAST instruction : block.getInstructions()) {
+            ExpressionAST expr = null;
+            if(instruction instanceof ExpressionAST) {
+                expr = inlineExpressions((ExpressionAST)instruction);
+                instruction = expr;
+            } else if(instruction instanceof AssignmentAST) {
+                AssignmentAST assignment = (AssignmentAST)instruction;
+                assignment.setExpression(inlineExpressions(assignment.getExpression()));
+                expr = assignment.getExpression();
+            } else if(instruction instanceof ConditionalAST) {
+                ConditionalAST conditional = (ConditionalAST)instruction;
+                IfStatementAST ifStmt = conditional.getIfStatement();
+                ifStmt.setGuard(inlineExpressions(ifStmt.getGuard()));
+                expr = ifStmt.getGuard();
+                optimizeBlock(ifStmt.getThen());
+                for (IfStatementAST elseIf : conditional.getElseIfStatements()) {
+                    elseIf.setGuard(inlineExpressions(elseIf.getGuard()));
+                    optimizeBlock(elseIf.getThen());
+                }
+                optimizeBlock(conditional.getElseStatement());
+            } else if(instruction instanceof IterationAST) {
+                IterationAST iteration = (IterationAST)instruction;
+                optimizeBlock(iteration.getFrom());
+                iteration.setUntil(inlineExpressions(iteration.getUntil()));
+                optimizeBlock(iteration.getLoop());
+            }
+
+            InvocationAST call = (expr != null ? firstCall(expr) : null);
+            MethodAST method = (call != null ? resolve(call) : null);
+            if(method != null && canInlineBody(method, expr, call)) {
+                ExpressionAST result = inlineBody(method, call, instructions);
+                if(instruction instanceof AssignmentAST) {
+                    AssignmentAST assignment = (AssignmentAST)instruction;
+                    assignment.setExpression(replace(assignment.getExpression(), call, result));
+                } else if(instruction instanceof ConditionalAST) {
+                    IfStatementAST ifStmt = ((ConditionalAST)instruction).getIfStatement();
+                    ifStmt.setGuard(replace(ifStmt.getGuard(), call, result));
+                } else if(instruction != call) {
+                    instructions.add(replace(expr, call, result));
+                }
+                if(instruction instanceof ExpressionAST) {
+                    continue;
+                }
+            }
+            instructions.add(instruction);
+        }
+        block.setInstructions(instructions);
+        if(!addedVariables.isEmpty()) {
+            List<VariableDeclAST> decls = new LinkedList<VariableDeclAST>(block.getLocalDecls());
+            decls.addAll(addedVariables);
+            block.setLocalDecls(decls);
+        }
+        addedVariables = outerVariables;
+    }
+
+    /**
+     * Inlines the calls of methods that just compute their result
+     * in an expression tree, returns the new root of the tree.
+     */
+    private ExpressionAST inlineExpressions(ExpressionAST expr) {
+        if(expr instanceof UnaryExpressionAST) {
+            UnaryExpressionAST unary = (UnaryExpressionAST)expr;
+            unary.setExpression(inlineExpressions(unary.getExpression()));
+        } else if(expr instanceof BinaryExpressionAST) {
+            BinaryExpressionAST binary = (BinaryExpressionAST)expr;
+            binary.setLhs(inlineExpressions(binary.getLhs()));
+            if(binary.getOperator().getValue() != Value.DOT) {
+                binary.setRhs(inlineExpressions(binary.getRhs()));
+            } else if(binary.getRhs() instanceof InvocationAST) {
+                inlineArguments((InvocationAST)binary.getRhs());
+            }
+        } else if(expr instanceof InvocationAST) {
+            InvocationAST call = (InvocationAST)expr;
+            inlineArguments(call);
+            MethodAST method = resolve(call);
+            ExpressionAST value = (method != null ? resultExpression(method) : null);
+            if(value != null && canInlineExpression(method, value, call)) {
+                ASTCopier copier = new ASTCopier();
+                Iterator<ExpressionAST> args = call.getArguments().iterator();
+                for (ParamDeclAST param : method.getParamDecls()) {
+                    copier.substitute(param.getName().getText(), args.next());
+                }
+                inlined(LoopUnroller.size(value) - 1);
+                return copier.copy(value);
+            }
+        }
+        return expr;
+    }
+
+    private void inlineArguments(InvocationAST invocation) {
+        for (ListIterator<ExpressionAST> i = invocation.getArguments().listIterator(); i.hasNext(); ) {
+            i.set(inlineExpressions(i.next()));
+        }
+    }
+
+    /**
+     * Returns the method that an unqualified call calls if it
+     * can be inlined, otherwise null.
+     */
+    private MethodAST resolve(InvocationAST call) {
+        MethodAST target = null;
+        search: for (MethodAST method : methods()) {
+            if(!method.getName().getText().equals(call.getIdentifier().getText()) ||
+                    method.getParamDecls().size() != call.getArguments().size()) {
+                continue;
+            }
+            Iterator<ExpressionAST> args = call.getArguments().iterator();
+            for (ParamDeclAST param : method.getParamDecls()) {
+                if(!args.next().getType().isCompatibleWith(param.getType())) {
+                    continue search;
+                }
+            }
+            if(target != null) {
+                // (ambiguous)
+                return null;
+            }
+            target = method;
+        }
+        return (target != null && leaves.contains(target) ? target : null);
+    }
+
+    /**
+     * Returns the expression that a method's body consists of, if
+     * the body is just "result := expression", otherwise null.
+     */
+    private static ExpressionAST resultExpression(MethodAST method) {
+        InstructionsAST body = method.getInstructions();
+        if(!hasResult(method) || !method.getLocalVariableDecls().isEmpty() ||
+                !body.getLocalDecls().isEmpty() || body.getInstructions().size() != 1 ||
+                !(body.getInstructions().get(0) instanceof AssignmentAST)) {
+            return null;
+        }
+        AssignmentAST assignment = (AssignmentAST)body.getInstructions().get(0);
+        if(!assignment.getIdentifier().getText().equals("result") ||
+                !assignment.getExpression().getType().equals(method.getReturnType()) ||
+                countReads(assignment.getExpression(), "result") > 0) {
+            return null;
+        }
+        return assignment.getExpression();
+    }
+
+    /**
+     * Returns true if the arguments of a call can replace the parameters
+     * in the expression computed by the method: an argument that isn't
+     * a variable or a literal must be read exactly once (and contain no
+     * calls), or not at all if it can't fail.
+     */
+    private boolean canInlineExpression(MethodAST method, ExpressionAST value, InvocationAST call) {
+        Iterator<ExpressionAST> args = call.getArguments().iterator();
+        for (ParamDeclAST param : method.getParamDecls()) {
+            ExpressionAST arg = args.next();
+            int reads = countReads(value, param.getName().getText());
+            if(!arg.getType().equals(param.getType())) {
+                return false;
+            } else if(reads == 0 ? ExpressionRewriter.hasSideEffects(arg) :
+                    !(arg instanceof SimpleExpressionAST) &&
+                    (reads > 1 || LoopEffects.callsMethods(arg))) {
+                return false;
+            }
+        }
+        return seesSameFields(method) && fitsBudget(LoopUnroller.size(value) - 1);
+    }
+
+    /**
+     * Returns the first call that's completed when the expression is
+     * evaluated, if it's always evaluated (i.e. it's not on the
+     * right-hand side of a short-circuit operator) and unqualified.
+     */
+    private static InvocationAST firstCall(ExpressionAST expr) {
+        if(expr instanceof UnaryExpressionAST) {
+            return firstCall(((UnaryExpressionAST)expr).getExpression());
+        } else if(expr instanceof BinaryExpressionAST) {
+            BinaryExpressionAST binary = (BinaryExpressionAST)expr;
+            Value op = binary.getOperator().getValue();
+            if(LoopEffects.callsMethods(binary.getLhs())) {
+                return firstCall(binary.getLhs());
+            } else if(op == Value.DOT || op == Value.AND_THEN || op == Value.OR_ELSE) {
+                return null;
+            }
+            return firstCall(binary.getRhs());
+        } else if(expr instanceof InvocationAST) {
+            for (ExpressionAST arg : ((InvocationAST)expr).getArguments()) {
+                if(LoopEffects.callsMethods(arg)) {
+                    return firstCall(arg);
+                }
+            }
+            return (InvocationAST)expr;
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if the body of a method can be inserted before
+     * the instruction containing the given expression, in which the
+     * call is evaluated first: the rest of the expression can't read
+     * the fields that the method assigns.
+     */
+    private boolean canInlineBody(MethodAST method, ExpressionAST expr, InvocationAST call) {
+        LoopEffects effects = new LoopEffects(method.getInstructions());
+        Set<String> names = new HashSet<String>();
+        collectReads(expr, call, names);
+        for (String name : names) {
+            if(effects.changes(name)) {
+                return false;
+            }
+        }
+        return seesSameFields(method) &&
+               fitsBudget(LoopUnroller.size(method.getInstructions()) + call.getArguments().size());
+    }
+
+    /**
+     * Inserts the body of a method to the given instructions, returns
+     * the variable that holds the result.
+     */
+    private ExpressionAST inlineBody(MethodAST method, InvocationAST call,
+            List<InstructionAST> instructions) {
+
+        ASTCopier copier = new ASTCopier();
+        LoopEffects effects = new LoopEffects(method.getInstructions());
+
+        // the arguments are assigned to new variables, unless
+        // they're literals or variables that can replace the parameters
+        Iterator<ExpressionAST> args = call.getArguments().iterator();
+        for (ParamDeclAST param : method.getParamDecls()) {
+            ExpressionAST arg = args.next();
+            String name = param.getName().getText();
+            if(arg instanceof SimpleExpressionAST && arg.getType().equals(param.getType()) &&
+                    !effects.changes(name) && !effects.changes(arg.getLocationToken().getText())) {
+                copier.substitute(name, arg);
+            } else {
+                VariableDeclAST var = addVariable(param.getName(), param.getTypeName(), null);
+                var.setType(param.getType());
+                var.setNullness(arg.getNullness());
+                copier.rename(name, var.getName().getText());
+                instructions.add(new AssignmentAST(var.getName(), arg));
+            }
+        }
+
+        // the locals are declared in the enclosing block
+        for (VariableDeclAST local : method.getLocalVariableDecls()) {
+            VariableDeclAST var = addVariable(local.getName(), local.getTypeName(), local.getConstantValue());
+            var.setType(local.getType());
+            var.setNullness(local.getNullness());
+            copier.rename(local.getName().getText(), var.getName().getText());
+        }
+        Set<String> blockVariables = new HashSet<String>();
+        collectVariables(method.getInstructions(), blockVariables);
+        for (String name : blockVariables) {
+            copier.rename(name, "inline$" + (++variableCount));
+        }
+
+        SimpleExpressionAST result = null;
+        if(hasResult(method)) {
+            VariableDeclAST var = addVariable(call.getIdentifier(), method.getReturnTypeName(), null);
+            var.setType(method.getReturnType());
+            var.setNullness(Nullness.MAYBE_VOID);
+            copier.rename("result", var.getName().getText());
+            result = new SimpleExpressionAST(var.getName());
+            result.setType(method.getReturnType());
+            result.setNullness(call.getNullness());
+        }
+
+        InstructionsAST body = copier.copy(method.getInstructions());
+        instructions.addAll(body.getInstructions());
+        addedVariables.addAll(body.getLocalDecls());
+        inlined(LoopUnroller.size(body) + call.getArguments().size());
+        return result;
+    }
+
+    private static boolean hasResult(MethodAST method) {
+        return method.getReturnType() != null && method.getReturnType() != Type.VOID;
+    }
+
+    /**
+     * Declares a new variable in the block being optimized.
+     *
+     * @param position token at the position of which the variable is declared
+     */
+    private VariableDeclAST addVariable(Token position, Token typeName, Token constantValue) {
+        Token name = new Token(TokenType.IDENTIFIER, "inline$" + (++variableCount));
+        name.setPosition(position.getPosition());
+        VariableDeclAST var = new VariableDeclAST(name, typeName, constantValue);
+        addedVariables.add(var);
+        return var;
+    }
+
+    /**
+     * Returns true if the fields that a method reads or assigns aren't
+     * hidden by the variables of the calling method.
+     */
+    private boolean seesSameFields(MethodAST method) {
+        Set<String> names = new HashSet<String>();
+        collectNames(method.getInstructions(), names);
+        for (ParamDeclAST param : method.getParamDecls()) {
+            names.remove(param.getName().getText());
+        }
+        Set<String> calleeVariables = new HashSet<String>();
+        collectVariables(method, calleeVariables);
+        names.removeAll(calleeVariables);
+        for (String name : names) {
+            if(callerVariables.contains(name)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean fitsBudget(int size) {
+        return growth + size <= growthBudget;
+    }
+
+    private void inlined(int size) {
+        growth += size;
+        inlinedCalls++;
+        changed = true;
+    }
+
+    /**
+     * Replaces a node in an expression tree, returns the new root.
+     */
+    private static ExpressionAST replace(ExpressionAST expr, ExpressionAST node, ExpressionAST replacement) {
+        if(expr == node) {
+            return replacement;
+        } else if(expr instanceof UnaryExpressionAST) {
+            UnaryExpressionAST unary = (UnaryExpressionAST)expr;
+            unary.setExpression(replace(unary.getExpression(), node, replacement));
+        } else if(expr instanceof BinaryExpressionAST) {
+            BinaryExpressionAST binary = (BinaryExpressionAST)expr;
+            binary.setLhs(replace(binary.getLhs(), node, replacement));
+            binary.setRhs(replace(binary.getRhs(), node, replacement));
+        } else if(expr instanceof InvocationAST) {
+            for (ListIterator<ExpressionAST> i = ((InvocationAST)expr).getArguments().listIterator(); i.hasNext(); ) {
+                i.set(replace(i.next(), node, replacement));
+            }
+        }
+        return expr;
+    }
+
+    /**
+     * Adds the names of the variables (and fields) that the instructions
+     * of a block read or assign to the given set.
+     */
+    private static void collectNames(InstructionsAST block, Set<String> names) {
+        if(block == null) {
+            return;
+        }
+        for (InstructionAST instruction : block.getInstructions()) {
+            if(instruction instanceof ExpressionAST) {
+                collectReads((ExpressionAST)instruction, names);
+            } else if(instruction instanceof AssignmentAST) {
+                names.add(((AssignmentAST)instruction).getIdentifier().getText());
+                collectReads(((AssignmentAST)instruction).getExpression(), names);
+            } else if(instruction instanceof ConstructionAST) {
+                names.add(((ConstructionAST)instruction).getIdentifier().getText());
+            } else if(instruction instanceof ConditionalAST) {
+                ConditionalAST conditional = (ConditionalAST)instruction;
+                collectReads(conditional.getIfStatement().getGuard(), names);
+                collectNames(conditional.getIfStatement().getThen(), names);
+                for (IfStatementAST elseIf : conditional.getElseIfStatements()) {
+                    collectReads(elseIf.getGuard(), names);
+                    collectNames(elseIf.getThen(), names);
+                }
+                collectNames(conditional.getElseStatement(), names);
+            } else if(instruction instanceof IterationAST) {
+                IterationAST iteration = (IterationAST)instruction;
+                collectNames(iteration.getFrom(), names);
+                collectReads(iteration.getUntil(), names);
+                collectNames(iteration.getLoop(), names);
+            }
+        }
+    }
+
+    /**
+     * Adds the names of the variables that an expression reads to the given set.
+     */
+    private static void collectReads(ExpressionAST expr, Set<String> names) {
+        collectReads(expr, null, names);
+    }
+
+    /**
+     * Adds the names of the variables that an expression reads
+     * (outside the given subexpression) to the given set.
+     */
+    private static void collectReads(ExpressionAST expr, ExpressionAST excluded, Set<String> names) {
+        if(expr == excluded) {
+            return;
+        } else if(expr instanceof SimpleExpressionAST) {
+            if(expr.getLocationToken().getType() == TokenType.IDENTIFIER) {
+                names.add(expr.getLocationToken().getText());
+            }
+        } else if(expr instanceof UnaryExpressionAST) {
+            collectReads(((UnaryExpressionAST)expr).getExpression(), excluded, names);
+        } else if(expr instanceof BinaryExpressionAST) {
+            BinaryExpressionAST binary = (BinaryExpressionAST)expr;
+            collectReads(binary.getLhs(), excluded, names);
+            if(binary.getOperator().getValue() != Value.DOT ||
+                    binary.getRhs() instanceof InvocationAST) {
+                collectReads(binary.getRhs(), excluded, names);
+            }
+        } else if(expr instanceof InvocationAST) {
+            for (ExpressionAST arg : ((InvocationAST)expr).getArguments()) {
+                collectReads(arg, excluded, names);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of times an expression reads a variable.
+     */
+    private static int countReads(ExpressionAST expr, String name) {
+        if(expr instanceof SimpleExpressionAST) {
+            Token token = expr.getLocationToken();
+            return (token.getType() == TokenType.IDENTIFIER && token.getText().equals(name) ? 1 : 0);
+        } else if(expr instanceof UnaryExpressionAST) {
+            return countReads(((UnaryExpressionAST)expr).getExpression(), name);
+        } else if(expr instanceof BinaryExpressionAST) {
+            BinaryExpressionAST binary = (BinaryExpressionAST)expr;
+            int count = countReads(binary.getLhs(), name);
+            if(binary.getOperator().getValue() != Value.DOT ||
+                    binary.getRhs() instanceof InvocationAST) {
+                count += countReads(binary.getRhs(), name);
+            }
+            return count;
+        } else if(expr instanceof InvocationAST) {
+            int count = 0;
+            for (ExpressionAST arg : ((InvocationAST)expr).getArguments()) {
+                count += countReads(arg, name);
+            }
+            return count;
+        }
+        return 0;
+    }
+
+}
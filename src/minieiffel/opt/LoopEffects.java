@@ -0,0 +1,138 @@
+package minieiffel.opt;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import minieiffel.ast.AssignmentAST;
+import minieiffel.ast.BinaryExpressionAST;
+import minieiffel.ast.ConditionalAST;
+import minieiffel.ast.ConstructionAST;
+import minieiffel.ast.ExpressionAST;
+import minieiffel.ast.IfStatementAST;
+import minieiffel.ast.InstructionAST;
+import minieiffel.ast.InstructionsAST;
+import minieiffel.ast.InvocationAST;
+import minieiffel.ast.IterationAST;
+import minieiffel.ast.UnaryExpressionAST;
+import minieiffel.ast.VariableDeclAST;
+
+/**
+ * What running the body of a loop (any number of times) or some other
+ * block can change: the variables assigned, constructed or declared
+ * in it, and whether methods (which may change any field) are called.
+ */
+class LoopEffects {
+
+    /** number of assignments (and constructions) of each variable */
+    private Map<String, Integer> assignments = new HashMap<String, Integer>();
+
+    /** variables declared in the body */
+    private Set<String> declaredNames = new HashSet<String>();
+
+    private boolean callsMethods;
+
+    LoopEffects(IterationAST iteration) {
+        callsMethods = callsMethods(iteration.getUntil());
+        scan(iteration.getLoop());
+    }
+
+    LoopEffects(InstructionsAST block) {
+        scan(block);
+    }
+
+    /**
+     * Returns true if the value of the variable may change in the loop.
+     */
+    boolean changes(String name) {
+        return assignments.containsKey(name) || declaredNames.contains(name);
+    }
+
+    /**
+     * Returns the number of places the variable is assigned
+     * (or constructed) at in the body.
+     */
+    int getAssignmentCount(String name) {
+        Integer count = assignments.get(name);
+        return (count == null ? 0 : count);
+    }
+
+    /**
+     * Returns true if the variable is declared in the body.
+     */
+    boolean declares(String name) {
+        return declaredNames.contains(name);
+    }
+
+    /**
+     * Returns true if variables are declared in the body.
+     */
+    boolean declaresVariables() {
+        return !declaredNames.isEmpty();
+    }
+
+    /**
+     * Returns true if the body or the <code>until</code>
+     * condition of the loop (or the block) contains method calls.
+     */
+    boolean callsMethods() {
+        return callsMethods;
+    }
+
+    /**
+     * Returns true if an expression contains a method call.
+     */
+    static boolean callsMethods(ExpressionAST expr) {
+        if(expr instanceof InvocationAST) {
+            return true;
+        } else if(expr instanceof UnaryExpressionAST) {
+            return callsMethods(((UnaryExpressionAST)expr).getExpression());
+        } else if(expr instanceof BinaryExpressionAST) {
+            BinaryExpressionAST binary = (BinaryExpressionAST)expr;
+            return callsMethods(binary.getLhs()) || callsMethods(binary.getRhs());
+        }
+        return false;
+    }
+
+    /* private implementation follows */
+
+    private void scan(InstructionsAST block) {
+        if(block == null) {
+            return;
+        }
+        for (VariableDeclAST var : block.getLocalDecls()) {
+            declaredNames.add(var.getName().getText());
+        }
+        for (InstructionAST instruction : block.getInstructions()) {
+            if(instruction instanceof ExpressionAST) {
+                callsMethods |= callsMethods((ExpressionAST)instruction);
+            } else if(instruction instanceof AssignmentAST) {
+                AssignmentAST assignment = (AssignmentAST)instruction;
+                assigned(assignment.getIdentifier().getText());
+                callsMethods |= callsMethods(assignment.getExpression());
+            } else if(instruction instanceof ConstructionAST) {
+                assigned(((ConstructionAST)instruction).getIdentifier().getText());
+            } else if(instruction instanceof ConditionalAST) {
+                ConditionalAST conditional = (ConditionalAST)instruction;
+                callsMethods |= callsMethods(conditional.getIfStatement().getGuard());
+                scan(conditional.getIfStatement().getThen());
+                for (IfStatementAST elseIf : conditional.getElseIfStatements()) {
+                    callsMethods |= callsMethods(elseIf.getGuard());
+                    scan(elseIf.getThen());
+                }
+                scan(conditional.getElseStatement());
+            } else if(instruction instanceof IterationAST) {
+                IterationAST iteration = (IterationAST)instruction;
+                scan(iteration.getFrom());
+                callsMethods |= callsMethods(iteration.getUntil());
+                scan(iteration.getLoop());
+            }
+        }
+    }
+
+    private void assigned(String name) {
+        assignments.put(name, getAssignmentCount(name) + 1);
+    }
+
+}
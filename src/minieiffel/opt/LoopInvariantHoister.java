@@ -0,0 +1,283 @@
+package minieiffel.opt;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+
+import minieiffel.Token;
+import minieiffel.Token.TokenType;
+import minieiffel.Token.Value;
+import minieiffel.ast.AssignmentAST;
+import minieiffel.ast.BinaryExpressionAST;
+import minieiffel.ast.ClassAST;
+import minieiffel.ast.ConditionalAST;
+import minieiffel.ast.ExpressionAST;
+import minieiffel.ast.FeatureAST;
+import minieiffel.ast.FeatureBlockAST;
+import minieiffel.ast.IfStatementAST;
+import minieiffel.ast.InstructionAST;
+import minieiffel.ast.InstructionsAST;
+import minieiffel.ast.InvocationAST;
+import minieiffel.ast.IterationAST;
+import minieiffel.ast.MethodAST;
+import minieiffel.ast.ProgramAST;
+import minieiffel.ast.SimpleExpressionAST;
+import minieiffel.ast.UnaryExpressionAST;
+import minieiffel.ast.VariableDeclAST;
+
+/**
+ * Moves loop-invariant computations out of loops. An operation in the
+ * <code>until</code> condition or in the body of a loop is invariant
+ * if none of the variables it reads can change while the loop runs:
+ * it's not assigned (or constructed) in the body, and if it's a field
+ * that isn't a constant, the loop contains no method calls either.
+ *
+ * <p>The value of each invariant operation is computed once at the
+ * end of the loop's <code>from</code> part and stored in a new local
+ * variable (named <code>loop$1</code>, <code>loop$2</code> etc, which
+ * can't clash with the names of the program), which then replaces the
+ * operation in the loop. Equal operations in the same loop share the
+ * same variable. Operations in the body must be free of side effects
+ * and unable to fail, since the body might not be run at all; in the
+ * <code>until</code> condition, which is always evaluated at least
+ * once, operations that may fail on void are moved as well as long
+ * as the condition calls no methods and the operation isn't on the
+ * right-hand side of a short-circuit operator.</p>
+ *
+ * <p>Member accesses (<code>a.b</code>) and method calls are never
+ * moved. Nested loops are handled from the innermost one out.</p>
+ */
+public class LoopInvariantHoister implements OptimizationPass {
+
+    /** number of operations moved out of loops so far */
+    private int hoistedExpressions;
+
+    /** the class being optimized */
+    private ClassAST currentClass;
+
+    /** number of local variables added to the current method */
+    private int variableCount;
+
+    /** state of the loop being optimized */
+    private LoopEffects effects;
+    private Map<String, String> invariants;
+    private InstructionsAST hoisted;
+    private InstructionsAST enclosing;
+
+    public void optimize(ProgramAST program) {
+        for (ClassAST klass : program.getClasses()) {
+            currentClass = klass;
+            for (FeatureBlockAST block : klass.getFeatureBlocks()) {
+                for (FeatureAST feature : block.getFeatures()) {
+                    if(feature instanceof MethodAST &&
+                            ((MethodAST)feature).getInstructions() != null) {
+                        variableCount = 0;
+                        optimizeBlock(((MethodAST)feature).getInstructions());
+                    }
+                }
+            }
+        }
+        currentClass = null;
+    }
+
+    /**
+     * Returns the number of operations moved out of loops so far.
+     */
+    public int getHoistedExpressions() {
+        return hoistedExpressions;
+    }
+
+    /* private implementation follows */
+
+    private void optimizeBlock(InstructionsAST block) {
+        if(block == null) {
+            return;
+        }
+        for (InstructionAST instruction : block.getInstructions()) {
+            if(instruction instanceof ConditionalAST) {
+                ConditionalAST conditional = (ConditionalAST)instruction;
+                optimizeBlock(conditional.getIfStatement().getThen());
+                for (IfStatementAST elseIf : conditional.getElseIfStatements()) {
+                    optimizeBlock(elseIf.getThen());
+                }
+                optimizeBlock(conditional.getElseStatement());
+            } else if(instruction instanceof IterationAST) {
+                IterationAST iteration = (IterationAST)instruction;
+                optimizeBlock(iteration.getFrom());
+                optimizeBlock(iteration.getLoop());
+                optimizeLoop(iteration, block);
+            }
+        }
+    }
+
+    /**
+     * Moves the invariant operations of a loop to its <code>from</code>
+     * part, the new variables are declared in the enclosing block.
+     */
+    private void optimizeLoop(IterationAST iteration, InstructionsAST block) {
+        effects = new LoopEffects(iteration);
+        invariants = new HashMap<String, String>();
+        hoisted = (iteration.getFrom() != null ? iteration.getFrom() :
+            new InstructionsAST(new LinkedList<VariableDeclAST>(), new LinkedList<InstructionAST>()));
+        enclosing = block;
+
+        iteration.setUntil(hoist(
+                iteration.getUntil(),
+                !LoopEffects.callsMethods(iteration.getUntil())
+        ));
+        hoistBlock(iteration.getLoop());
+
+        if(iteration.getFrom() == null && !invariants.isEmpty()) {
+            iteration.setFrom(hoisted);
+        }
+        effects = null;
+        invariants = null;
+        hoisted = null;
+        enclosing = null;
+    }
+
+    /**
+     * Replaces the invariant operations in the body of a loop.
+     */
+    private void hoistBlock(InstructionsAST block) {
+        if(block == null) {
+            return;
+        }
+        for (ListIterator<InstructionAST> i = block.getInstructions().listIterator(); i.hasNext(); ) {
+            InstructionAST instruction = i.next();
+            if(instruction instanceof ExpressionAST) {
+                i.set(hoist((ExpressionAST)instruction, false));
+            } else if(instruction instanceof AssignmentAST) {
+                AssignmentAST assignment = (AssignmentAST)instruction;
+                assignment.setExpression(hoist(assignment.getExpression(), false));
+            } else if(instruction instanceof ConditionalAST) {
+                ConditionalAST conditional = (ConditionalAST)instruction;
+                IfStatementAST ifStmt = conditional.getIfStatement();
+                ifStmt.setGuard(hoist(ifStmt.getGuard(), false));
+                hoistBlock(ifStmt.getThen());
+                for (IfStatementAST elseIf : conditional.getElseIfStatements()) {
+                    elseIf.setGuard(hoist(elseIf.getGuard(), false));
+                    hoistBlock(elseIf.getThen());
+                }
+                hoistBlock(conditional.getElseStatement());
+            } else if(instruction instanceof IterationAST) {
+                IterationAST iteration = (IterationAST)instruction;
+                hoistBlock(iteration.getFrom());
+                iteration.setUntil(hoist(iteration.getUntil(), false));
+                hoistBlock(iteration.getLoop());
+            }
+        }
+    }
+
+    /**
+     * Replaces the largest invariant operations in an expression tree
+     * with variables, returns the new root of the tree.
+     *
+     * @param mayFail if true, operations that may fail are moved too
+     */
+    private ExpressionAST hoist(ExpressionAST expr, boolean mayFail) {
+        if((expr instanceof UnaryExpressionAST || expr instanceof BinaryExpressionAST) &&
+                isInvariant(expr) &&
+                (mayFail || !ExpressionRewriter.hasSideEffects(expr))) {
+            return invariant(expr);
+        }
+        if(expr instanceof UnaryExpressionAST) {
+            UnaryExpressionAST unary = (UnaryExpressionAST)expr;
+            unary.setExpression(hoist(unary.getExpression(), mayFail));
+        } else if(expr instanceof BinaryExpressionAST) {
+            BinaryExpressionAST binary = (BinaryExpressionAST)expr;
+            Value op = binary.getOperator().getValue();
+            binary.setLhs(hoist(binary.getLhs(), mayFail));
+            if(op != Value.DOT) {
+                // the rhs of "and then" and "or else" might not be evaluated
+                binary.setRhs(hoist(binary.getRhs(),
+                        mayFail && op != Value.AND_THEN && op != Value.OR_ELSE));
+            } else if(binary.getRhs() instanceof InvocationAST) {
+                hoistArguments((InvocationAST)binary.getRhs());
+            }
+        } else if(expr instanceof InvocationAST) {
+            hoistArguments((InvocationAST)expr);
+        }
+        return expr;
+    }
+
+    private void hoistArguments(InvocationAST invocation) {
+        for (ListIterator<ExpressionAST> i = invocation.getArguments().listIterator(); i.hasNext(); ) {
+            i.set(hoist(i.next(), false));
+        }
+    }
+
+    /**
+     * Returns true if the value of an expression can't change while
+     * the current loop runs.
+     */
+    private boolean isInvariant(ExpressionAST expr) {
+        if(expr instanceof SimpleExpressionAST) {
+            if(ExpressionRewriter.isLiteral(expr)) {
+                return true;
+            }
+            String name = expr.getLocationToken().getText();
+            if(effects.changes(name)) {
+                return false;
+            }
+            VariableDeclAST field = findField(name);
+            return field == null || field.getConstantValue() != null || !effects.callsMethods();
+        } else if(expr instanceof UnaryExpressionAST) {
+            return isInvariant(((UnaryExpressionAST)expr).getExpression());
+        } else if(expr instanceof BinaryExpressionAST) {
+            BinaryExpressionAST binary = (BinaryExpressionAST)expr;
+            return binary.getOperator().getValue() != Value.DOT &&
+                   isInvariant(binary.getLhs()) && isInvariant(binary.getRhs());
+        }
+        return false;
+    }
+
+    /**
+     * Returns the variable that holds the value of an invariant
+     * operation, creating it if necessary.
+     */
+    private SimpleExpressionAST invariant(ExpressionAST expr) {
+        String key = expr.getType() + " " + expr;
+        String name = invariants.get(key);
+        if(name == null) {
+            name = "loop$" + (++variableCount);
+            // declare the variable in the enclosing block
+            VariableDeclAST decl = new VariableDeclAST(
+                    new Token(TokenType.IDENTIFIER, name),
+                    new Token(TokenType.IDENTIFIER, expr.getType().getName()),
+                    null
+            );
+            decl.setType(expr.getType());
+            decl.setNullness(expr.getNullness());
+            List<VariableDeclAST> decls = new LinkedList<VariableDeclAST>(enclosing.getLocalDecls());
+            decls.add(decl);
+            enclosing.setLocalDecls(decls);
+            // and compute its value at the end of the from part
+            List<InstructionAST> instructions =
+                new LinkedList<InstructionAST>(hoisted.getInstructions());
+            instructions.add(new AssignmentAST(decl.getName(), expr));
+            hoisted.setInstructions(instructions);
+            invariants.put(key, name);
+        }
+        hoistedExpressions++;
+        // refer to the variable at the position of the operation
+        Token token = new Token(TokenType.IDENTIFIER, name);
+        token.setPosition(expr.getLocationToken().getPosition());
+        SimpleExpressionAST variable = new SimpleExpressionAST(token);
+        variable.setType(expr.getType());
+        variable.setNullness(expr.getNullness());
+        return variable;
+    }
+
+    private VariableDeclAST findField(String name) {
+        for (VariableDeclAST field : currentClass.getSignature().getVariables()) {
+            if(field.getName().getText().equals(name)) {
+                return field;
+            }
+        }
+        return null;
+    }
+
+}
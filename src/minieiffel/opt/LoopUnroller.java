@@ -0,0 +1,573 @@
+package minieiffel.opt;
+
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import minieiffel.Token;
+import minieiffel.Token.TokenType;
+import minieiffel.Token.Value;
+import minieiffel.ast.AssignmentAST;
+import minieiffel.ast.BinaryExpressionAST;
+import minieiffel.ast.ClassAST;
+import minieiffel.ast.ConditionalAST;
+import minieiffel.ast.ExpressionAST;
+import minieiffel.ast.FeatureAST;
+import minieiffel.ast.FeatureBlockAST;
+import minieiffel.ast.IfStatementAST;
+import minieiffel.ast.InstructionAST;
+import minieiffel.ast.InstructionsAST;
+import minieiffel.ast.InvocationAST;
+import minieiffel.ast.IterationAST;
+import minieiffel.ast.MethodAST;
+import minieiffel.ast.ParamDeclAST;
+import minieiffel.ast.ProgramAST;
+import minieiffel.ast.SimpleExpressionAST;
+import minieiffel.ast.UnaryExpressionAST;
+import minieiffel.ast.VariableDeclAST;
+import minieiffel.semantics.Nullness;
+import minieiffel.semantics.Type;
+
+/**
+ * Unrolls counted loops, i.e. loops like
+ *
+ * <pre>
+ * from
+ *     do i := 0 end
+ * until
+ *     i = N
+ * loop
+ *     do ... i := i + 1 end
+ * end
+ * </pre>
+ *
+ * in which the <code>until</code> condition compares an
+ * <code>INTEGER</code> variable with a bound using <code>=</code>,
+ * <code>&gt;=</code> or <code>&gt;</code>, and the body ends by
+ * incrementing the variable by one (and doesn't assign it anywhere
+ * else or declare variables). A field can't be the variable or the
+ * bound if the body calls methods, which might change it. The bound
+ * must be a literal, a constant or a variable that the loop doesn't
+ * change.
+ *
+ * <p>If the number of rounds is known (the variable is set to a literal
+ * in the <code>from</code> part and the bound is constant) and it's at
+ * most the {@link #setFullUnrollLimit(int) full unroll limit}, the loop
+ * is replaced by copies of its body in which the variable is replaced
+ * by its value on each round. Otherwise the body is repeated
+ * {@link #setFactor(int) factor} times in the loop. The rounds that are
+ * left over are unrolled as well if their number is known, else a copy
+ * of the original loop runs them (in which case the bound can't be
+ * compared with <code>=</code>, since the unrolled loop could pass it).</p>
+ *
+ * <p>A loop is only unrolled if its method stays within the
+ * {@link #setSizeBudget(int) size budget}, measured in AST nodes
+ * (instructions and operations), so that the generated methods stay
+ * well below the size limits of the JIT compiler.</p>
+ */
+public class LoopUnroller implements OptimizationPass {
+
+    /** number of times the body is repeated in a partially unrolled loop */
+    private int factor = 4;
+
+    /** maximum number of rounds for a loop to be unrolled fully */
+    private int fullUnrollLimit = 8;
+
+    /** maximum size of a method after unrolling (in AST nodes) */
+    private int sizeBudget = 400;
+
+    /** number of loops unrolled so far */
+    private int unrolledLoops;
+
+    /** the class and method being optimized */
+    private ClassAST currentClass;
+    private MethodAST currentMethod;
+
+    /** current size of the method being optimized */
+    private int methodSize;
+
+    /** names of the variables declared in the blocks of the current method */
+    private Set<String> blockVariables = new HashSet<String>();
+
+    public void optimize(ProgramAST program) {
+        for (ClassAST klass : program.getClasses()) {
+            currentClass = klass;
+            for (FeatureBlockAST block : klass.getFeatureBlocks()) {
+                for (FeatureAST feature : block.getFeatures()) {
+                    if(feature instanceof MethodAST &&
+                            ((MethodAST)feature).getInstructions() != null) {
+                        currentMethod = (MethodAST)feature;
+                        methodSize = size(currentMethod.getInstructions());
+                        blockVariables.clear();
+                        collectVariables(currentMethod.getInstructions());
+                        optimizeBlock(currentMethod.getInstructions());
+                    }
+                }
+            }
+        }
+        currentClass = null;
+        currentMethod = null;
+    }
+
+    /**
+     * Sets the number of times the body is repeated in a partially
+     * unrolled loop (at least 2, 4 by default).
+     */
+    public void setFactor(int factor) {
+        if(factor < 2) {
+            throw new IllegalArgumentException("Invalid unroll factor " + factor);
+        }
+        this.factor = factor;
+    }
+
+    public int getFactor() {
+        return factor;
+    }
+
+    /**
+     * Sets the maximum number of rounds for a loop to
+     * be unrolled fully (8 by default).
+     */
+    public void setFullUnrollLimit(int fullUnrollLimit) {
+        this.fullUnrollLimit = fullUnrollLimit;
+    }
+
+    public int getFullUnrollLimit() {
+        return fullUnrollLimit;
+    }
+
+    /**
+     * Sets the maximum size of a method after unrolling, counted in
+     * AST nodes (400 by default, that is roughly 1-2 kilobytes of
+     * bytecode).
+     */
+    public void setSizeBudget(int sizeBudget) {
+        this.sizeBudget = sizeBudget;
+    }
+
+    public int getSizeBudget() {
+        return sizeBudget;
+    }
+
+    /**
+     * Returns the number of loops unrolled so far.
+     */
+    public int getUnrolledLoops() {
+        return unrolledLoops;
+    }
+
+    /* private implementation follows */
+
+    /**
+     * A loop that counts a variable up to a bound.
+     */
+    private static final class CountedLoop {
+        IterationAST iteration;
+        /** the counter in the until condition */
+        SimpleExpressionAST counter;
+        /** the comparison and the bound */
+        Value comparison;
+        ExpressionAST bound;
+        /** the initial value and the bound if they're known */
+        Integer start, end;
+    }
+
+    private void optimizeBlock(InstructionsAST block) {
+        if(block == null) {
+            return;
+        }
+        List<InstructionAST> instructions = new LinkedList<InstructionAST>();
+        for (InstructionAST instruction : block.getInstructions()) {
+            if(instruction instanceof ConditionalAST) {
+                ConditionalAST conditional = (ConditionalAST)instruction;
+                optimizeBlock(conditional.getIfStatement().getThen());
+                for (IfStatementAST elseIf : conditional.getElseIfStatements()) {
+                    optimizeBlock(elseIf.getThen());
+                }
+                optimizeBlock(conditional.getElseStatement());
+                instructions.add(instruction);
+            } else if(instruction instanceof IterationAST) {
+                IterationAST iteration = (IterationAST)instruction;
+                optimizeBlock(iteration.getFrom());
+                optimizeBlock(iteration.getLoop());
+                instructions.addAll(unroll(iteration));
+            } else {
+                instructions.add(instruction);
+            }
+        }
+        block.setInstructions(instructions);
+    }
+
+    /**
+     * Returns the instructions that replace a loop
+     * (the loop itself if it can't be unrolled).
+     */
+    private List<InstructionAST> unroll(IterationAST iteration) {
+        List<InstructionAST> unrolled = null;
+        CountedLoop loop = match(iteration);
+        if(loop != null) {
+            long rounds = countRounds(loop);
+            if(rounds >= 0 && rounds <= fullUnrollLimit &&
+                    (iteration.getFrom() == null || iteration.getFrom().getLocalDecls().isEmpty())) {
+                unrolled = unrollFully(loop, (int)rounds);
+            } else if(rounds >= factor) {
+                unrolled = unrollPartially(loop, (int)rounds);
+            } else if(rounds < 0 && loop.comparison != Value.EQUALITY) {
+                unrolled = unrollWithRemainder(loop);
+            }
+        }
+        if(unrolled != null) {
+            int size = methodSize - size(iteration) + size(unrolled);
+            if(size <= sizeBudget) {
+                methodSize = size;
+                unrolledLoops++;
+                return unrolled;
+            }
+        }
+        List<InstructionAST> original = new LinkedList<InstructionAST>();
+        original.add(iteration);
+        return original;
+    }
+
+    /**
+     * Returns the description of a counted loop, or null
+     * if the loop isn't one.
+     */
+    private CountedLoop match(IterationAST iteration) {
+        if(!(iteration.getUntil() instanceof BinaryExpressionAST) || iteration.getLoop() == null) {
+            return null;
+        }
+        BinaryExpressionAST until = (BinaryExpressionAST)iteration.getUntil();
+        Value comparison = until.getOperator().getValue();
+        if(comparison != Value.EQUALITY && comparison != Value.GREATER_OR_EQUAL &&
+                comparison != Value.GREATER) {
+            return null;
+        }
+        if(!isVariable(until.getLhs()) || until.getLhs().getType() != Type.INTEGER ||
+                until.getRhs().getType() != Type.INTEGER) {
+            return null;
+        }
+
+        String name = until.getLhs().getLocationToken().getText();
+        LoopEffects effects = new LoopEffects(iteration);
+        List<InstructionAST> body = iteration.getLoop().getInstructions();
+        if(effects.declaresVariables() || effects.getAssignmentCount(name) != 1 ||
+                body.isEmpty() || !isIncrement(body.get(body.size() - 1), name)) {
+            return null;
+        }
+        if(isField(name) && effects.callsMethods()) {
+            // the methods called may change the counter as well
+            return null;
+        }
+
+        CountedLoop loop = new CountedLoop();
+        loop.iteration = iteration;
+        loop.counter = (SimpleExpressionAST)until.getLhs();
+        loop.comparison = comparison;
+        loop.bound = until.getRhs();
+        if(isIntLiteral(loop.bound)) {
+            loop.end = Integer.valueOf(loop.bound.getLocationToken().getText());
+        } else if(isVariable(loop.bound)) {
+            String boundName = loop.bound.getLocationToken().getText();
+            if(boundName.equals(name) || effects.changes(boundName)) {
+                return null;
+            }
+            VariableDeclAST constant = findVariable(boundName);
+            if(constant != null && constant.getConstantValue() != null) {
+                loop.end = Integer.valueOf(constant.getConstantValue().getText());
+            } else if(isField(boundName) && effects.callsMethods()) {
+                return null;
+            }
+        } else {
+            return null;
+        }
+        loop.start = startValue(iteration.getFrom(), name);
+        return loop;
+    }
+
+    /**
+     * Returns the number of rounds a loop runs, or -1 if it's not known.
+     */
+    private static long countRounds(CountedLoop loop) {
+        if(loop.start == null || loop.end == null) {
+            return -1;
+        }
+        long start = loop.start;
+        long end = loop.end;
+        switch(loop.comparison) {
+        case EQUALITY:
+            // (the loop never ends if the bound is passed)
+            return (start <= end ? end - start : -1);
+        case GREATER_OR_EQUAL:
+            return Math.max(0, end - start);
+        default:
+            // (the loop never ends if the bound is the largest integer)
+            return (end < Integer.MAX_VALUE ? Math.max(0, end - start + 1) : -1);
+        }
+    }
+
+    /**
+     * Replaces a loop with the given number of copies of its body.
+     */
+    private List<InstructionAST> unrollFully(CountedLoop loop, int rounds) {
+        List<InstructionAST> unrolled = new LinkedList<InstructionAST>();
+        if(loop.iteration.getFrom() != null) {
+            unrolled.addAll(loop.iteration.getFrom().getInstructions());
+        }
+        unrolled.addAll(copyRounds(loop, loop.start, rounds));
+        return unrolled;
+    }
+
+    /**
+     * Repeats the body of a loop with a known number of rounds in the loop,
+     * the rounds left over are unrolled after the loop.
+     */
+    private List<InstructionAST> unrollPartially(CountedLoop loop, int rounds) {
+        int last = loop.start + (rounds / factor) * factor;
+        List<InstructionAST> unrolled = new LinkedList<InstructionAST>();
+        unrolled.add(new IterationAST(
+                loop.iteration.getFrom(),
+                compare(variable(loop.counter), Value.GREATER_OR_EQUAL, ConstantFolder.literal(last, loop.counter)),
+                repeatBody(loop)
+        ));
+        unrolled.addAll(copyRounds(loop, last, rounds % factor));
+        return unrolled;
+    }
+
+    /**
+     * Repeats the body of a loop in the loop as long as there are enough
+     * rounds left, the original loop runs the rest of the rounds.
+     */
+    private List<InstructionAST> unrollWithRemainder(CountedLoop loop) {
+        // "i >= N or else N - i < factor" (or "i > N or else N - i < factor - 1"),
+        // if N - i overflows, the rest of the loop is run by the original loop
+        ASTCopier copier = new ASTCopier();
+        BinaryExpressionAST remaining = new BinaryExpressionAST(
+                copier.copy(loop.bound), new Token(Value.MINUS), variable(loop.counter));
+        annotate(remaining, Type.INTEGER, loop.counter);
+        int minimum = (loop.comparison == Value.GREATER_OR_EQUAL ? factor : factor - 1);
+        ExpressionAST done = compare(
+                copier.copy(loop.iteration.getUntil()),
+                Value.OR_ELSE,
+                compare(remaining, Value.LESS, ConstantFolder.literal(minimum, loop.counter))
+        );
+        List<InstructionAST> unrolled = new LinkedList<InstructionAST>();
+        unrolled.add(new IterationAST(loop.iteration.getFrom(), done, repeatBody(loop)));
+        unrolled.add(new IterationAST(null, loop.iteration.getUntil(), loop.iteration.getLoop()));
+        return unrolled;
+    }
+
+    /**
+     * Returns a block with the body of a loop repeated factor times.
+     */
+    private InstructionsAST repeatBody(CountedLoop loop) {
+        List<InstructionAST> body = new LinkedList<InstructionAST>();
+        for (int i = 0; i < factor; i++) {
+            body.addAll(new ASTCopier().copy(loop.iteration.getLoop().getInstructions()));
+        }
+        return new InstructionsAST(new LinkedList<VariableDeclAST>(), body);
+    }
+
+    /**
+     * Returns copies of the body of a loop (without the increment) for
+     * the given number of rounds, the counter is replaced by its value
+     * on each round. The counter is set to its final value at the end.
+     */
+    private List<InstructionAST> copyRounds(CountedLoop loop, int start, int rounds) {
+        List<InstructionAST> body = loop.iteration.getLoop().getInstructions();
+        body = body.subList(0, body.size() - 1);
+        List<InstructionAST> copies = new LinkedList<InstructionAST>();
+        String name = loop.counter.getLocationToken().getText();
+        for (int i = 0; i < rounds; i++) {
+            ASTCopier copier = new ASTCopier();
+            copier.substitute(name, ConstantFolder.literal(start + i, loop.counter));
+            copies.addAll(copier.copy(body));
+        }
+        if(rounds > 0) {
+            copies.add(new AssignmentAST(
+                    loop.counter.getLocationToken(),
+                    ConstantFolder.literal(start + rounds, loop.counter)
+            ));
+        }
+        return copies;
+    }
+
+    /**
+     * Returns the value that a variable is set to in the from part of
+     * a loop, if it's set exactly once (outside nested blocks) to a literal.
+     */
+    private Integer startValue(InstructionsAST from, String name) {
+        if(from == null || new LoopEffects(from).getAssignmentCount(name) != 1) {
+            return null;
+        }
+        for (InstructionAST instruction : from.getInstructions()) {
+            if(instruction instanceof AssignmentAST &&
+                    ((AssignmentAST)instruction).getIdentifier().getText().equals(name)) {
+                ExpressionAST value = ((AssignmentAST)instruction).getExpression();
+                return (isIntLiteral(value) ? Integer.valueOf(value.getLocationToken().getText()) : null);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if the instruction is "name := name + 1" (or "name := 1 + name").
+     */
+    private static boolean isIncrement(InstructionAST instruction, String name) {
+        if(!(instruction instanceof AssignmentAST) ||
+                !((AssignmentAST)instruction).getIdentifier().getText().equals(name) ||
+                !(((AssignmentAST)instruction).getExpression() instanceof BinaryExpressionAST)) {
+            return false;
+        }
+        BinaryExpressionAST sum = (BinaryExpressionAST)((AssignmentAST)instruction).getExpression();
+        if(sum.getOperator().getValue() != Value.PLUS) {
+            return false;
+        }
+        return isVariable(sum.getLhs(), name) && isOne(sum.getRhs()) ||
+               isOne(sum.getLhs()) && isVariable(sum.getRhs(), name);
+    }
+
+    private static boolean isOne(ExpressionAST expr) {
+        return isIntLiteral(expr) && expr.getLocationToken().getText().equals("1");
+    }
+
+    private static boolean isIntLiteral(ExpressionAST expr) {
+        return expr instanceof SimpleExpressionAST &&
+               expr.getLocationToken().getType() == TokenType.INT_LITERAL;
+    }
+
+    private static boolean isVariable(ExpressionAST expr) {
+        return expr instanceof SimpleExpressionAST &&
+               expr.getLocationToken().getType() == TokenType.IDENTIFIER;
+    }
+
+    private static boolean isVariable(ExpressionAST expr, String name) {
+        return isVariable(expr) && expr.getLocationToken().getText().equals(name);
+    }
+
+    /**
+     * Finds the declaration of a method-level local variable or a field,
+     * returns null for parameters and variables declared in blocks.
+     */
+    private VariableDeclAST findVariable(String name) {
+        for (ParamDeclAST param : currentMethod.getParamDecls()) {
+            if(param.getName().getText().equals(name)) {
+                return null;
+            }
+        }
+        for (VariableDeclAST var : currentMethod.getLocalVariableDecls()) {
+            if(var.getName().getText().equals(name)) {
+                return var;
+            }
+        }
+        if(blockVariables.contains(name)) {
+            return null;
+        }
+        for (VariableDeclAST field : currentClass.getSignature().getVariables()) {
+            if(field.getName().getText().equals(name)) {
+                return field;
+            }
+        }
+        return null;
+    }
+
+    private boolean isField(String name) {
+        VariableDeclAST var = findVariable(name);
+        return var != null && !currentMethod.getLocalVariableDecls().contains(var);
+    }
+
+    private void collectVariables(InstructionsAST block) {
+        if(block == null) {
+            return;
+        }
+        for (VariableDeclAST var : block.getLocalDecls()) {
+            blockVariables.add(var.getName().getText());
+        }
+        for (InstructionAST instruction : block.getInstructions()) {
+            if(instruction instanceof ConditionalAST) {
+                ConditionalAST conditional = (ConditionalAST)instruction;
+                collectVariables(conditional.getIfStatement().getThen());
+                for (IfStatementAST elseIf : conditional.getElseIfStatements()) {
+                    collectVariables(elseIf.getThen());
+                }
+                collectVariables(conditional.getElseStatement());
+            } else if(instruction instanceof IterationAST) {
+                collectVariables(((IterationAST)instruction).getFrom());
+                collectVariables(((IterationAST)instruction).getLoop());
+            }
+        }
+    }
+
+    private static SimpleExpressionAST variable(SimpleExpressionAST variable) {
+        return (SimpleExpressionAST)new ASTCopier().copy(variable);
+    }
+
+    private static BinaryExpressionAST compare(ExpressionAST lhs, Value op, ExpressionAST rhs) {
+        BinaryExpressionAST comparison = new BinaryExpressionAST(lhs, new Token(op), rhs);
+        annotate(comparison, Type.BOOLEAN, lhs);
+        return comparison;
+    }
+
+    /**
+     * Sets the type of a new operation, and the position
+     * of its operator to that of the given expression.
+     */
+    private static void annotate(BinaryExpressionAST expr, Type type, ExpressionAST position) {
+        expr.getOperator().setPosition(position.getLocationToken().getPosition());
+        expr.setType(type);
+        expr.setNullness(Nullness.NEVER_VOID);
+    }
+
+    /* size estimates (also used by the inliner) */
+
+    static int size(List<InstructionAST> instructions) {
+        int size = 0;
+        for (InstructionAST instruction : instructions) {
+            size += size(instruction);
+        }
+        return size;
+    }
+
+    static int size(InstructionsAST block) {
+        return (block == null ? 0 : size(block.getInstructions()));
+    }
+
+    static int size(InstructionAST instruction) {
+        if(instruction instanceof ExpressionAST) {
+            return size((ExpressionAST)instruction);
+        } else if(instruction instanceof AssignmentAST) {
+            return 1 + size(((AssignmentAST)instruction).getExpression());
+        } else if(instruction instanceof ConditionalAST) {
+            ConditionalAST conditional = (ConditionalAST)instruction;
+            int size = 1 + size(conditional.getIfStatement().getGuard()) +
+                    size(conditional.getIfStatement().getThen());
+            for (IfStatementAST elseIf : conditional.getElseIfStatements()) {
+                size += size(elseIf.getGuard()) + size(elseIf.getThen());
+            }
+            return size + size(conditional.getElseStatement());
+        } else if(instruction instanceof IterationAST) {
+            IterationAST iteration = (IterationAST)instruction;
+            return 1 + size(iteration.getFrom()) + size(iteration.getUntil()) +
+                   size(iteration.getLoop());
+        }
+        return 1;
+    }
+
+    static int size(ExpressionAST expr) {
+        if(expr instanceof UnaryExpressionAST) {
+            return 1 + size(((UnaryExpressionAST)expr).getExpression());
+        } else if(expr instanceof BinaryExpressionAST) {
+            BinaryExpressionAST binary = (BinaryExpressionAST)expr;
+            return 1 + size(binary.getLhs()) + size(binary.getRhs());
+        } else if(expr instanceof InvocationAST) {
+            int size = 1;
+            for (ExpressionAST arg : ((InvocationAST)expr).getArguments()) {
+                size += size(arg);
+            }
+            return size;
+        }
+        return 1;
+    }
+
+}
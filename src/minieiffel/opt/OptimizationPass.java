@@ -0,0 +1,17 @@
+package minieiffel.opt;
+
+import minieiffel.ast.ProgramAST;
+
+/**
+ * A single optimization that rewrites the AST of a program. The
+ * program must have been analyzed without errors, i.e. the types
+ * of its expressions are known.
+ */
+public interface OptimizationPass {
+
+    /**
+     * Optimizes the given program in place.
+     */
+    void optimize(ProgramAST program);
+
+}
@@ -0,0 +1,58 @@
+package minieiffel.opt;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import minieiffel.ast.ProgramAST;
+
+/**
+ * Runs a sequence of {@link OptimizationPass optimization passes}
+ * on a program. The optimizer is meant to be run between the semantic
+ * analysis and the code generation, e.g.
+ * 
+ * <pre>
+ * analyzer.analyze(program);
+ * if(analyzer.getErrors().isEmpty()) {
+ *     new Optimizer().optimize(program);
+ *     generator.generateClasses(program);
+ * }
+ * </pre>
+ */
+public class Optimizer {
+
+    /** passes in the order they're run */
+    private List<OptimizationPass> passes = new LinkedList<OptimizationPass>();
+
+    /**
+     * Creates an optimizer with the default passes.
+     */
+    public Optimizer() {
+        passes.add(new Inliner());
+        passes.add(new ScalarReplacer());
+        passes.add(new ConstantFolder());
+        passes.add(new LoopUnroller());
+        // (folds the indexes substituted by the unroller)
+        passes.add(new ConstantFolder());
+        passes.add(new DeadCodeEliminator());
+        passes.add(new LoopInvariantHoister());
+        passes.add(new StrengthReducer());
+        passes.add(new CommonSubexpressionEliminator());
+    }
+
+    /**
+     * Returns the passes of this optimizer (the list can be modified).
+     */
+    public List<OptimizationPass> getPasses() {
+        return passes;
+    }
+
+    /**
+     * Runs all the passes on the given program.
+     */
+    public void optimize(ProgramAST program) {
+        for (OptimizationPass pass : passes) {
+            pass.optimize(program);
+        }
+    }
+
+}
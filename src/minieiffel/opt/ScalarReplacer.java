@@ -0,0 +1,358 @@
+package minieiffel.opt;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+
+import minieiffel.Token;
+import minieiffel.Token.TokenType;
+import minieiffel.Token.Value;
+import minieiffel.ast.AssignmentAST;
+import minieiffel.ast.BinaryExpressionAST;
+import minieiffel.ast.ClassAST;
+import minieiffel.ast.ConditionalAST;
+import minieiffel.ast.ConstructionAST;
+import minieiffel.ast.ExpressionAST;
+import minieiffel.ast.IfStatementAST;
+import minieiffel.ast.InstructionAST;
+import minieiffel.ast.InstructionsAST;
+import minieiffel.ast.InvocationAST;
+import minieiffel.ast.IterationAST;
+import minieiffel.ast.ProgramAST;
+import minieiffel.ast.SimpleExpressionAST;
+import minieiffel.ast.UnaryExpressionAST;
+import minieiffel.ast.VariableDeclAST;
+import minieiffel.semantics.Nullness;
+
+/**
+ * Removes the construction of objects that never escape the method
+ * that creates them. An object created with <code>!! n</code> escapes
+ * if the variable <code>n</code> is used for anything else than reading
+ * the fields of the object (e.g. <code>n.item</code>) or comparing it
+ * with <code>void</code>: if it's assigned to or from another variable,
+ * passed as an argument, or a method is called on it.
+ *
+ * <p>The fields of an object can only be assigned to by its own
+ * methods, so the fields of an object that doesn't escape (nor has
+ * its methods called) always hold their initial values. Such an
+ * object isn't created at all: each field read from it is replaced
+ * by a new local variable (named e.g. <code>n$item</code>) that is
+ * declared in the block that declares <code>n</code> and is never
+ * assigned to, a constant is replaced by its value, and a comparison
+ * of <code>n</code> with <code>void</code> is replaced by its result
+ * (which is known when the fields are read, since a field can't be
+ * read from void).</p>
+ *
+ * <p>Only local variables of a user-defined class that are declared
+ * once in the method (and don't hide a field) are considered.</p>
+ */
+public class ScalarReplacer extends ExpressionRewriter {
+
+    /** number of objects (variables) replaced so far */
+    private int replacedObjects;
+
+    /** the classes of the program by name */
+    private Map<String, ClassAST> classes = new HashMap<String, ClassAST>();
+
+    /** the candidate variables of the current method by name */
+    private Map<String, Candidate> candidates = new HashMap<String, Candidate>();
+
+    /** number of declarations of each variable name in the current method */
+    private Map<String, Integer> declarationCounts = new HashMap<String, Integer>();
+
+    /**
+     * A local variable whose object may not escape.
+     */
+    private static class Candidate {
+
+        /** the class of the object */
+        private ClassAST klass;
+
+        /** the declaration of the variable and the block that contains it */
+        private VariableDeclAST decl;
+        private InstructionsAST block;
+
+        /** set when the object is found to escape */
+        private boolean escapes;
+
+        /** set when the variable is constructed somewhere */
+        private boolean constructed;
+
+        /** the local variables that replace the fields read, by field name */
+        private Map<String, VariableDeclAST> scalars =
+            new LinkedHashMap<String, VariableDeclAST>();
+
+        Candidate(ClassAST klass, VariableDeclAST decl, InstructionsAST block) {
+            this.klass = klass;
+            this.decl = decl;
+            this.block = block;
+        }
+
+    }
+
+    public void optimize(ProgramAST program) {
+        for (ClassAST klass : program.getClasses()) {
+            classes.put(klass.getName().getText(), klass);
+        }
+        super.optimize(program);
+        classes.clear();
+    }
+
+    /**
+     * Returns the number of objects replaced so far.
+     */
+    public int getReplacedObjects() {
+        return replacedObjects;
+    }
+
+    /**
+     * Finds the objects that don't escape before rewriting the body
+     * of a method, and removes their constructions from each block.
+     */
+    protected void rewriteBlock(InstructionsAST block) {
+        if(block == getCurrentMethod().getInstructions()) {
+            findCandidates();
+        }
+        if(candidates.isEmpty()) {
+            return;
+        }
+        super.rewriteBlock(block);
+        for (ListIterator<InstructionAST> i = block.getInstructions().listIterator(); i.hasNext(); ) {
+            InstructionAST instruction = i.next();
+            if(instruction instanceof ConstructionAST &&
+                    candidates.containsKey(((ConstructionAST)instruction).getIdentifier().getText())) {
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Replaces field reads and <code>void</code> comparisons of the
+     * objects that don't escape.
+     */
+    protected ExpressionAST rewrite(ExpressionAST expr) {
+        if(!(expr instanceof BinaryExpressionAST)) {
+            return expr;
+        }
+        BinaryExpressionAST binary = (BinaryExpressionAST)expr;
+        Value op = binary.getOperator().getValue();
+        if(op == Value.DOT) {
+            Candidate candidate = candidates.get(variableName(binary.getLhs()));
+            if(candidate == null) {
+                return expr;
+            }
+            Token name = binary.getRhs().getLocationToken();
+            VariableDeclAST field = findField(candidate.klass, name.getText());
+            SimpleExpressionAST replacement;
+            if(field.getConstantValue() != null) {
+                replacement = new SimpleExpressionAST(field.getConstantValue());
+                replacement.setNullness(Nullness.NEVER_VOID);
+            } else {
+                replacement = new SimpleExpressionAST(
+                        candidate.scalars.get(name.getText()).getName()
+                );
+                replacement.setNullness(binary.getNullness());
+            }
+            replacement.setType(binary.getType());
+            return replacement;
+        } else if(op == Value.EQUALITY || op == Value.INEQUALITY) {
+            ExpressionAST variable = (isVoid(binary.getLhs()) ? binary.getRhs() : binary.getLhs());
+            if(candidates.containsKey(variableName(variable))) {
+                boolean isVoid = (variable.getNullness() == Nullness.ALWAYS_VOID);
+                return ConstantFolder.literal(isVoid == (op == Value.EQUALITY), expr);
+            }
+        }
+        return expr;
+    }
+
+    /* private implementation follows */
+
+    /**
+     * Finds the variables of the current method whose objects don't
+     * escape, and declares the variables that replace their fields.
+     */
+    private void findCandidates() {
+        candidates.clear();
+        declarationCounts.clear();
+        InstructionsAST body = getCurrentMethod().getInstructions();
+        addCandidates(getCurrentMethod().getLocalVariableDecls(), body);
+        scanBlock(body);
+        for (Map.Entry<String, Integer> entry : declarationCounts.entrySet()) {
+            if(entry.getValue() > 1) {
+                candidates.remove(entry.getKey());
+            }
+        }
+        for (Map.Entry<String, Candidate> entry : new HashMap<String, Candidate>(candidates).entrySet()) {
+            Candidate candidate = entry.getValue();
+            if(candidate.escapes || !candidate.constructed) {
+                candidates.remove(entry.getKey());
+                continue;
+            }
+            List<VariableDeclAST> decls = new LinkedList<VariableDeclAST>(candidate.block.getLocalDecls());
+            // (the variables of the method itself are left alone)
+            decls.remove(candidate.decl);
+            decls.addAll(candidate.scalars.values());
+            candidate.block.setLocalDecls(decls);
+            replacedObjects++;
+        }
+    }
+
+    private void addCandidates(List<VariableDeclAST> decls, InstructionsAST block) {
+        for (VariableDeclAST decl : decls) {
+            String name = decl.getName().getText();
+            Integer count = declarationCounts.get(name);
+            declarationCounts.put(name, count == null ? 1 : count + 1);
+            ClassAST klass = classes.get(decl.getType().getName());
+            // (a field with the same name is used outside the block)
+            if(klass != null && findField(getCurrentClass(), name) == null) {
+                candidates.put(name, new Candidate(klass, decl, block));
+            }
+        }
+    }
+
+    private void scanBlock(InstructionsAST block) {
+        if(block == null) {
+            return;
+        }
+        addCandidates(block.getLocalDecls(), block);
+        for (InstructionAST instruction : block.getInstructions()) {
+            if(instruction instanceof ExpressionAST) {
+                scanExpression((ExpressionAST)instruction);
+            } else if(instruction instanceof AssignmentAST) {
+                AssignmentAST assignment = (AssignmentAST)instruction;
+                escape(assignment.getIdentifier().getText());
+                scanExpression(assignment.getExpression());
+            } else if(instruction instanceof ConstructionAST) {
+                Candidate candidate = candidates.get(
+                        ((ConstructionAST)instruction).getIdentifier().getText()
+                );
+                if(candidate != null) {
+                    candidate.constructed = true;
+                }
+            } else if(instruction instanceof ConditionalAST) {
+                ConditionalAST conditional = (ConditionalAST)instruction;
+                scanIfStatement(conditional.getIfStatement());
+                for (IfStatementAST elseIf : conditional.getElseIfStatements()) {
+                    scanIfStatement(elseIf);
+                }
+                scanBlock(conditional.getElseStatement());
+            } else if(instruction instanceof IterationAST) {
+                IterationAST iteration = (IterationAST)instruction;
+                scanBlock(iteration.getFrom());
+                scanExpression(iteration.getUntil());
+                scanBlock(iteration.getLoop());
+            }
+        }
+    }
+
+    private void scanIfStatement(IfStatementAST ifStmt) {
+        scanExpression(ifStmt.getGuard());
+        scanBlock(ifStmt.getThen());
+    }
+
+    /**
+     * Marks the objects used by an expression in other ways than
+     * reading their fields or comparing them with void as escaping.
+     */
+    private void scanExpression(ExpressionAST expr) {
+        if(expr instanceof SimpleExpressionAST) {
+            escape(variableName(expr));
+        } else if(expr instanceof UnaryExpressionAST) {
+            scanExpression(((UnaryExpressionAST)expr).getExpression());
+        } else if(expr instanceof BinaryExpressionAST) {
+            BinaryExpressionAST binary = (BinaryExpressionAST)expr;
+            Value op = binary.getOperator().getValue();
+            if(op == Value.DOT) {
+                Candidate candidate = candidates.get(variableName(binary.getLhs()));
+                if(candidate == null) {
+                    scanExpression(binary.getLhs());
+                    if(binary.getRhs() instanceof InvocationAST) {
+                        scanArguments((InvocationAST)binary.getRhs());
+                    }
+                } else if(binary.getRhs() instanceof InvocationAST ||
+                        binary.getLhs().getNullness() != Nullness.NEVER_VOID) {
+                    // a call, or a read that may fail
+                    candidate.escapes = true;
+                } else {
+                    addScalar(candidate, binary);
+                }
+            } else if((op == Value.EQUALITY || op == Value.INEQUALITY) &&
+                    (isVoid(binary.getLhs()) || isVoid(binary.getRhs()))) {
+                ExpressionAST variable = (isVoid(binary.getLhs()) ? binary.getRhs() : binary.getLhs());
+                // the result must be known
+                if(variable.getNullness() != Nullness.NEVER_VOID &&
+                        variable.getNullness() != Nullness.ALWAYS_VOID) {
+                    scanExpression(variable);
+                }
+            } else {
+                scanExpression(binary.getLhs());
+                scanExpression(binary.getRhs());
+            }
+        } else if(expr instanceof InvocationAST) {
+            scanArguments((InvocationAST)expr);
+        }
+    }
+
+    private void scanArguments(InvocationAST invocation) {
+        for (ExpressionAST arg : invocation.getArguments()) {
+            scanExpression(arg);
+        }
+    }
+
+    /**
+     * Declares the variable that replaces a field read (constants
+     * are replaced by their values instead).
+     */
+    private void addScalar(Candidate candidate, BinaryExpressionAST read) {
+        Token name = read.getRhs().getLocationToken();
+        VariableDeclAST field = findField(candidate.klass, name.getText());
+        if(field == null) {
+            candidate.escapes = true;
+        } else if(field.getConstantValue() == null &&
+                !candidate.scalars.containsKey(name.getText())) {
+            String objectName = read.getLhs().getLocationToken().getText();
+            Token scalarName = new Token(TokenType.IDENTIFIER, objectName + "$" + name.getText());
+            scalarName.setPosition(name.getPosition());
+            VariableDeclAST scalar = new VariableDeclAST(scalarName, field.getTypeName(), null);
+            scalar.setType(field.getType());
+            scalar.setNullness(field.getNullness());
+            candidate.scalars.put(name.getText(), scalar);
+        }
+    }
+
+    private void escape(String name) {
+        Candidate candidate = candidates.get(name);
+        if(candidate != null) {
+            candidate.escapes = true;
+        }
+    }
+
+    private static VariableDeclAST findField(ClassAST klass, String name) {
+        for (VariableDeclAST field : klass.getSignature().getVariables()) {
+            if(field.getName().getText().equals(name)) {
+                return field;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the name of the variable an expression consists of,
+     * or null if it isn't a variable.
+     */
+    private static String variableName(ExpressionAST expr) {
+        if(expr instanceof SimpleExpressionAST &&
+                expr.getLocationToken().getType() == TokenType.IDENTIFIER) {
+            return expr.getLocationToken().getText();
+        }
+        return null;
+    }
+
+    private static boolean isVoid(ExpressionAST expr) {
+        return "void".equals(variableName(expr));
+    }
+
+}
@@ -0,0 +1,374 @@
+package minieiffel.opt;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+
+import minieiffel.Token;
+import minieiffel.Token.TokenType;
+import minieiffel.Token.Value;
+import minieiffel.ast.AssignmentAST;
+import minieiffel.ast.BinaryExpressionAST;
+import minieiffel.ast.ClassAST;
+import minieiffel.ast.ConditionalAST;
+import minieiffel.ast.ExpressionAST;
+import minieiffel.ast.FeatureAST;
+import minieiffel.ast.FeatureBlockAST;
+import minieiffel.ast.IfStatementAST;
+import minieiffel.ast.InstructionAST;
+import minieiffel.ast.InstructionsAST;
+import minieiffel.ast.InvocationAST;
+import minieiffel.ast.IterationAST;
+import minieiffel.ast.MethodAST;
+import minieiffel.ast.ProgramAST;
+import minieiffel.ast.SimpleExpressionAST;
+import minieiffel.ast.UnaryExpressionAST;
+import minieiffel.ast.VariableDeclAST;
+import minieiffel.semantics.Nullness;
+import minieiffel.semantics.Type;
+
+/**
+ * Replaces the multiplications of induction variables in loops with
+ * additions. An induction variable of a loop is a local INTEGER
+ * variable (or parameter) that is assigned exactly once in the loop,
+ * by an instruction such as <code>i := i + 2</code> or
+ * <code>i := i - 1</code> at the top level of the body, and that
+ * is never void when the loop starts (it's read in the
+ * <code>until</code> condition and known not to be void there).
+ *
+ * <p>Each product of an induction variable and an integer literal
+ * (e.g. <code>i * 4</code>) in the loop is replaced by a new variable
+ * (named <code>iv$1</code>, <code>iv$2</code> etc) that is set to
+ * the product at the end of the <code>from</code> part, and increased
+ * by the step of the induction variable times the literal right after
+ * the induction variable is updated. Since integers wrap around, the
+ * sums are equal to the products even if they overflow. Equal products
+ * share the same variable, which is declared in the block that encloses
+ * the loop. Nested loops are handled from the innermost one out.</p>
+ *
+ * <p>Multiplications, divisions and remainders by powers of two are
+ * left to the code generator, which turns them into shifts and masks.</p>
+ */
+public class StrengthReducer implements OptimizationPass {
+
+    /** number of multiplications replaced so far */
+    private int reducedMultiplications;
+
+    /** the class being optimized */
+    private ClassAST currentClass;
+
+    /** number of local variables added to the current method */
+    private int variableCount;
+
+    /** state of the loop being optimized */
+    private Map<String, Integer> steps;
+    private Map<String, VariableDeclAST> products;
+    private Map<String, List<AssignmentAST>> updates;
+    private Map<String, ExpressionAST> initialValues;
+
+    public void optimize(ProgramAST program) {
+        for (ClassAST klass : program.getClasses()) {
+            currentClass = klass;
+            for (FeatureBlockAST block : klass.getFeatureBlocks()) {
+                for (FeatureAST feature : block.getFeatures()) {
+                    if(feature instanceof MethodAST &&
+                            ((MethodAST)feature).getInstructions() != null) {
+                        variableCount = 0;
+                        optimizeBlock(((MethodAST)feature).getInstructions());
+                    }
+                }
+            }
+        }
+        currentClass = null;
+    }
+
+    /**
+     * Returns the number of multiplications replaced so far.
+     */
+    public int getReducedMultiplications() {
+        return reducedMultiplications;
+    }
+
+    /* private implementation follows */
+
+    private void optimizeBlock(InstructionsAST block) {
+        if(block == null) {
+            return;
+        }
+        for (InstructionAST instruction : block.getInstructions()) {
+            if(instruction instanceof ConditionalAST) {
+                ConditionalAST conditional = (ConditionalAST)instruction;
+                optimizeBlock(conditional.getIfStatement().getThen());
+                for (IfStatementAST elseIf : conditional.getElseIfStatements()) {
+                    optimizeBlock(elseIf.getThen());
+                }
+                optimizeBlock(conditional.getElseStatement());
+            } else if(instruction instanceof IterationAST) {
+                IterationAST iteration = (IterationAST)instruction;
+                optimizeBlock(iteration.getFrom());
+                optimizeBlock(iteration.getLoop());
+                optimizeLoop(iteration, block);
+            }
+        }
+    }
+
+    /**
+     * Replaces the products of the induction variables of a loop,
+     * the new variables are declared in the enclosing block.
+     */
+    private void optimizeLoop(IterationAST iteration, InstructionsAST block) {
+        if(iteration.getLoop() == null) {
+            return;
+        }
+        LoopEffects effects = new LoopEffects(iteration);
+        steps = new HashMap<String, Integer>();
+        for (InstructionAST instruction : iteration.getLoop().getInstructions()) {
+            Integer step = getStep(instruction);
+            if(step != null) {
+                String name = ((AssignmentAST)instruction).getIdentifier().getText();
+                if(effects.getAssignmentCount(name) == 1 && !effects.declares(name) &&
+                        findField(name) == null && readsNonVoid(iteration.getUntil(), name)) {
+                    steps.put(name, step);
+                }
+            }
+        }
+        if(steps.isEmpty()) {
+            steps = null;
+            return;
+        }
+
+        products = new LinkedHashMap<String, VariableDeclAST>();
+        updates = new HashMap<String, List<AssignmentAST>>();
+        initialValues = new HashMap<String, ExpressionAST>();
+        iteration.setUntil(reduce(iteration.getUntil()));
+        reduceBlock(iteration.getLoop());
+
+        if(!products.isEmpty()) {
+            // the variables are set before the loop starts...
+            InstructionsAST from = iteration.getFrom();
+            if(from == null) {
+                from = new InstructionsAST(new LinkedList<VariableDeclAST>(), new LinkedList<InstructionAST>());
+                iteration.setFrom(from);
+            }
+            List<InstructionAST> instructions = new LinkedList<InstructionAST>(from.getInstructions());
+            List<VariableDeclAST> decls = new LinkedList<VariableDeclAST>(block.getLocalDecls());
+            for (Map.Entry<String, VariableDeclAST> product : products.entrySet()) {
+                VariableDeclAST var = product.getValue();
+                instructions.add(new AssignmentAST(var.getName(), initialValues.get(product.getKey())));
+                decls.add(var);
+            }
+            from.setInstructions(instructions);
+            block.setLocalDecls(decls);
+            // ...and updated along with the induction variables
+            List<InstructionAST> body = new LinkedList<InstructionAST>();
+            for (InstructionAST instruction : iteration.getLoop().getInstructions()) {
+                body.add(instruction);
+                if(instruction instanceof AssignmentAST) {
+                    List<AssignmentAST> assignments =
+                        updates.get(((AssignmentAST)instruction).getIdentifier().getText());
+                    if(assignments != null) {
+                        body.addAll(assignments);
+                    }
+                }
+            }
+            iteration.getLoop().setInstructions(body);
+        }
+        steps = null;
+        products = null;
+        updates = null;
+        initialValues = null;
+    }
+
+    /**
+     * Returns the step of an instruction that updates an induction
+     * variable (e.g. 2 for "i := i + 2"), otherwise null.
+     */
+    private static Integer getStep(InstructionAST instruction) {
+        if(!(instruction instanceof AssignmentAST) ||
+                !(((AssignmentAST)instruction).getExpression() instanceof BinaryExpressionAST)) {
+            return null;
+        }
+        String name = ((AssignmentAST)instruction).getIdentifier().getText();
+        BinaryExpressionAST sum = (BinaryExpressionAST)((AssignmentAST)instruction).getExpression();
+        if(sum.getType() != Type.INTEGER) {
+            return null;
+        }
+        Value op = sum.getOperator().getValue();
+        if(op == Value.PLUS || op == Value.MINUS) {
+            if(isVariable(sum.getLhs(), name) && isIntLiteral(sum.getRhs())) {
+                int step = Integer.parseInt(sum.getRhs().getLocationToken().getText());
+                return (op == Value.PLUS ? step : -step);
+            } else if(op == Value.PLUS && isIntLiteral(sum.getLhs()) && isVariable(sum.getRhs(), name)) {
+                return Integer.parseInt(sum.getLhs().getLocationToken().getText());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if the variable is read in the expression and known
+     * not to be void there. Reads on the right-hand side of "and then"
+     * and "or else" don't count, since what's known there depends on
+     * the left-hand side.
+     */
+    private static boolean readsNonVoid(ExpressionAST expr, String name) {
+        if(expr instanceof SimpleExpressionAST) {
+            return isVariable(expr, name) && expr.getNullness() == Nullness.NEVER_VOID;
+        } else if(expr instanceof UnaryExpressionAST) {
+            return readsNonVoid(((UnaryExpressionAST)expr).getExpression(), name);
+        } else if(expr instanceof BinaryExpressionAST) {
+            BinaryExpressionAST binary = (BinaryExpressionAST)expr;
+            Value op = binary.getOperator().getValue();
+            return readsNonVoid(binary.getLhs(), name) ||
+                   (op != Value.AND_THEN && op != Value.OR_ELSE && op != Value.DOT &&
+                    readsNonVoid(binary.getRhs(), name));
+        }
+        return false;
+    }
+
+    private void reduceBlock(InstructionsAST block) {
+        if(block == null) {
+            return;
+        }
+        for (ListIterator<InstructionAST> i = block.getInstructions().listIterator(); i.hasNext(); ) {
+            InstructionAST instruction = i.next();
+            if(instruction instanceof ExpressionAST) {
+                i.set(reduce((ExpressionAST)instruction));
+            } else if(instruction instanceof AssignmentAST) {
+                AssignmentAST assignment = (AssignmentAST)instruction;
+                assignment.setExpression(reduce(assignment.getExpression()));
+            } else if(instruction instanceof ConditionalAST) {
+                ConditionalAST conditional = (ConditionalAST)instruction;
+                IfStatementAST ifStmt = conditional.getIfStatement();
+                ifStmt.setGuard(reduce(ifStmt.getGuard()));
+                reduceBlock(ifStmt.getThen());
+                for (IfStatementAST elseIf : conditional.getElseIfStatements()) {
+                    elseIf.setGuard(reduce(elseIf.getGuard()));
+                    reduceBlock(elseIf.getThen());
+                }
+                reduceBlock(conditional.getElseStatement());
+            } else if(instruction instanceof IterationAST) {
+                IterationAST iteration = (IterationAST)instruction;
+                reduceBlock(iteration.getFrom());
+                iteration.setUntil(reduce(iteration.getUntil()));
+                reduceBlock(iteration.getLoop());
+            }
+        }
+    }
+
+    /**
+     * Replaces the products of induction variables in an expression
+     * tree, returns the new root of the tree.
+     */
+    private ExpressionAST reduce(ExpressionAST expr) {
+        if(expr instanceof UnaryExpressionAST) {
+            UnaryExpressionAST unary = (UnaryExpressionAST)expr;
+            unary.setExpression(reduce(unary.getExpression()));
+        } else if(expr instanceof BinaryExpressionAST) {
+            BinaryExpressionAST binary = (BinaryExpressionAST)expr;
+            if(binary.getOperator().getValue() == Value.MULTIPLY && binary.getType() == Type.INTEGER) {
+                if(isInductionVariable(binary.getLhs()) && isIntLiteral(binary.getRhs())) {
+                    return product(binary, binary.getLhs(), binary.getRhs());
+                } else if(isIntLiteral(binary.getLhs()) && isInductionVariable(binary.getRhs())) {
+                    return product(binary, binary.getRhs(), binary.getLhs());
+                }
+            }
+            binary.setLhs(reduce(binary.getLhs()));
+            if(binary.getOperator().getValue() != Value.DOT) {
+                binary.setRhs(reduce(binary.getRhs()));
+            } else if(binary.getRhs() instanceof InvocationAST) {
+                reduceArguments((InvocationAST)binary.getRhs());
+            }
+        } else if(expr instanceof InvocationAST) {
+            reduceArguments((InvocationAST)expr);
+        }
+        return expr;
+    }
+
+    private void reduceArguments(InvocationAST invocation) {
+        for (ListIterator<ExpressionAST> i = invocation.getArguments().listIterator(); i.hasNext(); ) {
+            i.set(reduce(i.next()));
+        }
+    }
+
+    /**
+     * Returns the variable that holds the value of a product of an
+     * induction variable and a literal, creating it if necessary.
+     */
+    private SimpleExpressionAST product(BinaryExpressionAST expr, ExpressionAST variable, ExpressionAST factor) {
+        String name = variable.getLocationToken().getText();
+        int multiplier = Integer.parseInt(factor.getLocationToken().getText());
+        String key = name + " * " + multiplier;
+        VariableDeclAST var = products.get(key);
+        if(var == null) {
+            var = new VariableDeclAST(
+                    new Token(TokenType.IDENTIFIER, "iv$" + (++variableCount)),
+                    new Token(TokenType.IDENTIFIER, Type.INTEGER.getName()),
+                    null
+            );
+            var.setType(Type.INTEGER);
+            var.setNullness(Nullness.NEVER_VOID);
+            products.put(key, var);
+            // (the product itself is moved before the loop)
+            initialValues.put(key, expr);
+            // "iv$1 := iv$1 + step * multiplier"
+            BinaryExpressionAST sum = new BinaryExpressionAST(
+                    reference(var, expr),
+                    new Token(Value.PLUS),
+                    ConstantFolder.literal(steps.get(name) * multiplier, expr)
+            );
+            sum.setType(Type.INTEGER);
+            sum.setNullness(Nullness.NEVER_VOID);
+            List<AssignmentAST> assignments = updates.get(name);
+            if(assignments == null) {
+                assignments = new LinkedList<AssignmentAST>();
+                updates.put(name, assignments);
+            }
+            assignments.add(new AssignmentAST(var.getName(), sum));
+        }
+        reducedMultiplications++;
+        return reference(var, expr);
+    }
+
+    /**
+     * Refers to a variable at the position of the given expression.
+     */
+    private static SimpleExpressionAST reference(VariableDeclAST var, ExpressionAST position) {
+        Token token = new Token(TokenType.IDENTIFIER, var.getName().getText());
+        token.setPosition(position.getLocationToken().getPosition());
+        SimpleExpressionAST reference = new SimpleExpressionAST(token);
+        reference.setType(Type.INTEGER);
+        reference.setNullness(Nullness.NEVER_VOID);
+        return reference;
+    }
+
+    private boolean isInductionVariable(ExpressionAST expr) {
+        return expr instanceof SimpleExpressionAST &&
+               expr.getLocationToken().getType() == TokenType.IDENTIFIER &&
+               steps.containsKey(expr.getLocationToken().getText());
+    }
+
+    private static boolean isIntLiteral(ExpressionAST expr) {
+        return expr instanceof SimpleExpressionAST &&
+               expr.getLocationToken().getType() == TokenType.INT_LITERAL;
+    }
+
+    private static boolean isVariable(ExpressionAST expr, String name) {
+        return expr instanceof SimpleExpressionAST &&
+               expr.getLocationToken().getType() == TokenType.IDENTIFIER &&
+               expr.getLocationToken().getText().equals(name);
+    }
+
+    private VariableDeclAST findField(String name) {
+        for (VariableDeclAST field : currentClass.getSignature().getVariables()) {
+            if(field.getName().getText().equals(name)) {
+                return field;
+            }
+        }
+        return null;
+    }
+
+}
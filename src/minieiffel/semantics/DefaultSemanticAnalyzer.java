@@ -1,6 +1,7 @@
 package minieiffel.semantics;
 
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
@@ -8,6 +9,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.Set;
 
 import minieiffel.Source;
 import minieiffel.Token;
@@ -18,7 +20,10 @@ import minieiffel.ast.ConditionalAST;
 import minieiffel.ast.ConstructionAST;
 import minieiffel.ast.ExpressionAST;
 import minieiffel.ast.FeatureAST;
+import minieiffel.ast.FeatureBlockAST;
 import minieiffel.ast.IfStatementAST;
+import minieiffel.ast.InstructionAST;
+import minieiffel.ast.InstructionsAST;
 import minieiffel.ast.IterationAST;
 import minieiffel.ast.MethodAST;
 import minieiffel.ast.ParamDeclAST;
@@ -32,9 +37,25 @@ import minieiffel.util.Stack;
  * Default implementation of a semantic analyzer. Implemented
  * as a {@link minieiffel.ast.ProgramVisitor}.
  * 
- * <p>{@link minieiffel.semantics.SignatureResolver Signature resolving}
- * and {@link minieiffel.semantics.TypeInference expression type inference}
+ * <p>{@link minieiffel.semantics.SignatureResolver Signature resolving},
+ * {@link minieiffel.semantics.TypeInference expression type inference}
+ * and the {@link minieiffel.semantics.NullnessAnalysis nullness analysis}
  * are implemented in their own classes.</p>
+ * 
+ * <p>While analyzing, the classes and features each method body
+ * refers to are recorded in a {@link DependencyGraph}. After some
+ * classes of an already analyzed program have been replaced (e.g.
+ * re-parsed after an edit), {@link #reanalyze(ProgramAST)} re-checks
+ * only the bodies that are affected by the change.</p>
+ * 
+ * <p>By default the method bodies are walked with the visitor pattern
+ * (see {@link minieiffel.ast.ProgramVisitor}). When the
+ * {@link #setFusedTraversal(boolean) fused traversal} is enabled, the
+ * analyzer walks each method body itself in a single pass, checking
+ * each <code>if</code>/<code>elseif</code> guard right before its branch
+ * and each <code>until</code> condition after the <code>from</code>
+ * block. The checks done are the same, only the order in which errors
+ * from different parts of a conditional are reported may differ.</p>
  */
 public class DefaultSemanticAnalyzer implements SemanticAnalyzer, ProgramVisitor {
     
@@ -44,6 +65,13 @@ public class DefaultSemanticAnalyzer implements SemanticAnalyzer, ProgramVisitor
     /** errors encountered */
     private List<SemanticError> errors = new LinkedList<SemanticError>();
     
+    /** errors encountered outside method bodies (i.e. in signatures) */
+    private List<SemanticError> signatureErrors = new LinkedList<SemanticError>();
+    
+    /** errors encountered in the body of each method */
+    private Map<MethodAST, List<SemanticError>> errorsForMethod =
+        new IdentityHashMap<MethodAST, List<SemanticError>>();
+    
     /** list of all type signatures in the program under analysis */
     private List<Signature> signatures;
     
@@ -59,10 +87,25 @@ public class DefaultSemanticAnalyzer implements SemanticAnalyzer, ProgramVisitor
     
     /** the class that's under analysis at the moment */
     private Type currentType;
+    
+    /** canonical ids of the classes in the program mapped by name
+     *  (id 0 is reserved for types that aren't part of the program) */
+    private Map<String, Integer> typeIds;
+    
+    /** the visibility set of the features visible to ANY, shared
+     *  by all of them (visibility sets are never modified) */
+    private BitSet visibleToAll;
+    
+    /** canonical id of the current class */
+    private int currentTypeId;
 
     /** the method we're in at the moment */
     private MethodAST currentMethod;
     
+    /** the method whose body (including its parameter declarations)
+     *  is being analyzed, errors and dependencies are recorded for it */
+    private MethodAST methodUnderAnalysis;
+    
     /** stack for lists of local variables, top list being the
      *  current scope */
     private Stack<List<VariableDeclAST>> localVariables =
@@ -77,6 +120,19 @@ public class DefaultSemanticAnalyzer implements SemanticAnalyzer, ProgramVisitor
     private Map<FeatureAST, List<Source.Position>> references =
         new IdentityHashMap<FeatureAST, List<Source.Position>>();
     
+    /** the references made from the body of each method */
+    private Map<MethodAST, List<Reference>> referencesForMethod =
+        new IdentityHashMap<MethodAST, List<Reference>>();
+    
+    /** whether method bodies are walked by the fused traversal */
+    private boolean fusedTraversal;
+    
+    /** what each method body depends on */
+    private DependencyGraph dependencies = new DependencyGraph();
+    
+    /** the classes of the program as of the previous analysis */
+    private List<ClassAST> analyzedClasses = new LinkedList<ClassAST>();
+    
     /** dummy variable declarations for the "void" and "current" values so
      *  that the same algorithms can be used on all variable references */
     private VariableDeclAST voidDecl;
@@ -86,10 +142,122 @@ public class DefaultSemanticAnalyzer implements SemanticAnalyzer, ProgramVisitor
      * Analyzes the given program.
      */
     public void analyze(ProgramAST program) {
+        inference.invalidate();
         // first resolve the signatures of the classes in the program
         resolveSignatures(program);
+        dependencies.update(signatures);
         // then analyze the structure of the program
         analyzeStructure(program);
+        // and finally find out which values can be void
+        new NullnessAnalysis(program).analyze();
+        analyzedClasses = new LinkedList<ClassAST>(program.getClasses());
+    }
+    
+    /**
+     * Re-analyzes a program that has been analyzed before, after some
+     * of its classes have been replaced, added or removed. Signatures are
+     * always resolved again (which is cheap), but only the following
+     * method bodies are re-checked:
+     * 
+     * <ul>
+     * <li>all methods of classes that weren't part of the previously
+     *     analyzed program (i.e. new or replaced <code>ClassAST</code>s)</li>
+     * <li>methods that depend on a class or a feature whose signature
+     *     (types, visibility or existence) has changed</li>
+     * </ul>
+     * 
+     * The other method bodies keep their inferred types and errors.
+     * 
+     * @return the methods whose bodies were re-checked
+     */
+    public List<MethodAST> reanalyze(ProgramAST program) {
+        
+        // types in the re-checked bodies must be inferred again
+        inference.invalidate();
+        
+        // resolve signatures and find out which ones have changed
+        signatureErrors.clear();
+        resolveSignatures(program);
+        Set<String> changedKeys = dependencies.update(signatures);
+        
+        Map<ClassAST, ClassAST> previousClasses =
+            new IdentityHashMap<ClassAST, ClassAST>();
+        for (ClassAST klass : analyzedClasses) {
+            previousClasses.put(klass, klass);
+        }
+        
+        // re-check the affected method bodies
+        List<MethodAST> recheckedMethods = new LinkedList<MethodAST>();
+        NullnessAnalysis nullness = new NullnessAnalysis(program);
+        for (ClassAST klass : program.getClasses()) {
+            boolean replaced = !previousClasses.containsKey(klass);
+            enteringClass(klass);
+            for (MethodAST method : methodsOf(klass)) {
+                if(replaced || dependencies.dependsOn(method, changedKeys)) {
+                    forgetMethod(method);
+                    checkMethod(method);
+                    nullness.analyzeMethod(klass, method);
+                    recheckedMethods.add(method);
+                }
+            }
+            leavingClass();
+        }
+        
+        // collect the errors and references of all method bodies,
+        // rechecked or not, in the order of a full analysis
+        errors.clear();
+        errors.addAll(signatureErrors);
+        references.clear();
+        Map<MethodAST, List<SemanticError>> newErrors =
+            new IdentityHashMap<MethodAST, List<SemanticError>>();
+        Map<MethodAST, List<Reference>> newReferences =
+            new IdentityHashMap<MethodAST, List<Reference>>();
+        for (ClassAST klass : program.getClasses()) {
+            for (MethodAST method : methodsOf(klass)) {
+                if(errorsForMethod.containsKey(method)) {
+                    errors.addAll(errorsForMethod.get(method));
+                    newErrors.put(method, errorsForMethod.get(method));
+                }
+                if(referencesForMethod.containsKey(method)) {
+                    List<Reference> refs = referencesForMethod.get(method);
+                    for (Iterator<Reference> i = refs.iterator(); i.hasNext(); ) {
+                        Reference ref = i.next();
+                        // the referenced feature may have been re-parsed
+                        ref.feature = dependencies.translate(ref.feature);
+                        if(ref.feature == null) {
+                            i.remove();
+                        } else {
+                            positionsOf(ref.feature).add(ref.position);
+                        }
+                    }
+                    newReferences.put(method, refs);
+                }
+            }
+        }
+        // (this also drops the methods that no longer exist)
+        errorsForMethod = newErrors;
+        referencesForMethod = newReferences;
+        
+        analyzedClasses = new LinkedList<ClassAST>(program.getClasses());
+        return recheckedMethods;
+    }
+
+    /**
+     * Enables or disables the fused traversal of method bodies: instead
+     * of visiting them via {@link ProgramAST#accept(ProgramVisitor)},
+     * each body is checked, its types inferred and its local variables
+     * and references registered in a single walk by this class.
+     */
+    public void setFusedTraversal(boolean fusedTraversal) {
+        this.fusedTraversal = fusedTraversal;
+    }
+
+    /**
+     * Returns the type inference used by this analyzer
+     * (e.g. for looking up how much inference work was done).
+     */
+    public TypeInference getInference() {
+        return inference;
     }
 
     /**
@@ -103,7 +271,19 @@ public class DefaultSemanticAnalyzer implements SemanticAnalyzer, ProgramVisitor
      * Adds a semantic error to the list.
      */
     public void addError(String message, Token offendingToken) {
-        errors.add(new SemanticError(message, offendingToken));
+        SemanticError error = new SemanticError(message, offendingToken);
+        errors.add(error);
+        if(methodUnderAnalysis != null) {
+            List<SemanticError> methodErrors =
+                errorsForMethod.get(methodUnderAnalysis);
+            if(methodErrors == null) {
+                methodErrors = new LinkedList<SemanticError>();
+                errorsForMethod.put(methodUnderAnalysis, methodErrors);
+            }
+            methodErrors.add(error);
+        } else {
+            signatureErrors.add(error);
+        }
     }
 
     /**
@@ -132,6 +312,7 @@ public class DefaultSemanticAnalyzer implements SemanticAnalyzer, ProgramVisitor
             owner = currentType;
         }
         
+        addDependency(owner, name);
         List<MethodAST> matchingMethods =
             findMethods(owner, name.getText(), argumentTypes);
         
@@ -177,6 +358,8 @@ public class DefaultSemanticAnalyzer implements SemanticAnalyzer, ProgramVisitor
      */
     public void enteringClass(ClassAST klass) {
         currentType = klass.getType();
+        Integer id = typeIds.get(klass.getName().getText());
+        currentTypeId = (id == null ? 0 : id);
     }
 
     /**
@@ -203,6 +386,7 @@ public class DefaultSemanticAnalyzer implements SemanticAnalyzer, ProgramVisitor
      */
     public void enteringMethod(MethodAST method) {
 
+        methodUnderAnalysis = method;
         enteringBlock();
         
         // if return type is not void, declare special variable 'result'
@@ -256,6 +440,7 @@ public class DefaultSemanticAnalyzer implements SemanticAnalyzer, ProgramVisitor
     public void leavingMethod() {
         leavingBlock();
         currentMethod = null;
+        methodUnderAnalysis = null;
     }
 
     public void enteringBlock() {
@@ -270,6 +455,12 @@ public class DefaultSemanticAnalyzer implements SemanticAnalyzer, ProgramVisitor
     
     public void visit(VariableDeclAST var) {
         Type t = typesByName.get(var.getTypeName().getText());
+        if(methodUnderAnalysis != null) {
+            dependencies.addClassDependency(
+                    methodUnderAnalysis,
+                    var.getTypeName().getText()
+            );
+        }
         if(t == null) {
             addError(
                     "Unknown class \"" +
@@ -360,17 +551,9 @@ public class DefaultSemanticAnalyzer implements SemanticAnalyzer, ProgramVisitor
     }
 
     public void visit(ConditionalAST conditional) {
-        checkExpressionType(
-                Type.BOOLEAN,
-                conditional.getIfStatement().getGuard(),
-                "\"if\" must be of type BOOLEAN"
-        );
+        checkIfGuard(conditional.getIfStatement());
         for (IfStatementAST elseIfStmt : conditional.getElseIfStatements()) {
-            checkExpressionType(
-                    Type.BOOLEAN,
-                    elseIfStmt.getGuard(),
-                    "\"elseif\" must be of type BOOLEAN"
-            );
+            checkElseIfGuard(elseIfStmt);
         }
     }
 
@@ -395,6 +578,22 @@ public class DefaultSemanticAnalyzer implements SemanticAnalyzer, ProgramVisitor
         );
     }
     
+    private void checkIfGuard(IfStatementAST ifStmt) {
+        checkExpressionType(
+                Type.BOOLEAN,
+                ifStmt.getGuard(),
+                "\"if\" must be of type BOOLEAN"
+        );
+    }
+    
+    private void checkElseIfGuard(IfStatementAST elseIfStmt) {
+        checkExpressionType(
+                Type.BOOLEAN,
+                elseIfStmt.getGuard(),
+                "\"elseif\" must be of type BOOLEAN"
+        );
+    }
+    
     public void printSymbolTable() {
         System.out.println("Symbol table for program:");
         for (Signature sig : signatures) {
@@ -447,6 +646,11 @@ public class DefaultSemanticAnalyzer implements SemanticAnalyzer, ProgramVisitor
             
         }
         
+        if(result == null) {
+            // looking for a member variable
+            addDependency(owner, name);
+        }
+        
         if(result == null && variableTypeMappings.containsKey(owner)) {
             VariableDeclAST var =
                     variableTypeMappings.get(owner).get(name.getText());
@@ -499,6 +703,7 @@ public class DefaultSemanticAnalyzer implements SemanticAnalyzer, ProgramVisitor
             methodTypeMappings.put(type, sig.getMethods());
             variableTypeMappings.put(type, variableTypes);
         }
+        computeVisibilitySets();
         // initialize special declarations
         voidDecl = new VariableDeclAST(
                 new Token(TokenType.IDENTIFIER, "void"),
@@ -518,8 +723,90 @@ public class DefaultSemanticAnalyzer implements SemanticAnalyzer, ProgramVisitor
      * test cases to alter this behaviour.
      */
     protected void analyzeStructure(ProgramAST program) {
-        // rest of the analysis is implemented with the visitor pattern
-        program.accept(this);
+        if(fusedTraversal) {
+            for (ClassAST klass : program.getClasses()) {
+                enteringClass(klass);
+                for (MethodAST method : methodsOf(klass)) {
+                    checkMethod(method);
+                }
+                leavingClass();
+            }
+        } else {
+            // rest of the analysis is implemented with the visitor pattern
+            program.accept(this);
+        }
+    }
+    
+    /**
+     * Checks the body of a single method, either with the
+     * visitor pattern or the fused traversal.
+     */
+    private void checkMethod(MethodAST method) {
+        if(!fusedTraversal) {
+            method.accept(this);
+            return;
+        }
+        enteringMethod(method);
+        for (VariableDeclAST var : method.getLocalVariableDecls()) {
+            visit(var);
+        }
+        if(method.getInstructions() != null) {
+            checkBlock(method.getInstructions());
+        }
+        leavingMethod();
+    }
+    
+    /**
+     * Checks a block of instructions as part of the fused traversal.
+     */
+    private void checkBlock(InstructionsAST block) {
+        enteringBlock();
+        for (VariableDeclAST var : block.getLocalDecls()) {
+            visit(var);
+        }
+        for (InstructionAST instruction : block.getInstructions()) {
+            checkInstruction(instruction);
+        }
+        leavingBlock();
+    }
+    
+    /**
+     * Checks a single instruction as part of the fused traversal.
+     */
+    private void checkInstruction(InstructionAST instruction) {
+        if(instruction instanceof AssignmentAST) {
+            visit((AssignmentAST)instruction);
+        } else if(instruction instanceof ExpressionAST) {
+            visit((ExpressionAST)instruction);
+        } else if(instruction instanceof ConstructionAST) {
+            visit((ConstructionAST)instruction);
+        } else if(instruction instanceof ConditionalAST) {
+            ConditionalAST conditional = (ConditionalAST)instruction;
+            checkIfGuard(conditional.getIfStatement());
+            if(conditional.getIfStatement().getThen() != null) {
+                checkBlock(conditional.getIfStatement().getThen());
+            }
+            for (IfStatementAST elseIfStmt : conditional.getElseIfStatements()) {
+                checkElseIfGuard(elseIfStmt);
+                if(elseIfStmt.getThen() != null) {
+                    checkBlock(elseIfStmt.getThen());
+                }
+            }
+            if(conditional.getElseStatement() != null) {
+                checkBlock(conditional.getElseStatement());
+            }
+        } else if(instruction instanceof IterationAST) {
+            IterationAST iteration = (IterationAST)instruction;
+            if(iteration.getFrom() != null) {
+                checkBlock(iteration.getFrom());
+            }
+            visit(iteration);
+            if(iteration.getLoop() != null) {
+                checkBlock(iteration.getLoop());
+            }
+        } else {
+            throw new RuntimeException("Unknown instruction: " + instruction);
+        }
     }
 
     /**
@@ -598,24 +885,121 @@ public class DefaultSemanticAnalyzer implements SemanticAnalyzer, ProgramVisitor
     
     /**
      * Returns true if the given feature is not visible in the current
-     * context.
+     * context. The owner of the feature is included in its visibility
+     * set, so this is a single bit test.
      */
     protected boolean featureNotVisible(FeatureAST feature, Type owner) {
-        return !currentType.equals(owner) &&
-               !feature.getVisibility().contains(currentType) &&
-               !feature.getVisibility().contains(Type.ANY);
+        return !feature.getVisibilitySet().get(currentTypeId);
+    }
+    
+    /**
+     * Assigns canonical ids to the classes of the program and
+     * computes the visibility set of each feature, i.e. the ids of
+     * the classes the feature is visible to.
+     */
+    private void computeVisibilitySets() {
+        typeIds = new HashMap<String, Integer>();
+        for (Signature sig : signatures) {
+            typeIds.put(sig.getClassAST().getName().getText(), typeIds.size() + 1);
+        }
+        visibleToAll = new BitSet(typeIds.size() + 1);
+        visibleToAll.set(0, typeIds.size() + 1);
+        for (Signature sig : signatures) {
+            int ownerId = typeIds.get(sig.getClassAST().getName().getText());
+            for (VariableDeclAST var : sig.getVariables()) {
+                var.setVisibilitySet(visibilitySet(var.getVisibility(), ownerId));
+            }
+            for (MethodAST method : sig.getMethods()) {
+                method.setVisibilitySet(visibilitySet(method.getVisibility(), ownerId));
+            }
+        }
+    }
+    
+    /**
+     * Converts a visibility listing into a set of type ids.
+     */
+    private BitSet visibilitySet(List<Type> visibility, int ownerId) {
+        if(visibility.contains(Type.ANY)) {
+            return visibleToAll;
+        }
+        BitSet result = new BitSet(typeIds.size() + 1);
+        // features are always visible within their own class
+        result.set(ownerId);
+        for (Type type : visibility) {
+            Integer id = typeIds.get(type.getName());
+            if(id != null) {
+                result.set(id);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Records that the method under analysis depends on the
+     * signature of the given feature in the given class.
+     */
+    private void addDependency(Type owner, Token name) {
+        if(methodUnderAnalysis != null) {
+            dependencies.addFeatureDependency(
+                    methodUnderAnalysis,
+                    owner,
+                    name.getText()
+            );
+        }
     }
     
     /**
      * Registers a reference to a method or a variable.
      */
     private void registerReference(FeatureAST feature, Token token) {
+        positionsOf(feature).add(token.getPosition());
+        if(methodUnderAnalysis != null) {
+            List<Reference> refs = referencesForMethod.get(methodUnderAnalysis);
+            if(refs == null) {
+                refs = new LinkedList<Reference>();
+                referencesForMethod.put(methodUnderAnalysis, refs);
+            }
+            refs.add(new Reference(feature, token.getPosition()));
+        }
+    }
+    
+    /**
+     * Returns the list of positions where the given feature is referenced.
+     */
+    private List<Source.Position> positionsOf(FeatureAST feature) {
         List<Source.Position> positions = references.get(feature);
         if(positions == null) {
             positions = new LinkedList<Source.Position>();
             references.put(feature, positions);
         }
-        positions.add(token.getPosition());
+        return positions;
+    }
+    
+    /**
+     * Forgets everything recorded about the body of the
+     * given method so that it can be analyzed again.
+     */
+    private void forgetMethod(MethodAST method) {
+        dependencies.removeDependencies(method);
+        errorsForMethod.remove(method);
+        referencesForMethod.remove(method);
+        localVariablesForMethod.remove(method);
+    }
+    
+    /**
+     * Returns the methods of the given class in the order
+     * they're visited by {@link ProgramAST#accept(ProgramVisitor)}.
+     */
+    private List<MethodAST> methodsOf(ClassAST klass) {
+        List<MethodAST> methods = new LinkedList<MethodAST>();
+        for (FeatureBlockAST block : klass.getFeatureBlocks()) {
+            for (FeatureAST feature : block.getFeatures()) {
+                if(feature instanceof MethodAST) {
+                    methods.add((MethodAST)feature);
+                }
+            }
+        }
+        return methods;
     }
 
     /**
@@ -714,4 +1098,16 @@ public class DefaultSemanticAnalyzer implements SemanticAnalyzer, ProgramVisitor
         }
     }
     
+    /**
+     * A reference to a feature from a method body.
+     */
+    private static final class Reference {
+        private FeatureAST feature;
+        private Source.Position position;
+        private Reference(FeatureAST feature, Source.Position position) {
+            this.feature = feature;
+            this.position = position;
+        }
+    }
+    
 }
@@ -0,0 +1,224 @@
+package minieiffel.semantics;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import minieiffel.ast.FeatureAST;
+import minieiffel.ast.MethodAST;
+import minieiffel.ast.ParamDeclAST;
+import minieiffel.ast.VariableDeclAST;
+
+/**
+ * Records which classes and features the body of each method
+ * depends on, so that only the affected method bodies need to be
+ * re-checked when a program changes (see
+ * {@link DefaultSemanticAnalyzer#reanalyze(minieiffel.ast.ProgramAST)}).
+ *
+ * <p>Dependencies are stored as textual keys: a class is identified
+ * by its name (e.g. <code>A</code>) and a feature by the name of its
+ * class and its own name (e.g. <code>A.b</code>). This way a key stays
+ * the same even if a class gets re-parsed into new AST nodes. For each
+ * key a fingerprint of the corresponding signature is kept; a method
+ * body has to be re-checked if the fingerprint of any of its keys
+ * changes.</p>
+ */
+public class DependencyGraph {
+
+    /** fingerprint used for keys that identify a class */
+    private static final String CLASS_FINGERPRINT = "class";
+
+    /** the keys each method body depends on */
+    private Map<MethodAST, Set<String>> dependencies =
+        new IdentityHashMap<MethodAST, Set<String>>();
+
+    /** fingerprints of all the class and feature keys of the program */
+    private Map<String, String> fingerprints = new HashMap<String, String>();
+
+    /** member features mapped to their unique descriptions */
+    private Map<FeatureAST, String> descriptions =
+        new IdentityHashMap<FeatureAST, String>();
+
+    /** member features mapped by their unique descriptions */
+    private Map<String, FeatureAST> featuresByDescription =
+        new HashMap<String, FeatureAST>();
+
+    /** descriptions of the features seen during the previous update */
+    private Map<FeatureAST, String> previousDescriptions =
+        new IdentityHashMap<FeatureAST, String>();
+
+    /**
+     * Records that the body of the given method refers to
+     * the class with the given name.
+     */
+    public void addClassDependency(MethodAST method, String className) {
+        dependenciesOf(method).add(className);
+    }
+
+    /**
+     * Records that the body of the given method refers to a feature
+     * with the given name in the given class. The dependency is recorded
+     * even if no such feature exists, as it might be added later on.
+     */
+    public void addFeatureDependency(MethodAST method, Type owner, String name) {
+        if(owner != null) {
+            dependenciesOf(method).add(featureKey(owner.getName(), name));
+        }
+    }
+
+    /**
+     * Forgets the dependencies of the given method
+     * (called before a method body is re-checked).
+     */
+    public void removeDependencies(MethodAST method) {
+        dependencies.remove(method);
+    }
+
+    /**
+     * Returns true if the method body depends on any of the given keys.
+     */
+    public boolean dependsOn(MethodAST method, Set<String> keys) {
+        Set<String> deps = dependencies.get(method);
+        if(deps == null) {
+            return false;
+        }
+        for (String key : deps) {
+            if(keys.contains(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Takes a snapshot of the given signatures and returns the keys
+     * whose fingerprint has changed since the previous snapshot
+     * (including the keys of added and removed classes and features).
+     */
+    public Set<String> update(Iterable<Signature> signatures) {
+
+        Map<String, String> newFingerprints = new HashMap<String, String>();
+        Map<FeatureAST, String> newDescriptions =
+            new IdentityHashMap<FeatureAST, String>();
+        Map<String, FeatureAST> newFeaturesByDescription =
+            new HashMap<String, FeatureAST>();
+
+        for (Signature sig : signatures) {
+            String owner = sig.getClassAST().getName().getText();
+            newFingerprints.put(owner, CLASS_FINGERPRINT);
+            for (VariableDeclAST var : sig.getVariables()) {
+                addFeature(owner, var.getName().getText(), describe(var), var,
+                        newFingerprints, newDescriptions, newFeaturesByDescription);
+            }
+            for (MethodAST method : sig.getMethods()) {
+                addFeature(owner, method.getName().getText(), describe(method), method,
+                        newFingerprints, newDescriptions, newFeaturesByDescription);
+            }
+        }
+
+        // compare the old fingerprints to the new ones
+        Set<String> changed = new HashSet<String>();
+        for (Map.Entry<String, String> entry : newFingerprints.entrySet()) {
+            if(!entry.getValue().equals(fingerprints.get(entry.getKey()))) {
+                changed.add(entry.getKey());
+            }
+        }
+        for (String key : fingerprints.keySet()) {
+            if(!newFingerprints.containsKey(key)) {
+                changed.add(key);
+            }
+        }
+
+        fingerprints = newFingerprints;
+        previousDescriptions = descriptions;
+        descriptions = newDescriptions;
+        featuresByDescription = newFeaturesByDescription;
+
+        return changed;
+    }
+
+    /**
+     * Translates a member feature seen during the previous update
+     * to the corresponding feature of the current program (the
+     * feature may have been re-parsed without changing its signature).
+     * Returns the feature itself if it's not a member feature or if
+     * it's still part of the program, and null if it was removed.
+     */
+    public FeatureAST translate(FeatureAST feature) {
+        if(descriptions.containsKey(feature)) {
+            return feature;
+        }
+        String description = previousDescriptions.get(feature);
+        if(description == null) {
+            // not a member feature (a local variable, for example)
+            return feature;
+        }
+        return featuresByDescription.get(description);
+    }
+
+    /* private implementation follows */
+
+    private Set<String> dependenciesOf(MethodAST method) {
+        Set<String> deps = dependencies.get(method);
+        if(deps == null) {
+            deps = new HashSet<String>();
+            dependencies.put(method, deps);
+        }
+        return deps;
+    }
+
+    private void addFeature(String owner, String name,
+            String description, FeatureAST feature,
+            Map<String, String> fingerprints,
+            Map<FeatureAST, String> descriptions,
+            Map<String, FeatureAST> featuresByDescription) {
+
+        // features with the same name (i.e. overloaded methods)
+        // share a single key and a combined fingerprint
+        String key = featureKey(owner, name);
+        String fingerprint = fingerprints.get(key);
+        fingerprints.put(
+                key,
+                fingerprint == null ? description : fingerprint + ";" + description
+        );
+        description = owner + "." + description;
+        descriptions.put(feature, description);
+        featuresByDescription.put(description, feature);
+    }
+
+    private static String featureKey(String owner, String name) {
+        return owner + "." + name;
+    }
+
+    /**
+     * Describes the signature of a variable, e.g.
+     * <code>PI:REAL=3.14{ANY}</code>
+     */
+    private static String describe(VariableDeclAST var) {
+        return var.getName().getText() + ":" + var.getType() +
+               (var.getConstantValue() == null ?
+                       "" : "=" + var.getConstantValue().getText()) +
+               "{" + var.getVisibility() + "}";
+    }
+
+    /**
+     * Describes the signature of a method, e.g.
+     * <code>gcd(INTEGER,INTEGER):INTEGER{ANY}</code>
+     */
+    private static String describe(MethodAST method) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(method.getName().getText()).append('(');
+        for (ParamDeclAST param : method.getParamDecls()) {
+            if(builder.charAt(builder.length() - 1) != '(') {
+                builder.append(',');
+            }
+            builder.append(param.getType());
+        }
+        builder.append("):").append(method.getReturnType());
+        builder.append('{').append(method.getVisibility()).append('}');
+        return builder.toString();
+    }
+
+}
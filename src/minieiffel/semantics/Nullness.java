@@ -0,0 +1,29 @@
+package minieiffel.semantics;
+
+/**
+ * Tells whether a value can be <code>void</code>, as found
+ * out by the {@link NullnessAnalysis}.
+ */
+public enum Nullness {
+
+    /** the value is never void */
+    NEVER_VOID,
+
+    /** the value may or may not be void */
+    MAYBE_VOID,
+
+    /** the value is always void */
+    ALWAYS_VOID;
+
+    /**
+     * Returns the nullness of a value that is either
+     * this or the given one (null stands for "no value").
+     */
+    public Nullness join(Nullness other) {
+        if(other == null || other == this) {
+            return this;
+        }
+        return MAYBE_VOID;
+    }
+
+}
@@ -0,0 +1,473 @@
+package minieiffel.semantics;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import minieiffel.Token.TokenType;
+import minieiffel.Token.Value;
+import minieiffel.ast.AssignmentAST;
+import minieiffel.ast.BinaryExpressionAST;
+import minieiffel.ast.ClassAST;
+import minieiffel.ast.ConditionalAST;
+import minieiffel.ast.ConstructionAST;
+import minieiffel.ast.ExpressionAST;
+import minieiffel.ast.FeatureAST;
+import minieiffel.ast.FeatureBlockAST;
+import minieiffel.ast.IfStatementAST;
+import minieiffel.ast.InstructionAST;
+import minieiffel.ast.InstructionsAST;
+import minieiffel.ast.InvocationAST;
+import minieiffel.ast.IterationAST;
+import minieiffel.ast.MethodAST;
+import minieiffel.ast.ParamDeclAST;
+import minieiffel.ast.ProgramAST;
+import minieiffel.ast.SimpleExpressionAST;
+import minieiffel.ast.UnaryExpressionAST;
+import minieiffel.ast.VariableDeclAST;
+
+/**
+ * Flow-sensitive analysis that finds out whether the values of
+ * expressions and local variables can be <code>void</code>. Each
+ * {@link ExpressionAST} of a method body is annotated with the
+ * {@link Nullness} of its value at that point and each local
+ * {@link VariableDeclAST} with the nullness of all the values the
+ * variable can hold during the method.
+ *
+ * <p>The states of the parameters, local variables and
+ * <code>result</code> of a method are followed thru the body:
+ * local variables and <code>result</code> start out void, parameters
+ * may be void, assignments and <code>!!</code> constructions change
+ * the state and guards like <code>x = void</code> or
+ * <code>x /= void</code> (also combined with <code>and</code>,
+ * <code>or</code> and <code>not</code>) refine it in the branches of
+ * conditionals and loops. Fields aren't followed: they may always
+ * be void, unless they're constants.</p>
+ *
+ * <p>Every instruction is visited only once. Instead of iterating
+ * loops to a fixpoint, the state on entry to a loop is joined with a
+ * summary of all the values assigned to each variable in the method,
+ * which is collected by a prepass over the body. So the analysis runs
+ * in linear time per method (assuming a bounded number of local
+ * variables, which are copied at branches).</p>
+ *
+ * <p>The types of the expressions should have been inferred before
+ * the analysis, the constant fields of other classes are recognized
+ * from the types of the objects they're accessed thru.</p>
+ */
+public class NullnessAnalysis {
+
+    /** program under analysis */
+    private ProgramAST program;
+
+    /** classes of the program mapped by name */
+    private Map<String, ClassAST> classesByName = new HashMap<String, ClassAST>();
+
+    /** class whose method is being analyzed */
+    private ClassAST currentClass;
+
+    /** current state of the variables (parameters, locals, result) */
+    private Map<String, Nullness> state;
+
+    /** declarations of the local variables in scope */
+    private Map<String, VariableDeclAST> localDecls;
+
+    /** the join of the values assigned to each variable in the method,
+     *  MAYBE_VOID if some assigned value depends on the state */
+    private Map<String, Nullness> assigned;
+
+    public NullnessAnalysis(ProgramAST program) {
+        this.program = program;
+        for (ClassAST klass : program.getClasses()) {
+            classesByName.put(klass.getName().getText(), klass);
+        }
+    }
+
+    /**
+     * Analyzes all the methods of the program passed to the constructor.
+     */
+    public void analyze() {
+        for (ClassAST klass : program.getClasses()) {
+            for (FeatureBlockAST block : klass.getFeatureBlocks()) {
+                for (FeatureAST feature : block.getFeatures()) {
+                    if(feature instanceof MethodAST) {
+                        analyzeMethod(klass, (MethodAST)feature);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Analyzes a single method of the given class.
+     */
+    public void analyzeMethod(ClassAST klass, MethodAST method) {
+        currentClass = klass;
+        state = new HashMap<String, Nullness>();
+        localDecls = new HashMap<String, VariableDeclAST>();
+        assigned = new HashMap<String, Nullness>();
+        for (ParamDeclAST param : method.getParamDecls()) {
+            state.put(param.getName().getText(), Nullness.MAYBE_VOID);
+        }
+        state.put("result", Nullness.ALWAYS_VOID);
+        if(method.getInstructions() != null) {
+            summarize(method.getInstructions());
+        }
+        declare(method.getLocalVariableDecls());
+        if(method.getInstructions() != null) {
+            analyzeBlock(method.getInstructions());
+        }
+        currentClass = null;
+        state = null;
+        localDecls = null;
+        assigned = null;
+    }
+
+    /* private implementation follows */
+
+    /**
+     * Collects the values assigned in a block into the summary.
+     */
+    private void summarize(InstructionsAST block) {
+        for (InstructionAST instruction : block.getInstructions()) {
+            if(instruction instanceof AssignmentAST) {
+                AssignmentAST assignment = (AssignmentAST)instruction;
+                addAssigned(
+                        assignment.getIdentifier().getText(),
+                        constantNullness(assignment.getExpression())
+                );
+            } else if(instruction instanceof ConstructionAST) {
+                addAssigned(
+                        ((ConstructionAST)instruction).getIdentifier().getText(),
+                        Nullness.NEVER_VOID
+                );
+            } else if(instruction instanceof ConditionalAST) {
+                ConditionalAST conditional = (ConditionalAST)instruction;
+                summarize(conditional.getIfStatement());
+                for (IfStatementAST elseIf : conditional.getElseIfStatements()) {
+                    summarize(elseIf);
+                }
+                if(conditional.getElseStatement() != null) {
+                    summarize(conditional.getElseStatement());
+                }
+            } else if(instruction instanceof IterationAST) {
+                IterationAST iteration = (IterationAST)instruction;
+                if(iteration.getFrom() != null) {
+                    summarize(iteration.getFrom());
+                }
+                if(iteration.getLoop() != null) {
+                    summarize(iteration.getLoop());
+                }
+            }
+        }
+    }
+
+    private void summarize(IfStatementAST ifStmt) {
+        if(ifStmt.getThen() != null) {
+            summarize(ifStmt.getThen());
+        }
+    }
+
+    private void addAssigned(String name, Nullness nullness) {
+        assigned.put(name, nullness.join(assigned.get(name)));
+    }
+
+    /**
+     * Returns the nullness of an expression if it doesn't depend on
+     * the state of the variables, MAYBE_VOID otherwise.
+     */
+    private Nullness constantNullness(ExpressionAST expr) {
+        if(expr instanceof SimpleExpressionAST) {
+            String name = expr.getLocationToken().getText();
+            if(expr.getLocationToken().getType() != TokenType.IDENTIFIER ||
+                    "current".equals(name)) {
+                return Nullness.NEVER_VOID;
+            } else if("void".equals(name)) {
+                return Nullness.ALWAYS_VOID;
+            }
+            return Nullness.MAYBE_VOID;
+        } else if(expr instanceof UnaryExpressionAST) {
+            return Nullness.NEVER_VOID;
+        } else if(expr instanceof BinaryExpressionAST) {
+            return ((BinaryExpressionAST)expr).getOperator().getValue() == Value.DOT ?
+                    Nullness.MAYBE_VOID : Nullness.NEVER_VOID;
+        }
+        return Nullness.MAYBE_VOID;
+    }
+
+    private void declare(List<VariableDeclAST> vars) {
+        for (VariableDeclAST var : vars) {
+            String name = var.getName().getText();
+            Nullness initial = (var.getConstantValue() != null ?
+                    Nullness.NEVER_VOID : Nullness.ALWAYS_VOID);
+            localDecls.put(name, var);
+            state.put(name, initial);
+            var.setNullness(initial);
+        }
+    }
+
+    private void analyzeBlock(InstructionsAST block) {
+        declare(block.getLocalDecls());
+        for (InstructionAST instruction : block.getInstructions()) {
+            analyzeInstruction(instruction);
+        }
+    }
+
+    private void analyzeInstruction(InstructionAST instruction) {
+        if(instruction instanceof AssignmentAST) {
+            AssignmentAST assignment = (AssignmentAST)instruction;
+            assign(
+                    assignment.getIdentifier().getText(),
+                    analyzeExpression(assignment.getExpression())
+            );
+        } else if(instruction instanceof ConstructionAST) {
+            assign(
+                    ((ConstructionAST)instruction).getIdentifier().getText(),
+                    Nullness.NEVER_VOID
+            );
+        } else if(instruction instanceof ExpressionAST) {
+            analyzeExpression((ExpressionAST)instruction);
+        } else if(instruction instanceof ConditionalAST) {
+            analyzeConditional((ConditionalAST)instruction);
+        } else if(instruction instanceof IterationAST) {
+            analyzeIteration((IterationAST)instruction);
+        }
+    }
+
+    /**
+     * Each branch starts from the state refined by its guard (and the
+     * negations of the preceding guards), the states at the ends of
+     * the branches are joined.
+     */
+    private void analyzeConditional(ConditionalAST conditional) {
+        Map<String, Nullness> joined = null;
+        Map<String, Nullness> remaining = state;
+        IfStatementAST ifStmt = conditional.getIfStatement();
+        for (int i = -1; i < conditional.getElseIfStatements().size(); i++) {
+            if(i >= 0) {
+                ifStmt = conditional.getElseIfStatements().get(i);
+            }
+            state = remaining;
+            analyzeExpression(ifStmt.getGuard());
+            remaining = refine(state, ifStmt.getGuard(), false);
+            state = refine(state, ifStmt.getGuard(), true);
+            if(ifStmt.getThen() != null) {
+                analyzeBlock(ifStmt.getThen());
+            }
+            joined = join(joined, state);
+        }
+        state = remaining;
+        if(conditional.getElseStatement() != null) {
+            analyzeBlock(conditional.getElseStatement());
+        }
+        state = join(joined, state);
+    }
+
+    /**
+     * The loop body is walked once, starting from a state that
+     * covers all the values the variables can get in the method.
+     */
+    private void analyzeIteration(IterationAST iteration) {
+        if(iteration.getFrom() != null) {
+            analyzeBlock(iteration.getFrom());
+        }
+        Map<String, Nullness> entry = new HashMap<String, Nullness>(state);
+        for (Map.Entry<String, Nullness> e : assigned.entrySet()) {
+            if(entry.containsKey(e.getKey())) {
+                entry.put(e.getKey(), e.getValue().join(entry.get(e.getKey())));
+            }
+        }
+        state = entry;
+        analyzeExpression(iteration.getUntil());
+        state = refine(entry, iteration.getUntil(), false);
+        if(iteration.getLoop() != null) {
+            analyzeBlock(iteration.getLoop());
+        }
+        state = refine(join(entry, state), iteration.getUntil(), true);
+    }
+
+    private void assign(String name, Nullness nullness) {
+        if(!state.containsKey(name)) {
+            // a field
+            return;
+        }
+        state.put(name, nullness);
+        VariableDeclAST decl = localDecls.get(name);
+        if(decl != null) {
+            decl.setNullness(nullness.join(decl.getNullness()));
+        }
+    }
+
+    /**
+     * Annotates an expression (and its subexpressions)
+     * and returns the nullness of its value.
+     */
+    private Nullness analyzeExpression(ExpressionAST expr) {
+        Nullness nullness = Nullness.NEVER_VOID;
+        if(expr instanceof SimpleExpressionAST) {
+            nullness = simpleNullness((SimpleExpressionAST)expr);
+        } else if(expr instanceof UnaryExpressionAST) {
+            analyzeExpression(((UnaryExpressionAST)expr).getExpression());
+        } else if(expr instanceof BinaryExpressionAST) {
+            BinaryExpressionAST binary = (BinaryExpressionAST)expr;
+            analyzeExpression(binary.getLhs());
+            if(binary.getOperator().getValue() == Value.DOT) {
+                nullness = memberNullness(binary);
+            } else {
+                analyzeExpression(binary.getRhs());
+            }
+        } else if(expr instanceof InvocationAST) {
+            for (ExpressionAST arg : ((InvocationAST)expr).getArguments()) {
+                analyzeExpression(arg);
+            }
+            nullness = Nullness.MAYBE_VOID;
+        }
+        expr.setNullness(nullness);
+        return nullness;
+    }
+
+    private Nullness simpleNullness(SimpleExpressionAST expr) {
+        if(expr.getLocationToken().getType() != TokenType.IDENTIFIER) {
+            return Nullness.NEVER_VOID;
+        }
+        String name = expr.getLocationToken().getText();
+        if("current".equals(name)) {
+            return Nullness.NEVER_VOID;
+        } else if("void".equals(name)) {
+            return Nullness.ALWAYS_VOID;
+        } else if(state.containsKey(name)) {
+            return state.get(name);
+        }
+        return fieldNullness(currentClass, name);
+    }
+
+    /**
+     * Returns the nullness of the member (field or
+     * method call) on the right-hand side of a dot.
+     */
+    private Nullness memberNullness(BinaryExpressionAST dot) {
+        ExpressionAST rhs = dot.getRhs();
+        Nullness nullness;
+        if(rhs instanceof SimpleExpressionAST) {
+            Type owner = dot.getLhs().getType();
+            nullness = fieldNullness(
+                    owner == null ? null : classesByName.get(owner.getName()),
+                    rhs.getLocationToken().getText()
+            );
+        } else if(rhs instanceof InvocationAST) {
+            for (ExpressionAST arg : ((InvocationAST)rhs).getArguments()) {
+                analyzeExpression(arg);
+            }
+            nullness = Nullness.MAYBE_VOID;
+        } else {
+            nullness = analyzeExpression(rhs);
+        }
+        rhs.setNullness(nullness);
+        return nullness;
+    }
+
+    private static Nullness fieldNullness(ClassAST klass, String name) {
+        if(klass != null) {
+            for (FeatureBlockAST block : klass.getFeatureBlocks()) {
+                for (FeatureAST feature : block.getFeatures()) {
+                    if(feature instanceof VariableDeclAST &&
+                            ((VariableDeclAST)feature).getName().getText().equals(name) &&
+                            ((VariableDeclAST)feature).getConstantValue() != null) {
+                        return Nullness.NEVER_VOID;
+                    }
+                }
+            }
+        }
+        return Nullness.MAYBE_VOID;
+    }
+
+    /**
+     * Returns the state in which the given guard has the given value.
+     */
+    private Map<String, Nullness> refine(
+            Map<String, Nullness> before, ExpressionAST guard, boolean value) {
+        Map<String, Nullness> after = new HashMap<String, Nullness>(before);
+        refineInto(after, guard, value);
+        return after;
+    }
+
+    private void refineInto(Map<String, Nullness> refined, ExpressionAST guard, boolean value) {
+        if(guard instanceof UnaryExpressionAST) {
+            UnaryExpressionAST unary = (UnaryExpressionAST)guard;
+            if(unary.getOperator().getValue() == Value.NOT) {
+                refineInto(refined, unary.getExpression(), !value);
+            }
+        } else if(guard instanceof BinaryExpressionAST) {
+            BinaryExpressionAST binary = (BinaryExpressionAST)guard;
+            switch(binary.getOperator().getValue()) {
+            case AND:
+            case AND_THEN:
+                if(value) {
+                    refineInto(refined, binary.getLhs(), true);
+                    refineInto(refined, binary.getRhs(), true);
+                }
+                break;
+            case OR:
+            case OR_ELSE:
+                if(!value) {
+                    refineInto(refined, binary.getLhs(), false);
+                    refineInto(refined, binary.getRhs(), false);
+                }
+                break;
+            case EQUALITY:
+                refineComparison(refined, binary, value);
+                break;
+            case INEQUALITY:
+                refineComparison(refined, binary, !value);
+                break;
+            default:
+                break;
+            }
+        }
+    }
+
+    /**
+     * Refines the state of a variable compared with <code>void</code>.
+     */
+    private void refineComparison(
+            Map<String, Nullness> refined, BinaryExpressionAST comparison, boolean isVoid) {
+        ExpressionAST variable;
+        if(isVoid(comparison.getRhs())) {
+            variable = comparison.getLhs();
+        } else if(isVoid(comparison.getLhs())) {
+            variable = comparison.getRhs();
+        } else {
+            return;
+        }
+        if(variable instanceof SimpleExpressionAST &&
+                refined.containsKey(variable.getLocationToken().getText())) {
+            refined.put(
+                    variable.getLocationToken().getText(),
+                    isVoid ? Nullness.ALWAYS_VOID : Nullness.NEVER_VOID
+            );
+        }
+    }
+
+    private static boolean isVoid(ExpressionAST expr) {
+        return expr instanceof SimpleExpressionAST &&
+               "void".equals(expr.getLocationToken().getText());
+    }
+
+    /**
+     * Joins two states (the first one may be null).
+     */
+    private static Map<String, Nullness> join(
+            Map<String, Nullness> a, Map<String, Nullness> b) {
+        if(a == null) {
+            return b;
+        }
+        Map<String, Nullness> joined = new HashMap<String, Nullness>(b);
+        for (Map.Entry<String, Nullness> e : a.entrySet()) {
+            if(joined.containsKey(e.getKey())) {
+                joined.put(e.getKey(), e.getValue().join(joined.get(e.getKey())));
+            }
+        }
+        return joined;
+    }
+
+}
@@ -1,10 +1,16 @@
 package minieiffel.semantics;
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import minieiffel.Token;
 import minieiffel.ast.ClassAST;
@@ -18,15 +24,14 @@ import minieiffel.ast.VariableDeclAST;
 /**
  * Resolves the {@link Type type} {@link Signature signatures}
  * of a program:
- * 
+ *
  * <ul>
  * <li>
  * Handles cross-references between classes,
- * i.e. if class <em>A</em> is processed first and it
- * references class <em>B</em>, the type <em>B</em> is
- * marked as <em>unresolved</em> until it's reached in
- * the program. If there are any unresolved references after
- * the program has been gone thru, they are reported as errors.
+ * i.e. if class <em>A</em> references class <em>B</em> which
+ * is defined later on in the program, the reference is resolved
+ * correctly. If a referenced class isn't defined anywhere in the
+ * program, the reference is reported as an error.
  * </li>
  * <li>
  * Ensures that built-in types are not redefined in a program
@@ -36,41 +41,59 @@ import minieiffel.ast.VariableDeclAST;
  * Ensures that no class is defined more than once in a program.
  * </li>
  * </ul>
- * 
- * <p>Implemented as a {@link minieiffel.ast.FeatureVisitor}.</p>
+ *
+ * <p>The resolving is done in two phases, both of which process
+ * the classes of the program in parallel: first the names of all the
+ * classes are registered in a concurrent name table, then the types
+ * of the features of each class are bound against that table. Errors
+ * are collected separately for each class and reported in the order
+ * of the program, so the outcome doesn't depend on the scheduling.</p>
+ *
+ * <p>The features of a class are processed by a
+ * {@link minieiffel.ast.FeatureVisitor}.</p>
  */
-public class SignatureResolver implements FeatureVisitor {
-    
+public class SignatureResolver {
+
     /** default visibility (ANY) when none is specified */
     public static final List<Type> DEFAULT_VISIBILITY = Arrays.asList(Type.ANY);
-    
+
     /** empty visibility (NONE) */
     public static final List<Type> EMPTY_VISIBILITY = Arrays.asList(Type.NONE);
 
     /** driver of the whole analysis */
     private SemanticAnalyzer analyzer;
-    
+
     /** program under resolving */
     private ProgramAST program;
 
-    /** current partial signature */
-    private Signature currentSignature;
-    
-    /** visibility listing for current feature */
-    private List<Type> currentVisibility;
+    /** number of threads used for resolving */
+    private int threads;
 
     /** resolved types mapped by name */
-    private Map<String, Type> resolvedTypes = new HashMap<String, Type>();
-    
-    /** list of unresolved type names (as the original tokens) */
-    private List<Token> unresolvedTypeNames = new LinkedList<Token>();
+    private ConcurrentMap<String, Type> resolvedTypes =
+        new ConcurrentHashMap<String, Type>();
+
+    /** the index (in the program) of the first
+     *  definition of each class mapped by name */
+    private ConcurrentMap<String, Integer> firstDefinitions =
+        new ConcurrentHashMap<String, Integer>();
 
     /**
-     * Creates a signature resolver for the given program.
+     * Creates a signature resolver for the given program that
+     * uses as many threads as there are processors available.
      */
     public SignatureResolver(SemanticAnalyzer analyzer, ProgramAST program) {
+        this(analyzer, program, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a signature resolver for the given
+     * program that uses the given number of threads.
+     */
+    public SignatureResolver(SemanticAnalyzer analyzer, ProgramAST program, int threads) {
         this.analyzer = analyzer;
         this.program = program;
+        this.threads = threads;
     }
 
     /**
@@ -78,132 +101,242 @@ public class SignatureResolver implements FeatureVisitor {
      * and returns them in a list.
      */
     public List<Signature> resolveSignatures() {
+
+        List<ClassAST> classes = program.getClasses();
+
+        // first register the names of all the classes
+        List<Callable<Object>> registrations = new ArrayList<Callable<Object>>();
+        for (int i = 0; i < classes.size(); i++) {
+            final int index = i;
+            final ClassAST classAST = classes.get(i);
+            registrations.add(new Callable<Object>() {
+                public Object call() {
+                    registerClass(index, classAST);
+                    return null;
+                }
+            });
+        }
+        runAll(registrations);
+
+        // then resolve the signature of each class
+        List<Callable<ClassResolver>> resolvers =
+            new ArrayList<Callable<ClassResolver>>();
+        for (int i = 0; i < classes.size(); i++) {
+            final int index = i;
+            final ClassAST classAST = classes.get(i);
+            resolvers.add(new Callable<ClassResolver>() {
+                public ClassResolver call() {
+                    ClassResolver resolver = new ClassResolver();
+                    resolver.resolveSignature(index, classAST);
+                    return resolver;
+                }
+            });
+        }
+
         List<Signature> signatures = new LinkedList<Signature>();
-        // resolve signature for each class
-        for (ClassAST classAST : program.getClasses()) {
-            Signature sig = resolveSignature(classAST);
-            if(sig != null) {
-                signatures.add(sig);
-                classAST.setSignature(sig);
+        List<Token> unresolvedTypeNames = new LinkedList<Token>();
+        for (ClassResolver resolver : runAll(resolvers)) {
+            for (SemanticError error : resolver.errors) {
+                analyzer.addError(error.getMessage(), error.getOffendingToken());
             }
+            if(resolver.signature != null) {
+                signatures.add(resolver.signature);
+                resolver.signature.getClassAST().setSignature(resolver.signature);
+            }
+            unresolvedTypeNames.addAll(resolver.unresolvedTypeNames);
         }
+
         // if some types were left unresolved, report them
-        if(!unresolvedTypeNames.isEmpty()) {
-            for (Token unresolved : unresolvedTypeNames) {
-                analyzer.addError(
-                        "Can't find class \"" + unresolved.getText() + "\"",
-                        unresolved
-                );
-            }
+        for (Token unresolved : unresolvedTypeNames) {
+            analyzer.addError(
+                    "Can't find class \"" + unresolved.getText() + "\"",
+                    unresolved
+            );
         }
         return signatures;
     }
-    
+
     /**
-     * Visits a feature block and handles its visibility definition.
+     * Registers the name of a class in the name table, unless it's
+     * a built-in type. If a class with the same name is defined several
+     * times, the definition with the smallest index wins.
      */
-    public void visit(FeatureBlockAST block) {
-        if(block.getVisibility() == null) {
-            currentVisibility = DEFAULT_VISIBILITY;
-        } else if(block.getVisibility().isEmpty()) {
-            currentVisibility = EMPTY_VISIBILITY;
-        } else {
-            currentVisibility = new LinkedList<Type>();
-            for (Token item : block.getVisibility()) {
-                currentVisibility.add(typeForName(item));
+    private void registerClass(int index, ClassAST classAST) {
+        String typeName = classAST.getName().getText();
+        if(Type.BUILTIN_TYPES.containsKey(typeName)) {
+            return;
+        }
+        resolvedTypes.putIfAbsent(typeName, new Type(typeName));
+        Integer first = firstDefinitions.putIfAbsent(typeName, index);
+        while(first != null && first > index) {
+            if(firstDefinitions.replace(typeName, first, index)) {
+                break;
             }
+            first = firstDefinitions.get(typeName);
         }
     }
 
     /**
-     * Visits a variable declaration.
+     * Runs the given tasks and returns their results in the
+     * same order. The tasks are run in parallel if there's more
+     * than one of them and more than one thread is allowed.
      */
-    public void visit(VariableDeclAST variable) {
-        Type t = typeForName(variable.getTypeName());
-        if(variable.getConstantValue() != null &&
-                t.getLiteralType() != variable.getConstantValue().getType()) {
-            analyzer.addError(
-                    "\"" + variable.getConstantValue().getText() +
-                    "\" is an invalid constant value for type " + t,
-                    variable.getConstantValue()
+    private <T> List<T> runAll(List<Callable<T>> tasks) {
+        List<T> results = new ArrayList<T>(tasks.size());
+        try {
+            if(threads <= 1 || tasks.size() <= 1) {
+                for (Callable<T> task : tasks) {
+                    results.add(task.call());
+                }
+                return results;
+            }
+            ExecutorService executor = Executors.newFixedThreadPool(
+                    Math.min(threads, tasks.size())
             );
-        } else {
-            variable.setType(t);
-            variable.setVisibility(currentVisibility);
-            currentSignature.getVariables().add(variable);
+            try {
+                for (Future<T> future : executor.invokeAll(tasks)) {
+                    results.add(future.get());
+                }
+            } finally {
+                executor.shutdown();
+            }
+            return results;
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            } else if(e.getCause() instanceof Error) {
+                throw (Error)e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while resolving signatures", e);
+        } catch(RuntimeException e) {
+            throw e;
+        } catch(Exception e) {
+            throw new RuntimeException(e);
         }
     }
 
     /**
-     * Visits a method, sets its return type etc.
+     * Resolves the signature of a single class. Collects
+     * its errors instead of reporting them right away.
      */
-    public void visit(MethodAST method) {
-        method.setReturnType(
-                method.getReturnTypeName() == null ?
-                        Type.VOID :
-                        typeForName(method.getReturnTypeName())
-        );
-        method.setVisibility(currentVisibility);
-        for (ParamDeclAST param : method.getParamDecls()) {
-            param.setType(typeForName(param.getTypeName()));
+    private class ClassResolver implements FeatureVisitor {
+
+        /** the resolved signature (null if the class is invalid) */
+        private Signature signature;
+
+        /** visibility listing for current feature */
+        private List<Type> currentVisibility;
+
+        /** errors found in the class */
+        private List<SemanticError> errors = new LinkedList<SemanticError>();
+
+        /** list of unresolved type names (as the original tokens) */
+        private List<Token> unresolvedTypeNames = new LinkedList<Token>();
+
+        /**
+         * Resolves the signature of the class with the given index.
+         */
+        private void resolveSignature(int index, ClassAST classAST) {
+            String typeName = classAST.getName().getText();
+            if(Type.BUILTIN_TYPES.containsKey(typeName)) {
+                addError("Can't redefine built-in type \"" + typeName + "\"", classAST.getName());
+                return;
+            } else if(firstDefinitions.get(typeName) != index) {
+                addError("Class \"" + typeName + "\" already defined", classAST.getName());
+                return;
+            }
+            classAST.setType(resolvedTypes.get(typeName));
+            signature = new Signature(
+                    classAST,
+                    new LinkedList<VariableDeclAST>(),
+                    new LinkedList<MethodAST>()
+            );
+            classAST.accept(this);
         }
-        currentSignature.getMethods().add(method);
-    }
 
-    /**
-     * Resolves the signature of a single class.
-     */
-    private Signature resolveSignature(ClassAST classAST) {
-        String typeName = classAST.getName().getText();
-        if(Type.BUILTIN_TYPES.containsKey(typeName)) {
-            analyzer.addError("Can't redefine built-in type \"" + typeName + "\"", classAST.getName());
-            return null;
-        } else if(resolvedTypes.containsKey(typeName)) {
-            analyzer.addError("Class \"" + typeName + "\" already defined", classAST.getName());
-            return null;
-        } else {
-            Type ourType = new Type(typeName);
-            classAST.setType(ourType);
-            resolvedTypes.put(typeName, ourType);
-            // any references to this class prior to its definition
-            // have been marked as unresolved types, remove them
-            Token nameToken = classAST.getName();
-            while(unresolvedTypeNames.contains(nameToken)) {
-                unresolvedTypeNames.remove(nameToken);
+        /**
+         * Visits a feature block and handles its visibility definition.
+         */
+        public void visit(FeatureBlockAST block) {
+            if(block.getVisibility() == null) {
+                currentVisibility = DEFAULT_VISIBILITY;
+            } else if(block.getVisibility().isEmpty()) {
+                currentVisibility = EMPTY_VISIBILITY;
+            } else {
+                currentVisibility = new LinkedList<Type>();
+                for (Token item : block.getVisibility()) {
+                    currentVisibility.add(typeForName(item));
+                }
             }
         }
-        currentSignature = new Signature(
-                classAST,
-                new LinkedList<VariableDeclAST>(),
-                new LinkedList<MethodAST>()
-        );
-        classAST.accept(this);
-        return currentSignature;
-    }
 
-    /**
-     * Returns the type for the given name token.
-     */
-    private Type typeForName(Token token) {
-        String name = token.getText();
-        if("VOID".equals(name)) {
-            analyzer.addError("\"VOID\" is a special type that can't be referenced in a source file", token);
-            return null;
-        } else {
-            Type result = null;
-            if(Type.BUILTIN_TYPES.containsKey(name)) {
-                // first check built-in types
-                result = Type.BUILTIN_TYPES.get(name);
-            } else if(resolvedTypes.containsKey(name)) {
-                // then those already found in this program
-                result = resolvedTypes.get(name);
+        /**
+         * Visits a variable declaration.
+         */
+        public void visit(VariableDeclAST variable) {
+            Type t = typeForName(variable.getTypeName());
+            if(variable.getConstantValue() != null &&
+                    t.getLiteralType() != variable.getConstantValue().getType()) {
+                addError(
+                        "\"" + variable.getConstantValue().getText() +
+                        "\" is an invalid constant value for type " + t,
+                        variable.getConstantValue()
+                );
+            } else {
+                variable.setType(t);
+                variable.setVisibility(currentVisibility);
+                signature.getVariables().add(variable);
+            }
+        }
+
+        /**
+         * Visits a method, sets its return type etc.
+         */
+        public void visit(MethodAST method) {
+            method.setReturnType(
+                    method.getReturnTypeName() == null ?
+                            Type.VOID :
+                            typeForName(method.getReturnTypeName())
+            );
+            method.setVisibility(currentVisibility);
+            for (ParamDeclAST param : method.getParamDecls()) {
+                param.setType(typeForName(param.getTypeName()));
+            }
+            signature.getMethods().add(method);
+        }
+
+        /**
+         * Returns the type for the given name token.
+         */
+        private Type typeForName(Token token) {
+            String name = token.getText();
+            if("VOID".equals(name)) {
+                addError("\"VOID\" is a special type that can't be referenced in a source file", token);
+                return null;
             } else {
-                // type missing or hasn't been defined yet
-                result = new Type(name);
-                unresolvedTypeNames.add(token);
+                Type result = null;
+                if(Type.BUILTIN_TYPES.containsKey(name)) {
+                    // first check built-in types
+                    result = Type.BUILTIN_TYPES.get(name);
+                } else if(resolvedTypes.containsKey(name)) {
+                    // then those defined in this program
+                    result = resolvedTypes.get(name);
+                } else {
+                    // type missing
+                    result = new Type(name);
+                    unresolvedTypeNames.add(token);
+                }
+                return result;
             }
-            return result;
         }
+
+        private void addError(String message, Token token) {
+            errors.add(new SemanticError(message, token));
+        }
+
     }
 
 }
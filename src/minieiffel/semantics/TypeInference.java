@@ -18,24 +18,75 @@ import minieiffel.ast.UnaryExpressionAST;
  * For example, <code>3.14*10</code> yields a result of type
  * <code>REAL</code>. Does all the necessary checks to prevent
  * invalid operations, e.g. the expression <code>true / 42</code>.
+ * 
+ * <p>The result of the inference is memoized on each expression node:
+ * a subtree is inferred (and its errors reported) only once per
+ * inference round, even if it's checked through several paths. The
+ * receivers of <code>a.b.c</code> chains are subtrees as well, so
+ * they're only resolved once. A new round, in which all types are
+ * recomputed on demand, is started with {@link #invalidate()}.</p>
  */
 public class TypeInference implements ExpressionVisitor {
     
     /** the analyzer instance in control of the analysis */
     private SemanticAnalyzer analyzer;
 
+    /** the last stamp handed out to an inference round, shared by
+     *  all instances so that two analyzers never mix up their results */
+    private static int lastStamp;
+    
+    /** stamp of the current inference round */
+    private int stamp;
+    
+    /** number of expression nodes whose type was inferred */
+    private int inferredCount;
+    
+    /** number of times an already inferred type was reused */
+    private int skippedCount;
+
     public TypeInference(SemanticAnalyzer analyzer) {
         this.analyzer = analyzer;
+        invalidate();
     }
     
     /**
-     * Infers the type of the given expression.
+     * Starts a new inference round: types inferred so far are
+     * considered stale and get recomputed the next time they're needed.
+     */
+    public void invalidate() {
+        stamp = nextStamp();
+    }
+    
+    /**
+     * Infers the type of the given expression, unless it
+     * has already been inferred during the current round.
      */
     public Type inferType(ExpressionAST expr) {
-        expr.accept(this);
+        if(expr.getInferenceStamp() == stamp) {
+            skippedCount++;
+        } else {
+            expr.setInferenceStamp(stamp);
+            inferredCount++;
+            expr.accept(this);
+        }
         return expr.getType();
     }
     
+    /**
+     * Returns the number of expression nodes whose type has been inferred.
+     */
+    public int getInferredCount() {
+        return inferredCount;
+    }
+    
+    /**
+     * Returns the number of times inference of an already
+     * inferred expression was skipped.
+     */
+    public int getSkippedCount() {
+        return skippedCount;
+    }
+    
     /**
      * Visits and resolves the type of a {@link SimpleExpressionAST}:
      * for literal values this is the corresponding pre-defined
@@ -72,7 +123,9 @@ public class TypeInference implements ExpressionVisitor {
      * expression is determined.
      */
     public void visit(UnaryExpressionAST expr) {
-        expr.getExpression().accept(this);
+        // forget the type from any previous analysis
+        expr.setType(null);
+        inferType(expr.getExpression());
         Token op = expr.getOperator();
         Type t = expr.getExpression().getType();
         if(t == null) {
@@ -109,9 +162,12 @@ public class TypeInference implements ExpressionVisitor {
         // types of lhs and rhs expressions
         Type a, b;
         
+        // forget the type from any previous analysis
+        expr.setType(null);
+        
         Value op = expr.getOperator().getValue();
         
-        expr.getLhs().accept(this);
+        inferType(expr.getLhs());
         a = expr.getLhs().getType();
         
         // handle the case of user-defined LHS exprs here
@@ -171,7 +227,7 @@ public class TypeInference implements ExpressionVisitor {
         }
 
         // investigate rhs
-        expr.getRhs().accept(this);
+        inferType(expr.getRhs());
         b = expr.getRhs().getType();
         
         if(a == null || b == null) {
@@ -203,7 +259,8 @@ public class TypeInference implements ExpressionVisitor {
                 a = tmp;
             }
             if(op == Value.PLUS || op == Value.MINUS ||
-                    op == Value.MULTIPLY || op == Value.DIVIDE) {
+                    op == Value.MULTIPLY || op == Value.DIVIDE ||
+                    op == Value.POWER) {
                 if(a == Type.INTEGER) {
                     if(b == Type.INTEGER) {
                         expr.setType(Type.INTEGER);
@@ -256,7 +313,7 @@ public class TypeInference implements ExpressionVisitor {
     protected Type resolveInvocationType(InvocationAST invocation, Type parent) {
         List<Type> paramTypes = new LinkedList<Type>();
         for (ExpressionAST param : invocation.getArguments()) {
-            param.accept(this);
+            inferType(param);
             paramTypes.add(param.getType());
         }
         return analyzer.resolveMethodType(
@@ -265,5 +322,9 @@ public class TypeInference implements ExpressionVisitor {
                 paramTypes
         );
     }
+    
+    private static synchronized int nextStamp() {
+        return ++lastStamp;
+    }
         
 }
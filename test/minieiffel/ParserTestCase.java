@@ -14,6 +14,7 @@ import minieiffel.ast.BinaryExpressionAST;
 import minieiffel.ast.ClassAST;
 import minieiffel.ast.ConditionalAST;
 import minieiffel.ast.ConstructionAST;
+import minieiffel.ast.ExpressionAST;
 import minieiffel.ast.FeatureAST;
 import minieiffel.ast.FeatureBlockAST;
 import minieiffel.ast.IfStatementAST;
@@ -306,6 +307,41 @@ public class ParserTestCase extends TestCase {
         );
     }
     
+    public void testHashConsing() {
+        createParser(
+                "do\n" +
+                "  x := (2 * 3) + x\n" +
+                "  y := -(2 * 3) + x\n" +
+                "  z := f(2 * 3, x + 1)\n" +
+                "end");
+        parser.setHashConsing(true);
+        List<InstructionAST> instructions = parser.handleInstructions().getInstructions();
+        BinaryExpressionAST first = (BinaryExpressionAST)((AssignmentAST)instructions.get(0)).getExpression();
+        BinaryExpressionAST second = (BinaryExpressionAST)((AssignmentAST)instructions.get(1)).getExpression();
+        InvocationAST third = (InvocationAST)((AssignmentAST)instructions.get(2)).getExpression();
+        // operations on literals are shared...
+        ExpressionAST product = first.getLhs();
+        assertSame(product, ((UnaryExpressionAST)second.getLhs()).getExpression());
+        assertSame(product, third.getArguments().get(0));
+        // ...identifiers (and operations on them) aren't
+        assertNotSame(first.getRhs(), second.getRhs());
+        assertFalse(parser.getExpressionTable().isShared(third.getArguments().get(1)));
+        // (the positions of the operator)
+        assertEquals(
+                Arrays.asList(new Position(2, 11), new Position(3, 12), new Position(4, 12)),
+                parser.getExpressionTable().getPositions(product)
+        );
+        // 2, 3, 2 * 3, -(2 * 3) and 1
+        assertEquals(5, parser.getExpressionTable().size());
+
+        // off by default
+        createParser("do\n  x := 2 + 2\nend");
+        AssignmentAST assignment = (AssignmentAST)parser.handleInstructions().getInstructions().get(0);
+        BinaryExpressionAST sum = (BinaryExpressionAST)assignment.getExpression();
+        assertNotSame(sum.getLhs(), sum.getRhs());
+        assertNull(parser.getExpressionTable());
+    }
+    
     public void testAssignment() {
         createParser("id := id + 36");
         assertEquals(
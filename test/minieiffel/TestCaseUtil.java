@@ -1,9 +1,13 @@
 package minieiffel;
 
+import java.io.StringReader;
 import java.util.List;
 
 import minieiffel.Token.TokenType;
+import minieiffel.ast.MethodAST;
+import minieiffel.ast.ProgramAST;
 import minieiffel.ast.SimpleExpressionAST;
+import minieiffel.semantics.DefaultSemanticAnalyzer;
 
 import junit.framework.Assert;
 
@@ -27,5 +31,24 @@ public class TestCaseUtil {
     public static Token id(String name) {
         return new Token(TokenType.IDENTIFIER, name);
     }
+    
+    /**
+     * Parses and analyzes the given code, failing if the analysis
+     * finds any errors.
+     */
+    public static ProgramAST analyzedProgram(String code) {
+        ProgramAST program = new Parser(new Lexer(new Source(new StringReader(code)))).handleProgram();
+        DefaultSemanticAnalyzer analyzer = new DefaultSemanticAnalyzer();
+        analyzer.analyze(program);
+        Assert.assertTrue(analyzer.getErrors().toString(), analyzer.getErrors().isEmpty());
+        return program;
+    }
+    
+    /**
+     * Returns a method from the first feature block of a class.
+     */
+    public static MethodAST method(ProgramAST program, int classIndex, int featureIndex) {
+        return (MethodAST)program.getClasses().get(classIndex).getFeatureBlocks().get(0).getFeatures().get(featureIndex);
+    }
 
 }
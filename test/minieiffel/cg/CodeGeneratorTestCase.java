@@ -5,7 +5,11 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.StringReader;
 import java.io.StringWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.Map;
 
 import jode.decompiler.Decompiler;
@@ -14,10 +18,19 @@ import minieiffel.Lexer;
 import minieiffel.Parser;
 import minieiffel.Source;
 import minieiffel.ast.ProgramAST;
+import minieiffel.opt.Inliner;
+import minieiffel.opt.OptimizationPass;
+import minieiffel.opt.Optimizer;
+import minieiffel.opt.ScalarReplacer;
 import minieiffel.semantics.DefaultSemanticAnalyzer;
 import minieiffel.semantics.SemanticAnalyzer;
 import minieiffel.semantics.Type;
 
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
 /**
  * Not really a test case, more of a test driver
  * for the ASM code generator class, i.e. the results
@@ -66,6 +79,1195 @@ public class CodeGeneratorTestCase extends TestCase {
         
     }
     
+    private static final String NUMBERS =
+        "class Numbers\n" +
+        "feature\n" +
+        "  count : INTEGER\n" +
+        "  maybe : INTEGER\n" +
+        "  LIMIT : INTEGER is 10\n" +
+        "  sum(a : INTEGER; b : INTEGER) : INTEGER is\n" +
+        "  do\n" +
+        "    result := a + b * LIMIT\n" +
+        "  end\n" +
+        "  average(a : INTEGER; b : REAL) : REAL is\n" +
+        "  do\n" +
+        "    result := (a + b) / 2\n" +
+        "  end\n" +
+        "  check(a : INTEGER; b : REAL) : BOOLEAN is\n" +
+        "  do\n" +
+        "    result := a < b and then not (a = 0) or else b >= 100.0\n" +
+        "  end\n" +
+        "  clear is\n" +
+        "  do\n" +
+        "    maybe := void\n" +
+        "    count := -3\n" +
+        "  end\n" +
+        "end\n";
+    
+    /** whether the generated code is cleaned up (see {@link PeepholeOptimizer}) */
+    private boolean peepholeOptimization;
+    
+    /**
+     * Generates the bytecode for the given program.
+     */
+    private Map<Type, byte[]> generateClasses(String code, boolean unboxed, boolean release) {
+        return generateClasses(code, unboxed, release, false);
+    }
+    
+    private Map<Type, byte[]> generateClasses(
+            String code, boolean unboxed, boolean release, boolean optimize) {
+        ASMCodeGenerator generator = new ASMCodeGenerator(unboxed);
+        generator.setReleaseMode(release);
+        generator.setPeepholeOptimization(peepholeOptimization);
+        return generator.generateClasses(analyze(code, optimize));
+    }
+    
+    /**
+     * Parses and analyzes the given program.
+     */
+    private ProgramAST analyze(String code, boolean optimize) {
+        Parser parser = new Parser(new Lexer(new Source(new StringReader(code))));
+        ProgramAST program = parser.handleProgram();
+        SemanticAnalyzer analyzer = new DefaultSemanticAnalyzer();
+        analyzer.analyze(program);
+        assertTrue(analyzer.getErrors().toString(), analyzer.getErrors().isEmpty());
+        if(optimize) {
+            new Optimizer().optimize(program);
+        }
+        return program;
+    }
+    
+    /**
+     * Generates the given single-class program and loads the class.
+     */
+    private Class generate(String code, String className, boolean unboxed) {
+        return generate(code, className, unboxed, false);
+    }
+    
+    private Class generate(String code, String className, boolean unboxed, boolean release) {
+        return generate(code, className, unboxed, release, false);
+    }
+    
+    private Class generate(
+            String code, String className, boolean unboxed, boolean release, boolean optimize) {
+        return new TestClassLoader().loadClass(
+                className,
+                generateClasses(code, unboxed, release, optimize).get(new Type(className))
+        );
+    }
+    
+    public void testUnboxedPrimitives() throws Exception {
+        Class klass = generate(NUMBERS, "Numbers", true);
+        Object numbers = klass.newInstance();
+        
+        // values that can't be void are JVM primitives,
+        // fields start out void in every new object
+        assertEquals(Integer.class, klass.getField("count").getType());
+        assertEquals(Integer.class, klass.getField("maybe").getType());
+        assertNull(klass.getField("count").get(numbers));
+        Method sum = klass.getMethod("sum", int.class, int.class);
+        assertEquals(int.class, sum.getReturnType());
+        assertEquals(21, sum.invoke(numbers, 1, 2));
+        
+        Method average = klass.getMethod("average", int.class, float.class);
+        assertEquals(1.5f, average.invoke(numbers, 1, 2.0f));
+        
+        Method check = klass.getMethod("check", int.class, float.class);
+        assertEquals(true, check.invoke(numbers, 1, 2.0f));
+        assertEquals(false, check.invoke(numbers, 0, 5.0f));
+        assertEquals(true, check.invoke(numbers, 0, 200.0f));
+        
+        klass.getField("maybe").set(numbers, 5);
+        klass.getMethod("clear").invoke(numbers);
+        assertEquals(-3, klass.getField("count").get(numbers));
+        assertNull(klass.getField("maybe").get(numbers));
+    }
+    
+    private static final String VOIDS =
+        "class Voids\n" +
+        "feature\n" +
+        "  other : ANY\n" +
+        "  same(x : ANY) : BOOLEAN is\n" +
+        "  do\n" +
+        "    result := other = x\n" +
+        "  end\n" +
+        "  isClear : BOOLEAN is\n" +
+        "  do\n" +
+        "    result := other = void\n" +
+        "  end\n" +
+        "  alwaysClear : BOOLEAN is\n" +
+        "  local\n" +
+        "    a : ANY\n" +
+        "  do\n" +
+        "    result := a /= void\n" +
+        "  end\n" +
+        "end\n";
+    
+    public void testVoidComparisons() throws Exception {
+        Class klass = generate(VOIDS, "Voids", false);
+        Object voids = klass.newInstance();
+        Method same = klass.getMethod("same", Object.class);
+        Method isClear = klass.getMethod("isClear");
+        assertEquals(true, same.invoke(voids, new Object[] { null }));
+        assertEquals(false, same.invoke(voids, "a"));
+        assertEquals(true, isClear.invoke(voids));
+        klass.getField("other").set(voids, "a");
+        assertEquals(true, same.invoke(voids, "a"));
+        assertEquals(false, same.invoke(voids, new Object[] { null }));
+        assertEquals(false, isClear.invoke(voids));
+        // known to be void
+        assertEquals(false, klass.getMethod("alwaysClear").invoke(voids));
+    }
+    
+    private static final String QUALIFIED_VOIDS =
+        "class Hold\n" +
+        "feature\n" +
+        "  count : INTEGER\n" +
+        "  fill(x : INTEGER) is\n" +
+        "  do\n" +
+        "    count := x\n" +
+        "  end\n" +
+        "end\n" +
+        "class Checker\n" +
+        "feature\n" +
+        "  fresh : BOOLEAN is\n" +
+        "  local\n" +
+        "    h : Hold\n" +
+        "  do\n" +
+        "    !! h\n" +
+        "    result := h.count = void\n" +
+        "  end\n" +
+        "  filled : BOOLEAN is\n" +
+        "  local\n" +
+        "    h : Hold\n" +
+        "  do\n" +
+        "    !! h\n" +
+        "    h.fill(3)\n" +
+        "    result := h.count /= void\n" +
+        "  end\n" +
+        "end\n";
+    
+    public void testQualifiedVoidComparisons() throws Exception {
+        // fields may always be void
+        Map<Type, byte[]> classes = generateClasses(QUALIFIED_VOIDS, true, false);
+        Class holdClass = new TestClassLoader().loadClass("Hold", classes.get(new Type("Hold")));
+        assertEquals(Integer.class, holdClass.getField("count").getType());
+        
+        // the field is compared as it's stored, without unboxing it
+        for (int mode = 0; mode < 6; mode++) {
+            classes = generateClasses(QUALIFIED_VOIDS, mode % 3 > 0, mode % 3 > 1, mode > 2);
+            TestClassLoader loader = new TestClassLoader();
+            loader.loadClass("Hold", classes.get(new Type("Hold")));
+            Class checkerClass = loader.loadClass("Checker", classes.get(new Type("Checker")));
+            Object checker = checkerClass.newInstance();
+            assertEquals(true, checkerClass.getMethod("fresh").invoke(checker));
+            assertEquals(true, checkerClass.getMethod("filled").invoke(checker));
+        }
+    }
+    
+    private static final String CALLED_VOIDS =
+        "class Calls\n" +
+        "feature\n" +
+        "  x : ANY\n" +
+        "  get : INTEGER is\n" +
+        "  do\n" +
+        "    result := void\n" +
+        "  end\n" +
+        "  isVoid : BOOLEAN is\n" +
+        "  do\n" +
+        "    result := get() = void\n" +
+        "  end\n" +
+        "  guard : BOOLEAN is\n" +
+        "  do\n" +
+        "    if get() = void then\n" +
+        "      do\n" +
+        "        result := true\n" +
+        "      end\n" +
+        "    end\n" +
+        "  end\n" +
+        "  store : BOOLEAN is\n" +
+        "  do\n" +
+        "    x := get()\n" +
+        "    result := x = void\n" +
+        "  end\n" +
+        "  qualified : BOOLEAN is\n" +
+        "  do\n" +
+        "    result := current.get() = void\n" +
+        "  end\n" +
+        "  one : INTEGER is\n" +
+        "  do\n" +
+        "    result := 1\n" +
+        "  end\n" +
+        "  isOneVoid : BOOLEAN is\n" +
+        "  do\n" +
+        "    result := one() = void\n" +
+        "  end\n" +
+        "end\n";
+    
+    public void testCalledVoidComparisons() throws Exception {
+        // the results are compared and stored as they're
+        // returned, without unboxing them (also when inlined)
+        for (int mode = 0; mode < 6; mode++) {
+            Class klass = generate(CALLED_VOIDS, "Calls", mode % 3 > 0, mode % 3 > 1, mode > 2);
+            Object calls = klass.newInstance();
+            assertEquals(true, klass.getMethod("isVoid").invoke(calls));
+            assertEquals(true, klass.getMethod("guard").invoke(calls));
+            assertEquals(true, klass.getMethod("store").invoke(calls));
+            assertEquals(true, klass.getMethod("qualified").invoke(calls));
+            assertEquals(false, klass.getMethod("isOneVoid").invoke(calls));
+        }
+        
+        // a result compared with void is returned boxed
+        Class klass = generate(CALLED_VOIDS, "Calls", true);
+        assertEquals(Integer.class, klass.getMethod("get").getReturnType());
+        assertEquals(Integer.class, klass.getMethod("one").getReturnType());
+    }
+    
+    private static final String INITIAL_VOIDS =
+        "class Box\n" +
+        "feature\n" +
+        "  v : INTEGER\n" +
+        "end\n" +
+        "class Initial\n" +
+        "feature\n" +
+        "  f : INTEGER\n" +
+        "  same(a : ANY; b : ANY) : BOOLEAN is\n" +
+        "  do\n" +
+        "    result := a = b\n" +
+        "  end\n" +
+        "  field : BOOLEAN is\n" +
+        "  do\n" +
+        "    result := same(f, void)\n" +
+        "  end\n" +
+        "  unassigned : BOOLEAN is\n" +
+        "  local\n" +
+        "    y : INTEGER\n" +
+        "  do\n" +
+        "    result := same(y, void)\n" +
+        "  end\n" +
+        "  assigned : BOOLEAN is\n" +
+        "  local\n" +
+        "    y : INTEGER\n" +
+        "  do\n" +
+        "    y := 1\n" +
+        "    result := same(y, void)\n" +
+        "  end\n" +
+        "  other : BOOLEAN is\n" +
+        "  local\n" +
+        "    b : Box\n" +
+        "  do\n" +
+        "    !! b\n" +
+        "    result := same(b.v, void)\n" +
+        "  end\n" +
+        "  get(n : INTEGER) : INTEGER is\n" +
+        "  do\n" +
+        "    if n > 0 then\n" +
+        "      do\n" +
+        "        result := n\n" +
+        "      end\n" +
+        "    end\n" +
+        "  end\n" +
+        "  returned : BOOLEAN is\n" +
+        "  do\n" +
+        "    result := same(get(0), void)\n" +
+        "  end\n" +
+        "end\n";
+    
+    public void testInitialVoids() throws Exception {
+        // fields, and local variables and results that may be read
+        // before they're assigned, start out void in all the modes
+        for (int mode = 0; mode < 6; mode++) {
+            Map<Type, byte[]> classes = generateClasses(INITIAL_VOIDS, mode % 3 > 0, mode % 3 > 1, mode > 2);
+            TestClassLoader loader = new TestClassLoader();
+            loader.loadClass("Box", classes.get(new Type("Box")));
+            Class klass = loader.loadClass("Initial", classes.get(new Type("Initial")));
+            Object initial = klass.newInstance();
+            assertEquals(true, klass.getMethod("field").invoke(initial));
+            assertEquals(true, klass.getMethod("unassigned").invoke(initial));
+            assertEquals(false, klass.getMethod("assigned").invoke(initial));
+            assertEquals(true, klass.getMethod("other").invoke(initial));
+            assertEquals(true, klass.getMethod("returned").invoke(initial));
+        }
+    }
+    
+    public void testReleaseMode() throws Exception {
+        byte[] debug = generateClasses(NUMBERS, true, false).get(new Type("Numbers"));
+        byte[] release = generateClasses(NUMBERS, true, true).get(new Type("Numbers"));
+        assertTrue(release.length < debug.length);
+        
+        // the classes must still pass the verifier
+        Class klass = generate(NUMBERS, "Numbers", true, true);
+        Object numbers = klass.newInstance();
+        assertEquals(21, klass.getMethod("sum", int.class, int.class).invoke(numbers, 1, 2));
+        Method check = klass.getMethod("check", int.class, float.class);
+        assertEquals(false, check.invoke(numbers, 0, 5.0f));
+        assertEquals(true, check.invoke(numbers, 0, 200.0f));
+        klass = generate(VOIDS, "Voids", false, true);
+        Method same = klass.getMethod("same", Object.class);
+        assertEquals(true, same.invoke(klass.newInstance(), new Object[] { null }));
+        assertEquals(false, same.invoke(klass.newInstance(), "a"));
+    }
+    
+    private static final String BRANCHES =
+        "class Branches\n" +
+        "feature\n" +
+        "  sign(x : INTEGER) : INTEGER is\n" +
+        "  do\n" +
+        "    if x < 0 then\n" +
+        "      do result := -1 end\n" +
+        "    elseif x = 0 then\n" +
+        "      do result := 0 end\n" +
+        "    else\n" +
+        "      do result := 1 end\n" +
+        "    end\n" +
+        "  end\n" +
+        "  fixed : INTEGER is\n" +
+        "  do\n" +
+        "    if false then\n" +
+        "      do result := 1 end\n" +
+        "    elseif true then\n" +
+        "      do result := 2 end\n" +
+        "    else\n" +
+        "      do result := 3 end\n" +
+        "    end\n" +
+        "  end\n" +
+        "  nested(a : BOOLEAN; b : BOOLEAN) : INTEGER is\n" +
+        "  do\n" +
+        "    result := 0\n" +
+        "    if a then\n" +
+        "      do\n" +
+        "        if b then do result := 3 end end\n" +
+        "        result := result + 1\n" +
+        "      end\n" +
+        "    end\n" +
+        "  end\n" +
+        "  combined(x : INTEGER; r : REAL; o : ANY) : INTEGER is\n" +
+        "  do\n" +
+        "    if (not (x > 0)) and then (o = void) then\n" +
+        "      do result := 1 end\n" +
+        "    elseif (x > 10) or else (r <= 0.5) then\n" +
+        "      do result := 2 end\n" +
+        "    elseif not ((o /= void) and then (r > 1.0)) then\n" +
+        "      do result := 3 end\n" +
+        "    else\n" +
+        "      do result := 4 end\n" +
+        "    end\n" +
+        "  end\n" +
+        "end\n";
+    
+    public void testConditionals() throws Exception {
+        for (int mode = 0; mode < 3; mode++) {
+            Class klass = generate(BRANCHES, "Branches", mode > 0, mode > 1);
+            Object branches = klass.newInstance();
+            Class integer = (mode > 0 ? int.class : Integer.class);
+            Class bool = (mode > 0 ? boolean.class : Boolean.class);
+            Method sign = klass.getMethod("sign", integer);
+            assertEquals(-1, sign.invoke(branches, -5));
+            assertEquals(0, sign.invoke(branches, 0));
+            assertEquals(1, sign.invoke(branches, 7));
+            assertEquals(2, klass.getMethod("fixed").invoke(branches));
+            Method nested = klass.getMethod("nested", bool, bool);
+            assertEquals(0, nested.invoke(branches, false, true));
+            assertEquals(1, nested.invoke(branches, true, false));
+            assertEquals(4, nested.invoke(branches, true, true));
+            // (the guards jump directly, NaN fails both comparisons)
+            Class real = (mode > 0 ? float.class : Float.class);
+            Method combined = klass.getMethod("combined", integer, real, Object.class);
+            Object o = new Object();
+            assertEquals(1, combined.invoke(branches, -1, 0f, null));
+            assertEquals(2, combined.invoke(branches, -1, 0f, o));
+            assertEquals(2, combined.invoke(branches, 20, 2f, o));
+            assertEquals(4, combined.invoke(branches, 5, 2f, o));
+            assertEquals(3, combined.invoke(branches, 5, Float.NaN, o));
+            assertEquals(3, combined.invoke(branches, 5, 0.75f, null));
+        }
+    }
+    
+    private static final String SWITCHES =
+        "class Switches\n" +
+        "feature\n" +
+        "  THREE : INTEGER is 3\n" +
+        "  dense(x : INTEGER) : INTEGER is\n" +
+        "  do\n" +
+        "    if x = 1 then\n" +
+        "      do result := 10 end\n" +
+        "    elseif x = THREE then\n" +
+        "      do result := 30 end\n" +
+        "    elseif 2 = x then\n" +
+        "      do result := 20 end\n" +
+        "    elseif x = 5 then\n" +
+        "      do result := 50 end\n" +
+        "    else\n" +
+        "      do result := -1 end\n" +
+        "    end\n" +
+        "  end\n" +
+        "  sparse(x : INTEGER) : INTEGER is\n" +
+        "  do\n" +
+        "    result := 7\n" +
+        "    if x = 1000 then\n" +
+        "      do result := 1 end\n" +
+        "    elseif x = 5 then\n" +
+        "      do result := 2 end\n" +
+        "    elseif x = 2147483647 then\n" +
+        "      do result := 3 end\n" +
+        "    end\n" +
+        "  end\n" +
+        "  letter(c : CHARACTER) : INTEGER is\n" +
+        "  do\n" +
+        "    if c = 'a' then\n" +
+        "      do result := 1 end\n" +
+        "    elseif c = 'b' then\n" +
+        "      do result := 2 end\n" +
+        "    elseif c = 'z' then\n" +
+        "      do result := 26 end\n" +
+        "    end\n" +
+        "  end\n" +
+        "end\n";
+    
+    public void testSwitches() throws Exception {
+        for (int mode = 0; mode < 3; mode++) {
+            Class klass = generate(SWITCHES, "Switches", mode > 0, mode > 1);
+            Object switches = klass.newInstance();
+            Class integer = (mode > 0 ? int.class : Integer.class);
+            Class character = (mode > 0 ? char.class : Character.class);
+            Method dense = klass.getMethod("dense", integer);
+            assertEquals(10, dense.invoke(switches, 1));
+            assertEquals(20, dense.invoke(switches, 2));
+            assertEquals(30, dense.invoke(switches, 3));
+            assertEquals(-1, dense.invoke(switches, 4));
+            assertEquals(50, dense.invoke(switches, 5));
+            assertEquals(-1, dense.invoke(switches, 6));
+            Method sparse = klass.getMethod("sparse", integer);
+            assertEquals(1, sparse.invoke(switches, 1000));
+            assertEquals(2, sparse.invoke(switches, 5));
+            assertEquals(3, sparse.invoke(switches, Integer.MAX_VALUE));
+            assertEquals(7, sparse.invoke(switches, 0));
+            Method letter = klass.getMethod("letter", character);
+            assertEquals(2, letter.invoke(switches, 'b'));
+            assertEquals(26, letter.invoke(switches, 'z'));
+            // (the result starts out void)
+            assertNull(letter.invoke(switches, 'c'));
+        }
+    }
+    
+    private static final String POWERS =
+        "class Powers\n" +
+        "feature\n" +
+        "  N : INTEGER is 3\n" +
+        "  cube(x : INTEGER) : INTEGER is\n" +
+        "  do\n" +
+        "    result := x ^ N\n" +
+        "  end\n" +
+        "  small(x : INTEGER) : INTEGER is\n" +
+        "  do\n" +
+        "    result := x ^ 0 + x ^ 1 + x ^ 2 + x ^ 4\n" +
+        "  end\n" +
+        "  integer(x, n : INTEGER) : INTEGER is\n" +
+        "  do\n" +
+        "    result := x ^ n\n" +
+        "  end\n" +
+        "  real(x : REAL; n : INTEGER) : REAL is\n" +
+        "  do\n" +
+        "    result := x ^ n\n" +
+        "  end\n" +
+        "  reals(x, y : REAL) : REAL is\n" +
+        "  do\n" +
+        "    result := x ^ y\n" +
+        "  end\n" +
+        "  inverse(x : INTEGER) : INTEGER is\n" +
+        "  do\n" +
+        "    result := x ^ -1\n" +
+        "  end\n" +
+        "  realInverse(x : REAL) : REAL is\n" +
+        "  do\n" +
+        "    result := x ^ -1\n" +
+        "  end\n" +
+        "end\n";
+    
+    public void testPowers() throws Exception {
+        // (when optimized, the negative exponents are folded to constants)
+        for (int mode = 0; mode < 6; mode++) {
+            Class klass = generate(POWERS, "Powers", mode % 3 > 0, mode % 3 > 1, mode > 2);
+            Object powers = klass.newInstance();
+            Class integer = (mode % 3 > 0 ? int.class : Integer.class);
+            Class real = (mode % 3 > 0 ? float.class : Float.class);
+            assertEquals(-8, klass.getMethod("cube", integer).invoke(powers, -2));
+            assertEquals(94, klass.getMethod("small", integer).invoke(powers, 3));
+            Method power = klass.getMethod("integer", integer, integer);
+            assertEquals(1594323, power.invoke(powers, 3, 13));
+            assertEquals(Integer.MIN_VALUE, power.invoke(powers, 2, 31));
+            assertEquals(1, power.invoke(powers, 7, 0));
+            // negative exponents work like 1 / x ^ -n
+            assertEquals(0, power.invoke(powers, 5, -1));
+            assertEquals(1, power.invoke(powers, -1, -2));
+            assertEquals(-1, power.invoke(powers, -1, -3));
+            try {
+                power.invoke(powers, 0, -1);
+                fail("0 ^ -1 computed");
+            } catch(InvocationTargetException e) {
+                assertTrue(e.getCause() instanceof ArithmeticException);
+            }
+            Method realPower = klass.getMethod("real", real, integer);
+            assertEquals(1024f, realPower.invoke(powers, 2f, 10));
+            assertEquals(0.25f, realPower.invoke(powers, 2f, -2));
+            assertEquals(2f, klass.getMethod("reals", real, real).invoke(powers, 4f, 0.5f));
+            assertEquals(0, klass.getMethod("inverse", integer).invoke(powers, 2));
+            assertEquals(1, klass.getMethod("inverse", integer).invoke(powers, 1));
+            assertEquals(0.5f, klass.getMethod("realInverse", real).invoke(powers, 2f));
+        }
+    }
+    
+    private static final String SHIFTS =
+        "class Shifts\n" +
+        "feature\n" +
+        "  EIGHT : INTEGER is 8\n" +
+        "  times(x : INTEGER) : INTEGER is\n" +
+        "  do\n" +
+        "    result := x * EIGHT + 4 * x\n" +
+        "  end\n" +
+        "  quotient(x : INTEGER) : INTEGER is\n" +
+        "  do\n" +
+        "    result := x / 4\n" +
+        "  end\n" +
+        "  remainder(x : INTEGER) : INTEGER is\n" +
+        "  do\n" +
+        "    result := x \\\\ EIGHT\n" +
+        "  end\n" +
+        "end\n";
+    
+    public void testShifts() throws Exception {
+        for (int mode = 0; mode < 3; mode++) {
+            Class klass = generate(SHIFTS, "Shifts", mode > 0, mode > 1);
+            Object shifts = klass.newInstance();
+            Class integer = (mode > 0 ? int.class : Integer.class);
+            Method times = klass.getMethod("times", integer);
+            Method quotient = klass.getMethod("quotient", integer);
+            Method remainder = klass.getMethod("remainder", integer);
+            int[] values = { 0, 1, 7, 8, 9, -1, -7, -8, -9, Integer.MAX_VALUE, Integer.MIN_VALUE };
+            for (int x : values) {
+                // the same results as with multiplication and division
+                assertEquals(x * 12, times.invoke(shifts, x));
+                assertEquals(x / 4, quotient.invoke(shifts, x));
+                assertEquals(x % 8, remainder.invoke(shifts, x));
+            }
+        }
+    }
+    
+    private static final String SCOPES =
+        "class Scopes\n" +
+        "feature\n" +
+        "  run(n : INTEGER) : INTEGER is\n" +
+        "  do\n" +
+        "    if n > 0 then\n" +
+        "      do\n" +
+        "        local\n" +
+        "          a, b : INTEGER\n" +
+        "        a := n * 2\n" +
+        "        b := a + 1\n" +
+        "        result := b\n" +
+        "      end\n" +
+        "    else\n" +
+        "      do\n" +
+        "        local\n" +
+        "          a : REAL\n" +
+        "          c : BOOLEAN\n" +
+        "        a := 0.5\n" +
+        "        c := a > 0.25\n" +
+        "        if c then\n" +
+        "          do\n" +
+        "            result := -1\n" +
+        "          end\n" +
+        "        else\n" +
+        "          do\n" +
+        "            result := 0\n" +
+        "          end\n" +
+        "        end\n" +
+        "      end\n" +
+        "    end\n" +
+        "    from\n" +
+        "      do\n" +
+        "        local\n" +
+        "          d : INTEGER\n" +
+        "        d := 3\n" +
+        "        result := result + d\n" +
+        "      end\n" +
+        "    until\n" +
+        "      result > 100\n" +
+        "    loop\n" +
+        "      do\n" +
+        "        local\n" +
+        "          e : INTEGER\n" +
+        "        e := result\n" +
+        "        result := result + e\n" +
+        "      end\n" +
+        "    end\n" +
+        "  end\n" +
+        "end\n";
+    
+    public void testScopes() throws Exception {
+        for (int mode = 0; mode < 3; mode++) {
+            // blocks declaring variables with the same names
+            Class klass = generate(SCOPES, "Scopes", mode > 0, mode > 1);
+            Object scopes = klass.newInstance();
+            Method run = klass.getMethod("run", mode > 0 ? int.class : Integer.class);
+            assertEquals(192, run.invoke(scopes, 1));
+            assertEquals(128, run.invoke(scopes, -5));
+
+            // n, result, and the slots of a and b which the other blocks reuse
+            byte[] bytes = generateClasses(SCOPES, mode > 0, mode > 1).get(new Type("Scopes"));
+            assertEquals(4, getMethod(bytes, "run").maxLocals);
+        }
+    }
+    
+    public void testPeepholeOptimization() throws Exception {
+        // the programs work the same when their code is cleaned up
+        peepholeOptimization = true;
+        testConditionals();
+        testSwitches();
+        testPowers();
+        testShifts();
+        testIterations();
+        testTailCalls();
+        testConstructions();
+        
+        for (int mode = 0; mode < 3; mode++) {
+            ASMCodeGenerator generator = new ASMCodeGenerator(mode > 0);
+            generator.setReleaseMode(mode > 1);
+            generator.setPeepholeOptimization(true);
+            byte[] bytes = generator.generateClasses(analyze(SCOPES, false)).get(new Type("Scopes"));
+            assertTrue(generator.getRemovedInstructions().get("Scopes.run") > 0);
+            Object scopes = new TestClassLoader().loadClass("Scopes", bytes).newInstance();
+            Method run = scopes.getClass().getMethod("run", mode > 0 ? int.class : Integer.class);
+            assertEquals(192, run.invoke(scopes, 1));
+            assertEquals(128, run.invoke(scopes, -5));
+            
+            // b and c only live on the stack, so c isn't boxed either
+            MethodNode method = getMethod(bytes, "run");
+            assertEquals(3, method.maxLocals);
+            for (Object insn : method.instructions) {
+                if(insn instanceof MethodInsnNode) {
+                    assertFalse(((MethodInsnNode)insn).name.equals("booleanValue"));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Reads the given method of a generated class.
+     */
+    private MethodNode getMethod(byte[] bytes, String name) {
+        ClassNode klass = new ClassNode();
+        new ClassReader(bytes).accept(klass, false);
+        for (Object method : klass.methods) {
+            if(((MethodNode)method).name.equals(name)) {
+                return (MethodNode)method;
+            }
+        }
+        fail("No method " + name);
+        return null;
+    }
+    
+    private static final String LOOPS =
+        "class Loops\n" +
+        "feature\n" +
+        "  LIMIT : INTEGER is 10\n" +
+        "  sumTo(n : INTEGER) : INTEGER is\n" +
+        "  local\n" +
+        "    i : INTEGER\n" +
+        "  do\n" +
+        "    from\n" +
+        "      do\n" +
+        "        i := 0\n" +
+        "        result := 0\n" +
+        "      end\n" +
+        "    until\n" +
+        "      i = n * 2\n" +
+        "    loop\n" +
+        "      do\n" +
+        "        result := result + i * (LIMIT - 1)\n" +
+        "        i := i + 1\n" +
+        "      end\n" +
+        "    end\n" +
+        "  end\n" +
+        "  never : INTEGER is\n" +
+        "  do\n" +
+        "    result := 1\n" +
+        "    from\n" +
+        "    until\n" +
+        "      true\n" +
+        "    loop\n" +
+        "      do result := 2 end\n" +
+        "    end\n" +
+        "  end\n" +
+        "end\n";
+    
+    public void testIterations() throws Exception {
+        for (int mode = 0; mode < 6; mode++) {
+            Class klass = generate(LOOPS, "Loops", mode % 3 > 0, mode % 3 > 1, mode > 2);
+            Object loops = klass.newInstance();
+            Class integer = (mode % 3 > 0 ? int.class : Integer.class);
+            Method sumTo = klass.getMethod("sumTo", integer);
+            assertEquals(135, sumTo.invoke(loops, 3));
+            assertEquals(0, sumTo.invoke(loops, 0));
+            assertEquals(1, klass.getMethod("never").invoke(loops));
+        }
+    }
+    
+    private static final String CALLS =
+        "class Calls\n" +
+        "feature\n" +
+        "  total : INTEGER\n" +
+        "  add(x : INTEGER) is\n" +
+        "  do\n" +
+        "    total := total + x\n" +
+        "  end\n" +
+        "  square(x : INTEGER) : INTEGER is\n" +
+        "  do\n" +
+        "    result := x * x\n" +
+        "  end\n" +
+        "  sumOfSquares(n : INTEGER) : INTEGER is\n" +
+        "  local\n" +
+        "    i : INTEGER\n" +
+        "  do\n" +
+        "    total := 0\n" +
+        "    from\n" +
+        "      do\n" +
+        "        i := 1\n" +
+        "      end\n" +
+        "    until\n" +
+        "      i > n\n" +
+        "    loop\n" +
+        "      do\n" +
+        "        add(square(i))\n" +
+        "        i := i + 1\n" +
+        "      end\n" +
+        "    end\n" +
+        "    result := total\n" +
+        "  end\n" +
+        "end\n";
+    
+    public void testInlinedCalls() throws Exception {
+        // (the calls are only generated when they're inlined)
+        for (int mode = 0; mode < 3; mode++) {
+            Class klass = generate(CALLS, "Calls", mode > 0, mode > 1, true);
+            Object calls = klass.newInstance();
+            Class integer = (mode > 0 ? int.class : Integer.class);
+            Method sumOfSquares = klass.getMethod("sumOfSquares", integer);
+            assertEquals(14, sumOfSquares.invoke(calls, 3));
+            assertEquals(0, sumOfSquares.invoke(calls, 0));
+        }
+    }
+    
+    private static final String INLINED_VOIDS =
+        "class Inlined\n" +
+        "feature\n" +
+        "  total : INTEGER\n" +
+        "  other : ANY\n" +
+        "  get : INTEGER is\n" +
+        "  do\n" +
+        "    result := void\n" +
+        "  end\n" +
+        "  unset(n : INTEGER) : INTEGER is\n" +
+        "  do\n" +
+        "    if n > 0 then\n" +
+        "      do\n" +
+        "        result := n\n" +
+        "      end\n" +
+        "    end\n" +
+        "  end\n" +
+        "  twice(x : INTEGER) : INTEGER is\n" +
+        "  do\n" +
+        "    result := x * 2\n" +
+        "  end\n" +
+        "  add(x : INTEGER) is\n" +
+        "  do\n" +
+        "    total := total + x\n" +
+        "  end\n" +
+        "  voidResult : BOOLEAN is\n" +
+        "  do\n" +
+        "    result := get() = void\n" +
+        "  end\n" +
+        "  stored : BOOLEAN is\n" +
+        "  do\n" +
+        "    other := get()\n" +
+        "    result := other = void\n" +
+        "  end\n" +
+        "  maybeSet : BOOLEAN is\n" +
+        "  do\n" +
+        "    result := unset(0) = void and then unset(1) /= void\n" +
+        "  end\n" +
+        "  sum : INTEGER is\n" +
+        "  do\n" +
+        "    total := 0\n" +
+        "    add(twice(3))\n" +
+        "    add(unset(2))\n" +
+        "    result := total\n" +
+        "  end\n" +
+        "  fresh : BOOLEAN is\n" +
+        "  do\n" +
+        "    result := total = void\n" +
+        "  end\n" +
+        "  unsetTwice : INTEGER is\n" +
+        "  do\n" +
+        "    result := twice(unset(0))\n" +
+        "  end\n" +
+        "end\n";
+    
+    public void testInlinedCallsWorkTheSame() throws Exception {
+        Optimizer optimizer = new Optimizer();
+        optimizer.optimize(analyze(INLINED_VOIDS, false));
+        assertTrue(findPass(optimizer, Inliner.class).getInlinedCalls() > 0);
+        assertSameResults(
+                INLINED_VOIDS, "Inlined",
+                "voidResult", "stored", "maybeSet", "sum", "fresh", "unsetTwice"
+        );
+    }
+    
+    private static final String REPLACED_OBJECTS =
+        "class Pair\n" +
+        "feature\n" +
+        "  first : INTEGER\n" +
+        "  second : Pair\n" +
+        "  set(x : INTEGER) is\n" +
+        "  do\n" +
+        "    first := x\n" +
+        "  end\n" +
+        "end\n" +
+        "class Scalars\n" +
+        "feature\n" +
+        "  kept : Pair\n" +
+        "  fresh : BOOLEAN is\n" +
+        "  local\n" +
+        "    p : Pair\n" +
+        "  do\n" +
+        "    !! p\n" +
+        "    result := p.first = void and then p.second = void\n" +
+        "  end\n" +
+        "  filled : INTEGER is\n" +
+        "  local\n" +
+        "    p : Pair\n" +
+        "  do\n" +
+        "    !! p\n" +
+        "    p.set(4)\n" +
+        "    result := p.first + 3\n" +
+        "  end\n" +
+        "  unfilled : INTEGER is\n" +
+        "  local\n" +
+        "    p : Pair\n" +
+        "  do\n" +
+        "    !! p\n" +
+        "    result := p.first + 7\n" +
+        "  end\n" +
+        "  escaping : INTEGER is\n" +
+        "  local\n" +
+        "    a, b : Pair\n" +
+        "  do\n" +
+        "    !! a\n" +
+        "    a.set(2)\n" +
+        "    !! b\n" +
+        "    kept := b\n" +
+        "    b.set(5)\n" +
+        "    result := a.first + kept.first\n" +
+        "  end\n" +
+        "  passed : INTEGER is\n" +
+        "  local\n" +
+        "    c : Pair\n" +
+        "  do\n" +
+        "    !! c\n" +
+        "    c.set(1)\n" +
+        "    result := count(c)\n" +
+        "  end\n" +
+        "  count(p : Pair) : INTEGER is\n" +
+        "  do\n" +
+        "    result := p.first\n" +
+        "  end\n" +
+        "  maybeVoid : BOOLEAN is\n" +
+        "  local\n" +
+        "    d : Pair\n" +
+        "  do\n" +
+        "    if d /= void then\n" +
+        "      do\n" +
+        "        !! d\n" +
+        "      end\n" +
+        "    end\n" +
+        "    result := d = void\n" +
+        "  end\n" +
+        "end\n";
+    
+    public void testReplacedObjectsWorkTheSame() throws Exception {
+        Optimizer optimizer = new Optimizer();
+        optimizer.optimize(analyze(REPLACED_OBJECTS, false));
+        assertTrue(findPass(optimizer, ScalarReplacer.class).getReplacedObjects() > 0);
+        assertSameResults(
+                REPLACED_OBJECTS, "Scalars",
+                "fresh", "filled", "unfilled", "escaping", "passed", "maybeVoid"
+        );
+    }
+    
+    /**
+     * Calls the given methods (without parameters) on new objects of
+     * the given class in all the modes, with and without the
+     * {@link Optimizer}, and checks that they return the same values
+     * or fail with the same exceptions.
+     */
+    private void assertSameResults(String code, String className, String... methods)
+            throws Exception {
+        String[] expected = null;
+        for (int mode = 0; mode < 6; mode++) {
+            Map<Type, byte[]> classes = generateClasses(code, mode % 3 > 0, mode % 3 > 1, mode > 2);
+            TestClassLoader loader = new TestClassLoader();
+            Class klass = null;
+            for (Map.Entry<Type, byte[]> entry : classes.entrySet()) {
+                Class loaded = loader.loadClass(entry.getKey().getName(), entry.getValue());
+                if(entry.getKey().getName().equals(className)) {
+                    klass = loaded;
+                }
+            }
+            String[] results = new String[methods.length];
+            for (int i = 0; i < methods.length; i++) {
+                try {
+                    results[i] = String.valueOf(klass.getMethod(methods[i]).invoke(klass.newInstance()));
+                } catch(InvocationTargetException e) {
+                    results[i] = e.getCause().getClass().getName();
+                }
+            }
+            if(expected == null) {
+                expected = results;
+            }
+            for (int i = 0; i < methods.length; i++) {
+                assertEquals("mode " + mode + ": " + methods[i], expected[i], results[i]);
+            }
+        }
+    }
+    
+    /**
+     * Returns the pass of the given type run by the optimizer.
+     */
+    private <T extends OptimizationPass> T findPass(Optimizer optimizer, Class<T> type) {
+        for (OptimizationPass pass : optimizer.getPasses()) {
+            if(type.isInstance(pass)) {
+                return type.cast(pass);
+            }
+        }
+        fail("No " + type.getName());
+        return null;
+    }
+    
+    private static final String TAIL_CALLS =
+        "class TailCalls\n" +
+        "feature\n" +
+        "  gcd(m, n : INTEGER) : INTEGER is\n" +
+        "  do\n" +
+        "    if n = 0 then\n" +
+        "      do\n" +
+        "        result := m\n" +
+        "      end\n" +
+        "    else\n" +
+        "      do\n" +
+        "        result := gcd(n, m \\\\ n)\n" +
+        "      end\n" +
+        "    end\n" +
+        "  end\n" +
+        "  sum(n, total : INTEGER) : INTEGER is\n" +
+        "  local\n" +
+        "    rounds : INTEGER\n" +
+        "  do\n" +
+        "    if rounds = void then\n" +
+        "      do\n" +
+        "        rounds := 1\n" +
+        "      end\n" +
+        "    else\n" +
+        "      do\n" +
+        "        rounds := rounds + 1\n" +
+        "      end\n" +
+        "    end\n" +
+        "    if n = 0 then\n" +
+        "      do\n" +
+        "        result := total * rounds\n" +
+        "      end\n" +
+        "    else\n" +
+        "      do\n" +
+        "        result := sum(n - 1, total + n)\n" +
+        "      end\n" +
+        "    end\n" +
+        "  end\n" +
+        "end\n";
+    
+    public void testTailCalls() throws Exception {
+        // (the calls compile to jumps, other calls aren't generated yet)
+        for (int mode = 0; mode < 3; mode++) {
+            Class klass = generate(TAIL_CALLS, "TailCalls", mode > 0, mode > 1);
+            Object tailCalls = klass.newInstance();
+            Class integer = (mode > 0 ? int.class : Integer.class);
+            Method gcd = klass.getMethod("gcd", integer, integer);
+            assertEquals(21, gcd.invoke(tailCalls, 1071, 462));
+            assertEquals(7, gcd.invoke(tailCalls, 7, 0));
+            if(mode > 0) {
+                // deep enough to overflow the stack with real calls, and
+                // the local variable starts out void again each round
+                Method sum = klass.getMethod("sum", integer, integer);
+                assertEquals(1250025000, sum.invoke(tailCalls, 50000, 0));
+            }
+        }
+    }
+    
+    private static final String INVOCATIONS =
+        "class Counter\n" +
+        "feature\n" +
+        "  value : INTEGER\n" +
+        "  add(x : INTEGER) : INTEGER is\n" +
+        "  do\n" +
+        "    value := value + x\n" +
+        "    result := value\n" +
+        "  end\n" +
+        "  square(x : INTEGER) : INTEGER is\n" +
+        "  do\n" +
+        "    result := x * x\n" +
+        "  end\n" +
+        "end\n" +
+        "class Client\n" +
+        "feature\n" +
+        "  counter : Counter\n" +
+        "  addTwice(x : INTEGER) : INTEGER is\n" +
+        "  do\n" +
+        "    counter.add(x)\n" +
+        "    result := counter.add(x) + counter.value\n" +
+        "  end\n" +
+        "  squareOf(x : INTEGER) : INTEGER is\n" +
+        "  do\n" +
+        "    result := counter.square(x)\n" +
+        "  end\n" +
+        "  factorial(n : INTEGER) : INTEGER is\n" +
+        "  do\n" +
+        "    if n = 0 then\n" +
+        "      do\n" +
+        "        result := 1\n" +
+        "      end\n" +
+        "    else\n" +
+        "      do\n" +
+        "        result := n * factorial(n - 1)\n" +
+        "      end\n" +
+        "    end\n" +
+        "  end\n" +
+        "end\n";
+    
+    public void testInvocations() throws Exception {
+        for (int mode = 0; mode < 3; mode++) {
+            Map<Type, byte[]> classes = generateClasses(INVOCATIONS, mode > 0, mode > 1);
+            TestClassLoader loader = new TestClassLoader();
+            Class counterClass = loader.loadClass("Counter", classes.get(new Type("Counter")));
+            Class clientClass = loader.loadClass("Client", classes.get(new Type("Client")));
+            Class integer = (mode > 0 ? int.class : Integer.class);
+            
+            // there's no inheritance, so the classes and methods are final
+            assertTrue(Modifier.isFinal(clientClass.getModifiers()));
+            assertTrue(Modifier.isFinal(clientClass.getMethod("factorial", integer).getModifiers()));
+            
+            Object counter = counterClass.newInstance();
+            Object client = clientClass.newInstance();
+            // (void in boxed mode)
+            counterClass.getField("value").set(counter, 0);
+            clientClass.getField("counter").set(client, counter);
+            Method addTwice = clientClass.getMethod("addTwice", integer);
+            assertEquals(12, addTwice.invoke(client, 3));
+            assertEquals(6, counterClass.getMethod("add", integer).invoke(counter, 0));
+            assertEquals(120, clientClass.getMethod("factorial", integer).invoke(client, 5));
+            
+            // methods that don't use the current object are static
+            assertTrue(Modifier.isStatic(clientClass.getMethod("factorial", integer).getModifiers()));
+            assertFalse(Modifier.isStatic(addTwice.getModifiers()));
+            Method squareOf = clientClass.getMethod("squareOf", integer);
+            assertFalse(Modifier.isStatic(squareOf.getModifiers()));
+            assertTrue(Modifier.isStatic(counterClass.getMethod("square", integer).getModifiers()));
+            assertEquals(9, squareOf.invoke(client, 3));
+            // the target of a call to a static method is still checked
+            clientClass.getField("counter").set(client, null);
+            try {
+                squareOf.invoke(client, 3);
+                fail("Static method called on void");
+            } catch(InvocationTargetException e) {
+                assertTrue(e.getCause() instanceof NullPointerException);
+            }
+        }
+    }
+    
+    private static final String CONSTRUCTIONS =
+        "class Holder\n" +
+        "feature\n" +
+        "  value : INTEGER\n" +
+        "  SIZE : INTEGER is 4\n" +
+        "  set(x : INTEGER) is\n" +
+        "  do\n" +
+        "    value := x\n" +
+        "  end\n" +
+        "end\n" +
+        "class Maker\n" +
+        "feature\n" +
+        "  last : Holder\n" +
+        "  make(x : INTEGER) : INTEGER is\n" +
+        "  local\n" +
+        "    h : Holder\n" +
+        "  do\n" +
+        "    !! h\n" +
+        "    h.set(x)\n" +
+        "    !! last\n" +
+        "    last.set(x + 1)\n" +
+        "    result := h.value + last.value\n" +
+        "  end\n" +
+        "  sizes(n : INTEGER) : INTEGER is\n" +
+        "  local\n" +
+        "    i : INTEGER\n" +
+        "  do\n" +
+        "    from\n" +
+        "      do\n" +
+        "        i := 0\n" +
+        "        result := 0\n" +
+        "      end\n" +
+        "    until\n" +
+        "      i = n\n" +
+        "    loop\n" +
+        "      do\n" +
+        "        local\n" +
+        "          t : Holder\n" +
+        "        if t = void then\n" +
+        "          do\n" +
+        "            result := result + 1\n" +
+        "          end\n" +
+        "        end\n" +
+        "        !! t\n" +
+        "        result := result + t.SIZE\n" +
+        "        i := i + 1\n" +
+        "      end\n" +
+        "    end\n" +
+        "  end\n" +
+        "end\n";
+    
+    public void testConstructions() throws Exception {
+        // (the holders created by sizes are replaced when optimized)
+        for (int mode = 0; mode < 4; mode++) {
+            Map<Type, byte[]> classes = generateClasses(CONSTRUCTIONS, true, mode % 2 > 0, mode > 1);
+            TestClassLoader loader = new TestClassLoader();
+            Class holderClass = loader.loadClass("Holder", classes.get(new Type("Holder")));
+            Class makerClass = loader.loadClass("Maker", classes.get(new Type("Maker")));
+            Object maker = makerClass.newInstance();
+            assertEquals(7, makerClass.getMethod("make", int.class).invoke(maker, 3));
+            Object last = makerClass.getField("last").get(maker);
+            assertSame(holderClass, last.getClass());
+            assertEquals(4, holderClass.getField("value").get(last));
+            assertEquals(15, makerClass.getMethod("sizes", int.class).invoke(maker, 3));
+        }
+    }
+    
+    public void testBoxedPrimitives() throws Exception {
+        Class klass = generate(NUMBERS, "Numbers", false);
+        Object numbers = klass.newInstance();
+        assertEquals(Integer.class, klass.getField("count").getType());
+        Method sum = klass.getMethod("sum", Integer.class, Integer.class);
+        assertEquals(21, sum.invoke(numbers, 1, 2));
+        Method check = klass.getMethod("check", Integer.class, Float.class);
+        assertEquals(true, check.invoke(numbers, 1, 2.0f));
+    }
+    
     private void decompile(String name, byte[] bytecode) {
         Decompiler decompiler = new Decompiler();
         decompiler.setClassPath(System.getProperty("java.io.tmpdir"));
@@ -0,0 +1,104 @@
+package minieiffel.opt;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+import minieiffel.TestCaseUtil;
+import minieiffel.ast.AssignmentAST;
+import minieiffel.ast.ConditionalAST;
+import minieiffel.ast.InstructionAST;
+import minieiffel.ast.IterationAST;
+import minieiffel.ast.ProgramAST;
+import minieiffel.ast.VariableDeclAST;
+
+/**
+ * Tests the {@link CommonSubexpressionEliminator}.
+ */
+public class CommonSubexpressionEliminatorTestCase extends TestCase {
+
+    private static final String CODE =
+        "class Common\n" +
+        "feature\n" +
+        "  count : INTEGER\n" +
+        "  item : INTEGER\n" +
+        "  bump(by : INTEGER) is\n" +
+        "  do\n" +
+        "    count := count + by\n" +
+        "  end\n" +
+        "  test(x, y : INTEGER) : BOOLEAN is\n" +
+        "  local\n" +
+        "    a : Common\n" +
+        "    n : INTEGER\n" +
+        "  do\n" +
+        "    !! a\n" +
+        "    result := a.item = x or else a.item = y\n" +
+        "    n := (count + 1) * 2 + (count + 1)\n" +
+        "    bump(1)\n" +
+        "    n := n + (count + 1)\n" +
+        "    if x * y > n then\n" +
+        "      do\n" +
+        "        n := x * y\n" +
+        "      end\n" +
+        "    end\n" +
+        "  end\n" +
+        "  loops(x : INTEGER) : INTEGER is\n" +
+        "  do\n" +
+        "    result := x * 3\n" +
+        "    from\n" +
+        "    until\n" +
+        "      result > x * 3\n" +
+        "    loop\n" +
+        "      do\n" +
+        "        result := result + x * 3\n" +
+        "      end\n" +
+        "    end\n" +
+        "  end\n" +
+        "end\n";
+
+    private ProgramAST program;
+    private CommonSubexpressionEliminator eliminator;
+
+    protected void setUp() throws Exception {
+        program = TestCaseUtil.analyzedProgram(CODE);
+        eliminator = new CommonSubexpressionEliminator();
+        eliminator.optimize(program);
+    }
+
+    private String assignment(InstructionAST instruction) {
+        AssignmentAST assignment = (AssignmentAST)instruction;
+        return assignment.getIdentifier().getText() + " := " + assignment.getExpression();
+    }
+
+    public void testRepeatedOperations() {
+        List<InstructionAST> instructions = TestCaseUtil.method(program, 0, 3).getInstructions().getInstructions();
+        assertEquals(9, instructions.size());
+        // the first occurrence is computed before its instruction
+        assertEquals("cse$1 := (a . item)", assignment(instructions.get(1)));
+        assertEquals("result := ((cse$1 = x) or else (cse$1 = y))", assignment(instructions.get(2)));
+        assertEquals("cse$2 := (count + 1)", assignment(instructions.get(3)));
+        assertEquals("n := ((cse$2 * 2) + cse$2)", assignment(instructions.get(4)));
+        // the call may change count
+        assertEquals("n := (n + (count + 1))", assignment(instructions.get(6)));
+        // the value of the guard is used in the branch
+        assertEquals("cse$3 := (x * y)", assignment(instructions.get(7)));
+        ConditionalAST conditional = (ConditionalAST)instructions.get(8);
+        assertEquals("(cse$3 > n)", conditional.getIfStatement().getGuard().toString());
+        assertEquals("n := cse$3", assignment(conditional.getIfStatement().getThen().getInstructions().get(0)));
+        // (two of the operations replaced are in loops)
+        assertEquals(5, eliminator.getEliminatedExpressions());
+
+        List<VariableDeclAST> decls = TestCaseUtil.method(program, 0, 3).getInstructions().getLocalDecls();
+        assertEquals(3, decls.size());
+        assertEquals("cse$3", decls.get(2).getName().getText());
+    }
+
+    public void testLoops() {
+        List<InstructionAST> instructions = TestCaseUtil.method(program, 0, 4).getInstructions().getInstructions();
+        // result changes in the loop, x doesn't
+        assertEquals("result := cse$1", assignment(instructions.get(1)));
+        IterationAST loop = (IterationAST)instructions.get(2);
+        assertEquals("(result > cse$1)", loop.getUntil().toString());
+        assertEquals("result := (result + cse$1)", assignment(loop.getLoop().getInstructions().get(0)));
+    }
+
+}
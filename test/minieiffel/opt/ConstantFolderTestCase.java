@@ -0,0 +1,96 @@
+package minieiffel.opt;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+import minieiffel.TestCaseUtil;
+import minieiffel.ast.AssignmentAST;
+import minieiffel.ast.BinaryExpressionAST;
+import minieiffel.ast.ExpressionAST;
+import minieiffel.ast.InstructionAST;
+import minieiffel.ast.MethodAST;
+import minieiffel.ast.ProgramAST;
+import minieiffel.semantics.Type;
+
+/**
+ * Tests the {@link ConstantFolder}.
+ */
+public class ConstantFolderTestCase extends TestCase {
+
+    private static final String CODE =
+        "class Folding\n" +
+        "feature\n" +
+        "  test(p : INTEGER) : INTEGER is\n" +
+        "  local\n" +
+        "    i : INTEGER\n" +
+        "    r : REAL\n" +
+        "    b : BOOLEAN\n" +
+        "  do\n" +
+        "    i := (3 * 4) + i\n" +
+        "    r := 1 / 2.0 - 'a'\n" +
+        "    b := not true\n" +
+        "    b := 3 < 2.5 or else 'a' = 97\n" +
+        "    i := 7 \\\\ 0\n" +
+        "    i := 2147483647 + 1\n" +
+        "    i := 1 * (i + 0)\n" +
+        "    i := p + 0\n" +
+        "    i := i * 0\n" +
+        "    b := b and then true\n" +
+        "    b := not not (i > 3)\n" +
+        "    b := false and then b\n" +
+        "    r := r * 1\n" +
+        "    r := r + 0\n" +
+        "  end\n" +
+        "end\n";
+
+    private List<InstructionAST> instructions;
+
+    protected void setUp() throws Exception {
+        ProgramAST program = TestCaseUtil.analyzedProgram(CODE);
+        new ConstantFolder().optimize(program);
+        MethodAST method = TestCaseUtil.method(program, 0, 0);
+        instructions = method.getInstructions().getInstructions();
+    }
+
+    private ExpressionAST assigned(int index) {
+        return ((AssignmentAST)instructions.get(index)).getExpression();
+    }
+
+    private void assertFolded(String expected, int index) {
+        assertEquals(expected, assigned(index).toString());
+    }
+
+    public void testLiterals() {
+        assertFolded("(12 + i)", 0);
+        assertEquals(Type.INTEGER, ((BinaryExpressionAST)assigned(0)).getLhs().getType());
+        assertFolded("-96.5", 1);
+        assertEquals(Type.REAL, assigned(1).getType());
+        assertFolded("false", 2);
+        assertFolded("true", 3);
+        assertEquals(Type.BOOLEAN, assigned(3).getType());
+        // division by zero must still fail at run time
+        assertFolded("(7 \\\\ 0)", 4);
+        assertFolded("-2147483648", 5);
+    }
+
+    public void testIdentities() {
+        assertFolded("i", 6);
+        // parameters may be void
+        assertFolded("(p + 0)", 7);
+        assertFolded("0", 8);
+        assertFolded("b", 9);
+        assertFolded("(i > 3)", 10);
+        assertFolded("false", 11);
+        assertFolded("r", 12);
+        // not for reals
+        assertFolded("(r + 0)", 13);
+    }
+
+    public void testPositionsAreKept() {
+        // "1 / 2.0 - 'a'" is reported at the '-' operator
+        ExpressionAST folded = assigned(1);
+        assertNotNull(folded.getLocationToken().getPosition());
+        assertEquals("[L10,C19]", "" + folded.getLocationToken().getPosition());
+    }
+
+}
@@ -0,0 +1,130 @@
+package minieiffel.opt;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+import minieiffel.TestCaseUtil;
+import minieiffel.ast.AssignmentAST;
+import minieiffel.ast.ConditionalAST;
+import minieiffel.ast.InstructionAST;
+import minieiffel.ast.IterationAST;
+import minieiffel.ast.ProgramAST;
+
+/**
+ * Tests the {@link DeadCodeEliminator} (run after the constant folder).
+ */
+public class DeadCodeEliminatorTestCase extends TestCase {
+
+    private static final String CODE =
+        "class Dead\n" +
+        "feature\n" +
+        "  count : INTEGER\n" +
+        "  test(p : INTEGER) : INTEGER is\n" +
+        "  local\n" +
+        "    unused : INTEGER\n" +
+        "    tmp : INTEGER\n" +
+        "  do\n" +
+        "    tmp := 5\n" +
+        "    unused := tmp + 1\n" +
+        "    if 1 > 2 then\n" +
+        "      do result := 1 end\n" +
+        "    elseif p > 0 then\n" +
+        "      do result := 2 end\n" +
+        "    else\n" +
+        "      do\n" +
+        "        if false then do result := 4 end end\n" +
+        "      end\n" +
+        "    end\n" +
+        "    if 2 > 1 then\n" +
+        "      do\n" +
+        "        local\n" +
+        "          x : INTEGER\n" +
+        "        x := 3\n" +
+        "        result := result + x\n" +
+        "      end\n" +
+        "    end\n" +
+        "    count := p\n" +
+        "    from\n" +
+        "      do tmp := 0 end\n" +
+        "    until\n" +
+        "      true\n" +
+        "    loop\n" +
+        "      do result := 0 end\n" +
+        "    end\n" +
+        "    from\n" +
+        "    until\n" +
+        "      false\n" +
+        "    loop\n" +
+        "      do count := count + 1 end\n" +
+        "    end\n" +
+        "    result := 7\n" +
+        "  end\n" +
+        "  clash : INTEGER is\n" +
+        "  do\n" +
+        "    if true then\n" +
+        "      do\n" +
+        "        local\n" +
+        "          y : INTEGER\n" +
+        "        y := 1\n" +
+        "        result := y\n" +
+        "      end\n" +
+        "    end\n" +
+        "    if true then\n" +
+        "      do\n" +
+        "        local\n" +
+        "          y : INTEGER\n" +
+        "        y := 2\n" +
+        "        result := result + y\n" +
+        "      end\n" +
+        "    end\n" +
+        "  end\n" +
+        "end\n";
+
+    private ProgramAST program;
+    private DeadCodeEliminator eliminator;
+
+    protected void setUp() throws Exception {
+        program = TestCaseUtil.analyzedProgram(CODE);
+        eliminator = new DeadCodeEliminator();
+        Optimizer optimizer = new Optimizer();
+        optimizer.getPasses().clear();
+        optimizer.getPasses().add(new ConstantFolder());
+        optimizer.getPasses().add(eliminator);
+        optimizer.optimize(program);
+    }
+
+    private List<InstructionAST> instructions(int index) {
+        return TestCaseUtil.method(program, 0, index).getInstructions().getInstructions();
+    }
+
+    public void testRemovedCode() {
+        List<InstructionAST> instructions = instructions(1);
+        assertEquals(instructions.toString(), 5, instructions.size());
+        // the false branch and the empty else part are gone
+        ConditionalAST conditional = (ConditionalAST)instructions.get(0);
+        assertEquals("(p > 0)", conditional.getIfStatement().getGuard().toString());
+        assertTrue(conditional.getElseIfStatements().isEmpty());
+        assertNull(conditional.getElseStatement());
+        // the branch that is always taken replaces the conditional
+        assertEquals("x", ((AssignmentAST)instructions.get(1)).getIdentifier().getText());
+        assertEquals("x", TestCaseUtil.method(program, 0, 1).getInstructions().getLocalDecls().get(0).getName().getText());
+        assertEquals("result", ((AssignmentAST)instructions.get(2)).getIdentifier().getText());
+        // fields are always live
+        assertEquals("count", ((AssignmentAST)instructions.get(3)).getIdentifier().getText());
+        // nothing after a loop that never ends
+        assertTrue(instructions.get(4) instanceof IterationAST);
+        assertEquals(10, eliminator.getRemovedInstructions());
+    }
+
+    public void testClashingVariables() {
+        // the blocks can't be merged into the method body
+        List<InstructionAST> instructions = instructions(2);
+        assertEquals(2, instructions.size());
+        for (InstructionAST instruction : instructions) {
+            ConditionalAST conditional = (ConditionalAST)instruction;
+            assertEquals("true", conditional.getIfStatement().getGuard().toString());
+            assertEquals(2, conditional.getIfStatement().getThen().getInstructions().size());
+        }
+    }
+
+}
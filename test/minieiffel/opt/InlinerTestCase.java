@@ -0,0 +1,153 @@
+package minieiffel.opt;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+import minieiffel.TestCaseUtil;
+import minieiffel.ast.AssignmentAST;
+import minieiffel.ast.ConditionalAST;
+import minieiffel.ast.InstructionAST;
+import minieiffel.ast.IterationAST;
+import minieiffel.ast.MethodAST;
+import minieiffel.ast.ProgramAST;
+import minieiffel.ast.VariableDeclAST;
+
+/**
+ * Tests the {@link Inliner}.
+ */
+public class InlinerTestCase extends TestCase {
+
+    private static final String CODE =
+        "class Inline\n" +
+        "feature\n" +
+        "  count : INTEGER\n" +
+        "  equal(a, b : ANY) : BOOLEAN is\n" +
+        "  do\n" +
+        "    result := (a = b)\n" +
+        "  end\n" +
+        "  twice(x : INTEGER) : INTEGER is\n" +
+        "  do\n" +
+        "    result := x + x\n" +
+        "  end\n" +
+        "  bump(x : INTEGER) : INTEGER is\n" +
+        "  local\n" +
+        "    old : INTEGER\n" +
+        "  do\n" +
+        "    old := count\n" +
+        "    count := count + x\n" +
+        "    result := old\n" +
+        "  end\n" +
+        "  factorial(n : INTEGER) : INTEGER is\n" +
+        "  do\n" +
+        "    if n = 0 then\n" +
+        "      do\n" +
+        "        result := 1\n" +
+        "      end\n" +
+        "    else\n" +
+        "      do\n" +
+        "        result := n * factorial(n - 1)\n" +
+        "      end\n" +
+        "    end\n" +
+        "  end\n" +
+        "  test(x, y : ANY; i : INTEGER) : INTEGER is\n" +
+        "  do\n" +
+        "    from\n" +
+        "    until\n" +
+        "      x = void or else equal(x, y)\n" +
+        "    loop\n" +
+        "      do\n" +
+        "        x := void\n" +
+        "      end\n" +
+        "    end\n" +
+        "    result := twice(i) + twice(i * 2)\n" +
+        "    result := bump(result) + 1\n" +
+        "    if bump(2) > count then\n" +
+        "      do\n" +
+        "        result := factorial(3)\n" +
+        "      end\n" +
+        "    end\n" +
+        "  end\n" +
+        "  wrapper(i : INTEGER) : INTEGER is\n" +
+        "  do\n" +
+        "    result := twice(i)\n" +
+        "  end\n" +
+        "  outer : INTEGER is\n" +
+        "  do\n" +
+        "    result := wrapper(3)\n" +
+        "  end\n" +
+        "end\n";
+
+    private ProgramAST program;
+    private Inliner inliner;
+
+    protected void setUp() throws Exception {
+        program = TestCaseUtil.analyzedProgram(CODE);
+        inliner = new Inliner();
+    }
+
+    public void testExpressions() {
+        inliner.optimize(program);
+        List<InstructionAST> instructions = TestCaseUtil.method(program, 0, 5).getInstructions().getInstructions();
+        // the rhs of "or else" is replaced as well
+        IterationAST loop = (IterationAST)instructions.get(0);
+        assertEquals("((x = void) or else (x = y))", loop.getUntil().toString());
+        AssignmentAST sum = (AssignmentAST)instructions.get(3);
+        assertEquals("((i + i) + inline$2)", sum.getExpression().toString());
+    }
+
+    public void testBodies() {
+        inliner.optimize(program);
+        MethodAST test = TestCaseUtil.method(program, 0, 5);
+        List<InstructionAST> instructions = test.getInstructions().getInstructions();
+        // "i * 2" would be read twice, so the body of twice is inserted
+        assertEquals("inline$1 := (i * 2)", instructions.get(1).toString());
+        assertEquals("inline$2 := (inline$1 + inline$1)", instructions.get(2).toString());
+        // "result := bump(result) + 1"
+        assertEquals("inline$3 := result", instructions.get(4).toString());
+        assertEquals("inline$4 := count", instructions.get(5).toString());
+        assertEquals("count := (count + inline$3)", instructions.get(6).toString());
+        assertEquals("inline$5 := inline$4", instructions.get(7).toString());
+        assertEquals("result := (inline$5 + 1)", instructions.get(8).toString());
+
+        // "if bump(2) > count" reads the field bump changes
+        assertTrue(instructions.get(9) instanceof ConditionalAST);
+        assertEquals(10, instructions.size());
+
+        List<VariableDeclAST> decls = test.getInstructions().getLocalDecls();
+        assertEquals(5, decls.size());
+        assertEquals("inline$4", decls.get(3).getName().getText());
+    }
+
+    public void testRecursionAndRounds() {
+        inliner.optimize(program);
+        // factorial calls itself
+        List<InstructionAST> instructions = TestCaseUtil.method(program, 0, 4).getInstructions().getInstructions();
+        ConditionalAST conditional = (ConditionalAST)instructions.get(0);
+        AssignmentAST assignment = (AssignmentAST)conditional.getElseStatement().getInstructions().get(0);
+        assertEquals("(n * factorial((n - 1)))", assignment.getExpression().toString());
+        // wrapper is inlined once twice has been inlined into it
+        assertEquals("(3 + 3)", ((AssignmentAST)TestCaseUtil.method(program, 0, 7).getInstructions().getInstructions().get(0)).getExpression().toString());
+        assertEquals(6, inliner.getInlinedCalls());
+    }
+
+    public void testLimits() {
+        inliner.setMaxInlineSize(3);
+        inliner.optimize(program);
+        assertEquals(0, inliner.getInlinedCalls());
+
+        setUpQuietly();
+        inliner.setGrowthBudget(3);
+        inliner.optimize(program);
+        // only "equal" fits
+        assertEquals(1, inliner.getInlinedCalls());
+    }
+
+    private void setUpQuietly() {
+        try {
+            setUp();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
@@ -0,0 +1,99 @@
+package minieiffel.opt;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+import minieiffel.TestCaseUtil;
+import minieiffel.ast.AssignmentAST;
+import minieiffel.ast.InstructionAST;
+import minieiffel.ast.IterationAST;
+import minieiffel.ast.MethodAST;
+import minieiffel.ast.ProgramAST;
+import minieiffel.ast.VariableDeclAST;
+
+/**
+ * Tests the {@link LoopInvariantHoister}.
+ */
+public class LoopInvariantHoisterTestCase extends TestCase {
+
+    private static final String CODE =
+        "class Hoist\n" +
+        "feature\n" +
+        "  count : INTEGER\n" +
+        "  LIMIT : INTEGER is 10\n" +
+        "  bump(x : INTEGER) is\n" +
+        "  do\n" +
+        "    count := count + x\n" +
+        "  end\n" +
+        "  test(n : INTEGER) : INTEGER is\n" +
+        "  local\n" +
+        "    i : INTEGER\n" +
+        "  do\n" +
+        "    from\n" +
+        "      do\n" +
+        "        i := 0\n" +
+        "      end\n" +
+        "    until\n" +
+        "      (i > n * 2) or else (i > LIMIT + 1)\n" +
+        "    loop\n" +
+        "      do\n" +
+        "        result := i * (LIMIT - 1) + n * 3\n" +
+        "        i := i + 1\n" +
+        "      end\n" +
+        "    end\n" +
+        "    from\n" +
+        "    until\n" +
+        "      i > count + 1\n" +
+        "    loop\n" +
+        "      do\n" +
+        "        bump(i)\n" +
+        "        i := i + 1\n" +
+        "      end\n" +
+        "    end\n" +
+        "  end\n" +
+        "end\n";
+
+    private MethodAST method;
+    private LoopInvariantHoister hoister;
+
+    protected void setUp() throws Exception {
+        ProgramAST program = TestCaseUtil.analyzedProgram(CODE);
+        hoister = new LoopInvariantHoister();
+        hoister.optimize(program);
+        method = TestCaseUtil.method(program, 0, 3);
+    }
+
+    private IterationAST loop(int index) {
+        return (IterationAST)method.getInstructions().getInstructions().get(index);
+    }
+
+    public void testInvariantsAreMoved() {
+        IterationAST loop = loop(0);
+        // the rhs of "or else" may only be moved if it can't fail
+        assertEquals("((i > loop$1) or else (i > loop$2))", loop.getUntil().toString());
+        // parameters may be void, so "n * 3" can't be moved out of the body
+        AssignmentAST assignment = (AssignmentAST)loop.getLoop().getInstructions().get(0);
+        assertEquals("((i * loop$3) + (n * 3))", assignment.getExpression().toString());
+        assertEquals(3, hoister.getHoistedExpressions());
+
+        // computed at the end of the from part
+        List<InstructionAST> from = loop.getFrom().getInstructions();
+        assertEquals(4, from.size());
+        assertEquals("loop$1", ((AssignmentAST)from.get(1)).getIdentifier().getText());
+        assertEquals("(n * 2)", ((AssignmentAST)from.get(1)).getExpression().toString());
+        assertEquals("(LIMIT + 1)", ((AssignmentAST)from.get(2)).getExpression().toString());
+        assertEquals("(LIMIT - 1)", ((AssignmentAST)from.get(3)).getExpression().toString());
+
+        // declared in the enclosing block
+        List<VariableDeclAST> decls = method.getInstructions().getLocalDecls();
+        assertEquals(3, decls.size());
+        assertEquals("loop$3", decls.get(2).getName().getText());
+    }
+
+    public void testFieldsChangedByCalls() {
+        IterationAST loop = loop(1);
+        assertEquals("(i > (count + 1))", loop.getUntil().toString());
+        assertNull(loop.getFrom());
+    }
+
+}
@@ -0,0 +1,215 @@
+package minieiffel.opt;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+import minieiffel.TestCaseUtil;
+import minieiffel.ast.AssignmentAST;
+import minieiffel.ast.InstructionAST;
+import minieiffel.ast.IterationAST;
+import minieiffel.ast.MethodAST;
+import minieiffel.ast.ProgramAST;
+
+/**
+ * Tests the {@link LoopUnroller}.
+ */
+public class LoopUnrollerTestCase extends TestCase {
+
+    private static final String CODE =
+        "class Unroll\n" +
+        "feature\n" +
+        "  N : INTEGER is 10\n" +
+        "  small : INTEGER is\n" +
+        "  local\n" +
+        "    i : INTEGER\n" +
+        "  do\n" +
+        "    from\n" +
+        "      do\n" +
+        "        i := 1\n" +
+        "      end\n" +
+        "    until\n" +
+        "      i > 3\n" +
+        "    loop\n" +
+        "      do\n" +
+        "        result := result + i * 2\n" +
+        "        i := i + 1\n" +
+        "      end\n" +
+        "    end\n" +
+        "  end\n" +
+        "  constant : INTEGER is\n" +
+        "  local\n" +
+        "    i : INTEGER\n" +
+        "  do\n" +
+        "    from\n" +
+        "      do\n" +
+        "        i := 0\n" +
+        "      end\n" +
+        "    until\n" +
+        "      i = N\n" +
+        "    loop\n" +
+        "      do\n" +
+        "        result := result + i\n" +
+        "        i := i + 1\n" +
+        "      end\n" +
+        "    end\n" +
+        "  end\n" +
+        "  variable(n : INTEGER) : INTEGER is\n" +
+        "  local\n" +
+        "    i : INTEGER\n" +
+        "  do\n" +
+        "    from\n" +
+        "      do\n" +
+        "        i := 0\n" +
+        "      end\n" +
+        "    until\n" +
+        "      i >= n\n" +
+        "    loop\n" +
+        "      do\n" +
+        "        result := result + i\n" +
+        "        i := 1 + i\n" +
+        "      end\n" +
+        "    end\n" +
+        "  end\n" +
+        "  unknown(n : INTEGER) : INTEGER is\n" +
+        "  local\n" +
+        "    i : INTEGER\n" +
+        "  do\n" +
+        "    from\n" +
+        "      do\n" +
+        "        i := 0\n" +
+        "      end\n" +
+        "    until\n" +
+        "      i = n\n" +
+        "    loop\n" +
+        "      do\n" +
+        "        result := result + i\n" +
+        "        i := i + 1\n" +
+        "      end\n" +
+        "    end\n" +
+        "    from\n" +
+        "      do\n" +
+        "        i := 0\n" +
+        "      end\n" +
+        "    until\n" +
+        "      i > 5\n" +
+        "    loop\n" +
+        "      do\n" +
+        "        i := i + 1\n" +
+        "        result := result + i\n" +
+        "      end\n" +
+        "    end\n" +
+        "  end\n" +
+        "  c : INTEGER\n" +
+        "  bump is\n" +
+        "  do\n" +
+        "    c := c + 3\n" +
+        "  end\n" +
+        "  field : INTEGER is\n" +
+        "  do\n" +
+        "    from\n" +
+        "      do\n" +
+        "        c := 0\n" +
+        "      end\n" +
+        "    until\n" +
+        "      c >= 6\n" +
+        "    loop\n" +
+        "      do\n" +
+        "        result := result + 1\n" +
+        "        bump()\n" +
+        "        c := c + 1\n" +
+        "      end\n" +
+        "    end\n" +
+        "  end\n" +
+        "end\n";
+
+    private ProgramAST program;
+    private LoopUnroller unroller;
+
+    protected void setUp() throws Exception {
+        program = TestCaseUtil.analyzedProgram(CODE);
+        unroller = new LoopUnroller();
+    }
+
+    private List<InstructionAST> instructions(int method) {
+        MethodAST m = TestCaseUtil.method(program, 0, method);
+        return m.getInstructions().getInstructions();
+    }
+
+    public void testFullUnrolling() {
+        unroller.optimize(program);
+        List<InstructionAST> instructions = instructions(1);
+        // "i := 1", three rounds and the final value of i
+        assertEquals(5, instructions.size());
+        assertEquals("(result + (1 * 2))", ((AssignmentAST)instructions.get(1)).getExpression().toString());
+        assertEquals("(result + (3 * 2))", ((AssignmentAST)instructions.get(3)).getExpression().toString());
+        AssignmentAST last = (AssignmentAST)instructions.get(4);
+        assertEquals("i", last.getIdentifier().getText());
+        assertEquals("4", last.getExpression().toString());
+    }
+
+    public void testPartialUnrolling() {
+        unroller.optimize(program);
+        List<InstructionAST> instructions = instructions(2);
+        // 10 rounds: 2 * 4 in the loop, 2 after it
+        assertEquals(4, instructions.size());
+        IterationAST loop = (IterationAST)instructions.get(0);
+        assertEquals("(i >= 8)", loop.getUntil().toString());
+        assertEquals(8, loop.getLoop().getInstructions().size());
+        assertEquals("(result + 8)", ((AssignmentAST)instructions.get(1)).getExpression().toString());
+        assertEquals("(result + 9)", ((AssignmentAST)instructions.get(2)).getExpression().toString());
+        assertEquals("10", ((AssignmentAST)instructions.get(3)).getExpression().toString());
+    }
+
+    public void testRemainderLoop() {
+        unroller.setFactor(2);
+        unroller.optimize(program);
+        List<InstructionAST> instructions = instructions(3);
+        assertEquals(2, instructions.size());
+        IterationAST loop = (IterationAST)instructions.get(0);
+        assertEquals("((i >= n) or else ((n - i) < 2))", loop.getUntil().toString());
+        assertEquals(4, loop.getLoop().getInstructions().size());
+        IterationAST remainder = (IterationAST)instructions.get(1);
+        assertNull(remainder.getFrom());
+        assertEquals("(i >= n)", remainder.getUntil().toString());
+    }
+
+    public void testLoopsNotUnrolled() {
+        unroller.optimize(program);
+        List<InstructionAST> instructions = instructions(4);
+        // "i = n" might be passed by an unrolled loop
+        assertTrue(instructions.get(0) instanceof IterationAST);
+        // i isn't incremented at the end of the body
+        assertTrue(instructions.get(1) instanceof IterationAST);
+        assertEquals(3, unroller.getUnrolledLoops());
+    }
+
+    public void testFieldCounterChangedByCalls() {
+        unroller.optimize(program);
+        // bump changes the counter too
+        List<InstructionAST> instructions = instructions(7);
+        assertEquals(1, instructions.size());
+        assertTrue(instructions.get(0) instanceof IterationAST);
+        assertEquals(3, unroller.getUnrolledLoops());
+    }
+
+    public void testLimits() {
+        unroller.setFullUnrollLimit(2);
+        unroller.setSizeBudget(20);
+        unroller.optimize(program);
+        // three rounds are too few to unroll partially, ten rounds exceed the budget
+        assertTrue(instructions(1).get(0) instanceof IterationAST);
+        assertTrue(instructions(2).get(0) instanceof IterationAST);
+        assertEquals(1, instructions(2).size());
+        assertEquals(0, unroller.getUnrolledLoops());
+    }
+
+    public void testInvalidFactor() {
+        try {
+            unroller.setFactor(1);
+            fail("Factor 1 accepted");
+        } catch (IllegalArgumentException e) {
+            // ok
+        }
+    }
+
+}
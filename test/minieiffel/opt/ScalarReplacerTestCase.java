@@ -0,0 +1,123 @@
+package minieiffel.opt;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+import minieiffel.TestCaseUtil;
+import minieiffel.ast.AssignmentAST;
+import minieiffel.ast.ConditionalAST;
+import minieiffel.ast.ConstructionAST;
+import minieiffel.ast.InstructionAST;
+import minieiffel.ast.InstructionsAST;
+import minieiffel.ast.IterationAST;
+import minieiffel.ast.ProgramAST;
+import minieiffel.ast.VariableDeclAST;
+
+/**
+ * Tests the {@link ScalarReplacer}.
+ */
+public class ScalarReplacerTestCase extends TestCase {
+
+    private static final String CODE =
+        "class Pair\n" +
+        "feature\n" +
+        "  first : INTEGER\n" +
+        "  second : Pair\n" +
+        "  LIMIT : INTEGER is 7\n" +
+        "  set(x : INTEGER) is\n" +
+        "  do\n" +
+        "    first := x\n" +
+        "  end\n" +
+        "end\n" +
+        "class Scalars\n" +
+        "feature\n" +
+        "  kept : Pair\n" +
+        "  sum(n : INTEGER) : INTEGER is\n" +
+        "  local\n" +
+        "    i : INTEGER\n" +
+        "  do\n" +
+        "    from\n" +
+        "      do\n" +
+        "        i := 0\n" +
+        "      end\n" +
+        "    until\n" +
+        "      i = n\n" +
+        "    loop\n" +
+        "      do\n" +
+        "        local\n" +
+        "          p : Pair\n" +
+        "        !! p\n" +
+        "        result := result + p.first + p.LIMIT\n" +
+        "        if p.second = void then\n" +
+        "          do\n" +
+        "            i := i + 1\n" +
+        "          end\n" +
+        "        end\n" +
+        "      end\n" +
+        "    end\n" +
+        "  end\n" +
+        "  escaping(x : INTEGER) : INTEGER is\n" +
+        "  local\n" +
+        "    a, b, c, d : Pair\n" +
+        "  do\n" +
+        "    !! a\n" +
+        "    a.set(x)\n" +
+        "    !! b\n" +
+        "    kept := b\n" +
+        "    !! c\n" +
+        "    result := count(c)\n" +
+        "    if d /= void then\n" +
+        "      do\n" +
+        "        !! d\n" +
+        "      end\n" +
+        "    end\n" +
+        "    result := result + a.first + d.first\n" +
+        "  end\n" +
+        "  count(p : Pair) : INTEGER is\n" +
+        "  do\n" +
+        "    result := p.first\n" +
+        "  end\n" +
+        "end\n";
+
+    private ProgramAST program;
+    private ScalarReplacer replacer;
+
+    protected void setUp() throws Exception {
+        program = TestCaseUtil.analyzedProgram(CODE);
+        replacer = new ScalarReplacer();
+    }
+
+    public void testReplacement() {
+        replacer.optimize(program);
+        IterationAST loop = (IterationAST)TestCaseUtil.method(program, 1, 1).getInstructions().getInstructions().get(0);
+        InstructionsAST body = loop.getLoop();
+        List<InstructionAST> instructions = body.getInstructions();
+        // the construction is gone, the fields are read from locals
+        assertEquals(2, instructions.size());
+        assertEquals("(result + (p$first + 7))", ((AssignmentAST)instructions.get(0)).getExpression().toString());
+        assertEquals("(p$second = void)", ((ConditionalAST)instructions.get(1)).getIfStatement().getGuard().toString());
+        List<VariableDeclAST> decls = body.getLocalDecls();
+        assertEquals(2, decls.size());
+        assertEquals("p$first", decls.get(0).getName().getText());
+        assertEquals("p$second", decls.get(1).getName().getText());
+        assertEquals(1, replacer.getReplacedObjects());
+    }
+
+    public void testEscapes() {
+        replacer.optimize(program);
+        // a method is called on a, b is stored to a field, c is passed
+        // as an argument and d may be void when its field is read
+        int constructions = 0;
+        for (InstructionAST instruction : TestCaseUtil.method(program, 1, 2).getInstructions().getInstructions()) {
+            if(instruction instanceof ConstructionAST) {
+                constructions++;
+            }
+        }
+        assertEquals(3, constructions);
+        assertEquals(4, TestCaseUtil.method(program, 1, 2).getLocalVariableDecls().size());
+        assertTrue(TestCaseUtil.method(program, 1, 2).getInstructions().getLocalDecls().isEmpty());
+        // (only the pair of sum is replaced)
+        assertEquals(1, replacer.getReplacedObjects());
+    }
+
+}
@@ -0,0 +1,106 @@
+package minieiffel.opt;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+import minieiffel.TestCaseUtil;
+import minieiffel.ast.AssignmentAST;
+import minieiffel.ast.InstructionAST;
+import minieiffel.ast.IterationAST;
+import minieiffel.ast.MethodAST;
+import minieiffel.ast.ProgramAST;
+import minieiffel.ast.VariableDeclAST;
+
+/**
+ * Tests the {@link StrengthReducer}.
+ */
+public class StrengthReducerTestCase extends TestCase {
+
+    private static final String CODE =
+        "class Reduce\n" +
+        "feature\n" +
+        "  test(n : INTEGER) : INTEGER is\n" +
+        "  local\n" +
+        "    i, j : INTEGER\n" +
+        "  do\n" +
+        "    from\n" +
+        "      do\n" +
+        "        i := 0\n" +
+        "      end\n" +
+        "    until\n" +
+        "      i * 3 > n\n" +
+        "    loop\n" +
+        "      do\n" +
+        "        result := result + 3 * i + i * 5\n" +
+        "        i := i + 2\n" +
+        "        result := result + i * 5\n" +
+        "      end\n" +
+        "    end\n" +
+        "    from\n" +
+        "      do\n" +
+        "        j := 0\n" +
+        "      end\n" +
+        "    until\n" +
+        "      j = n\n" +
+        "    loop\n" +
+        "      do\n" +
+        "        result := result + j * 4\n" +
+        "        if result > 100 then\n" +
+        "          do\n" +
+        "            j := n\n" +
+        "          end\n" +
+        "        end\n" +
+        "        j := j + 1\n" +
+        "      end\n" +
+        "    end\n" +
+        "  end\n" +
+        "end\n";
+
+    private MethodAST method;
+    private StrengthReducer reducer;
+
+    protected void setUp() throws Exception {
+        ProgramAST program = TestCaseUtil.analyzedProgram(CODE);
+        method = TestCaseUtil.method(program, 0, 0);
+        reducer = new StrengthReducer();
+        reducer.optimize(program);
+    }
+
+    private IterationAST loop(int index) {
+        return (IterationAST)method.getInstructions().getInstructions().get(index);
+    }
+
+    public void testProductsAreReplaced() {
+        IterationAST loop = loop(0);
+        assertEquals("(iv$1 > n)", loop.getUntil().toString());
+        List<InstructionAST> body = loop.getLoop().getInstructions();
+        assertEquals(5, body.size());
+        // equal products share a variable
+        assertEquals("(result + (iv$1 + iv$2))", ((AssignmentAST)body.get(0)).getExpression().toString());
+        assertEquals("(result + iv$2)", ((AssignmentAST)body.get(4)).getExpression().toString());
+        assertEquals(4, reducer.getReducedMultiplications());
+
+        // updated right after the induction variable...
+        assertEquals("iv$1", ((AssignmentAST)body.get(2)).getIdentifier().getText());
+        assertEquals("(iv$1 + 6)", ((AssignmentAST)body.get(2)).getExpression().toString());
+        assertEquals("(iv$2 + 10)", ((AssignmentAST)body.get(3)).getExpression().toString());
+
+        // ...and set at the end of the from part
+        List<InstructionAST> from = loop.getFrom().getInstructions();
+        assertEquals(3, from.size());
+        assertEquals("(i * 3)", ((AssignmentAST)from.get(1)).getExpression().toString());
+        assertEquals("(i * 5)", ((AssignmentAST)from.get(2)).getExpression().toString());
+
+        // declared in the enclosing block
+        List<VariableDeclAST> decls = method.getInstructions().getLocalDecls();
+        assertEquals(2, decls.size());
+        assertEquals("iv$2", decls.get(1).getName().getText());
+    }
+
+    public void testVariablesAssignedTwice() {
+        IterationAST loop = loop(1);
+        assertEquals(3, loop.getLoop().getInstructions().size());
+        assertEquals(1, loop.getFrom().getInstructions().size());
+    }
+
+}
@@ -0,0 +1,197 @@
+package minieiffel.semantics;
+
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+import minieiffel.Lexer;
+import minieiffel.Parser;
+import minieiffel.Source;
+import minieiffel.TestCaseUtil;
+import minieiffel.ast.ProgramAST;
+
+/**
+ * Tests the fused traversal of method bodies by analyzing whole
+ * programs with it, and checks that it gives the same results as
+ * the visitor-based traversal.
+ */
+public class FusedSemanticAnalyzerTestCase extends TestCase {
+
+    private static final String LOOPS =
+        "class Loops\n" +
+        "feature\n" +
+        "  count(n : INTEGER) : INTEGER is\n" +
+        "  local\n" +
+        "    i : INTEGER\n" +
+        "  do\n" +
+        "    from\n" +
+        "      do\n" +
+        "        i := 0.5\n" +
+        "      end\n" +
+        "    until\n" +
+        "      i + n\n" +
+        "    loop\n" +
+        "      do\n" +
+        "        i := i + 1\n" +
+        "        result := true\n" +
+        "      end\n" +
+        "    end\n" +
+        "  end\n" +
+        "end\n";
+
+    private static final String CONDITIONALS =
+        "class Conditionals\n" +
+        "feature\n" +
+        "  pick(n : INTEGER) : INTEGER is\n" +
+        "  do\n" +
+        "    if n then\n" +
+        "      do\n" +
+        "        result := 'c'\n" +
+        "      end\n" +
+        "    elseif n = 1 then\n" +
+        "      do\n" +
+        "        result := nothing\n" +
+        "      end\n" +
+        "    else\n" +
+        "      do\n" +
+        "        result := 2.5\n" +
+        "      end\n" +
+        "    end\n" +
+        "  end\n" +
+        "end\n";
+
+    private static final String VALID =
+        "class Valid\n" +
+        "feature\n" +
+        "  sum(n : INTEGER) : INTEGER is\n" +
+        "  local\n" +
+        "    i : INTEGER\n" +
+        "  do\n" +
+        "    from\n" +
+        "      do\n" +
+        "        i := 0\n" +
+        "      end\n" +
+        "    until\n" +
+        "      i = n\n" +
+        "    loop\n" +
+        "      do\n" +
+        "        local\n" +
+        "          twice : INTEGER\n" +
+        "        twice := i * 2\n" +
+        "        if twice > n then\n" +
+        "          do\n" +
+        "            result := result + twice\n" +
+        "          end\n" +
+        "        else\n" +
+        "          do\n" +
+        "            result := result - 1\n" +
+        "          end\n" +
+        "        end\n" +
+        "        i := i + 1\n" +
+        "      end\n" +
+        "    end\n" +
+        "  end\n" +
+        "end\n";
+
+    private DefaultSemanticAnalyzer analyze(Reader reader, boolean fused) {
+        ProgramAST program = new Parser(new Lexer(new Source(reader))).handleProgram();
+        DefaultSemanticAnalyzer analyzer = new DefaultSemanticAnalyzer();
+        analyzer.setFusedTraversal(fused);
+        analyzer.analyze(program);
+        return analyzer;
+    }
+
+    private DefaultSemanticAnalyzer analyze(String code, boolean fused) {
+        return analyze(new StringReader(code), fused);
+    }
+
+    private DefaultSemanticAnalyzer analyzeFile(String file, boolean fused)
+            throws FileNotFoundException {
+        return analyze(new FileReader("test/examples/" + file), fused);
+    }
+
+    /**
+     * Returns the messages of the errors found in any order.
+     */
+    private List<String> sortedMessages(List<SemanticError> errors) {
+        List<String> messages = new ArrayList<String>();
+        for (SemanticError error : errors) {
+            messages.add(error.getMessage());
+        }
+        Collections.sort(messages);
+        return messages;
+    }
+
+    public void testLoopChecksFromBeforeUntil() {
+        DefaultSemanticAnalyzer fused = analyze(LOOPS, true);
+        TestCaseUtil.assertListContents(
+                fused.getErrors(),
+                new SemanticError("Can't assign REAL value to variable of type INTEGER", null),
+                new SemanticError("\"until\" must be of type BOOLEAN", null),
+                new SemanticError("Can't assign BOOLEAN value to variable of type INTEGER", null)
+        );
+        // the visitor checks the until condition first
+        assertEquals(
+                sortedMessages(analyze(LOOPS, false).getErrors()),
+                sortedMessages(fused.getErrors())
+        );
+    }
+
+    public void testConditionalChecksGuardsBeforeBranches() {
+        DefaultSemanticAnalyzer fused = analyze(CONDITIONALS, true);
+        TestCaseUtil.assertListContents(
+                fused.getErrors(),
+                new SemanticError("\"if\" must be of type BOOLEAN", null),
+                new SemanticError("Can't assign CHARACTER value to variable of type INTEGER", null),
+                new SemanticError("No variable \"nothing\" defined in class \"Conditionals\"", null),
+                new SemanticError("Can't assign REAL value to variable of type INTEGER", null)
+        );
+        assertEquals(
+                sortedMessages(analyze(CONDITIONALS, false).getErrors()),
+                sortedMessages(fused.getErrors())
+        );
+    }
+
+    public void testValidProgram() {
+        DefaultSemanticAnalyzer fused = analyze(VALID, true);
+        assertTrue(fused.getErrors().toString(), fused.getErrors().isEmpty());
+        assertEquals(
+                analyze(VALID, false).getInference().getInferredCount(),
+                fused.getInference().getInferredCount()
+        );
+    }
+
+    public void testFusedTraversalMatchesVisitor() throws FileNotFoundException {
+        String[] examples = {
+                "account.meif",
+                "bytecodetest.meif",
+                "example.meif",
+                "gcd-iterative.meif",
+                "gcd-recursive.meif",
+                "linkedlist.meif",
+                "none.meif",
+                "semantic_errors.meif"
+        };
+        for (String file : examples) {
+            DefaultSemanticAnalyzer visitor = analyzeFile(file, false);
+            DefaultSemanticAnalyzer fused = analyzeFile(file, true);
+            assertEquals(
+                    file,
+                    visitor.getErrors().toString(),
+                    fused.getErrors().toString()
+            );
+            assertEquals(
+                    file,
+                    visitor.getInference().getInferredCount(),
+                    fused.getInference().getInferredCount()
+            );
+        }
+        assertFalse(analyzeFile("semantic_errors.meif", true).getErrors().isEmpty());
+    }
+
+}
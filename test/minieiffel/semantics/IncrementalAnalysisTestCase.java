@@ -0,0 +1,207 @@
+package minieiffel.semantics;
+
+import java.io.StringReader;
+import java.util.List;
+
+import junit.framework.TestCase;
+import minieiffel.Lexer;
+import minieiffel.Parser;
+import minieiffel.Source;
+import minieiffel.TestCaseUtil;
+import minieiffel.ast.AssignmentAST;
+import minieiffel.ast.ClassAST;
+import minieiffel.ast.ExpressionAST;
+import minieiffel.ast.MethodAST;
+import minieiffel.ast.ProgramAST;
+
+/**
+ * Tests the incremental re-analysis of a program
+ * ({@link DefaultSemanticAnalyzer#reanalyze(ProgramAST)}).
+ */
+public class IncrementalAnalysisTestCase extends TestCase {
+
+    private static final String CLASS_A =
+        "class A\n" +
+        " feature\n" +
+        "  b : B\n" +
+        "  useB : INTEGER is\n" +
+        "  do\n" +
+        "    result := b.x + 1\n" +
+        "  end\n" +
+        "end\n";
+
+    private static final String CLASS_B =
+        "class B\n" +
+        " feature\n" +
+        "  x : INTEGER\n" +
+        "  setX(value : INTEGER) is\n" +
+        "  do\n" +
+        "    x := value\n" +
+        "  end\n" +
+        "end\n";
+
+    private static final String CLASS_C =
+        "class C\n" +
+        " feature\n" +
+        "  y : INTEGER\n" +
+        "  incY is\n" +
+        "  do\n" +
+        "    y := y + 1\n" +
+        "  end\n" +
+        "end\n";
+
+    private DefaultSemanticAnalyzer analyzer;
+    private ProgramAST program;
+
+    protected void setUp() {
+        program = createParser(CLASS_A + CLASS_B + CLASS_C).handleProgram();
+        analyzer = new DefaultSemanticAnalyzer();
+        analyzer.analyze(program);
+        assertTrue(analyzer.getErrors().isEmpty());
+    }
+
+    private Parser createParser(String code) {
+        Source source = new Source(new StringReader(code));
+        return new Parser(new Lexer(source));
+    }
+
+    /**
+     * Replaces the class at the given index with
+     * a freshly parsed one.
+     */
+    private void replaceClass(int index, String code) {
+        ClassAST klass = createParser(code).handleClassDef();
+        program.getClasses().set(index, klass);
+    }
+
+    private MethodAST method(int classIndex, int blockIndex, int featureIndex) {
+        return (MethodAST)program.getClasses().get(classIndex)
+                .getFeatureBlocks().get(blockIndex)
+                .getFeatures().get(featureIndex);
+    }
+
+    private ExpressionAST firstAssignedExpression(MethodAST method) {
+        return ((AssignmentAST)method.getInstructions()
+                .getInstructions().get(0)).getExpression();
+    }
+
+    public void testNothingChanged() {
+        List<MethodAST> rechecked = analyzer.reanalyze(program);
+        assertTrue(rechecked.isEmpty());
+        assertTrue(analyzer.getErrors().isEmpty());
+    }
+
+    public void testFirstReanalysisChecksEverything() {
+        DefaultSemanticAnalyzer fresh = new DefaultSemanticAnalyzer();
+        List<MethodAST> rechecked = fresh.reanalyze(program);
+        TestCaseUtil.assertListContents(
+                rechecked, method(0, 0, 1), method(1, 0, 1), method(2, 0, 1)
+        );
+    }
+
+    public void testChangedBodyOnlyRechecksItsClass() {
+        ExpressionAST useOfB = firstAssignedExpression(method(0, 0, 1));
+        replaceClass(1,
+                "class B\n" +
+                " feature\n" +
+                "  x : INTEGER\n" +
+                "  setX(value : INTEGER) is\n" +
+                "  do\n" +
+                "    x := value * 2\n" +
+                "  end\n" +
+                "end\n"
+        );
+        List<MethodAST> rechecked = analyzer.reanalyze(program);
+        TestCaseUtil.assertListContents(rechecked, method(1, 0, 1));
+        assertTrue(analyzer.getErrors().isEmpty());
+        // the body of A wasn't touched, its types are kept
+        assertSame(useOfB, firstAssignedExpression(method(0, 0, 1)));
+        assertEquals(Type.INTEGER, useOfB.getType());
+    }
+
+    public void testChangedSignatureRechecksDependentBodies() {
+        replaceClass(1,
+                "class B\n" +
+                " feature\n" +
+                "  x : BOOLEAN\n" +
+                "  setX(value : BOOLEAN) is\n" +
+                "  do\n" +
+                "    x := value\n" +
+                "  end\n" +
+                "end\n"
+        );
+        List<MethodAST> rechecked = analyzer.reanalyze(program);
+        TestCaseUtil.assertListContents(
+                rechecked, method(0, 0, 1), method(1, 0, 1)
+        );
+        TestCaseUtil.assertListContents(
+                analyzer.getErrors(),
+                new SemanticError("Operation '+' not defined for BOOLEAN, INTEGER", null)
+        );
+    }
+
+    public void testChangedVisibilityRechecksDependentBodies() {
+        replaceClass(1,
+                "class B\n" +
+                " feature {NONE}\n" +
+                "  x : INTEGER\n" +
+                " feature\n" +
+                "  setX(value : INTEGER) is\n" +
+                "  do\n" +
+                "    x := value\n" +
+                "  end\n" +
+                "end\n"
+        );
+        List<MethodAST> rechecked = analyzer.reanalyze(program);
+        assertEquals(2, rechecked.size());
+        TestCaseUtil.assertListContents(
+                analyzer.getErrors(),
+                new SemanticError("Variable \"x\" is not visible to class \"A\"", null)
+        );
+    }
+
+    public void testErrorsOfUnchangedBodiesAreKept() {
+        // break A, then change C: the error in A must survive
+        replaceClass(0,
+                "class A\n" +
+                " feature\n" +
+                "  b : B\n" +
+                "  useB : INTEGER is\n" +
+                "  do\n" +
+                "    result := b.nosuchthing\n" +
+                "  end\n" +
+                "end\n"
+        );
+        analyzer.reanalyze(program);
+        assertEquals(1, analyzer.getErrors().size());
+        replaceClass(2, CLASS_C);
+        List<MethodAST> rechecked = analyzer.reanalyze(program);
+        TestCaseUtil.assertListContents(rechecked, method(2, 0, 1));
+        TestCaseUtil.assertListContents(
+                analyzer.getErrors(),
+                new SemanticError("No variable \"nosuchthing\" defined in class \"B\"", null)
+        );
+        // fixing the missing feature in B rechecks A as well
+        replaceClass(1,
+                "class B\n" +
+                " feature\n" +
+                "  x : INTEGER\n" +
+                "  nosuchthing : INTEGER\n" +
+                "end\n"
+        );
+        rechecked = analyzer.reanalyze(program);
+        TestCaseUtil.assertListContents(rechecked, method(0, 0, 1));
+        assertTrue(analyzer.getErrors().isEmpty());
+    }
+
+    public void testRemovedClassRechecksDependentBodies() {
+        program.getClasses().remove(1);
+        List<MethodAST> rechecked = analyzer.reanalyze(program);
+        TestCaseUtil.assertListContents(rechecked, method(0, 0, 1));
+        TestCaseUtil.assertListContents(
+                analyzer.getErrors(),
+                new SemanticError("Can't find class \"B\"", null)
+        );
+    }
+
+}
@@ -0,0 +1,122 @@
+package minieiffel.semantics;
+
+import java.io.StringReader;
+
+import junit.framework.TestCase;
+import minieiffel.Lexer;
+import minieiffel.Parser;
+import minieiffel.Source;
+import minieiffel.ast.AssignmentAST;
+import minieiffel.ast.BinaryExpressionAST;
+import minieiffel.ast.ConditionalAST;
+import minieiffel.ast.ExpressionAST;
+import minieiffel.ast.InstructionAST;
+import minieiffel.ast.IterationAST;
+import minieiffel.ast.MethodAST;
+import minieiffel.ast.ProgramAST;
+
+/**
+ * Tests the nullness annotations added by the
+ * {@link NullnessAnalysis} (thru the semantic analyzer).
+ */
+public class NullnessAnalysisTestCase extends TestCase {
+
+    private static final String CODE =
+        "class Node\n" +
+        "feature\n" +
+        "  next : Node\n" +
+        "  SIZE : INTEGER is 3\n" +
+        "  find(n : Node) : Node is\n" +
+        "  local\n" +
+        "    a : Node\n" +
+        "    b : Node\n" +
+        "    c : Node\n" +
+        "    d : Node\n" +
+        "  do\n" +
+        "    a := n\n" +
+        "    if a = void then\n" +
+        "      do !! a end\n" +
+        "    end\n" +
+        "    b := a\n" +
+        "    if not (n = void) and then n.SIZE > 0 then\n" +
+        "      do b := n end\n" +
+        "    else\n" +
+        "      do b := next end\n" +
+        "    end\n" +
+        "    from\n" +
+        "      do c := void end\n" +
+        "    until\n" +
+        "      c /= void\n" +
+        "    loop\n" +
+        "      do !! c end\n" +
+        "    end\n" +
+        "    result := c\n" +
+        "  end\n" +
+        "end\n";
+
+    private MethodAST method;
+
+    protected void setUp() throws Exception {
+        ProgramAST program = new Parser(new Lexer(new Source(new StringReader(CODE)))).handleProgram();
+        DefaultSemanticAnalyzer analyzer = new DefaultSemanticAnalyzer();
+        analyzer.analyze(program);
+        assertTrue(analyzer.getErrors().toString(), analyzer.getErrors().isEmpty());
+        method = (MethodAST)program.getClasses().get(0).getFeatureBlocks().get(0).getFeatures().get(2);
+    }
+
+    private InstructionAST instruction(int index) {
+        return method.getInstructions().getInstructions().get(index);
+    }
+
+    private ExpressionAST assigned(InstructionAST instruction) {
+        return ((AssignmentAST)instruction).getExpression();
+    }
+
+    public void testAssignmentsAndGuards() {
+        // a := n (parameters may be void)
+        assertEquals(Nullness.MAYBE_VOID, assigned(instruction(0)).getNullness());
+        ConditionalAST first = (ConditionalAST)instruction(1);
+        BinaryExpressionAST guard = (BinaryExpressionAST)first.getIfStatement().getGuard();
+        assertEquals(Nullness.MAYBE_VOID, guard.getLhs().getNullness());
+        assertEquals(Nullness.ALWAYS_VOID, guard.getRhs().getNullness());
+        assertEquals(Nullness.NEVER_VOID, guard.getNullness());
+        // void in the then branch, but created there
+        assertEquals(Nullness.NEVER_VOID, assigned(instruction(2)).getNullness());
+    }
+
+    public void testNegatedAndCombinedGuards() {
+        ConditionalAST second = (ConditionalAST)instruction(3);
+        BinaryExpressionAST guard = (BinaryExpressionAST)second.getIfStatement().getGuard();
+        // constant of another class
+        BinaryExpressionAST size = (BinaryExpressionAST)((BinaryExpressionAST)guard.getRhs()).getLhs();
+        assertEquals(Nullness.NEVER_VOID, size.getNullness());
+        assertEquals(
+                Nullness.NEVER_VOID,
+                assigned(second.getIfStatement().getThen().getInstructions().get(0)).getNullness()
+        );
+        // fields may always be void
+        assertEquals(
+                Nullness.MAYBE_VOID,
+                assigned(second.getElseStatement().getInstructions().get(0)).getNullness()
+        );
+    }
+
+    public void testLoops() {
+        IterationAST loop = (IterationAST)instruction(4);
+        // void on the first round only
+        BinaryExpressionAST until = (BinaryExpressionAST)loop.getUntil();
+        assertEquals(Nullness.MAYBE_VOID, until.getLhs().getNullness());
+        // not void after the loop
+        assertEquals(Nullness.NEVER_VOID, assigned(instruction(5)).getNullness());
+    }
+
+    public void testVariables() {
+        // the variables start out void
+        assertEquals(Nullness.MAYBE_VOID, method.getLocalVariableDecls().get(0).getNullness());
+        assertEquals(Nullness.MAYBE_VOID, method.getLocalVariableDecls().get(1).getNullness());
+        assertEquals(Nullness.MAYBE_VOID, method.getLocalVariableDecls().get(2).getNullness());
+        // never assigned
+        assertEquals(Nullness.ALWAYS_VOID, method.getLocalVariableDecls().get(3).getNullness());
+    }
+
+}
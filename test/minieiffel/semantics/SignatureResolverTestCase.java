@@ -287,4 +287,69 @@ public class SignatureResolverTestCase extends TestCase {
         assertEquals(Type.INTEGER, b.getType());
     }
     
+    /**
+     * Generates classes that reference each other (forwards and
+     * backwards), undefined classes and duplicate class names.
+     */
+    private String generateProgram(int classes) {
+        StringBuilder code = new StringBuilder();
+        for (int i = 0; i < classes; i++) {
+            // every seventh class redefines the previous one
+            int name = (i % 7 == 6 ? i - 1 : i);
+            code.append("class C").append(name).append('\n')
+                .append("feature {C").append((i + 1) % classes).append("}\n")
+                .append(" next : C").append((i + 1) % classes).append('\n')
+                .append(" previous(x : C").append((i + classes - 1) % classes)
+                .append(") : Missing").append(i % 3).append(" is\n")
+                .append(" broken : VOID\n")
+                .append("end\n");
+        }
+        return code.toString();
+    }
+    
+    public void testParallelResolvingIsDeterministic() {
+        String code = generateProgram(40);
+        DefaultSemanticAnalyzer serialErrors = new DefaultSemanticAnalyzer();
+        List<Signature> serial = new SignatureResolver(
+                serialErrors,
+                new Parser(new Lexer(new Source(new StringReader(code)))).handleProgram(),
+                1
+        ).resolveSignatures();
+        for (int round = 0; round < 5; round++) {
+            DefaultSemanticAnalyzer parallelErrors = new DefaultSemanticAnalyzer();
+            List<Signature> parallel = new SignatureResolver(
+                    parallelErrors,
+                    new Parser(new Lexer(new Source(new StringReader(code)))).handleProgram(),
+                    4
+            ).resolveSignatures();
+            assertEquals(serial.size(), parallel.size());
+            for (int i = 0; i < serial.size(); i++) {
+                Signature a = serial.get(i);
+                Signature b = parallel.get(i);
+                assertEquals(a.getClassAST().getType(), b.getClassAST().getType());
+                assertEquals(a.getVariables(), b.getVariables());
+                assertEquals(a.getMethods(), b.getMethods());
+                assertEquals(
+                        a.getMethods().get(0).getReturnType(),
+                        b.getMethods().get(0).getReturnType()
+                );
+            }
+            assertEquals(
+                    serialErrors.getErrors().toString(),
+                    parallelErrors.getErrors().toString()
+            );
+        }
+        // 5 duplicates and a VOID type in the remaining 35 classes
+        int duplicates = 0, voids = 0;
+        for (SemanticError error : serialErrors.getErrors()) {
+            if(error.getMessage().endsWith("already defined")) {
+                duplicates++;
+            } else if(error.getMessage().startsWith("\"VOID\"")) {
+                voids++;
+            }
+        }
+        assertEquals(5, duplicates);
+        assertEquals(35, voids);
+    }
+    
 }
@@ -21,6 +21,9 @@ public class TypeInferenceTestCase extends TestCase {
     private static final List<Type> EMPTY_TYPES = Collections.emptyList();
     
     private TypeInference inference;
+    
+    /** the expression inferred last by {@link #checkType(Type, String)} */
+    private ExpressionAST exprAST;
 
     private SemanticAnalyzer analyzerMock;
     private MockControl analyzerMockControl;
@@ -37,7 +40,7 @@ public class TypeInferenceTestCase extends TestCase {
                         new Source(new StringReader(expr))
                 )
         );
-        ExpressionAST exprAST = parser.handleExpression();
+        exprAST = parser.handleExpression();
         assertEquals(
                 "Wrong type for expression \"" + expr + "\"",
                 type,
@@ -403,4 +406,40 @@ public class TypeInferenceTestCase extends TestCase {
         analyzerMockControl.verify();
     }
     
+    public void testExpressionsAreInferredOnlyOnce() {
+        Type arbitrary = new Type("WHATEVER");
+        analyzerMock.resolveVariableType(null, TestCaseUtil.id("a"));
+        analyzerMockControl.setReturnValue(arbitrary);
+        analyzerMock.resolveVariableType(arbitrary, TestCaseUtil.id("b"));
+        analyzerMockControl.setReturnValue(arbitrary);
+        analyzerMock.resolveMethodType(
+                arbitrary,
+                TestCaseUtil.id("c"),
+                EMPTY_TYPES
+        );
+        analyzerMockControl.setReturnValue(Type.BOOLEAN);
+        analyzerMock.addError("Operation '+' not defined for BOOLEAN, INTEGER", new Token(Value.PLUS));
+        analyzerMockControl.replay();
+        checkType(null, "a.b.c() + 1");
+        // the same subtree again: nothing is resolved or reported twice
+        assertEquals(null, inference.inferType(exprAST));
+        // "+", "a.b.c()", "a.b", "a" and "1" (members are resolved by the dots)
+        assertEquals(5, inference.getInferredCount());
+        assertEquals(1, inference.getSkippedCount());
+        analyzerMockControl.verify();
+    }
+    
+    public void testInvalidatedExpressionsAreInferredAgain() {
+        analyzerMock.resolveVariableType(null, TestCaseUtil.id("x"));
+        analyzerMockControl.setReturnValue(Type.INTEGER);
+        analyzerMockControl.setReturnValue(Type.REAL);
+        analyzerMockControl.replay();
+        checkType(Type.INTEGER, "x * 2");
+        inference.invalidate();
+        assertEquals(Type.REAL, inference.inferType(exprAST));
+        assertEquals(6, inference.getInferredCount());
+        assertEquals(0, inference.getSkippedCount());
+        analyzerMockControl.verify();
+    }
+    
 }
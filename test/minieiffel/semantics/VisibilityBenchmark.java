@@ -0,0 +1,113 @@
+package minieiffel.semantics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import minieiffel.ast.FeatureAST;
+import minieiffel.ast.ProgramAST;
+
+/**
+ * Measures the visibility checks of the semantic analyzer with the
+ * program of {@link VisibilitySetsTestCase}: the bit test on the
+ * precomputed visibility sets against the scans of the visibility
+ * lists that it replaced, and the whole analysis. Run with
+ * <code>ant benchmark</code>, it isn't part of the unit tests since
+ * the timings depend on the machine.
+ */
+public class VisibilityBenchmark {
+
+    private static final int ROUNDS = 200;
+
+    public static void main(String[] args) {
+        String code = VisibilitySetsTestCase.generateProgram();
+        ProgramAST program = VisibilitySetsTestCase.parse(code);
+        new DefaultSemanticAnalyzer().analyze(program);
+        
+        // the features of each class and the types of the classes
+        List<List<FeatureAST>> features = new ArrayList<List<FeatureAST>>();
+        List<Type> types = new ArrayList<Type>();
+        int checks = 0;
+        for (int i = 0; i < program.getClasses().size(); i++) {
+            features.add(VisibilitySetsTestCase.features(program, i));
+            types.add(program.getClasses().get(i).getType());
+            checks += program.getClasses().size() * features.get(i).size();
+        }
+        
+        // both checks must give the same answers
+        if(bitTests(features) != listScans(features, types)) {
+            throw new IllegalStateException("The visibility checks disagree");
+        }
+        
+        // (the first rounds warm up the JIT compiler)
+        long bits = 0;
+        long lists = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            bitTests(features);
+            long middle = System.nanoTime();
+            listScans(features, types);
+            long end = System.nanoTime();
+            if(round >= ROUNDS / 2) {
+                bits += middle - start;
+                lists += end - middle;
+            }
+        }
+        int measured = ROUNDS - ROUNDS / 2;
+        System.out.println(checks + " visibility checks per round");
+        System.out.println("Visibility sets:  " + (bits / measured / checks) + " ns per check");
+        System.out.println("Visibility lists: " + (lists / measured / checks) + " ns per check");
+        
+        long analysis = 0;
+        for (int round = 0; round < ROUNDS / 10; round++) {
+            ProgramAST fresh = VisibilitySetsTestCase.parse(code);
+            long start = System.nanoTime();
+            new DefaultSemanticAnalyzer().analyze(fresh);
+            analysis += System.nanoTime() - start;
+        }
+        System.out.println(
+                "Analysis of " + VisibilitySetsTestCase.CLASSES + " classes with " +
+                VisibilitySetsTestCase.BLOCKS + " feature blocks: " +
+                (analysis / (ROUNDS / 10) / 1000) + " us"
+        );
+    }
+    
+    /**
+     * Counts the features visible to each class with the bit
+     * tests of the analyzer (class n of the program has id n + 1).
+     */
+    private static int bitTests(List<List<FeatureAST>> features) {
+        int visible = 0;
+        for (List<FeatureAST> owned : features) {
+            for (FeatureAST feature : owned) {
+                for (int id = 1; id <= features.size(); id++) {
+                    if(feature.getVisibilitySet().get(id)) {
+                        visible++;
+                    }
+                }
+            }
+        }
+        return visible;
+    }
+    
+    /**
+     * Counts the features visible to each class by scanning the
+     * visibility lists, as the analyzer did before the sets.
+     */
+    private static int listScans(List<List<FeatureAST>> features, List<Type> types) {
+        int visible = 0;
+        for (int i = 0; i < features.size(); i++) {
+            Type owner = types.get(i);
+            for (FeatureAST feature : features.get(i)) {
+                for (Type current : types) {
+                    if(current.equals(owner) ||
+                            feature.getVisibility().contains(current) ||
+                            feature.getVisibility().contains(Type.ANY)) {
+                        visible++;
+                    }
+                }
+            }
+        }
+        return visible;
+    }
+
+}
@@ -0,0 +1,102 @@
+package minieiffel.semantics;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import junit.framework.TestCase;
+import minieiffel.Lexer;
+import minieiffel.Parser;
+import minieiffel.Source;
+import minieiffel.ast.FeatureAST;
+import minieiffel.ast.FeatureBlockAST;
+import minieiffel.ast.ProgramAST;
+
+/**
+ * Tests the visibility checks of the semantic analyzer with a
+ * generated program that consists of many classes, each of which
+ * has many <code>feature {A, B, C}</code> blocks.
+ */
+public class VisibilitySetsTestCase extends TestCase {
+
+    static final int CLASSES = 50;
+    static final int BLOCKS = 20;
+
+    /**
+     * Generates a program in which class <em>Cn</em> exports its
+     * variables to the classes <em>Cn+1</em>, <em>Cn+2</em> and
+     * <em>Cn+3</em>. Each class reads all the variables of the
+     * preceding class (which is allowed) and of the class four
+     * steps ahead (which isn't).
+     */
+    static String generateProgram() {
+        StringBuilder code = new StringBuilder();
+        for (int i = 0; i < CLASSES; i++) {
+            code.append("class ").append(className(i)).append('\n');
+            for (int j = 0; j < BLOCKS; j++) {
+                code.append(" feature {")
+                    .append(className(i + 1)).append(", ")
+                    .append(className(i + 2)).append(", ")
+                    .append(className(i + 3)).append("}\n");
+                code.append("  v").append(j).append(" : INTEGER\n");
+            }
+            code.append(" feature\n");
+            code.append("  previous : ").append(className(i - 1)).append('\n');
+            code.append("  ahead : ").append(className(i + 4)).append('\n');
+            code.append("  probe : INTEGER is\n");
+            code.append("  do\n");
+            for (int j = 0; j < BLOCKS; j++) {
+                code.append("    result := previous.v").append(j)
+                    .append(" + ahead.v").append(j).append('\n');
+            }
+            code.append("  end\n");
+            code.append("end\n");
+        }
+        return code.toString();
+    }
+
+    private static String className(int index) {
+        return "C" + ((index + CLASSES) % CLASSES);
+    }
+
+    static ProgramAST parse(String code) {
+        Source source = new Source(new StringReader(code));
+        return new Parser(new Lexer(source)).handleProgram();
+    }
+
+    public void testManyRestrictedFeatureBlocks() {
+        ProgramAST program = parse(generateProgram());
+        DefaultSemanticAnalyzer analyzer = new DefaultSemanticAnalyzer();
+        analyzer.analyze(program);
+        // every access to the class ahead is an error
+        assertEquals(CLASSES * BLOCKS, analyzer.getErrors().size());
+        assertEquals(
+                new SemanticError("Variable \"v0\" is not visible to class \"C0\"", null),
+                analyzer.getErrors().get(0)
+        );
+        
+        // C1 sees the restricted variables of C0 but C0 doesn't see those of C1
+        FeatureAST restricted = features(program, 0).get(0);
+        assertTrue(restricted.getVisibilitySet().get(2));
+        assertFalse(features(program, 1).get(0).getVisibilitySet().get(1));
+        
+        // the features visible to all classes share one set
+        BitSet visibleToAll = features(program, 0).get(BLOCKS).getVisibilitySet();
+        assertEquals(CLASSES + 1, visibleToAll.cardinality());
+        assertSame(visibleToAll, features(program, 0).get(BLOCKS + 2).getVisibilitySet());
+        assertSame(visibleToAll, features(program, CLASSES - 1).get(BLOCKS).getVisibilitySet());
+    }
+    
+    /**
+     * Returns the features of the class with the given index in order.
+     */
+    static List<FeatureAST> features(ProgramAST program, int index) {
+        List<FeatureAST> features = new ArrayList<FeatureAST>();
+        for (FeatureBlockAST block : program.getClasses().get(index).getFeatureBlocks()) {
+            features.addAll(block.getFeatures());
+        }
+        return features;
+    }
+
+}